@@ -19,10 +19,15 @@
  */
 package org.apache.directory.fortress.rest;
 
+import java.util.Collections;
+
 import org.apache.log4j.Logger;
 import org.apache.directory.fortress.core.GlobalErrIds;
 import org.apache.directory.fortress.core.SecurityException;
+import org.apache.directory.fortress.core.model.FortRequest;
 import org.apache.directory.fortress.core.model.FortResponse;
+import org.apache.directory.fortress.core.model.PermObj;
+import org.apache.directory.fortress.core.model.Permission;
 
 /**
  * An abstract class containing some methods shared by all the implementations.
@@ -60,4 +65,72 @@ abstract class AbstractMgrImpl
 
         return response;
     }
+
+
+    /**
+     * Return a count, as the only element of {@link FortResponse#values}.
+     *
+     * @param response The response to fill
+     * @param count The count
+     */
+    protected void setCount( FortResponse response, int count )
+    {
+        response.setValues( Collections.singletonList( String.valueOf( count ) ) );
+    }
+
+
+    /**
+     * Must be called after a successful write so the cached copies of the entity are dropped, its version
+     * incremented and the change published to the feed, see {@link PolicyChanges}.
+     *
+     * @param request The write request, gives the tenant
+     * @param type The type of the modified entity
+     * @param op The kind of write
+     * @param keyParts The attribute values identifying the entity, see {@link EntityType#key}
+     */
+    protected void entityChanged( FortRequest request, EntityType type, ChangeOp op, String... keyParts )
+    {
+        PolicyChanges.publish( request.getContextId(), type, EntityType.key( keyParts ),
+            EntityType.name( keyParts ), op );
+    }
+
+
+    /**
+     * Must be called after a successful write to a permission.
+     *
+     * @param request The write request, gives the tenant
+     * @param op The kind of write
+     * @param perm The modified permission
+     */
+    protected void entityChanged( FortRequest request, ChangeOp op, Permission perm )
+    {
+        PolicyChanges.publish( request.getContextId(), EntityType.PERMISSION, EntityType.key( perm ),
+            EntityType.name( perm ), op );
+    }
+
+
+    /**
+     * Must be called after a successful write to a permission object.
+     *
+     * @param request The write request, gives the tenant
+     * @param op The kind of write
+     * @param obj The modified permission object
+     */
+    protected void entityChanged( FortRequest request, ChangeOp op, PermObj obj )
+    {
+        PolicyChanges.publish( request.getContextId(), EntityType.PERM_OBJ, EntityType.key( obj ),
+            EntityType.name( obj ), op );
+    }
+
+
+    /**
+     * Must be called after a successful write that modified an unknown number of entities of the given type.
+     *
+     * @param request The write request, gives the tenant
+     * @param type The type of the modified entities
+     */
+    protected void entitiesChanged( FortRequest request, EntityType type )
+    {
+        PolicyChanges.publish( request.getContextId(), type, null, null, ChangeOp.UPDATE );
+    }
 }
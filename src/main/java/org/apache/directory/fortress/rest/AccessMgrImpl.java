@@ -20,7 +20,7 @@
 package org.apache.directory.fortress.rest;
 
 import org.apache.directory.fortress.core.AccessMgr;
-import org.apache.directory.fortress.core.AccessMgrFactory;
+import org.apache.directory.fortress.core.FinderException;
 import org.apache.directory.fortress.core.GlobalErrIds;
 import org.apache.directory.fortress.core.SecurityException;
 import org.apache.directory.fortress.core.ant.RoleConstraintAnt;
@@ -52,15 +52,24 @@ class AccessMgrImpl extends AbstractMgrImpl
      * BEGIN ACCESSMGR
      * **************************************************************************************************************************************
      */
-    /* No qualifier */ FortResponse authenticate( FortRequest request )
+    /* No qualifier */ FortResponse authenticate( FortRequest request, String clientAddress )
     {
-        FortResponse response = createResponse();
+        final User inUser = (User) request.getEntity();
+        FortResponse response = LoginThrottle.getInstance().reject( request.getContextId(), inUser, clientAddress );
+
+        if ( response != null )
+        {
+            return response;
+        }
+
+        response = createResponse();
         
         try
         {
-            AccessMgr accessMgr = AccessMgrFactory.createInstance( request.getContextId() );
-            User inUser = (User) request.getEntity();
-            Session outSession = accessMgr.authenticate( inUser.getUserId(), inUser.getPassword() );
+            final AccessMgr accessMgr = DirectoryRouter.getInstance().accessMgr( request.getContextId() );
+            Session outSession = AuthCache.getInstance().authenticate( PolicyChanges.tenant( request.getContextId() ),
+                AuthCache.Kind.AUTHENTICATE, inUser,
+                () -> accessMgr.authenticate( inUser.getUserId(), inUser.getPassword() ) );
             response.setSession( outSession );
             response.setErrorCode( GlobalErrIds.NO_ERROR );
         }
@@ -68,6 +77,9 @@ class AccessMgrImpl extends AbstractMgrImpl
         {
             createError( response, LOG, se );
         }
+
+        LoginThrottle.getInstance().record( request.getContextId(), inUser, clientAddress, response );
+        journal( request, inUser, response );
         
         return response;
     }
@@ -77,11 +89,12 @@ class AccessMgrImpl extends AbstractMgrImpl
      * Creates an untrusted session
      * 
      * @param request The request We want to create a session for
+     * @param clientAddress The address of the client, used to throttle the failed authentications
      * @return The created response
      */
-    /* no qualifier*/ FortResponse createSession( FortRequest request )
+    /* no qualifier*/ FortResponse createSession( FortRequest request, String clientAddress )
     {
-        return createSession( request, UNTRUSTED );
+        return createSession( request, UNTRUSTED, clientAddress );
     }
 
     
@@ -93,7 +106,7 @@ class AccessMgrImpl extends AbstractMgrImpl
      */
     /* no qualifier*/ FortResponse createSessionTrusted( FortRequest request )
     {
-        return createSession( request, TRUSTED );
+        return createSession( request, TRUSTED, null );
     }
 
     /**
@@ -108,9 +121,10 @@ class AccessMgrImpl extends AbstractMgrImpl
 
         try
         {
-            AccessMgr accessMgr = AccessMgrFactory.createInstance( request.getContextId() );
+            AccessMgr accessMgr = DirectoryRouter.getInstance().accessMgr( request.getContextId() );
             Group inGroup = (Group) request.getEntity();
             Session outSession = accessMgr.createSession( inGroup );
+            SessionRegistry.getInstance().put( request.getContextId(), outSession );
             response.setSession( outSession );
         }
         catch ( SecurityException se )
@@ -127,23 +141,51 @@ class AccessMgrImpl extends AbstractMgrImpl
      * 
      * @param request The request We want to create a session for
      * @param trusted Is the session trusted or not
+     * @param clientAddress The address of the client, used to throttle the failed untrusted authentications
      * @return The created response
      */
-    private FortResponse createSession( FortRequest request, boolean trusted )
+    private FortResponse createSession( FortRequest request, boolean trusted, String clientAddress )
     {
-        FortResponse response = createResponse();
+        final User inUser = (User) request.getEntity();
+        FortResponse response = trusted ? null
+            : LoginThrottle.getInstance().reject( request.getContextId(), inUser, clientAddress );
+
+        if ( response != null )
+        {
+            return response;
+        }
+
+        response = createResponse();
         
         try
         {
-            AccessMgr accessMgr = AccessMgrFactory.createInstance( request.getContextId() );
-            User inUser = (User) request.getEntity();
-            Session outSession = accessMgr.createSession( inUser, trusted );
+            final AccessMgr accessMgr = DirectoryRouter.getInstance().accessMgr( request.getContextId() );
+            Session outSession;
+
+            if ( trusted )
+            {
+                outSession = accessMgr.createSession( inUser, true );
+            }
+            else
+            {
+                outSession = AuthCache.getInstance().authenticate( PolicyChanges.tenant( request.getContextId() ),
+                    AuthCache.Kind.SESSION, inUser, () -> accessMgr.createSession( inUser, false ) );
+            }
+
+            SessionRegistry.getInstance().put( request.getContextId(), outSession );
             response.setSession( outSession );
         }
         catch ( SecurityException se )
         {
             createError( response, LOG, se );
         }
+
+        if ( !trusted )
+        {
+            LoginThrottle.getInstance().record( request.getContextId(), inUser, clientAddress, response );
+        }
+
+        journal( request, inUser, response );
         
         return response;
     }
@@ -158,25 +200,75 @@ class AccessMgrImpl extends AbstractMgrImpl
     /* no qualifier*/ FortResponse checkAccess( FortRequest request )
     {
         FortResponse response = createResponse();
+        LastKnownGood lastKnownGood = LastKnownGood.getInstance();
+        Permission perm = (Permission)request.getEntity();
+        Session session = null;
         
         try
         {
-            AccessMgr accessMgr = AccessMgrFactory.createInstance( request.getContextId() );
-            Permission perm = (Permission)request.getEntity();
             perm.setAdmin( false );
-            Session session = request.getSession();
-            boolean result = accessMgr.checkAccess( session, perm );
-            response.setSession( session );
-            response.setAuthorized( result );
+            session = session( request );
+            boolean result = decide( request, session, perm );
+            lastKnownGood.decided( request.getContextId(), session, perm, result );
+            authorized( request, response, session, perm, result );
         }
         catch ( SecurityException se )
         {
-            createError( response, LOG, se );
+            // The directory is unreachable, the last decision read is used
+            Boolean result = lastKnownGood.unreachable( request.getContextId(), se )
+                ? lastKnownGood.decision( response, request.getContextId(), session, perm ) : null;
+
+            if ( result == null )
+            {
+                createError( response, LOG, se );
+            }
+            else
+            {
+                authorized( request, response, session, perm, result );
+            }
         }
         
         return response;
     }
 
+
+    /**
+     * Check a permission against the directory.
+     *
+     * @param request The request, gives the tenant
+     * @param session The user session
+     * @param perm The permission checked
+     * @return true if the permission is granted
+     * @throws SecurityException If the directory could not be read
+     */
+    private boolean decide( FortRequest request, Session session, Permission perm ) throws SecurityException
+    {
+        // No role can be active now, only a grant to the user itself could authorize
+        if ( TemporalConstraints.getInstance().noActiveRole( session )
+            && Boolean.FALSE.equals( isGrantedToUser( request, perm, session ) ) )
+        {
+            return false;
+        }
+
+        AccessMgr accessMgr = DirectoryRouter.getInstance().accessMgr( request.getContextId() );
+
+        return accessMgr.checkAccess( session, perm );
+    }
+
+
+    /**
+     * Fill the response of a checkAccess and journal the decision, see {@link AuditJournal}.
+     */
+    private void authorized( FortRequest request, FortResponse response, Session session, Permission perm,
+        boolean result )
+    {
+        response.setSession( session );
+        response.setAuthorized( result );
+        AuditJournal.getInstance().record( request.getContextId(), AuditJournal.Type.AUTHZ, session.getUserId(),
+            perm.getObjName() + '.' + perm.getOpName() + ( perm.getObjId() == null ? "" : '.' + perm.getObjId() ),
+            result );
+    }
+
     
     /**
      * Perform user RBAC authorization.
@@ -190,7 +282,7 @@ class AccessMgrImpl extends AbstractMgrImpl
 
         try
         {
-            AccessMgr accessMgr = AccessMgrFactory.createInstance( request.getContextId() );
+            AccessMgr accessMgr = DirectoryRouter.getInstance().accessMgr( request.getContextId() );
             Permission perm = (Permission)request.getEntity();
             perm.setAdmin( false );
             User user = (User) request.getEntity2();
@@ -207,6 +299,86 @@ class AccessMgrImpl extends AbstractMgrImpl
     }
 
 
+    /**
+     * Journal the outcome of an authentication, see {@link AuditJournal}.
+     *
+     * @param request The request
+     * @param inUser The user authenticated
+     * @param response The response of the authentication
+     */
+    private void journal( FortRequest request, User inUser, FortResponse response )
+    {
+        if ( inUser != null && response.getErrorCode() != RestErrIds.LOGIN_THROTTLED )
+        {
+            AuditJournal.getInstance().record( request.getContextId(), AuditJournal.Type.AUTHN, inUser.getUserId(),
+                null, response.getErrorCode() == GlobalErrIds.NO_ERROR );
+        }
+    }
+
+
+    /**
+     * Get the session of a request, read from the {@link SessionRegistry} when the request gives its sessionId only.
+     *
+     * @param request The request
+     * @return The session
+     * @throws SecurityException If the registry does not hold the session
+     */
+    private Session session( FortRequest request ) throws SecurityException
+    {
+        return SessionRegistry.getInstance().resolve( request.getContextId(), request.getSession() );
+    }
+
+
+    /**
+     * Tell whether a permission is granted to the user of a session directly, rather than through a role.  Only the
+     * permission held by the {@link EntityCache} is used, the precheck must not add a directory read.
+     *
+     * @param request The request, gives the tenant
+     * @param perm The permission checked
+     * @param session The user session
+     * @return true if the permission lists the user, false if it does not or does not exist, null if it is not cached
+     */
+    private Boolean isGrantedToUser( FortRequest request, Permission perm, Session session )
+    {
+        Permission outPerm;
+
+        try
+        {
+            outPerm = EntityCache.getInstance().peek( request.getContextId(), EntityType.PERMISSION,
+                EntityType.key( perm ) );
+        }
+        catch ( FinderException fe )
+        {
+            // fortress-core checkAccess answers false for an unknown permission
+            return false;
+        }
+
+        if ( outPerm == null )
+        {
+            return null;
+        }
+
+        Set<String> users = outPerm.getUsers();
+
+        if ( users == null || users.isEmpty() )
+        {
+            return false;
+        }
+
+        String userId = session.getUserId();
+
+        for ( String user : users )
+        {
+            if ( user.equalsIgnoreCase( userId ) )
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+
     /**
      * Perform user ROLE check.
      *
@@ -219,7 +391,7 @@ class AccessMgrImpl extends AbstractMgrImpl
 
         try
         {
-            AccessMgr accessMgr = AccessMgrFactory.createInstance( request.getContextId() );
+            AccessMgr accessMgr = DirectoryRouter.getInstance().accessMgr( request.getContextId() );
             Role role = (Role)request.getEntity();
             User user = (User) request.getEntity2();
             boolean isTrusted = request.getIsFlag();
@@ -239,17 +411,26 @@ class AccessMgrImpl extends AbstractMgrImpl
     {
         FortResponse response = createResponse();
         
+        LastKnownGood lastKnownGood = LastKnownGood.getInstance();
+        Session session = null;
+
         try
         {
-            AccessMgr accessMgr = AccessMgrFactory.createInstance( request.getContextId() );
-            Session session = request.getSession();
+            session = session( request );
+            AccessMgr accessMgr = DirectoryRouter.getInstance().accessMgr( request.getContextId() );
             List<Permission> perms = accessMgr.sessionPermissions( session );
+            lastKnownGood.permitted( request.getContextId(), session, perms );
             response.setSession( session );
             response.setEntities( perms );
         }
         catch ( SecurityException se )
         {
-            createError( response, LOG, se );
+            // The directory is unreachable, the last permissions read are used
+            if ( !lastKnownGood.unreachable( request.getContextId(), se )
+                || !lastKnownGood.sessionPermissions( response, request.getContextId(), session ) )
+            {
+                createError( response, LOG, se );
+            }
         }
         
         return response;
@@ -262,8 +443,8 @@ class AccessMgrImpl extends AbstractMgrImpl
         
         try
         {
-            AccessMgr accessMgr = AccessMgrFactory.createInstance( request.getContextId() );
-            Session session = request.getSession();
+            AccessMgr accessMgr = DirectoryRouter.getInstance().accessMgr( request.getContextId() );
+            Session session = session( request );
             List<UserRole> roles = accessMgr.sessionRoles( session );
             response.setEntities( roles );
             response.setSession( session );
@@ -283,8 +464,8 @@ class AccessMgrImpl extends AbstractMgrImpl
         
         try
         {
-            AccessMgr accessMgr = AccessMgrFactory.createInstance( request.getContextId() );
-            Session session = request.getSession();
+            AccessMgr accessMgr = DirectoryRouter.getInstance().accessMgr( request.getContextId() );
+            Session session = session( request );
             Set<String> roles = accessMgr.authorizedRoles( session );
             response.setValueSet( roles );
             response.setSession( session );
@@ -304,10 +485,20 @@ class AccessMgrImpl extends AbstractMgrImpl
         
         try
         {
-            AccessMgr accessMgr = AccessMgrFactory.createInstance( request.getContextId() );
+            AccessMgr accessMgr = DirectoryRouter.getInstance().accessMgr( request.getContextId() );
             UserRole uRole = (UserRole)request.getEntity();
-            Session session = request.getSession();
+            Session session = session( request );
+            SDSet dsdSet = SdIndex.getInstance().dsdConflict( request.getContextId(), session, uRole.getName() );
+
+            if ( dsdSet != null )
+            {
+                String error = "addActiveRole role [" + uRole.getName() + "] violates DSD set [" + dsdSet.getName()
+                    + "] cardinality [" + dsdSet.getCardinality() + "]";
+                throw new SecurityException( GlobalErrIds.ACTV_FAILED_DSD, error );
+            }
+
             accessMgr.addActiveRole( session, uRole );
+            SessionRegistry.getInstance().put( request.getContextId(), session );
             response.setSession( session );
         }
         catch ( SecurityException se )
@@ -325,10 +516,11 @@ class AccessMgrImpl extends AbstractMgrImpl
         
         try
         {
-            AccessMgr accessMgr = AccessMgrFactory.createInstance( request.getContextId() );
+            AccessMgr accessMgr = DirectoryRouter.getInstance().accessMgr( request.getContextId() );
             UserRole uRole = (UserRole)request.getEntity();
-            Session session = request.getSession();
+            Session session = session( request );
             accessMgr.dropActiveRole( session, uRole );
+            SessionRegistry.getInstance().put( request.getContextId(), session );
             response.setSession( session );
         }
         catch ( SecurityException se )
@@ -346,8 +538,8 @@ class AccessMgrImpl extends AbstractMgrImpl
         
         try
         {
-            AccessMgr accessMgr = AccessMgrFactory.createInstance( request.getContextId() );
-            Session session = request.getSession();
+            AccessMgr accessMgr = DirectoryRouter.getInstance().accessMgr( request.getContextId() );
+            Session session = session( request );
             String userId = accessMgr.getUserId( session );
             User outUser = new User( userId );
             response.setSession( session );
@@ -368,8 +560,8 @@ class AccessMgrImpl extends AbstractMgrImpl
         
         try
         {
-            AccessMgr accessMgr = AccessMgrFactory.createInstance( request.getContextId() );
-            Session session = request.getSession();
+            AccessMgr accessMgr = DirectoryRouter.getInstance().accessMgr( request.getContextId() );
+            Session session = session( request );
             User outUser = accessMgr.getUser( session );
             response.setSession( session );
             response.setEntity( outUser );
@@ -0,0 +1,232 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.fortress.rest;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.IntStream;
+
+import javax.ws.rs.core.StreamingOutput;
+
+import org.apache.directory.fortress.core.ReviewMgr;
+import org.apache.directory.fortress.core.SecurityException;
+import org.apache.directory.fortress.core.ValidationException;
+import org.apache.directory.fortress.core.model.Permission;
+import org.apache.directory.fortress.core.model.User;
+
+/**
+ * The effective permissions of every user of a tenant, for the access certification campaigns, as computed by
+ * {@link PolicyMatrix}.  The temporal constraints of the roles and assignments are not evaluated, the report shows
+ * the access a user can get.
+ * <p>
+ * The roles, permissions and users are read once, then the rows are computed as bitset unions, a chunk of users at
+ * a time on the fork join pool, and written while the next chunk is computed.  Two formats are supported:
+ * <ul>
+ *   <li>CSV: a <code>userId,objName,opName,objId</code> header, then one line per user and permission</li>
+ *   <li>NDJSON: one <code>{"userId":...,"permissions":["objName#opName#objId",...]}</code> line per user</li>
+ * </ul>
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+final class AccessReview implements StreamingOutput
+{
+    /** Number of rows computed in parallel before being written */
+    private static final int CHUNK = 1024;
+
+    private static final JacksonFieldOnlyMapper MAPPER = new JacksonFieldOnlyMapper();
+
+    /**
+     * The report formats.
+     */
+    enum Format
+    {
+        CSV( "text/csv" ),
+        NDJSON( "application/x-ndjson" );
+
+        private final String mediaType;
+
+
+        Format( String mediaType )
+        {
+            this.mediaType = mediaType;
+        }
+
+
+        String getMediaType()
+        {
+            return mediaType;
+        }
+    }
+
+    private final PolicyMatrix matrix;
+    private final Format format;
+
+
+    private AccessReview( PolicyMatrix matrix, Format format )
+    {
+        this.matrix = matrix;
+        this.format = format;
+    }
+
+
+    /**
+     * Read the policy of a tenant and prepare the report.
+     *
+     * @param reviewMgr The manager of the tenant, with the administrative session of the request
+     * @param formatName CSV or NDJSON, ignoring case, CSV when null or empty
+     * @return The report, written when the response is sent
+     * @throws SecurityException If the format is unknown or the policy could not be read
+     */
+    static AccessReview create( ReviewMgr reviewMgr, String formatName ) throws SecurityException
+    {
+        Format format = Format.CSV;
+
+        if ( formatName != null && !formatName.isEmpty() )
+        {
+            try
+            {
+                format = Format.valueOf( formatName.trim().toUpperCase( Locale.ENGLISH ) );
+            }
+            catch ( IllegalArgumentException iae )
+            {
+                throw new ValidationException( RestErrIds.ACCESS_REVIEW_INVALID_FORMAT, "Invalid access review format "
+                    + formatName );
+            }
+        }
+
+        PolicyMatrix matrix = PolicyMatrix.build( reviewMgr.findRoles( "" ), reviewMgr.findPermissions( new Permission( "", "" ) ),
+            reviewMgr.findUsers( new User( "" ) ) );
+
+        return new AccessReview( matrix, format );
+    }
+
+
+    /**
+     * @return The media type of the report
+     */
+    String getMediaType()
+    {
+        return format.getMediaType();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write( OutputStream output ) throws IOException
+    {
+        Writer out = new BufferedWriter( new OutputStreamWriter( output, StandardCharsets.UTF_8 ), 64 * 1024 );
+
+        if ( format == Format.CSV )
+        {
+            out.write( "userId,objName,opName,objId\n" );
+        }
+
+        for ( int from = 0; from < matrix.users(); from += CHUNK )
+        {
+            final int first = from;
+            BitSet[] rows = new BitSet[Math.min( CHUNK, matrix.users() - from )];
+            IntStream.range( 0, rows.length ).parallel().forEach( i -> rows[i] = matrix.row( first + i ) );
+
+            for ( int i = 0; i < rows.length; i++ )
+            {
+                if ( format == Format.CSV )
+                {
+                    writeCsv( out, matrix.userId( first + i ), rows[i] );
+                }
+                else
+                {
+                    writeJson( out, matrix.userId( first + i ), rows[i] );
+                }
+            }
+
+            out.flush();
+        }
+
+        out.flush();
+    }
+
+
+    private void writeCsv( Writer out, String userId, BitSet row ) throws IOException
+    {
+        String user = csv( userId );
+
+        for ( int perm = row.nextSetBit( 0 ); perm >= 0; perm = row.nextSetBit( perm + 1 ) )
+        {
+            Permission permission = matrix.permission( perm );
+            out.write( user );
+            out.write( ',' );
+            out.write( csv( permission.getObjName() ) );
+            out.write( ',' );
+            out.write( csv( permission.getOpName() ) );
+            out.write( ',' );
+            out.write( csv( permission.getObjId() ) );
+            out.write( '\n' );
+        }
+    }
+
+
+    private void writeJson( Writer out, String userId, BitSet row ) throws IOException
+    {
+        List<String> names = new ArrayList<>( row.cardinality() );
+
+        for ( int perm = row.nextSetBit( 0 ); perm >= 0; perm = row.nextSetBit( perm + 1 ) )
+        {
+            Permission permission = matrix.permission( perm );
+            names.add( EntityType.name( permission.getObjName(), permission.getOpName(), permission.getObjId() ) );
+        }
+
+        out.write( "{\"userId\":" + MAPPER.writeValueAsString( userId ) + ",\"permissions\":"
+            + MAPPER.writeValueAsString( names ) + "}\n" );
+    }
+
+
+    /**
+     * Quote a CSV field when it holds a separator, a quote or a line break.
+     */
+    static String csv( String value )
+    {
+        if ( value == null )
+        {
+            return "";
+        }
+
+        for ( int i = 0; i < value.length(); i++ )
+        {
+            char c = value.charAt( i );
+
+            if ( c == ',' || c == '"' || c == '\n' || c == '\r' )
+            {
+                return '"' + value.replace( "\"", "\"\"" ) + '"';
+            }
+        }
+
+        return value;
+    }
+}
@@ -19,6 +19,8 @@
  */
 package org.apache.directory.fortress.rest;
 
+import java.io.InputStream;
+
 import org.apache.directory.fortress.core.*;
 import org.apache.directory.fortress.core.SecurityException;
 import org.apache.directory.fortress.core.model.*;
@@ -45,6 +47,7 @@ class AdminMgrImpl extends AbstractMgrImpl
             adminMgr.setAdmin( request.getSession() );
             User inUser = (User)request.getEntity();
             User outUser = adminMgr.addUser( inUser );
+            entityChanged( request, EntityType.USER, ChangeOp.ADD, inUser.getUserId() );
             response.setEntity( outUser );
         }
         catch ( SecurityException se )
@@ -66,6 +69,10 @@ class AdminMgrImpl extends AbstractMgrImpl
             adminMgr.setAdmin( request.getSession() );
             User inUser = (User)request.getEntity();
             adminMgr.deleteUser( inUser );
+            entityChanged( request, EntityType.USER, ChangeOp.DELETE, inUser.getUserId() );
+            // The user's grants and role occupancies are removed along with it:
+            entitiesChanged( request, EntityType.PERMISSION );
+            entitiesChanged( request, EntityType.ROLE );
             response.setEntity( inUser );
         }
         catch ( SecurityException se )
@@ -87,6 +94,9 @@ class AdminMgrImpl extends AbstractMgrImpl
             adminMgr.setAdmin( request.getSession() );
             User inUser = (User)request.getEntity();
             adminMgr.disableUser( inUser );
+            entityChanged( request, EntityType.USER, ChangeOp.UPDATE, inUser.getUserId() );
+            entitiesChanged( request, EntityType.PERMISSION );
+            entitiesChanged( request, EntityType.ROLE );
             response.setEntity( inUser );
         }
         catch ( SecurityException se )
@@ -108,6 +118,7 @@ class AdminMgrImpl extends AbstractMgrImpl
             adminMgr.setAdmin( request.getSession() );
             User inUser = (User) request.getEntity();
             User outUser = adminMgr.updateUser( inUser );
+            entityChanged( request, EntityType.USER, ChangeOp.UPDATE, inUser.getUserId() );
             response.setEntity( outUser );
         }
         catch ( SecurityException se )
@@ -129,6 +140,7 @@ class AdminMgrImpl extends AbstractMgrImpl
             adminMgr.setAdmin( request.getSession() );
             User inUser = (User) request.getEntity();
             adminMgr.changePassword( inUser, inUser.getNewPassword() );
+            entityChanged( request, EntityType.USER, ChangeOp.UPDATE, inUser.getUserId() );
             response.setEntity( inUser );
         }
         catch ( SecurityException se )
@@ -150,6 +162,7 @@ class AdminMgrImpl extends AbstractMgrImpl
             adminMgr.setAdmin( request.getSession() );
             User inUser = (User) request.getEntity();
             adminMgr.lockUserAccount( inUser );
+            entityChanged( request, EntityType.USER, ChangeOp.UPDATE, inUser.getUserId() );
             response.setEntity( inUser );
         }
         catch ( SecurityException se )
@@ -171,6 +184,7 @@ class AdminMgrImpl extends AbstractMgrImpl
             adminMgr.setAdmin( request.getSession() );
             User inUser = (User) request.getEntity();
             adminMgr.unlockUserAccount( inUser );
+            entityChanged( request, EntityType.USER, ChangeOp.UPDATE, inUser.getUserId() );
             response.setEntity( inUser );
         }
         catch ( SecurityException se )
@@ -192,6 +206,7 @@ class AdminMgrImpl extends AbstractMgrImpl
             adminMgr.setAdmin( request.getSession() );
             User inUser = (User) request.getEntity();
             adminMgr.resetPassword( inUser, inUser.getNewPassword() );
+            entityChanged( request, EntityType.USER, ChangeOp.UPDATE, inUser.getUserId() );
             response.setEntity( inUser );
         }
         catch ( SecurityException se )
@@ -213,6 +228,7 @@ class AdminMgrImpl extends AbstractMgrImpl
             adminMgr.setAdmin( request.getSession() );
             Role inRole = (Role) request.getEntity();
             Role outRole = adminMgr.addRole( inRole );
+            entityChanged( request, EntityType.ROLE, ChangeOp.ADD, inRole.getName() );
             response.setEntity( outRole );
         }
         catch ( SecurityException se )
@@ -234,6 +250,13 @@ class AdminMgrImpl extends AbstractMgrImpl
             adminMgr.setAdmin( request.getSession() );
             Role inRole = (Role) request.getEntity();
             adminMgr.deleteRole( inRole );
+            entityChanged( request, EntityType.ROLE, ChangeOp.DELETE, inRole.getName() );
+            // The role is removed from its users, grants, hierarchy and SD sets as well:
+            entitiesChanged( request, EntityType.USER );
+            entitiesChanged( request, EntityType.PERMISSION );
+            entitiesChanged( request, EntityType.ROLE );
+            entitiesChanged( request, EntityType.SSD );
+            entitiesChanged( request, EntityType.DSD );
             response.setEntity( inRole );
         }
         catch ( SecurityException se )
@@ -255,6 +278,7 @@ class AdminMgrImpl extends AbstractMgrImpl
             adminMgr.setAdmin( request.getSession() );
             Role inRole = (Role) request.getEntity();
             Role outRole = adminMgr.updateRole( inRole );
+            entityChanged( request, EntityType.ROLE, ChangeOp.UPDATE, inRole.getName() );
             response.setEntity( outRole );
         }
         catch ( SecurityException se )
@@ -276,6 +300,8 @@ class AdminMgrImpl extends AbstractMgrImpl
             adminMgr.setAdmin( request.getSession() );
             UserRole inRole = (UserRole) request.getEntity();
             adminMgr.assignUser( inRole );
+            entityChanged( request, EntityType.USER, ChangeOp.UPDATE, inRole.getUserId() );
+            entityChanged( request, EntityType.ROLE, ChangeOp.UPDATE, inRole.getName() );
             response.setEntity( inRole );
         }
         catch ( SecurityException se )
@@ -297,6 +323,8 @@ class AdminMgrImpl extends AbstractMgrImpl
             adminMgr.setAdmin( request.getSession() );
             UserRole inRole = (UserRole) request.getEntity();
             adminMgr.deassignUser( inRole );
+            entityChanged( request, EntityType.USER, ChangeOp.UPDATE, inRole.getUserId() );
+            entityChanged( request, EntityType.ROLE, ChangeOp.UPDATE, inRole.getName() );
             response.setEntity( inRole );
         }
         catch ( SecurityException se )
@@ -318,6 +346,7 @@ class AdminMgrImpl extends AbstractMgrImpl
             adminMgr.setAdmin( request.getSession() );
             Permission inPerm = (Permission) request.getEntity();
             Permission outPerm = adminMgr.addPermission( inPerm );
+            entityChanged( request, ChangeOp.ADD, inPerm );
             response.setEntity( outPerm );
         }
         catch ( SecurityException se )
@@ -339,6 +368,7 @@ class AdminMgrImpl extends AbstractMgrImpl
             adminMgr.setAdmin( request.getSession() );
             Permission inPerm = (Permission) request.getEntity();
             Permission outPerm = adminMgr.updatePermission( inPerm );
+            entityChanged( request, ChangeOp.UPDATE, inPerm );
             response.setEntity( outPerm );
         }
         catch ( SecurityException se )
@@ -360,6 +390,7 @@ class AdminMgrImpl extends AbstractMgrImpl
             adminMgr.setAdmin( request.getSession() );
             Permission inPerm = (Permission) request.getEntity();
             adminMgr.deletePermission( inPerm );
+            entityChanged( request, ChangeOp.DELETE, inPerm );
             response.setEntity( inPerm );
         }
         catch ( SecurityException se )
@@ -381,6 +412,7 @@ class AdminMgrImpl extends AbstractMgrImpl
             adminMgr.setAdmin( request.getSession() );
             PermObj inObj = (PermObj) request.getEntity();
             PermObj outObj = adminMgr.addPermObj( inObj );
+            entityChanged( request, ChangeOp.ADD, inObj );
             response.setEntity( outObj );
         }
         catch ( SecurityException se )
@@ -402,6 +434,7 @@ class AdminMgrImpl extends AbstractMgrImpl
             adminMgr.setAdmin( request.getSession() );
             PermObj inObj = (PermObj) request.getEntity();
             PermObj outObj = adminMgr.updatePermObj( inObj );
+            entityChanged( request, ChangeOp.UPDATE, inObj );
             response.setEntity( outObj );
         }
         catch ( SecurityException se )
@@ -423,6 +456,9 @@ class AdminMgrImpl extends AbstractMgrImpl
             adminMgr.setAdmin( request.getSession() );
             PermObj inObj = (PermObj) request.getEntity();
             adminMgr.deletePermObj( inObj );
+            entityChanged( request, ChangeOp.DELETE, inObj );
+            // Along with all of its operations:
+            entitiesChanged( request, EntityType.PERMISSION );
             response.setEntity( inObj );
         }
         catch ( SecurityException se )
@@ -443,6 +479,7 @@ class AdminMgrImpl extends AbstractMgrImpl
         Permission perm = new Permission( permGrant.getObjName(), permGrant.getOpName(), permGrant.getObjId() );
         perm.setAdmin( false );
         adminMgr.grantPermission( perm, role );
+        entityChanged( request, ChangeOp.UPDATE, perm );
     }
 
     
@@ -455,6 +492,7 @@ class AdminMgrImpl extends AbstractMgrImpl
         Permission perm = new Permission( permGrant.getObjName(), permGrant.getOpName(), permGrant.getObjId() );
         perm.setAdmin( true );
         delegatedAdminMgr.grantPermission( perm, role );
+        entityChanged( request, ChangeOp.UPDATE, perm );
     }
 
     
@@ -467,6 +505,7 @@ class AdminMgrImpl extends AbstractMgrImpl
         Permission perm = new Permission( permGrant.getObjName(), permGrant.getOpName(), permGrant.getObjId() );
         perm.setAdmin( false );
         adminMgr.revokePermission( perm, role );
+        entityChanged( request, ChangeOp.UPDATE, perm );
     }
 
     
@@ -479,6 +518,7 @@ class AdminMgrImpl extends AbstractMgrImpl
         Permission perm = new Permission( permGrant.getObjName(), permGrant.getOpName(), permGrant.getObjId() );
         perm.setAdmin( true );
         delegatedAdminMgr.revokePermission( perm, role );
+        entityChanged( request, ChangeOp.UPDATE, perm );
     }
 
     
@@ -491,6 +531,7 @@ class AdminMgrImpl extends AbstractMgrImpl
         Permission perm = new Permission( permGrant.getObjName(), permGrant.getOpName(), permGrant.getObjId() );
         perm.setAdmin( false );
         adminMgr.grantPermission( perm, user );
+        entityChanged( request, ChangeOp.UPDATE, perm );
     }
 
     
@@ -503,6 +544,7 @@ class AdminMgrImpl extends AbstractMgrImpl
         Permission perm = new Permission( permGrant.getObjName(), permGrant.getOpName(), permGrant.getObjId() );
         perm.setAdmin( true );
         delegatedAdminMgr.grantPermission( perm, user );
+        entityChanged( request, ChangeOp.UPDATE, perm );
     }
 
     
@@ -515,6 +557,7 @@ class AdminMgrImpl extends AbstractMgrImpl
         Permission perm = new Permission( permGrant.getObjName(), permGrant.getOpName(), permGrant.getObjId() );
         perm.setAdmin( false );
         adminMgr.revokePermission( perm, user );
+        entityChanged( request, ChangeOp.UPDATE, perm );
     }
 
     
@@ -527,6 +570,7 @@ class AdminMgrImpl extends AbstractMgrImpl
         Permission perm = new Permission( permGrant.getObjName(), permGrant.getOpName(), permGrant.getObjId() );
         perm.setAdmin( true );
         delegatedAdminMgr.revokePermission( perm, user );
+        entityChanged( request, ChangeOp.UPDATE, perm );
     }
 
     
@@ -651,6 +695,8 @@ class AdminMgrImpl extends AbstractMgrImpl
             adminMgr.setAdmin( request.getSession() );
             RoleRelationship relationship = (RoleRelationship) request.getEntity();
             adminMgr.addDescendant(relationship.getParent(), relationship.getChild());
+            entityChanged( request, EntityType.ROLE, ChangeOp.UPDATE, relationship.getParent().getName() );
+            entityChanged( request, EntityType.ROLE, ChangeOp.ADD, relationship.getChild().getName() );
             response.setEntity( relationship );
 
         }
@@ -673,6 +719,8 @@ class AdminMgrImpl extends AbstractMgrImpl
             adminMgr.setAdmin( request.getSession() );
             RoleRelationship relationship = (RoleRelationship) request.getEntity();
             adminMgr.addAscendant(relationship.getChild(), relationship.getParent());
+            entityChanged( request, EntityType.ROLE, ChangeOp.ADD, relationship.getParent().getName() );
+            entityChanged( request, EntityType.ROLE, ChangeOp.UPDATE, relationship.getChild().getName() );
             response.setEntity( relationship );
         }
         catch ( SecurityException se )
@@ -694,6 +742,8 @@ class AdminMgrImpl extends AbstractMgrImpl
             adminMgr.setAdmin( request.getSession() );
             RoleRelationship relationship = (RoleRelationship) request.getEntity();
             adminMgr.addInheritance(relationship.getParent(), relationship.getChild());
+            entityChanged( request, EntityType.ROLE, ChangeOp.UPDATE, relationship.getParent().getName() );
+            entityChanged( request, EntityType.ROLE, ChangeOp.UPDATE, relationship.getChild().getName() );
             response.setEntity( relationship );
         }
         catch ( SecurityException se )
@@ -715,6 +765,8 @@ class AdminMgrImpl extends AbstractMgrImpl
             adminMgr.setAdmin( request.getSession() );
             RoleRelationship relationship = (RoleRelationship) request.getEntity();
             adminMgr.deleteInheritance( relationship.getParent(), relationship.getChild() );
+            entityChanged( request, EntityType.ROLE, ChangeOp.UPDATE, relationship.getParent().getName() );
+            entityChanged( request, EntityType.ROLE, ChangeOp.UPDATE, relationship.getChild().getName() );
             response.setEntity( relationship );
         }
         catch ( SecurityException se )
@@ -736,6 +788,7 @@ class AdminMgrImpl extends AbstractMgrImpl
             adminMgr.setAdmin( request.getSession() );
             SDSet inSet = (SDSet) request.getEntity();
             SDSet outSet = adminMgr.createSsdSet( inSet );
+            entityChanged( request, EntityType.SSD, ChangeOp.ADD, inSet.getName() );
             response.setEntity( outSet );
         }
         catch ( SecurityException se )
@@ -757,6 +810,7 @@ class AdminMgrImpl extends AbstractMgrImpl
             adminMgr.setAdmin( request.getSession() );
             SDSet inSet = (SDSet) request.getEntity();
             SDSet outSet = adminMgr.updateSsdSet( inSet );
+            entityChanged( request, EntityType.SSD, ChangeOp.UPDATE, inSet.getName() );
             response.setEntity( outSet );
         }
         catch ( SecurityException se )
@@ -779,6 +833,7 @@ class AdminMgrImpl extends AbstractMgrImpl
             SDSet inSet = (SDSet) request.getEntity();
             Role role = new Role( request.getValue() );
             SDSet outSet = adminMgr.addSsdRoleMember( inSet, role );
+            entityChanged( request, EntityType.SSD, ChangeOp.UPDATE, inSet.getName() );
             response.setEntity( outSet );
         }
         catch ( SecurityException se )
@@ -801,6 +856,7 @@ class AdminMgrImpl extends AbstractMgrImpl
             SDSet inSet = (SDSet) request.getEntity();
             Role role = new Role( request.getValue() );
             SDSet outSet = adminMgr.deleteSsdRoleMember( inSet, role );
+            entityChanged( request, EntityType.SSD, ChangeOp.UPDATE, inSet.getName() );
             response.setEntity(outSet);
         }
         catch ( SecurityException se )
@@ -822,6 +878,7 @@ class AdminMgrImpl extends AbstractMgrImpl
             adminMgr.setAdmin( request.getSession() );
             SDSet inSet = (SDSet) request.getEntity();
             SDSet outSet = adminMgr.deleteSsdSet( inSet );
+            entityChanged( request, EntityType.SSD, ChangeOp.DELETE, inSet.getName() );
             response.setEntity( outSet );
         }
         catch ( SecurityException se )
@@ -843,6 +900,7 @@ class AdminMgrImpl extends AbstractMgrImpl
             adminMgr.setAdmin( request.getSession() );
             SDSet inSet = (SDSet) request.getEntity();
             SDSet outSet = adminMgr.setSsdSetCardinality( inSet, inSet.getCardinality() );
+            entityChanged( request, EntityType.SSD, ChangeOp.UPDATE, inSet.getName() );
             response.setEntity( outSet );
         }
         catch ( SecurityException se )
@@ -864,6 +922,7 @@ class AdminMgrImpl extends AbstractMgrImpl
             adminMgr.setAdmin( request.getSession() );
             SDSet inSet = (SDSet) request.getEntity();
             SDSet outSet = adminMgr.createDsdSet( inSet );
+            entityChanged( request, EntityType.DSD, ChangeOp.ADD, inSet.getName() );
             response.setEntity( outSet );
         }
         catch ( SecurityException se )
@@ -885,6 +944,7 @@ class AdminMgrImpl extends AbstractMgrImpl
             adminMgr.setAdmin( request.getSession() );
             SDSet inSet = (SDSet) request.getEntity();
             SDSet outSet = adminMgr.updateDsdSet( inSet );
+            entityChanged( request, EntityType.DSD, ChangeOp.UPDATE, inSet.getName() );
             response.setEntity( outSet );
         }
         catch ( SecurityException se )
@@ -907,6 +967,7 @@ class AdminMgrImpl extends AbstractMgrImpl
             SDSet inSet = (SDSet) request.getEntity();
             Role role = new Role(request.getValue());
             SDSet outSet = adminMgr.addDsdRoleMember( inSet, role );
+            entityChanged( request, EntityType.DSD, ChangeOp.UPDATE, inSet.getName() );
             response.setEntity( outSet );
         }
         catch ( SecurityException se )
@@ -929,6 +990,7 @@ class AdminMgrImpl extends AbstractMgrImpl
             SDSet inSet = (SDSet) request.getEntity();
             Role role = new Role(request.getValue());
             SDSet outSet = adminMgr.deleteDsdRoleMember( inSet, role );
+            entityChanged( request, EntityType.DSD, ChangeOp.UPDATE, inSet.getName() );
             response.setEntity( outSet );
         }
         catch ( SecurityException se )
@@ -950,6 +1012,7 @@ class AdminMgrImpl extends AbstractMgrImpl
             adminMgr.setAdmin( request.getSession() );
             SDSet inSet = (SDSet) request.getEntity();
             SDSet outSet = adminMgr.deleteDsdSet( inSet );
+            entityChanged( request, EntityType.DSD, ChangeOp.DELETE, inSet.getName() );
             response.setEntity( outSet );
         }
         catch ( SecurityException se )
@@ -971,6 +1034,7 @@ class AdminMgrImpl extends AbstractMgrImpl
             adminMgr.setAdmin( request.getSession() );
             SDSet inSet = (SDSet) request.getEntity();
             SDSet outSet = adminMgr.setDsdSetCardinality( inSet, inSet.getCardinality() );
+            entityChanged( request, EntityType.DSD, ChangeOp.UPDATE, inSet.getName() );
             response.setEntity( outSet );
         }
         catch ( SecurityException se )
@@ -993,6 +1057,7 @@ class AdminMgrImpl extends AbstractMgrImpl
             UserRole inRole = (UserRole) request.getEntity();
             RoleConstraint inConstraint = (RoleConstraint) request.getEntity2();
             RoleConstraint outRole = adminMgr.addRoleConstraint( inRole, inConstraint );
+            entityChanged( request, EntityType.USER, ChangeOp.UPDATE, inRole.getUserId() );
             response.setEntity( outRole );
         }
         catch ( SecurityException se )
@@ -1015,6 +1080,7 @@ class AdminMgrImpl extends AbstractMgrImpl
             UserRole inRole = (UserRole) request.getEntity();
             RoleConstraint inConstraint = (RoleConstraint) request.getEntity2();
             adminMgr.removeRoleConstraint( inRole, inConstraint );
+            entityChanged( request, EntityType.USER, ChangeOp.UPDATE, inRole.getUserId() );
         }
         catch ( SecurityException se )
         {
@@ -1036,6 +1102,7 @@ class AdminMgrImpl extends AbstractMgrImpl
             UserRole inRole = (UserRole) request.getEntity();
             String szConstraintId = request.getValue();
             adminMgr.removeRoleConstraint( inRole, szConstraintId );
+            entityChanged( request, EntityType.USER, ChangeOp.UPDATE, inRole.getUserId() );
         }
         catch ( SecurityException se )
         {
@@ -1057,6 +1124,7 @@ class AdminMgrImpl extends AbstractMgrImpl
             Role inRole = (Role) request.getEntity();
             RoleConstraint inConstraint = (RoleConstraint) request.getEntity2();
             adminMgr.enableRoleConstraint( inRole, inConstraint );
+            entityChanged( request, EntityType.ROLE, ChangeOp.UPDATE, inRole.getName() );
         }
         catch ( SecurityException se )
         {
@@ -1077,6 +1145,7 @@ class AdminMgrImpl extends AbstractMgrImpl
             Role inRole = (Role) request.getEntity();
             RoleConstraint inConstraint = (RoleConstraint) request.getEntity2();
             adminMgr.disableRoleConstraint( inRole, inConstraint );
+            entityChanged( request, EntityType.ROLE, ChangeOp.UPDATE, inRole.getName() );
         }
         catch ( SecurityException se )
         {
@@ -1097,6 +1166,7 @@ class AdminMgrImpl extends AbstractMgrImpl
             PermissionAttribute inAttr = (PermissionAttribute) request.getEntity();
             String attrName = request.getValue();
             PermissionAttribute outAttr = adminMgr.addPermissionAttributeToSet( inAttr, attrName );
+            entityChanged( request, EntityType.PERM_ATTR_SET, ChangeOp.UPDATE, attrName );
             response.setEntity( outAttr );
         }
         catch ( SecurityException se )
@@ -1120,6 +1190,7 @@ class AdminMgrImpl extends AbstractMgrImpl
             String attrName = request.getValue();
             boolean isReplace = request.getIsFlag();
             adminMgr.updatePermissionAttributeInSet( inAttr, attrName, isReplace );
+            entityChanged( request, EntityType.PERM_ATTR_SET, ChangeOp.UPDATE, attrName );
         }
         catch ( SecurityException se )
         {
@@ -1141,6 +1212,7 @@ class AdminMgrImpl extends AbstractMgrImpl
             PermissionAttribute inAttr = (PermissionAttribute) request.getEntity();
             String attrName = request.getValue();
             adminMgr.removePermissionAttributeFromSet( inAttr, attrName );
+            entityChanged( request, EntityType.PERM_ATTR_SET, ChangeOp.UPDATE, attrName );
         }
         catch ( SecurityException se )
         {
@@ -1160,6 +1232,7 @@ class AdminMgrImpl extends AbstractMgrImpl
             adminMgr.setAdmin( request.getSession() );
             PermissionAttributeSet inSet = (PermissionAttributeSet) request.getEntity();
             PermissionAttributeSet outSet = adminMgr.addPermissionAttributeSet( inSet );
+            entityChanged( request, EntityType.PERM_ATTR_SET, ChangeOp.ADD, inSet.getName() );
             response.setEntity( outSet );
         }
         catch ( SecurityException se )
@@ -1181,6 +1254,31 @@ class AdminMgrImpl extends AbstractMgrImpl
             adminMgr.setAdmin( request.getSession() );
             PermissionAttributeSet inSet = (PermissionAttributeSet) request.getEntity();
             adminMgr.deletePermissionAttributeSet( inSet );
+            entityChanged( request, EntityType.PERM_ATTR_SET, ChangeOp.DELETE, inSet.getName() );
+        }
+        catch ( SecurityException se )
+        {
+            createError( response, log, se );
+        }
+
+        return response;
+    }
+
+
+    /* No qualifier */ FortResponse importPolicy( FortRequest request, InputStream document )
+    {
+        FortResponse response = createResponse();
+
+        try
+        {
+            PolicyImport.Report report = PolicyImport.getInstance().apply( request, PolicyDocument.parse( document ) );
+            response.setValues( report.getLines() );
+
+            if ( report.getFailed() > 0 )
+            {
+                response.setErrorCode( RestErrIds.IMPORT_FAILED_ITEMS );
+                response.setErrorMessage( report.getFailed() + " items failed, " + report.getApplied() + " applied" );
+            }
         }
         catch ( SecurityException se )
         {
@@ -1189,4 +1287,4 @@ class AdminMgrImpl extends AbstractMgrImpl
 
         return response;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,471 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.fortress.rest;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.directory.fortress.core.util.Config;
+import org.apache.log4j.Logger;
+
+/**
+ * Archive of the {@link AuditJournal} records in compressed columnar files, partitioned by tenant and day, see
+ * {@link AuditSegment}.
+ * <p>
+ * A background job compacts every <code>rest.audit.archive.interval.minutes</code> the journal segments that are no
+ * longer written into <code>&lt;rest.audit.archive.dir&gt;/&lt;tenant&gt;/&lt;yyyyMMdd&gt;/part-&lt;segment&gt;.col</code>
+ * files, days in UTC.  The compacted segments are listed in a manifest with the time range each covers, from its
+ * creation to the creation of the next segment.  A segment that could not be compacted, or was deleted before,
+ * leaves a gap: only the searches whose time range has no gap are answered from the archive, the others are left to
+ * the journal.  Only the days of the range are listed, and the files whose min and max times or user bloom filter
+ * exclude the query are not decompressed.  A segment that can't be read is counted as an error and retried on the
+ * next run, the following segments are still compacted.
+ * <p>
+ * The archive is disabled unless <code>rest.audit.archive.enabled=true</code> and the journal is enabled.
+ * <p>
+ * This class is thread safe.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+final class AuditArchive implements RestMetrics.Source
+{
+    /** A logger for this class */
+    private static final Logger LOG = Logger.getLogger( AuditArchive.class.getName() );
+
+    private static final String ENABLED = "rest.audit.archive.enabled";
+    private static final String DIR = "rest.audit.archive.dir";
+    private static final String INTERVAL = "rest.audit.archive.interval.minutes";
+
+    private static final String MANIFEST = "compacted.idx";
+    private static final String PART_PREFIX = "part-";
+    private static final String PART_SUFFIX = ".col";
+    private static final DateTimeFormatter DAY = DateTimeFormatter.BASIC_ISO_DATE;
+
+    private static final AuditArchive INSTANCE = new AuditArchive();
+
+    private final boolean enabled;
+    private final Path dir;
+
+    /** The times of the compacted journal segments, only written by the compaction thread */
+    private final Set<Long> compacted = ConcurrentHashMap.newKeySet();
+
+    /** The disjoint ranges of record times covered by the archive, inclusive, by start.  Replaced on change */
+    private volatile NavigableMap<Long, Long> covered = Collections.emptyNavigableMap();
+
+    private final AtomicLong compactions = new AtomicLong();
+    private final AtomicLong records = new AtomicLong();
+    private final AtomicLong searches = new AtomicLong();
+    private final AtomicLong filesRead = new AtomicLong();
+    private final AtomicLong filesSkipped = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+
+
+    private AuditArchive()
+    {
+        Config config = Config.getInstance();
+        AuditJournal journal = AuditJournal.getInstance();
+        enabled = config.getBoolean( ENABLED, false ) && journal.isEnabled();
+        dir = enabled ? journal.getDir().resolve( config.getProperty( DIR, "archive" ) ) : null;
+        int interval = Math.max( 1, config.getInt( INTERVAL, 10 ) );
+        RestMetrics.register( "auditArchive", this );
+        LOG.info( "AuditArchive enabled=" + enabled + ", dir=" + dir );
+
+        if ( enabled )
+        {
+            ScheduledExecutorService compactor = Executors.newSingleThreadScheduledExecutor( runnable ->
+            {
+                Thread thread = new Thread( runnable, "fortress-rest-audit-archive" );
+                thread.setDaemon( true );
+
+                return thread;
+            } );
+
+            compactor.execute( this::loadManifest );
+            compactor.scheduleWithFixedDelay( this::compact, interval, interval, TimeUnit.MINUTES );
+        }
+    }
+
+
+    static AuditArchive getInstance()
+    {
+        return INSTANCE;
+    }
+
+
+    /**
+     * @return true if the journal segments are compacted
+     */
+    boolean isEnabled()
+    {
+        return enabled;
+    }
+
+
+    /**
+     * Tell whether a journal segment was compacted, so it may be deleted.
+     *
+     * @param segmentTime The creation time of the segment, in milliseconds
+     * @return true if its records are in the archive
+     */
+    boolean isCompacted( long segmentTime )
+    {
+        return compacted.contains( segmentTime );
+    }
+
+
+    /**
+     * Tell whether the archive holds all the records of a time range.
+     *
+     * @param since The oldest record time, in milliseconds
+     * @param until The newest record time, in milliseconds
+     * @return true if the searches on the range can be answered by the archive
+     */
+    boolean covers( long since, long until )
+    {
+        if ( !enabled )
+        {
+            return false;
+        }
+
+        // The ranges are merged when they touch, the query must fit in a single one
+        Map.Entry<Long, Long> range = covered.floorEntry( since );
+
+        return range != null && until <= range.getValue();
+    }
+
+
+    /**
+     * Search the archive, newest first.
+     *
+     * @param contextId The tenant
+     * @param userId The user, null for all
+     * @param since The oldest record time, in milliseconds
+     * @param until The newest record time, in milliseconds
+     * @param failedOnly true to return the failed authentications and the denied authorizations only
+     * @param limit The max number of records
+     * @return The matching records, or null if the archive could not be read
+     */
+    List<String> search( String contextId, String userId, long since, long until, boolean failedOnly, int limit )
+    {
+        searches.incrementAndGet();
+        String tenant = PolicyChanges.tenant( contextId );
+        List<String[]> found = new ArrayList<>();
+
+        try
+        {
+            Path tenantDir = dir.resolve( encode( tenant ) );
+            LocalDate last = day( until );
+
+            for ( LocalDate day = day( since ); !day.isAfter( last ); day = day.plusDays( 1 ) )
+            {
+                Path dayDir = tenantDir.resolve( DAY.format( day ) );
+
+                if ( !Files.isDirectory( dayDir ) )
+                {
+                    continue;
+                }
+
+                try ( DirectoryStream<Path> parts = Files.newDirectoryStream( dayDir, PART_PREFIX + "*" + PART_SUFFIX ) )
+                {
+                    for ( Path part : parts )
+                    {
+                        AuditSegment header = AuditSegment.header( part );
+
+                        if ( header.getMaxTime() < since || header.getMinTime() > until
+                            || ( userId != null && !header.mayContain( userId ) ) )
+                        {
+                            filesSkipped.incrementAndGet();
+                            continue;
+                        }
+
+                        filesRead.incrementAndGet();
+
+                        for ( String record : AuditSegment.read( part, tenant ) )
+                        {
+                            String[] fields = AuditSegment.fields( record );
+
+                            if ( AuditJournal.matches( fields, tenant, userId, since, until, failedOnly ) )
+                            {
+                                found.add( fields );
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        catch ( IOException | RuntimeException e )
+        {
+            errors.incrementAndGet();
+            LOG.warn( "AuditArchive search failed", e );
+
+            return null;
+        }
+
+        found.sort( ( a, b ) -> Long.compare( Long.parseLong( b[0] ), Long.parseLong( a[0] ) ) );
+        List<String> records = new ArrayList<>( Math.min( limit, found.size() ) );
+
+        for ( int i = 0; i < found.size() && i < limit; i++ )
+        {
+            records.add( String.join( "\t", found.get( i ) ) );
+        }
+
+        return records;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void collect( Map<String, Number> metrics )
+    {
+        metrics.put( "compactions", compactions.get() );
+        metrics.put( "records", records.get() );
+        metrics.put( "searches", searches.get() );
+        metrics.put( "filesRead", filesRead.get() );
+        metrics.put( "filesSkipped", filesSkipped.get() );
+        metrics.put( "errors", errors.get() );
+        NavigableMap<Long, Long> ranges = covered;
+        metrics.put( "coveredFrom", ranges.isEmpty() ? Long.MAX_VALUE : ranges.firstKey() );
+        metrics.put( "coveredTo", ranges.isEmpty() ? Long.MIN_VALUE : ranges.lastEntry().getValue() );
+        metrics.put( "coveredGaps", Math.max( 0, ranges.size() - 1 ) );
+    }
+
+
+    /**
+     * Read the manifest written by the previous compactions.  Runs on the compaction thread.
+     */
+    private void loadManifest()
+    {
+        Path manifest = dir.resolve( MANIFEST );
+
+        if ( !Files.exists( manifest ) )
+        {
+            return;
+        }
+
+        try
+        {
+            for ( String line : Files.readAllLines( manifest, StandardCharsets.UTF_8 ) )
+            {
+                String[] fields = line.split( " " );
+
+                if ( fields.length == 3 )
+                {
+                    compacted.add( Long.parseLong( fields[0] ) );
+                    cover( Long.parseLong( fields[1] ), Long.parseLong( fields[2] ) );
+                }
+            }
+        }
+        catch ( IOException | RuntimeException e )
+        {
+            errors.incrementAndGet();
+            LOG.warn( "AuditArchive could not read " + manifest, e );
+        }
+    }
+
+
+    /**
+     * Compact the journal segments that are no longer written.  Runs on the compaction thread.
+     */
+    private void compact()
+    {
+        List<Path> segments;
+
+        try
+        {
+            segments = AuditJournal.segmentPaths( AuditJournal.getInstance().getDir() );
+        }
+        catch ( IOException | RuntimeException e )
+        {
+            errors.incrementAndGet();
+            LOG.warn( "AuditArchive could not list the journal segments", e );
+
+            return;
+        }
+
+        // The newest segment is still being written
+        for ( int i = 0; i < segments.size() - 1; i++ )
+        {
+            Path segment = segments.get( i );
+
+            try
+            {
+                long segmentTime = AuditJournal.segmentTime( segment );
+
+                if ( !compacted.contains( segmentTime ) )
+                {
+                    compact( segment, segmentTime, AuditJournal.segmentTime( segments.get( i + 1 ) ) );
+                }
+            }
+            catch ( IOException | RuntimeException e )
+            {
+                errors.incrementAndGet();
+                LOG.warn( "AuditArchive could not compact " + segment, e );
+            }
+        }
+    }
+
+
+    /**
+     * Compact a journal segment, it covers the times until the next segment was created.
+     */
+    private void compact( Path segment, long segmentTime, long nextTime ) throws IOException
+    {
+        Map<String, Map<LocalDate, List<String[]>>> partitions = new HashMap<>();
+        long minTime = Long.MAX_VALUE;
+        long maxTime = Long.MIN_VALUE;
+        int count = 0;
+
+        for ( String line : lines( segment ) )
+        {
+            String[] fields = AuditSegment.fields( line );
+            long time = Long.parseLong( fields[0] );
+            minTime = Math.min( minTime, time );
+            maxTime = Math.max( maxTime, time );
+            partitions.computeIfAbsent( fields[1], tenant -> new HashMap<>() )
+                .computeIfAbsent( day( time ), day -> new ArrayList<>() ).add( fields );
+            count++;
+        }
+
+        for ( Map.Entry<String, Map<LocalDate, List<String[]>>> tenant : partitions.entrySet() )
+        {
+            for ( Map.Entry<LocalDate, List<String[]>> day : tenant.getValue().entrySet() )
+            {
+                Path dayDir = dir.resolve( encode( tenant.getKey() ) ).resolve( DAY.format( day.getKey() ) );
+                Files.createDirectories( dayDir );
+                AuditSegment.write( dayDir.resolve( PART_PREFIX + segmentTime + PART_SUFFIX ), day.getValue() );
+            }
+        }
+
+        // A record stamped just before a roll may be written to the next segment
+        minTime = Math.min( minTime, segmentTime );
+        maxTime = Math.max( maxTime, nextTime - 1 );
+        Files.createDirectories( dir );
+
+        try ( Writer manifest = Files.newBufferedWriter( dir.resolve( MANIFEST ), StandardCharsets.UTF_8,
+            StandardOpenOption.CREATE, StandardOpenOption.APPEND ) )
+        {
+            manifest.write( segmentTime + " " + minTime + " " + maxTime + "\n" );
+        }
+
+        compacted.add( segmentTime );
+        cover( minTime, maxTime );
+        compactions.incrementAndGet();
+        records.addAndGet( count );
+    }
+
+
+    /**
+     * Read the records of a journal segment, they end at the first zero byte of the mapped file.
+     */
+    private static List<String> lines( Path segment ) throws IOException
+    {
+        List<String> lines = new ArrayList<>();
+        ByteArrayOutputStream line = new ByteArrayOutputStream( 128 );
+
+        try ( InputStream in = new BufferedInputStream( Files.newInputStream( segment ), 64 * 1024 ) )
+        {
+            int b;
+
+            while ( ( b = in.read() ) > 0 )
+            {
+                if ( b == '\n' )
+                {
+                    lines.add( new String( line.toByteArray(), StandardCharsets.UTF_8 ) );
+                    line.reset();
+                }
+                else
+                {
+                    line.write( b );
+                }
+            }
+        }
+
+        return lines;
+    }
+
+
+    /**
+     * Add a range to the covered ones, merging it with those it overlaps or touches.  Runs on the compaction thread.
+     */
+    private void cover( long from, long to )
+    {
+        NavigableMap<Long, Long> ranges = new TreeMap<>( covered );
+        Map.Entry<Long, Long> before = ranges.floorEntry( from );
+
+        if ( before != null && before.getValue() >= from - 1 )
+        {
+            from = before.getKey();
+            to = Math.max( to, before.getValue() );
+            ranges.remove( before.getKey() );
+        }
+
+        Map.Entry<Long, Long> after;
+
+        while ( ( after = ranges.ceilingEntry( from ) ) != null && after.getKey() <= to + 1 )
+        {
+            to = Math.max( to, after.getValue() );
+            ranges.remove( after.getKey() );
+        }
+
+        ranges.put( from, to );
+        covered = ranges;
+    }
+
+
+    private static LocalDate day( long time )
+    {
+        return Instant.ofEpochMilli( time ).atZone( ZoneOffset.UTC ).toLocalDate();
+    }
+
+
+    private static String encode( String tenant ) throws UnsupportedEncodingException
+    {
+        return URLEncoder.encode( tenant, StandardCharsets.UTF_8.name() );
+    }
+}
@@ -0,0 +1,488 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.fortress.rest;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.directory.fortress.core.util.Config;
+import org.apache.log4j.Logger;
+
+/**
+ * Write-behind journal of the authentications and authorization decisions made through this server.
+ * <p>
+ * The request threads only add a record to a bounded lock-free queue, records are dropped and counted when it is
+ * full.  A single writer thread drains the queue in batches, appends the records to a memory-mapped journal segment
+ * under <code>rest.audit.journal.dir</code> and forces the segment to disk once per batch.  Segments are rolled when
+ * they reach <code>rest.audit.journal.segment.mb</code>, the oldest are deleted beyond
+ * <code>rest.audit.journal.max.segments</code>, once compacted when the {@link AuditArchive} is enabled.  The last <code>rest.audit.journal.recent</code> records are also
+ * kept in memory for {@link #search}.
+ * <p>
+ * A record is a line of tab separated fields: time in milliseconds, tenant, type, userId, resource and result.
+ * <p>
+ * The journal is disabled unless <code>rest.audit.journal.enabled=true</code> and <code>rest.audit.journal.dir</code>
+ * is set, there is no default directory as the temporary ones get cleaned.  It is meant to be used with the
+ * fortress-core <code>disable.audit=true</code> setting, which takes the directory audit writes off the checkAccess
+ * path.
+ * <p>
+ * This class is thread safe.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+final class AuditJournal implements RestMetrics.Source
+{
+    /** A logger for this class */
+    private static final Logger LOG = Logger.getLogger( AuditJournal.class.getName() );
+
+    private static final String ENABLED = "rest.audit.journal.enabled";
+    private static final String DIR = "rest.audit.journal.dir";
+    private static final String SEGMENT_MB = "rest.audit.journal.segment.mb";
+    private static final String MAX_SEGMENTS = "rest.audit.journal.max.segments";
+    private static final String QUEUE_CAPACITY = "rest.audit.journal.queue.capacity";
+    private static final String RECENT = "rest.audit.journal.recent";
+
+    /** The prefix and suffix of the segment file names, the creation time in milliseconds is in between */
+    static final String SEGMENT_PREFIX = "audit-";
+    static final String SEGMENT_SUFFIX = ".journal";
+
+    private static final char SEP = AuditSegment.SEP;
+    private static final int BATCH = 512;
+
+    /** How long the writer sleeps when the queue is empty */
+    private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos( 5 );
+
+    private static final AuditJournal INSTANCE = new AuditJournal();
+
+    /**
+     * The audited operations.
+     */
+    enum Type
+    {
+        /** authenticate, createSession */
+        AUTHN,
+
+        /** checkAccess */
+        AUTHZ
+    }
+
+    private final boolean enabled;
+    private final Path dir;
+    private final int segmentBytes;
+    private final int maxSegments;
+    private final int queueCapacity;
+    private final int recentCapacity;
+
+    private final Queue<String> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queueDepth = new AtomicInteger();
+
+    /** The last records written, guarded by its own monitor */
+    private final Deque<String> recent = new ArrayDeque<>();
+
+    /** Only used by the writer thread */
+    private MappedByteBuffer segment;
+
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong segments = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+
+    /** The segments beyond the max kept as they are not archived yet, only written by the writer thread */
+    private volatile int retained;
+
+
+    private AuditJournal()
+    {
+        Config config = Config.getInstance();
+        String dirName = config.getProperty( DIR );
+        enabled = config.getBoolean( ENABLED, false ) && StringUtils.isNotBlank( dirName );
+        dir = enabled ? Paths.get( dirName ) : null;
+
+        if ( config.getBoolean( ENABLED, false ) && !enabled )
+        {
+            LOG.warn( "AuditJournal disabled, " + DIR + " is not set" );
+        }
+
+        segmentBytes = config.getInt( SEGMENT_MB, 64 ) * 1024 * 1024;
+        maxSegments = config.getInt( MAX_SEGMENTS, 16 );
+        queueCapacity = config.getInt( QUEUE_CAPACITY, 100000 );
+        recentCapacity = config.getInt( RECENT, 10000 );
+        RestMetrics.register( "auditJournal", this );
+        LOG.info( "AuditJournal enabled=" + enabled + ", dir=" + dir );
+
+        if ( enabled )
+        {
+            Thread writer = new Thread( this::write, "fortress-rest-audit-journal" );
+            writer.setDaemon( true );
+            writer.start();
+        }
+    }
+
+
+    static AuditJournal getInstance()
+    {
+        return INSTANCE;
+    }
+
+
+    /**
+     * @return true if the records are journaled
+     */
+    boolean isEnabled()
+    {
+        return enabled;
+    }
+
+
+    /**
+     * @return The directory holding the segments, null when the journal is disabled
+     */
+    Path getDir()
+    {
+        return dir;
+    }
+
+
+    /**
+     * Tell whether a record matches a search.
+     *
+     * @param fields The record fields
+     * @param tenant The tenant
+     * @param userId The user, null for all
+     * @param since The oldest record time, in milliseconds
+     * @param until The newest record time, in milliseconds
+     * @param failedOnly true to match the failures only
+     * @return true if the record matches
+     */
+    static boolean matches( String[] fields, String tenant, String userId, long since, long until, boolean failedOnly )
+    {
+        long time = Long.parseLong( fields[0] );
+
+        return time >= since && time <= until && fields[1].equals( tenant )
+            && ( userId == null || fields[3].equalsIgnoreCase( userId ) )
+            && ( !failedOnly || !Boolean.parseBoolean( fields[5] ) );
+    }
+
+
+    /**
+     * Queue a record, never blocks.
+     *
+     * @param contextId The tenant
+     * @param type The operation
+     * @param userId The user
+     * @param resource The permission checked, objName.opName[.objId], null for authentications
+     * @param result true if the user was authenticated or authorized
+     */
+    void record( String contextId, Type type, String userId, String resource, boolean result )
+    {
+        if ( !enabled )
+        {
+            return;
+        }
+
+        if ( queueDepth.incrementAndGet() > queueCapacity )
+        {
+            queueDepth.decrementAndGet();
+            dropped.incrementAndGet();
+
+            return;
+        }
+
+        StringBuilder sb = new StringBuilder( 96 );
+        sb.append( System.currentTimeMillis() ).append( SEP );
+        field( sb, PolicyChanges.tenant( contextId ) ).append( SEP );
+        sb.append( type ).append( SEP );
+        field( sb, userId ).append( SEP );
+        field( sb, resource ).append( SEP );
+        sb.append( result );
+        queue.offer( sb.toString() );
+    }
+
+
+    /**
+     * Search the records kept in memory, newest first.
+     *
+     * @param contextId The tenant
+     * @param userId The user, null for all
+     * @param since The oldest record time, in milliseconds
+     * @param until The newest record time, in milliseconds
+     * @param failedOnly true to return the failed authentications and the denied authorizations only
+     * @param limit The max number of records
+     * @return The matching records
+     */
+    List<String> search( String contextId, String userId, long since, long until, boolean failedOnly, int limit )
+    {
+        String tenant = PolicyChanges.tenant( contextId );
+        List<String> found = new ArrayList<>();
+
+        synchronized ( recent )
+        {
+            Iterator<String> records = recent.descendingIterator();
+
+            while ( records.hasNext() && found.size() < limit )
+            {
+                String record = records.next();
+                String[] fields = AuditSegment.fields( record );
+
+                long time = Long.parseLong( fields[0] );
+
+                if ( time < since )
+                {
+                    break;
+                }
+
+                if ( matches( fields, tenant, userId, since, until, failedOnly ) )
+                {
+                    found.add( record );
+                }
+            }
+        }
+
+        return found;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void collect( Map<String, Number> metrics )
+    {
+        metrics.put( "queueDepth", queueDepth.get() );
+        metrics.put( "written", written.get() );
+        metrics.put( "dropped", dropped.get() );
+        metrics.put( "batches", batches.get() );
+        metrics.put( "segments", segments.get() );
+        metrics.put( "errors", errors.get() );
+        metrics.put( "retained", retained );
+    }
+
+
+    /**
+     * The writer thread loop.
+     */
+    private void write()
+    {
+        List<String> batch = new ArrayList<>( BATCH );
+
+        while ( true )
+        {
+            String record;
+
+            while ( batch.size() < BATCH && ( record = queue.poll() ) != null )
+            {
+                batch.add( record );
+            }
+
+            if ( batch.isEmpty() )
+            {
+                LockSupport.parkNanos( IDLE_NANOS );
+                continue;
+            }
+
+            queueDepth.addAndGet( -batch.size() );
+
+            try
+            {
+                append( batch );
+                written.addAndGet( batch.size() );
+                batches.incrementAndGet();
+            }
+            catch ( IOException | RuntimeException e )
+            {
+                errors.incrementAndGet();
+                dropped.addAndGet( batch.size() );
+                LOG.warn( "AuditJournal could not write " + batch.size() + " records", e );
+                segment = null;
+            }
+
+            remember( batch );
+            batch.clear();
+        }
+    }
+
+
+    private void append( List<String> batch ) throws IOException
+    {
+        for ( String record : batch )
+        {
+            byte[] line = ( record + '\n' ).getBytes( StandardCharsets.UTF_8 );
+
+            if ( segment == null || segment.remaining() < line.length )
+            {
+                roll();
+            }
+
+            segment.put( line );
+        }
+
+        segment.force();
+    }
+
+
+    /**
+     * Close the current segment and map a new one.
+     */
+    private void roll() throws IOException
+    {
+        if ( segment != null )
+        {
+            segment.force();
+        }
+
+        Files.createDirectories( dir );
+        Path path = dir.resolve( SEGMENT_PREFIX + System.currentTimeMillis() + SEGMENT_SUFFIX );
+
+        try ( FileChannel channel = FileChannel.open( path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+            StandardOpenOption.WRITE ) )
+        {
+            segment = channel.map( FileChannel.MapMode.READ_WRITE, 0, segmentBytes );
+        }
+
+        segments.incrementAndGet();
+        deleteOldSegments();
+    }
+
+
+    private void deleteOldSegments() throws IOException
+    {
+        List<Path> paths = segmentPaths( dir );
+        AuditArchive archive = AuditArchive.getInstance();
+        int kept = 0;
+
+        for ( int i = 0; i < paths.size() - maxSegments; i++ )
+        {
+            // Until compacted, a segment holds the only copy of its records
+            if ( archive.isEnabled() && !archive.isCompacted( segmentTime( paths.get( i ) ) ) )
+            {
+                kept++;
+
+                continue;
+            }
+
+            Files.deleteIfExists( paths.get( i ) );
+        }
+
+        if ( kept > 0 )
+        {
+            LOG.warn( "AuditJournal keeps " + kept + " segments beyond " + MAX_SEGMENTS + "=" + maxSegments
+                + ", the archive has not compacted them yet" );
+        }
+
+        retained = kept;
+    }
+
+
+    /**
+     * List the segments of a directory, oldest first.
+     *
+     * @param dir The journal directory
+     * @return The segment paths
+     * @throws IOException If the directory can't be read
+     */
+    static List<Path> segmentPaths( Path dir ) throws IOException
+    {
+        List<Path> paths = new ArrayList<>();
+
+        if ( !Files.isDirectory( dir ) )
+        {
+            return paths;
+        }
+
+        try ( DirectoryStream<Path> stream = Files.newDirectoryStream( dir,
+            SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX ) )
+        {
+            for ( Path path : stream )
+            {
+                paths.add( path );
+            }
+        }
+
+        paths.sort( ( a, b ) -> Long.compare( segmentTime( a ), segmentTime( b ) ) );
+
+        return paths;
+    }
+
+
+    /**
+     * @param path A segment path
+     * @return The time the segment was created, in milliseconds
+     */
+    static long segmentTime( Path path )
+    {
+        String name = path.getFileName().toString();
+
+        return Long.parseLong( name.substring( SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length() ) );
+    }
+
+
+    private void remember( List<String> batch )
+    {
+        synchronized ( recent )
+        {
+            for ( String record : batch )
+            {
+                recent.addLast( record );
+
+                if ( recent.size() > recentCapacity )
+                {
+                    recent.removeFirst();
+                }
+            }
+        }
+    }
+
+
+    private static StringBuilder field( StringBuilder sb, String value )
+    {
+        if ( value == null )
+        {
+            return sb;
+        }
+
+        for ( int i = 0; i < value.length(); i++ )
+        {
+            char c = value.charAt( i );
+            sb.append( c == SEP || c == '\n' || c == '\r' ? ' ' : c );
+        }
+
+        return sb;
+    }
+}
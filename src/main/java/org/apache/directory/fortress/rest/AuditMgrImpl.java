@@ -20,7 +20,6 @@
 package org.apache.directory.fortress.rest;
 
 import org.apache.directory.fortress.core.AuditMgr;
-import org.apache.directory.fortress.core.AuditMgrFactory;
 import org.apache.directory.fortress.core.SecurityException;
 import org.apache.directory.fortress.core.model.AuthZ;
 import org.apache.directory.fortress.core.model.Bind;
@@ -42,6 +41,9 @@ class AuditMgrImpl extends AbstractMgrImpl
     /** A logger for this class */
     private static final Logger log = Logger.getLogger( AuditMgrImpl.class.getName() );
 
+    /** The max number of journal records returned when the request has no limit */
+    private static final int JOURNAL_LIMIT = 1000;
+
     /**
      * ************************************************************************************************************************************
      * BEGIN AUDIT
@@ -55,7 +57,7 @@ class AuditMgrImpl extends AbstractMgrImpl
         try
         {
             UserAudit inAudit = (UserAudit) request.getEntity();
-            AuditMgr auditMgr = AuditMgrFactory.createInstance( request.getContextId() );
+            AuditMgr auditMgr = DirectoryRouter.getInstance().auditMgr( request.getContextId() );
             auditMgr.setAdmin( request.getSession() );
             List<Bind> outAudit = auditMgr.searchBinds( inAudit );
             response.setEntities( outAudit );
@@ -76,7 +78,7 @@ class AuditMgrImpl extends AbstractMgrImpl
         try
         {
             UserAudit inAudit = (UserAudit)request.getEntity();
-            AuditMgr auditMgr = AuditMgrFactory.createInstance( request.getContextId() );
+            AuditMgr auditMgr = DirectoryRouter.getInstance().auditMgr( request.getContextId() );
             auditMgr.setAdmin( request.getSession() );
             List<AuthZ> outAudit = auditMgr.getUserAuthZs( inAudit );
             response.setEntities( outAudit );
@@ -97,7 +99,7 @@ class AuditMgrImpl extends AbstractMgrImpl
         try
         {
             UserAudit inAudit = (UserAudit)request.getEntity();
-            AuditMgr auditMgr = AuditMgrFactory.createInstance( request.getContextId() );
+            AuditMgr auditMgr = DirectoryRouter.getInstance().auditMgr( request.getContextId() );
             auditMgr.setAdmin( request.getSession() );
             List<AuthZ> outAudit = auditMgr.searchAuthZs( inAudit );
             response.setEntities( outAudit );
@@ -118,7 +120,7 @@ class AuditMgrImpl extends AbstractMgrImpl
         try
         {
             UserAudit inAudit = (UserAudit)request.getEntity();
-            AuditMgr auditMgr = AuditMgrFactory.createInstance( request.getContextId() );
+            AuditMgr auditMgr = DirectoryRouter.getInstance().auditMgr( request.getContextId() );
             auditMgr.setAdmin( request.getSession() );
             List<Mod> outAudit = auditMgr.searchUserSessions( inAudit );
             response.setEntities( outAudit );
@@ -139,7 +141,7 @@ class AuditMgrImpl extends AbstractMgrImpl
         try
         {
             UserAudit inAudit = (UserAudit)request.getEntity();
-            AuditMgr auditMgr = AuditMgrFactory.createInstance( request.getContextId() );
+            AuditMgr auditMgr = DirectoryRouter.getInstance().auditMgr( request.getContextId() );
             auditMgr.setAdmin( request.getSession() );
             List<Mod> outAudit = auditMgr.searchAdminMods( inAudit );
             response.setEntities( outAudit );
@@ -160,7 +162,7 @@ class AuditMgrImpl extends AbstractMgrImpl
         try
         {
             UserAudit inAudit = (UserAudit)request.getEntity();
-            AuditMgr auditMgr = AuditMgrFactory.createInstance( request.getContextId() );
+            AuditMgr auditMgr = DirectoryRouter.getInstance().auditMgr( request.getContextId() );
             auditMgr.setAdmin( request.getSession() );
             List<AuthZ> outAudit = auditMgr.searchInvalidUsers( inAudit );
             response.setEntities( outAudit );
@@ -172,4 +174,34 @@ class AuditMgrImpl extends AbstractMgrImpl
         
         return response;
     }
-}
\ No newline at end of file
+
+
+    /* No qualifier */ FortResponse searchJournal( FortRequest request )
+    {
+        FortResponse response = createResponse();
+        UserAudit inAudit = (UserAudit) request.getEntity();
+        String userId = inAudit == null ? null : inAudit.getUserId();
+        long since = inAudit == null || inAudit.getBeginDate() == null ? 0 : inAudit.getBeginDate().getTime();
+        long until = inAudit == null || inAudit.getEndDate() == null ? Long.MAX_VALUE : inAudit.getEndDate().getTime();
+        boolean failedOnly = inAudit != null && inAudit.isFailedOnly();
+        int limit = request.getLimit() == null ? JOURNAL_LIMIT : request.getLimit();
+        List<String> records = null;
+
+        // Older ranges are read from the archive, the recent records from the journal
+        if ( AuditArchive.getInstance().covers( since, until ) )
+        {
+            records = AuditArchive.getInstance().search( request.getContextId(), userId, since, until, failedOnly,
+                limit );
+        }
+
+        if ( records == null )
+        {
+            records = AuditJournal.getInstance().search( request.getContextId(), userId, since, until, failedOnly,
+                limit );
+        }
+
+        response.setValues( records );
+
+        return response;
+    }
+}
@@ -0,0 +1,429 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.fortress.rest;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Columnar file holding the audit journal records of one tenant and one day, see {@link AuditArchive}.
+ * <p>
+ * The file starts with an uncompressed header: magic, version, record count, min and max record time and a bloom
+ * filter of the userIds, so the files that can't match a query are skipped without decompressing anything.  The
+ * columns follow, each deflated on its own: times as zigzag deltas, types, userIds and resources as a dictionary
+ * followed by the ids, results as a bitset.
+ * <p>
+ * This class is immutable and thread safe.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+final class AuditSegment
+{
+    /** "FRAC" */
+    private static final int MAGIC = 0x46524143;
+    private static final int VERSION = 1;
+
+    private static final int BLOOM_WORDS = 32;
+    private static final int BLOOM_BITS = BLOOM_WORDS * 64;
+    private static final int BLOOM_HASHES = 3;
+
+    /** Separates the fields of the journal records */
+    static final char SEP = '\t';
+
+    private static final AuditJournal.Type[] TYPES = AuditJournal.Type.values();
+
+    private final int count;
+    private final long minTime;
+    private final long maxTime;
+    private final long[] bloom;
+
+
+    private AuditSegment( int count, long minTime, long maxTime, long[] bloom )
+    {
+        this.count = count;
+        this.minTime = minTime;
+        this.maxTime = maxTime;
+        this.bloom = bloom;
+    }
+
+
+    int getCount()
+    {
+        return count;
+    }
+
+
+    long getMinTime()
+    {
+        return minTime;
+    }
+
+
+    long getMaxTime()
+    {
+        return maxTime;
+    }
+
+
+    /**
+     * Tell whether the file may hold records of a user.
+     *
+     * @param userId The user
+     * @return false if the file holds no record of the user, true if it may
+     */
+    boolean mayContain( String userId )
+    {
+        int hash = userId.toLowerCase( Locale.ENGLISH ).hashCode();
+
+        for ( int i = 0; i < BLOOM_HASHES; i++ )
+        {
+            int bit = bloomBit( hash, i );
+
+            if ( ( bloom[bit >>> 6] & ( 1L << bit ) ) == 0 )
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+
+    /**
+     * Split a journal record in its fields.  Kept here rather than in {@link AuditJournal} so the segments can be read
+     * without starting the journal.
+     *
+     * @param record A journal line, without the line separator
+     * @return The six fields
+     */
+    static String[] fields( String record )
+    {
+        return record.split( String.valueOf( SEP ), -1 );
+    }
+
+
+    /**
+     * Write records to a file.
+     *
+     * @param path The file, replaced if it exists
+     * @param records The journal records, split in fields, see {@link #fields}
+     * @throws IOException If the file can't be written
+     */
+    static void write( Path path, List<String[]> records ) throws IOException
+    {
+        long minTime = Long.MAX_VALUE;
+        long maxTime = Long.MIN_VALUE;
+        long[] bloom = new long[BLOOM_WORDS];
+        ByteArrayOutputStream times = new ByteArrayOutputStream();
+        ByteArrayOutputStream types = new ByteArrayOutputStream();
+        Dictionary users = new Dictionary();
+        Dictionary resources = new Dictionary();
+        byte[] results = new byte[( records.size() + 7 ) / 8];
+        long previous = 0;
+
+        for ( int i = 0; i < records.size(); i++ )
+        {
+            String[] record = records.get( i );
+            long time = Long.parseLong( record[0] );
+            minTime = Math.min( minTime, time );
+            maxTime = Math.max( maxTime, time );
+            writeVarlong( times, zigzag( time - previous ) );
+            previous = time;
+            types.write( AuditJournal.Type.valueOf( record[2] ).ordinal() );
+            users.add( record[3] );
+            resources.add( record[4] );
+
+            if ( Boolean.parseBoolean( record[5] ) )
+            {
+                results[i >>> 3] |= 1 << ( i & 7 );
+            }
+
+            int hash = record[3].toLowerCase( Locale.ENGLISH ).hashCode();
+
+            for ( int h = 0; h < BLOOM_HASHES; h++ )
+            {
+                int bit = bloomBit( hash, h );
+                bloom[bit >>> 6] |= 1L << bit;
+            }
+        }
+
+        try ( DataOutputStream out = new DataOutputStream( Files.newOutputStream( path ) ) )
+        {
+            out.writeInt( MAGIC );
+            out.writeByte( VERSION );
+            out.writeInt( records.size() );
+            out.writeLong( minTime );
+            out.writeLong( maxTime );
+
+            for ( long word : bloom )
+            {
+                out.writeLong( word );
+            }
+
+            writeColumn( out, times.toByteArray() );
+            writeColumn( out, types.toByteArray() );
+            writeColumn( out, users.toByteArray() );
+            writeColumn( out, resources.toByteArray() );
+            writeColumn( out, results );
+        }
+    }
+
+
+    /**
+     * Read the header of a file.
+     *
+     * @param path The file
+     * @return The header
+     * @throws IOException If the file can't be read or is not a segment
+     */
+    static AuditSegment header( Path path ) throws IOException
+    {
+        try ( DataInputStream in = new DataInputStream( Files.newInputStream( path ) ) )
+        {
+            return header( in );
+        }
+    }
+
+
+    /**
+     * Read the records of a file.
+     *
+     * @param path The file
+     * @param tenant The tenant of the file, put back in the records
+     * @return The records, as journal lines in the order they were written
+     * @throws IOException If the file can't be read or is not a segment
+     */
+    static List<String> read( Path path, String tenant ) throws IOException
+    {
+        try ( DataInputStream in = new DataInputStream( Files.newInputStream( path ) ) )
+        {
+            AuditSegment header = header( in );
+            int count = header.count;
+            DataInputStream times = readColumn( in );
+            DataInputStream types = readColumn( in );
+            String[] users = Dictionary.read( readColumn( in ), count );
+            String[] resources = Dictionary.read( readColumn( in ), count );
+            byte[] results = new byte[( count + 7 ) / 8];
+            readColumn( in ).readFully( results );
+            List<String> records = new ArrayList<>( count );
+            long time = 0;
+
+            for ( int i = 0; i < count; i++ )
+            {
+                time += unzigzag( readVarlong( times ) );
+                StringBuilder sb = new StringBuilder( 96 );
+                sb.append( time ).append( SEP ).append( tenant ).append( SEP );
+                sb.append( TYPES[types.readUnsignedByte()] ).append( SEP );
+                sb.append( users[i] ).append( SEP ).append( resources[i] ).append( SEP );
+                sb.append( ( results[i >>> 3] & ( 1 << ( i & 7 ) ) ) != 0 );
+                records.add( sb.toString() );
+            }
+
+            return records;
+        }
+    }
+
+
+    private static AuditSegment header( DataInputStream in ) throws IOException
+    {
+        if ( in.readInt() != MAGIC || in.readUnsignedByte() != VERSION )
+        {
+            throw new IOException( "Not an audit segment" );
+        }
+
+        int count = in.readInt();
+        long minTime = in.readLong();
+        long maxTime = in.readLong();
+        long[] bloom = new long[BLOOM_WORDS];
+
+        for ( int i = 0; i < BLOOM_WORDS; i++ )
+        {
+            bloom[i] = in.readLong();
+        }
+
+        return new AuditSegment( count, minTime, maxTime, bloom );
+    }
+
+
+    private static int bloomBit( int hash, int i )
+    {
+        int mixed = hash * ( 0x9E3779B1 + 2 * i ) ^ ( hash >>> 16 );
+
+        return ( mixed & Integer.MAX_VALUE ) % BLOOM_BITS;
+    }
+
+
+    private static void writeColumn( DataOutputStream out, byte[] column ) throws IOException
+    {
+        ByteArrayOutputStream deflated = new ByteArrayOutputStream( column.length / 4 + 16 );
+        Deflater deflater = new Deflater( Deflater.BEST_SPEED );
+
+        try ( DeflaterOutputStream dos = new DeflaterOutputStream( deflated, deflater ) )
+        {
+            dos.write( column );
+        }
+        finally
+        {
+            deflater.end();
+        }
+
+        out.writeInt( deflated.size() );
+        deflated.writeTo( out );
+    }
+
+
+    private static DataInputStream readColumn( DataInputStream in ) throws IOException
+    {
+        byte[] deflated = new byte[in.readInt()];
+        in.readFully( deflated );
+
+        return new DataInputStream( new InflaterInputStream( new ByteArrayInputStream( deflated ) ) );
+    }
+
+
+    private static long zigzag( long value )
+    {
+        return ( value << 1 ) ^ ( value >> 63 );
+    }
+
+
+    private static long unzigzag( long value )
+    {
+        return ( value >>> 1 ) ^ -( value & 1 );
+    }
+
+
+    private static void writeVarlong( OutputStream out, long value ) throws IOException
+    {
+        long remaining = value;
+
+        while ( ( remaining & ~0x7FL ) != 0 )
+        {
+            out.write( ( int ) ( ( remaining & 0x7F ) | 0x80 ) );
+            remaining >>>= 7;
+        }
+
+        out.write( ( int ) remaining );
+    }
+
+
+    private static long readVarlong( InputStream in ) throws IOException
+    {
+        long value = 0;
+
+        for ( int shift = 0; shift < 64; shift += 7 )
+        {
+            int b = in.read();
+
+            if ( b < 0 )
+            {
+                throw new IOException( "Truncated audit segment" );
+            }
+
+            value |= ( long ) ( b & 0x7F ) << shift;
+
+            if ( ( b & 0x80 ) == 0 )
+            {
+                return value;
+            }
+        }
+
+        throw new IOException( "Invalid audit segment" );
+    }
+
+
+    /**
+     * A string column: the distinct values, then the id of the value of each record.
+     */
+    private static final class Dictionary
+    {
+        private final Map<String, Integer> ids = new HashMap<>();
+        private final List<String> values = new ArrayList<>();
+        private final ByteArrayOutputStream refs = new ByteArrayOutputStream();
+
+
+        private void add( String value ) throws IOException
+        {
+            Integer id = ids.get( value );
+
+            if ( id == null )
+            {
+                id = values.size();
+                ids.put( value, id );
+                values.add( value );
+            }
+
+            writeVarlong( refs, id );
+        }
+
+
+        private byte[] toByteArray() throws IOException
+        {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream( bytes );
+            writeVarlong( out, values.size() );
+
+            for ( String value : values )
+            {
+                out.writeUTF( value );
+            }
+
+            refs.writeTo( out );
+            out.flush();
+
+            return bytes.toByteArray();
+        }
+
+
+        private static String[] read( DataInputStream in, int count ) throws IOException
+        {
+            String[] values = new String[( int ) readVarlong( in )];
+
+            for ( int i = 0; i < values.length; i++ )
+            {
+                values[i] = in.readUTF();
+            }
+
+            String[] column = new String[count];
+
+            for ( int i = 0; i < count; i++ )
+            {
+                column[i] = values[( int ) readVarlong( in )];
+            }
+
+            return column;
+        }
+    }
+}
@@ -0,0 +1,459 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.fortress.rest;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+import org.apache.directory.fortress.core.SecurityException;
+import org.apache.directory.fortress.core.model.Session;
+import org.apache.directory.fortress.core.model.User;
+import org.apache.directory.fortress.core.model.UserRole;
+import org.apache.directory.fortress.core.util.Config;
+import org.apache.log4j.Logger;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Short lived cache of the successful authentications, saving the directory bind of the clients that authenticate the
+ * same account over and over.
+ * <p>
+ * An entry is keyed by tenant and userId, and by the role names requested for a createSession.  It holds the session
+ * returned by fortress-core along with a PBKDF2 digest of the password, salted with a random value drawn at startup
+ * and with the tenant and userId.  The password itself is never kept.  A request is served from the cache only when
+ * the digest of its password matches, the failures are never cached.  Each request served from the cache gets its own
+ * deep copy of the session, with a new sessionId, so the clients never share a session.
+ * <p>
+ * Entries expire after <code>rest.auth.cache.ttl.seconds</code>.  The entry of a user is dropped by every write on
+ * that user done through this server, i.e. changePassword, resetPassword, lockUserAccount, disableUser and deleteUser,
+ * see {@link PolicyChanges}.  The sessions are also dropped by the role and separation of duty writes, the password
+ * policy writes drop every entry of the tenant.  The password policy bookkeeping done by a bind, i.e. the last success
+ * time, is skipped for the requests served from the cache.
+ * <p>
+ * The cache is disabled unless <code>rest.auth.cache.enabled=true</code>.
+ * <p>
+ * This class is thread safe.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+final class AuthCache implements PolicyChanges.Listener, RestMetrics.Source
+{
+    /** A logger for this class */
+    private static final Logger LOG = Logger.getLogger( AuthCache.class.getName() );
+
+    private static final String ENABLED = "rest.auth.cache.enabled";
+    private static final String TTL = "rest.auth.cache.ttl.seconds";
+    private static final String MAX_ENTRIES = "rest.auth.cache.max.entries";
+    private static final String ITERATIONS = "rest.auth.cache.hash.iterations";
+
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final int DIGEST_BITS = 256;
+
+    /** Separates the user and the requested roles in the entry keys */
+    private static final char SEP = '\u0000';
+
+    /** Copies the cached sessions */
+    private static final JacksonFieldOnlyMapper MAPPER = new JacksonFieldOnlyMapper();
+
+    /**
+     * The calls whose results are cached.
+     */
+    enum Kind
+    {
+        /** authenticate, returns a session without roles */
+        AUTHENTICATE,
+
+        /** createSession, untrusted */
+        SESSION
+    }
+
+    /**
+     * Performs the authentication when it is not in the cache.
+     */
+    interface Authenticator
+    {
+        Session authenticate() throws SecurityException;
+    }
+
+    private final boolean enabled;
+    private final long ttlNanos;
+    private final int maxEntries;
+    private final int iterations;
+    private final byte[] salt = new byte[16];
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    /** Incremented by every invalidation, prevents an authentication racing with a write from being cached */
+    private final AtomicLong generation = new AtomicLong();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong bypassed = new AtomicLong();
+    private final AtomicLong mismatches = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+    private final AtomicLong hashNanos = new AtomicLong();
+
+
+    private AuthCache()
+    {
+        this( Config.getInstance().getBoolean( ENABLED, false ), Config.getInstance().getInt( TTL, 30 ),
+            Config.getInstance().getInt( MAX_ENTRIES, 10000 ), Config.getInstance().getInt( ITERATIONS, 10000 ) );
+        RestMetrics.register( "authCache", this );
+        LOG.info( "AuthCache enabled=" + enabled + ", ttl=" + TimeUnit.NANOSECONDS.toSeconds( ttlNanos ) );
+    }
+
+
+    /**
+     * @param enabled False to always call the authenticator
+     * @param ttlSeconds How long a successful authentication is kept
+     * @param maxEntries The max number of authentications kept
+     * @param iterations The number of iterations of the password hash
+     */
+    AuthCache( boolean enabled, int ttlSeconds, int maxEntries, int iterations )
+    {
+        this.enabled = enabled;
+        this.ttlNanos = TimeUnit.SECONDS.toNanos( ttlSeconds );
+        this.maxEntries = maxEntries;
+        this.iterations = iterations;
+        new SecureRandom().nextBytes( salt );
+    }
+
+
+    static AuthCache getInstance()
+    {
+        return Instance.INSTANCE;
+    }
+
+
+    /**
+     * Return the cached session of a user whose password matches, or authenticate and cache the session.
+     *
+     * @param tenant The tenant, see {@link PolicyChanges#tenant}
+     * @param kind The call
+     * @param user The user, userId and password are used, and the role names for a {@link Kind#SESSION}
+     * @param authenticator Authenticates against the directory
+     * @return The session
+     * @throws SecurityException The exception thrown by the authenticator
+     */
+    Session authenticate( String tenant, Kind kind, User user, Authenticator authenticator )
+        throws SecurityException
+    {
+        String password = user.getPassword();
+
+        if ( !enabled || user.getUserId() == null || password == null || password.isEmpty() )
+        {
+            bypassed.incrementAndGet();
+
+            return authenticator.authenticate();
+        }
+
+        String userKey = EntityType.key( user.getUserId() );
+        String entryKey = key( tenant, kind, userKey ) + ( kind == Kind.SESSION ? roles( user ) : "" );
+        byte[] digest = digest( tenant, userKey, password );
+        long now = System.nanoTime();
+        Entry entry = entries.get( entryKey );
+
+        if ( entry != null && entry.expires - now > 0 )
+        {
+            if ( !MessageDigest.isEqual( entry.digest, digest ) )
+            {
+                mismatches.incrementAndGet();
+            }
+            else
+            {
+                Session copy = copy( entry.session );
+
+                if ( copy != null )
+                {
+                    hits.incrementAndGet();
+
+                    return copy;
+                }
+            }
+        }
+
+        misses.incrementAndGet();
+        long started = generation.get();
+        Session session = authenticator.authenticate();
+
+        // The session returned is the caller's, the cache keeps its own copy
+        Session cached = session == null || digest == null ? null : copy( session );
+
+        if ( cached != null && generation.get() == started )
+        {
+            if ( entries.size() >= maxEntries )
+            {
+                evictExpired( now );
+            }
+
+            entries.put( entryKey, new Entry( digest, cached, now + ttlNanos ) );
+        }
+
+        return session;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void changed( String tenant, EntityType type, String key, String name, ChangeOp op )
+    {
+        if ( !enabled )
+        {
+            return;
+        }
+
+        switch ( type )
+        {
+            case USER:
+                if ( key == null )
+                {
+                    invalidate( tenant, null );
+                }
+                else
+                {
+                    generation.incrementAndGet();
+
+                    for ( Kind kind : Kind.values() )
+                    {
+                        invalidate( key( tenant, kind, key ) );
+                    }
+
+                    invalidations.incrementAndGet();
+                }
+
+                break;
+
+            case ROLE:
+            case SSD:
+            case DSD:
+                invalidate( tenant, Kind.SESSION );
+                break;
+
+            case PW_POLICY:
+            case CONFIG:
+                invalidate( tenant, null );
+                break;
+
+            default:
+                break;
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void collect( Map<String, Number> metrics )
+    {
+        long digests = hits.get() + misses.get();
+        metrics.put( "hits", hits.get() );
+        metrics.put( "misses", misses.get() );
+        metrics.put( "bypassed", bypassed.get() );
+        metrics.put( "passwordMismatches", mismatches.get() );
+        metrics.put( "hitRatio", RestMetrics.ratio( hits.get(), digests ) );
+        metrics.put( "bindsSaved", hits.get() );
+        metrics.put( "hashMicrosAvg", RestMetrics.ratio( TimeUnit.NANOSECONDS.toMicros( hashNanos.get() ), digests ) );
+        metrics.put( "invalidations", invalidations.get() );
+        metrics.put( "size", entries.size() );
+    }
+
+
+    /**
+     * Drop the entries of a tenant.
+     *
+     * @param tenant The tenant
+     * @param kind The kind of entries dropped, null for all
+     */
+    private void invalidate( String tenant, Kind kind )
+    {
+        generation.incrementAndGet();
+        invalidate( kind == null ? tenant + ':' : tenant + ':' + kind + ':' );
+        invalidations.incrementAndGet();
+    }
+
+
+    private void invalidate( String prefix )
+    {
+        Iterator<String> keys = entries.keySet().iterator();
+
+        while ( keys.hasNext() )
+        {
+            if ( keys.next().startsWith( prefix ) )
+            {
+                keys.remove();
+            }
+        }
+    }
+
+
+    private void evictExpired( long now )
+    {
+        Iterator<Entry> values = entries.values().iterator();
+
+        while ( values.hasNext() )
+        {
+            if ( values.next().expires - now <= 0 )
+            {
+                values.remove();
+            }
+        }
+
+        // Still full, start over rather than growing
+        if ( entries.size() >= maxEntries )
+        {
+            entries.clear();
+        }
+    }
+
+
+    /**
+     * Compute the salted slow hash of a password.
+     *
+     * @return The digest, or null if the algorithm is not available, the authentication is then not cached
+     */
+    private byte[] digest( String tenant, String userKey, String password )
+    {
+        long started = System.nanoTime();
+        byte[] userSalt = ( tenant + ':' + userKey ).getBytes( StandardCharsets.UTF_8 );
+        byte[] fullSalt = new byte[salt.length + userSalt.length];
+        System.arraycopy( salt, 0, fullSalt, 0, salt.length );
+        System.arraycopy( userSalt, 0, fullSalt, salt.length, userSalt.length );
+        PBEKeySpec spec = new PBEKeySpec( password.toCharArray(), fullSalt, iterations, DIGEST_BITS );
+
+        try
+        {
+            return SecretKeyFactory.getInstance( ALGORITHM ).generateSecret( spec ).getEncoded();
+        }
+        catch ( GeneralSecurityException gse )
+        {
+            LOG.warn( "AuthCache can't hash with " + ALGORITHM + ": " + gse );
+
+            return null;
+        }
+        finally
+        {
+            spec.clearPassword();
+            hashNanos.addAndGet( System.nanoTime() - started );
+        }
+    }
+
+
+    /**
+     * @return The start of the keys of a user, the requested roles follow
+     */
+    private static String key( String tenant, Kind kind, String userKey )
+    {
+        return tenant + ':' + kind + ':' + userKey + SEP;
+    }
+
+
+    /**
+     * @return The sorted, lower cased names of the roles requested for the session
+     */
+    private static String roles( User user )
+    {
+        List<UserRole> roles = user.getRoles();
+
+        if ( roles == null || roles.isEmpty() )
+        {
+            return "";
+        }
+
+        List<String> names = new ArrayList<>( roles.size() );
+
+        for ( UserRole role : roles )
+        {
+            names.add( EntityType.key( role.getName() ) );
+        }
+
+        Collections.sort( names );
+
+        return String.join( ",", names );
+    }
+
+
+    /**
+     * Deep copy a session.  The sessionId is left out so the copy gets a new one from the Session constructor.
+     *
+     * @return The copy, or null if the session could not be copied, the cache is then not used
+     */
+    private static Session copy( Session session )
+    {
+        try
+        {
+            ObjectNode tree = MAPPER.valueToTree( session );
+            tree.remove( "sessionId" );
+
+            return MAPPER.treeToValue( tree, Session.class );
+        }
+        catch ( IOException | IllegalArgumentException e )
+        {
+            LOG.warn( "AuthCache could not copy a session", e );
+
+            return null;
+        }
+    }
+
+
+    /**
+     * Creates the cache from the configuration on its first use, the tests create their own.
+     */
+    private static final class Instance
+    {
+        private static final AuthCache INSTANCE = new AuthCache();
+    }
+
+
+    /**
+     * A successful authentication.
+     */
+    private static final class Entry
+    {
+        private final byte[] digest;
+        private final Session session;
+        private final long expires;
+
+
+        private Entry( byte[] digest, Session session, long expires )
+        {
+            this.digest = digest;
+            this.session = session;
+            this.expires = expires;
+        }
+    }
+}
@@ -0,0 +1,541 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.fortress.rest;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.http.HttpServletResponse;
+import javax.ws.rs.container.AsyncResponse;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.directory.fortress.core.GlobalErrIds;
+import org.apache.directory.fortress.core.model.FortRequest;
+import org.apache.directory.fortress.core.model.FortResponse;
+import org.apache.directory.fortress.core.util.Config;
+import org.apache.log4j.Logger;
+
+/**
+ * Per tenant feed of the policy writes done through this server, served by long-polling.
+ * <p>
+ * Every write gets the next version of its tenant.  A client sends the cursor of the last version it has seen and is
+ * answered as soon as newer events exist, or with no event after <code>rest.feed.wait.seconds</code>.  The waiting
+ * requests are suspended, they do not hold a container thread.  When a write wakes them a single notifier thread
+ * builds one response per distinct cursor and shares it between the subscribers, the writes done while the notifier
+ * is busy are delivered together.
+ * <p>
+ * The feed keeps the last <code>rest.feed.capacity</code> events of each tenant.  A subscriber lagging further
+ * behind gets a {@link RestErrIds#FEED_RESYNC} error and has to reload its copy of the policy.  The versions are only
+ * meaningful to the feed that numbered them: a cursor names its feed, and a cursor given by another server, or by
+ * this server before a restart, gets a resync too.  At most <code>rest.feed.max.tenants</code> feeds are kept, the
+ * least recently used feed without subscriber is dropped to make room.  A response holds at most
+ * <code>rest.feed.max.events</code> events and at most <code>rest.feed.max.subscribers</code> requests may wait at
+ * the same time, the next ones are answered with HTTP 503.
+ * <p>
+ * This class is thread safe.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+final class ChangeFeed implements PolicyChanges.Listener, RestMetrics.Source
+{
+    /** A logger for this class */
+    private static final Logger LOG = Logger.getLogger( ChangeFeed.class.getName() );
+
+    private static final String CAPACITY = "rest.feed.capacity";
+    private static final String WAIT = "rest.feed.wait.seconds";
+    private static final String MAX_EVENTS = "rest.feed.max.events";
+    private static final String MAX_SUBSCRIBERS = "rest.feed.max.subscribers";
+    private static final String MAX_TENANTS = "rest.feed.max.tenants";
+
+    /** Replaces the key of the events concerning all the entities of a type */
+    private static final String ALL = "*";
+
+    private static final ChangeFeed INSTANCE = new ChangeFeed();
+
+    private final int capacity;
+    private final int waitSeconds;
+    private final int maxEvents;
+    private final int maxSubscribers;
+    private final int maxTenants;
+
+    /** Identifies this server instance in the cursors, it is new at each start */
+    private final String node = Long.toHexString( new SecureRandom().nextLong() );
+
+    /** Numbers the feeds created by this server, a feed dropped then created again gets a new id */
+    private final AtomicLong feedIds = new AtomicLong();
+
+    /** One feed per tenant, created by its first subscriber */
+    private final ConcurrentMap<String, Feed> feeds = new ConcurrentHashMap<>();
+
+    /** Resumes the waiting requests, out of the thread of the writes */
+    private final ExecutorService notifier = Executors.newSingleThreadExecutor( runnable ->
+    {
+        Thread thread = new Thread( runnable, "fortress-rest-change-feed" );
+        thread.setDaemon( true );
+
+        return thread;
+    } );
+
+    private final AtomicInteger subscribers = new AtomicInteger();
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong resyncs = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+
+
+    private ChangeFeed()
+    {
+        Config config = Config.getInstance();
+        capacity = config.getInt( CAPACITY, 4096 );
+        waitSeconds = config.getInt( WAIT, 30 );
+        maxEvents = config.getInt( MAX_EVENTS, 500 );
+        maxSubscribers = config.getInt( MAX_SUBSCRIBERS, 10000 );
+        maxTenants = config.getInt( MAX_TENANTS, 1000 );
+        RestMetrics.register( "changeFeed", this );
+        LOG.info( "ChangeFeed capacity=" + capacity + ", wait=" + waitSeconds + ", maxSubscribers=" + maxSubscribers );
+    }
+
+
+    static ChangeFeed getInstance()
+    {
+        return INSTANCE;
+    }
+
+
+    /**
+     * Answer the request with the events that follow the cursor given in {@link FortRequest#value}, waiting for
+     * them if there are none yet.  Without cursor the current version is returned at once.
+     *
+     * @param request The request, gives the tenant and the cursor
+     * @param asyncResponse The suspended response of the request
+     */
+    void subscribe( FortRequest request, AsyncResponse asyncResponse )
+    {
+        String tenant = PolicyChanges.tenant( request.getContextId() );
+        String value = StringUtils.trimToNull( request.getValue() );
+        String feedId = null;
+        long cursor = 0;
+
+        if ( value != null )
+        {
+            int dot = value.lastIndexOf( '.' );
+
+            try
+            {
+                cursor = Long.parseLong( value.substring( dot + 1 ) );
+            }
+            catch ( NumberFormatException nfe )
+            {
+                dot = -1;
+            }
+
+            if ( dot <= 0 )
+            {
+                asyncResponse.resume( error( RestErrIds.FEED_INVALID_CURSOR, "Invalid change feed cursor " + value,
+                    HttpServletResponse.SC_BAD_REQUEST ) );
+
+                return;
+            }
+
+            feedId = value.substring( 0, dot );
+        }
+
+        FortResponse response = null;
+
+        while ( response == null )
+        {
+            Feed feed = feed( tenant );
+
+            synchronized ( feed )
+            {
+                // Dropped since it was read from the map, the next loop creates a new one
+                if ( feed.removed )
+                {
+                    continue;
+                }
+
+                feed.used = System.nanoTime();
+
+                if ( feedId == null )
+                {
+                    response = events( feed, feed.version );
+                }
+                else if ( !feedId.equals( feed.id ) )
+                {
+                    response = resync( feed, "Change feed cursor " + value + " was given by another server" );
+                }
+                else if ( cursor != feed.version )
+                {
+                    response = events( feed, cursor );
+                }
+                else if ( subscribers.get() >= maxSubscribers )
+                {
+                    rejected.incrementAndGet();
+                    response = error( RestErrIds.FEED_TOO_MANY_SUBSCRIBERS, "Too many change feed subscribers",
+                        HttpServletResponse.SC_SERVICE_UNAVAILABLE );
+                }
+                else
+                {
+                    Waiter waiter = new Waiter( asyncResponse, cursor );
+                    asyncResponse.setTimeoutHandler( suspended -> timeout( feed, waiter ) );
+                    asyncResponse.setTimeout( waitSeconds, TimeUnit.SECONDS );
+                    feed.waiters.add( waiter );
+                    subscribers.incrementAndGet();
+
+                    return;
+                }
+            }
+        }
+
+        asyncResponse.resume( response );
+    }
+
+
+    /**
+     * @param tenant The tenant
+     * @return The cursor of the last write done in the tenant, changes with every write
+     */
+    String cursor( String tenant )
+    {
+        Feed feed = feed( tenant );
+
+        synchronized ( feed )
+        {
+            feed.used = System.nanoTime();
+
+            return cursor( feed, feed.version );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void changed( String tenant, EntityType type, String key, String name, ChangeOp op )
+    {
+        Feed feed = feeds.get( tenant );
+        boolean wake = false;
+        published.incrementAndGet();
+
+        // Without feed the tenant has no subscriber, and no cursor to follow
+        if ( feed == null )
+        {
+            return;
+        }
+
+        synchronized ( feed )
+        {
+            feed.version++;
+            feed.ring[index( feed.version )] = feed.version + " " + type + " " + op + " " + ( key == null ? ALL : key );
+
+            if ( !feed.waiters.isEmpty() && !feed.waking )
+            {
+                feed.waking = true;
+                wake = true;
+            }
+        }
+
+        if ( wake )
+        {
+            notifier.execute( () -> wake( feed ) );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void collect( Map<String, Number> metrics )
+    {
+        metrics.put( "subscribers", subscribers.get() );
+        metrics.put( "published", published.get() );
+        metrics.put( "delivered", delivered.get() );
+        metrics.put( "timeouts", timeouts.get() );
+        metrics.put( "resyncs", resyncs.get() );
+        metrics.put( "rejected", rejected.get() );
+        metrics.put( "tenants", feeds.size() );
+        metrics.put( "evicted", evicted.get() );
+    }
+
+
+    /**
+     * Resume all the requests waiting on a feed.  Runs on the notifier thread.
+     */
+    private void wake( Feed feed )
+    {
+        List<Waiter> waiters;
+        Map<Long, FortResponse> responses = new HashMap<>();
+
+        synchronized ( feed )
+        {
+            feed.waking = false;
+            waiters = new ArrayList<>( feed.waiters );
+            feed.waiters.clear();
+
+            // The subscribers mostly wait on the same cursor, the responses are only read once built so they are shared
+            for ( Waiter waiter : waiters )
+            {
+                if ( !responses.containsKey( waiter.cursor ) )
+                {
+                    responses.put( waiter.cursor, events( feed, waiter.cursor ) );
+                }
+            }
+        }
+
+        subscribers.addAndGet( -waiters.size() );
+
+        for ( Waiter waiter : waiters )
+        {
+            try
+            {
+                if ( waiter.asyncResponse.resume( responses.get( waiter.cursor ) ) )
+                {
+                    delivered.incrementAndGet();
+                }
+            }
+            catch ( RuntimeException re )
+            {
+                LOG.debug( "ChangeFeed could not resume a subscriber", re );
+            }
+        }
+    }
+
+
+    /**
+     * Answer a request that waited for <code>rest.feed.wait.seconds</code>.  It may race with the notifier, the
+     * first resume wins.
+     */
+    private void timeout( Feed feed, Waiter waiter )
+    {
+        FortResponse response;
+
+        synchronized ( feed )
+        {
+            if ( feed.waiters.remove( waiter ) )
+            {
+                subscribers.decrementAndGet();
+                timeouts.incrementAndGet();
+            }
+
+            response = events( feed, waiter.cursor );
+        }
+
+        waiter.asyncResponse.resume( response );
+    }
+
+
+    /**
+     * Build the response holding the events following a cursor.  Must be called with the feed monitor held.
+     * {@link FortResponse#values} contains the cursor to send on the next request, followed by one
+     * <code>version type op key</code> string per event.
+     */
+    private FortResponse events( Feed feed, long cursor )
+    {
+        if ( cursor < feed.version - capacity || cursor > feed.version )
+        {
+            return resync( feed, "Change feed cursor " + cursor( feed, cursor ) + " expired, current version is "
+                + feed.version );
+        }
+
+        FortResponse response = new FortResponse();
+        response.setErrorCode( GlobalErrIds.NO_ERROR );
+        List<String> values = new ArrayList<>();
+        long last = Math.min( feed.version, cursor + maxEvents );
+        values.add( cursor( feed, last ) );
+
+        for ( long version = cursor + 1; version <= last; version++ )
+        {
+            values.add( feed.ring[index( version )] );
+        }
+
+        response.setValues( values );
+
+        return response;
+    }
+
+
+    /**
+     * Build the response telling a subscriber to reload its policy, holding the current cursor.  Must be called with
+     * the feed monitor held.
+     */
+    private FortResponse resync( Feed feed, String message )
+    {
+        resyncs.incrementAndGet();
+        FortResponse response = new FortResponse();
+        response.setErrorCode( RestErrIds.FEED_RESYNC );
+        response.setErrorMessage( message );
+        List<String> values = new ArrayList<>();
+        values.add( cursor( feed, feed.version ) );
+        response.setValues( values );
+
+        return response;
+    }
+
+
+    private FortResponse error( int errorCode, String message, int httpStatus )
+    {
+        FortResponse response = new FortResponse();
+        response.setErrorCode( errorCode );
+        response.setErrorMessage( message );
+        response.setHttpStatus( httpStatus );
+
+        return response;
+    }
+
+
+    private static String cursor( Feed feed, long version )
+    {
+        return feed.id + '.' + version;
+    }
+
+
+    private int index( long version )
+    {
+        return ( int ) ( version % capacity );
+    }
+
+
+    private Feed feed( String tenant )
+    {
+        Feed feed = feeds.get( tenant );
+
+        if ( feed == null )
+        {
+            if ( feeds.size() >= maxTenants )
+            {
+                evict();
+            }
+
+            Feed newFeed = new Feed( node + '-' + Long.toHexString( feedIds.incrementAndGet() ), capacity );
+            feed = feeds.putIfAbsent( tenant, newFeed );
+
+            if ( feed == null )
+            {
+                feed = newFeed;
+            }
+        }
+
+        return feed;
+    }
+
+
+    /**
+     * Drop the least recently used feed, if it has no subscriber waiting.  Its subscribers get a resync on their
+     * next request.
+     */
+    private void evict()
+    {
+        Map.Entry<String, Feed> idlest = null;
+
+        for ( Map.Entry<String, Feed> entry : feeds.entrySet() )
+        {
+            if ( idlest == null || entry.getValue().used - idlest.getValue().used < 0 )
+            {
+                idlest = entry;
+            }
+        }
+
+        if ( idlest == null )
+        {
+            return;
+        }
+
+        Feed feed = idlest.getValue();
+
+        synchronized ( feed )
+        {
+            if ( !feed.waiters.isEmpty() || !feeds.remove( idlest.getKey(), feed ) )
+            {
+                return;
+            }
+
+            feed.removed = true;
+        }
+
+        evicted.incrementAndGet();
+    }
+
+
+    /**
+     * The events and the waiting requests of one tenant.  Guarded by its own monitor.
+     */
+    private static final class Feed
+    {
+        /** Names the feed in the cursors */
+        private final String id;
+
+        /** The last events, the event of a version is stored at version % capacity */
+        private final String[] ring;
+
+        private final Set<Waiter> waiters = new LinkedHashSet<>();
+
+        /** The version of the last event */
+        private long version;
+
+        /** True while a wake up of the waiters is queued on the notifier */
+        private boolean waking;
+
+        /** True once dropped from the feeds */
+        private boolean removed;
+
+        /** When the feed was last used by a subscriber, in nanoseconds.  Read without the monitor */
+        private volatile long used = System.nanoTime();
+
+
+        private Feed( String id, int capacity )
+        {
+            this.id = id;
+            ring = new String[capacity];
+        }
+    }
+
+
+    /**
+     * A suspended request and the version it waits after.
+     */
+    private static final class Waiter
+    {
+        private final AsyncResponse asyncResponse;
+        private final long cursor;
+
+
+        private Waiter( AsyncResponse asyncResponse, long cursor )
+        {
+            this.asyncResponse = asyncResponse;
+            this.cursor = cursor;
+        }
+    }
+}
@@ -53,6 +53,7 @@ class ConfigMgrImpl extends AbstractMgrImpl
             ConfigMgr configMgr = ConfigMgrFactory.createInstance();
             Configuration inCfg = (Configuration)request.getEntity();
             Configuration outCfg = configMgr.add( inCfg );
+            entityChanged( request, EntityType.CONFIG, ChangeOp.ADD, inCfg.getName() );
             if ( outCfg != null )
             {
                 response.setEntity( outCfg );
@@ -80,6 +81,7 @@ class ConfigMgrImpl extends AbstractMgrImpl
             ConfigMgr configMgr = ConfigMgrFactory.createInstance();
             Configuration inCfg = (Configuration)request.getEntity();
             Configuration outCfg = configMgr.update( inCfg );
+            entityChanged( request, EntityType.CONFIG, ChangeOp.UPDATE, inCfg.getName() );
             if ( outCfg != null )
             {
                 response.setEntity( outCfg );
@@ -116,6 +118,9 @@ class ConfigMgrImpl extends AbstractMgrImpl
                 Properties inProperties = RestUtils.getProperties( (Props)request.getEntity() );
                 configMgr.delete( request.getValue(), inProperties );
             }
+
+            entityChanged( request, EntityType.CONFIG, request.getEntity() == null ? ChangeOp.DELETE : ChangeOp.UPDATE,
+                request.getValue() );
         }
         catch ( SecurityException se )
         {
@@ -58,6 +58,7 @@ class DelegatedAdminMgrImpl extends AbstractMgrImpl
             DelAdminMgr delegatedAdminMgr = DelAdminMgrFactory.createInstance( request.getContextId() );
             delegatedAdminMgr.setAdmin( request.getSession() );
             AdminRole retRole = delegatedAdminMgr.addRole( inRole );
+            entityChanged( request, EntityType.ADMIN_ROLE, ChangeOp.ADD, inRole.getName() );
             response.setEntity(retRole);
         }
         catch ( SecurityException se )
@@ -81,6 +82,9 @@ class DelegatedAdminMgrImpl extends AbstractMgrImpl
             DelAdminMgr delegatedAdminMgr = DelAdminMgrFactory.createInstance( request.getContextId() );
             delegatedAdminMgr.setAdmin( request.getSession() );
             delegatedAdminMgr.deleteRole( inRole );
+            entityChanged( request, EntityType.ADMIN_ROLE, ChangeOp.DELETE, inRole.getName() );
+            // The admin role is removed from its users as well:
+            entitiesChanged( request, EntityType.USER );
             response.setEntity(inRole);
         }
         catch ( SecurityException se )
@@ -102,6 +106,7 @@ class DelegatedAdminMgrImpl extends AbstractMgrImpl
             DelAdminMgr delegatedAdminMgr = DelAdminMgrFactory.createInstance( request.getContextId() );
             delegatedAdminMgr.setAdmin( request.getSession() );
             AdminRole retRole = delegatedAdminMgr.updateRole( inRole );
+            entityChanged( request, EntityType.ADMIN_ROLE, ChangeOp.UPDATE, inRole.getName() );
             response.setEntity(retRole);
         }
         catch ( SecurityException se )
@@ -125,6 +130,7 @@ class DelegatedAdminMgrImpl extends AbstractMgrImpl
             DelAdminMgr delegatedAdminMgr = DelAdminMgrFactory.createInstance( request.getContextId() );
             delegatedAdminMgr.setAdmin( request.getSession() );
             delegatedAdminMgr.assignUser( inRole );
+            entityChanged( request, EntityType.USER, ChangeOp.UPDATE, inRole.getUserId() );
             response.setEntity(inRole);
         }
         catch ( SecurityException se )
@@ -146,6 +152,7 @@ class DelegatedAdminMgrImpl extends AbstractMgrImpl
             DelAdminMgr delegatedAdminMgr = DelAdminMgrFactory.createInstance( request.getContextId() );
             delegatedAdminMgr.setAdmin( request.getSession() );
             delegatedAdminMgr.deassignUser( inRole );
+            entityChanged( request, EntityType.USER, ChangeOp.UPDATE, inRole.getUserId() );
             response.setEntity(inRole);
         }
         catch ( SecurityException se )
@@ -167,6 +174,8 @@ class DelegatedAdminMgrImpl extends AbstractMgrImpl
             DelAdminMgr delegatedAdminMgr = DelAdminMgrFactory.createInstance( request.getContextId() );
             delegatedAdminMgr.setAdmin( request.getSession() );
             delegatedAdminMgr.addDescendant( relationship.getParent(), relationship.getChild() );
+            entityChanged( request, EntityType.ADMIN_ROLE, ChangeOp.UPDATE, relationship.getParent().getName() );
+            entityChanged( request, EntityType.ADMIN_ROLE, ChangeOp.ADD, relationship.getChild().getName() );
             response.setEntity( relationship );
         }
         catch ( SecurityException se )
@@ -188,6 +197,8 @@ class DelegatedAdminMgrImpl extends AbstractMgrImpl
             DelAdminMgr delegatedAdminMgr = DelAdminMgrFactory.createInstance( request.getContextId() );
             delegatedAdminMgr.setAdmin( request.getSession() );
             delegatedAdminMgr.addAscendant( relationship.getChild(), relationship.getParent() );
+            entityChanged( request, EntityType.ADMIN_ROLE, ChangeOp.ADD, relationship.getParent().getName() );
+            entityChanged( request, EntityType.ADMIN_ROLE, ChangeOp.UPDATE, relationship.getChild().getName() );
             response.setEntity( relationship );
         }
         catch ( SecurityException se )
@@ -209,6 +220,8 @@ class DelegatedAdminMgrImpl extends AbstractMgrImpl
             DelAdminMgr delegatedAdminMgr = DelAdminMgrFactory.createInstance( request.getContextId() );
             delegatedAdminMgr.setAdmin( request.getSession() );
             delegatedAdminMgr.addInheritance( relationship.getParent(), relationship.getChild() );
+            entityChanged( request, EntityType.ADMIN_ROLE, ChangeOp.UPDATE, relationship.getParent().getName() );
+            entityChanged( request, EntityType.ADMIN_ROLE, ChangeOp.UPDATE, relationship.getChild().getName() );
             response.setEntity( relationship );
         }
         catch ( SecurityException se )
@@ -230,6 +243,8 @@ class DelegatedAdminMgrImpl extends AbstractMgrImpl
             DelAdminMgr delegatedAdminMgr = DelAdminMgrFactory.createInstance( request.getContextId() );
             delegatedAdminMgr.setAdmin( request.getSession() );
             delegatedAdminMgr.deleteInheritance( relationship.getParent(), relationship.getChild() );
+            entityChanged( request, EntityType.ADMIN_ROLE, ChangeOp.UPDATE, relationship.getParent().getName() );
+            entityChanged( request, EntityType.ADMIN_ROLE, ChangeOp.UPDATE, relationship.getChild().getName() );
             response.setEntity( relationship );
         }
         catch ( SecurityException se )
@@ -251,6 +266,7 @@ class DelegatedAdminMgrImpl extends AbstractMgrImpl
             DelAdminMgr delegatedAdminMgr = DelAdminMgrFactory.createInstance( request.getContextId() );
             delegatedAdminMgr.setAdmin( request.getSession() );
             OrgUnit retOrg = delegatedAdminMgr.add( inOrg );
+            entityChanged( request, EntityType.ORG_UNIT, ChangeOp.ADD, inOrg.getName() );
             response.setEntity(retOrg);
         }
         catch ( SecurityException se )
@@ -272,6 +288,7 @@ class DelegatedAdminMgrImpl extends AbstractMgrImpl
             DelAdminMgr delegatedAdminMgr = DelAdminMgrFactory.createInstance( request.getContextId() );
             delegatedAdminMgr.setAdmin( request.getSession() );
             OrgUnit retOrg = delegatedAdminMgr.update( inOrg );
+            entityChanged( request, EntityType.ORG_UNIT, ChangeOp.UPDATE, inOrg.getName() );
             response.setEntity(retOrg);
         }
         catch ( SecurityException se )
@@ -293,6 +310,7 @@ class DelegatedAdminMgrImpl extends AbstractMgrImpl
             DelAdminMgr delegatedAdminMgr = DelAdminMgrFactory.createInstance( request.getContextId() );
             delegatedAdminMgr.setAdmin( request.getSession() );
             OrgUnit retOrg = delegatedAdminMgr.delete( inOrg );
+            entityChanged( request, EntityType.ORG_UNIT, ChangeOp.DELETE, inOrg.getName() );
             response.setEntity(retOrg);
         }
         catch ( SecurityException se )
@@ -314,6 +332,8 @@ class DelegatedAdminMgrImpl extends AbstractMgrImpl
             DelAdminMgr delegatedAdminMgr = DelAdminMgrFactory.createInstance( request.getContextId() );
             delegatedAdminMgr.setAdmin( request.getSession() );
             delegatedAdminMgr.addDescendant( relationship.getParent(), relationship.getChild() );
+            entityChanged( request, EntityType.ORG_UNIT, ChangeOp.UPDATE, relationship.getParent().getName() );
+            entityChanged( request, EntityType.ORG_UNIT, ChangeOp.ADD, relationship.getChild().getName() );
             response.setEntity( relationship );
         }
         catch ( SecurityException se )
@@ -335,6 +355,8 @@ class DelegatedAdminMgrImpl extends AbstractMgrImpl
             DelAdminMgr delegatedAdminMgr = DelAdminMgrFactory.createInstance( request.getContextId() );
             delegatedAdminMgr.setAdmin( request.getSession() );
             delegatedAdminMgr.addAscendant( relationship.getChild(), relationship.getParent() );
+            entityChanged( request, EntityType.ORG_UNIT, ChangeOp.ADD, relationship.getParent().getName() );
+            entityChanged( request, EntityType.ORG_UNIT, ChangeOp.UPDATE, relationship.getChild().getName() );
             response.setEntity( relationship );
         }
         catch ( SecurityException se )
@@ -356,6 +378,8 @@ class DelegatedAdminMgrImpl extends AbstractMgrImpl
             DelAdminMgr delegatedAdminMgr = DelAdminMgrFactory.createInstance( request.getContextId() );
             delegatedAdminMgr.setAdmin( request.getSession() );
             delegatedAdminMgr.addInheritance(relationship.getParent(), relationship.getChild());
+            entityChanged( request, EntityType.ORG_UNIT, ChangeOp.UPDATE, relationship.getParent().getName() );
+            entityChanged( request, EntityType.ORG_UNIT, ChangeOp.UPDATE, relationship.getChild().getName() );
             response.setEntity( relationship );
         }
         catch ( SecurityException se )
@@ -377,6 +401,8 @@ class DelegatedAdminMgrImpl extends AbstractMgrImpl
             DelAdminMgr delegatedAdminMgr = DelAdminMgrFactory.createInstance( request.getContextId() );
             delegatedAdminMgr.setAdmin( request.getSession() );
             delegatedAdminMgr.deleteInheritance( relationship.getParent(), relationship.getChild() );
+            entityChanged( request, EntityType.ORG_UNIT, ChangeOp.UPDATE, relationship.getParent().getName() );
+            entityChanged( request, EntityType.ORG_UNIT, ChangeOp.UPDATE, relationship.getChild().getName() );
             response.setEntity( relationship );
         }
         catch ( SecurityException se )
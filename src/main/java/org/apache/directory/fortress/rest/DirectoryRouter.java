@@ -0,0 +1,722 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.fortress.rest;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.directory.fortress.core.AccessMgr;
+import org.apache.directory.fortress.core.AccessMgrFactory;
+import org.apache.directory.fortress.core.AuditMgr;
+import org.apache.directory.fortress.core.AuditMgrFactory;
+import org.apache.directory.fortress.core.ReviewMgr;
+import org.apache.directory.fortress.core.ReviewMgrFactory;
+import org.apache.directory.fortress.core.SecurityException;
+import org.apache.directory.fortress.core.model.Session;
+import org.apache.directory.fortress.core.util.Config;
+import org.apache.log4j.Logger;
+
+/**
+ * Gives the ReviewMgr, AccessMgr and AuditMgr used by the Rest managers, sending their reads to the directory
+ * replicas while the writes stay on the directory the Fortress core is configured with, the primary.
+ * <p>
+ * The replicas are the {@link Endpoint} classes listed in <code>rest.routing.replicas</code>, i.e. managers of a
+ * second Fortress core configured with a replica.  Each call goes to the replica with the fewest calls in progress.
+ * The authentications stay on the primary, they update the password policy state of the user.  After a write, the
+ * reads of the tenant go to the primary for <code>rest.routing.fence.millis</code>, which must exceed the replication
+ * lag, so a client reads what it just wrote.  The writes of the other servers, see {@link InvalidationBus}, do the
+ * same.
+ * <p>
+ * With <code>rest.hedge.enabled=true</code> the ReviewMgr reads, and the AccessMgr reads that do not bind, are hedged:
+ * when the replica has not answered after the <code>rest.hedge.percentile</code> of the recent latencies of the
+ * method, the call is also sent to another replica, or to the primary when there is a single replica, and the first
+ * answer is used.  At most <code>rest.hedge.budget.percent</code> of the calls are hedged.  The sessions given to a
+ * hedged call are copies, the changes the Fortress core does to them are not returned.
+ * <p>
+ * Without replicas the managers of the Fortress core are returned as they are.  This class is thread safe.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+final class DirectoryRouter implements PolicyChanges.Listener, RestMetrics.Source
+{
+    /** A logger for this class */
+    private static final Logger LOG = Logger.getLogger( DirectoryRouter.class.getName() );
+
+    private static final String REPLICAS = "rest.routing.replicas";
+    private static final String FENCE = "rest.routing.fence.millis";
+    private static final String HEDGE_ENABLED = "rest.hedge.enabled";
+    private static final String HEDGE_PERCENTILE = "rest.hedge.percentile";
+    private static final String HEDGE_BUDGET = "rest.hedge.budget.percent";
+    private static final String HEDGE_MIN_DELAY = "rest.hedge.min.delay.millis";
+    private static final String HEDGE_MIN_SAMPLES = "rest.hedge.min.samples";
+    private static final String HEDGE_WINDOW = "rest.hedge.window.seconds";
+
+    /** The max number of hedges saved up while the directory is fast, in hundredths */
+    private static final long MAX_TOKENS = 100 * 100;
+
+    /** The AccessMgr methods sent to the primary, they bind as the user */
+    private static final Set<String> PRIMARY_METHODS = new HashSet<>( Arrays.asList( "authenticate",
+        "createSession" ) );
+
+    /** The AccessMgr methods hedged, the reads that do not change the session */
+    private static final Set<String> HEDGED_ACCESS_METHODS = new HashSet<>( Arrays.asList( "checkAccess",
+        "isUserInRole", "sessionPermissions", "sessionRoles", "authorizedRoles", "getUser", "getUserId",
+        "sessionAdminRoles", "authorizedAdminRoles", "canAssign", "canDeassign", "canGrant", "canRevoke" ) );
+
+    /** Copies the sessions given to the hedged calls */
+    private static final JacksonFieldOnlyMapper MAPPER = new JacksonFieldOnlyMapper();
+
+    /** Gives the managers of the Fortress core */
+    private static final Endpoint PRIMARY = new Endpoint()
+    {
+        @Override
+        public String getName()
+        {
+            return "primary";
+        }
+
+
+        @Override
+        public <T> T manager( Class<T> type, String contextId ) throws SecurityException
+        {
+            if ( type == ReviewMgr.class )
+            {
+                return type.cast( ReviewMgrFactory.createInstance( contextId ) );
+            }
+            else if ( type == AccessMgr.class )
+            {
+                return type.cast( AccessMgrFactory.createInstance( contextId ) );
+            }
+            else if ( type == AuditMgr.class )
+            {
+                return type.cast( AuditMgrFactory.createInstance( contextId ) );
+            }
+
+            throw new IllegalArgumentException( "Unsupported manager " + type.getName() );
+        }
+    };
+
+    private static final DirectoryRouter INSTANCE = new DirectoryRouter();
+
+    /**
+     * A directory serving the manager calls.  Implementations need a no argument constructor.
+     */
+    interface Endpoint
+    {
+        /**
+         * @return The name of the endpoint in the metrics
+         */
+        String getName();
+
+
+        /**
+         * Create a manager reading this directory.
+         *
+         * @param type ReviewMgr, AccessMgr or AuditMgr
+         * @param contextId The tenant
+         * @param <T> The manager type
+         * @return The manager
+         * @throws SecurityException If the manager could not be created
+         */
+        <T> T manager( Class<T> type, String contextId ) throws SecurityException;
+    }
+
+    private final long fenceNanos;
+    private final Target primary = new Target( PRIMARY );
+    private final List<Target> replicas;
+
+    /** When the reads of a tenant may go back to the replicas, in nanoseconds */
+    private final ConcurrentMap<String, Long> fences = new ConcurrentHashMap<>();
+
+    /** Rotates the replica chosen among the least busy ones */
+    private final AtomicInteger next = new AtomicInteger();
+
+    private final boolean hedging;
+    private final double hedgePercentile;
+    private final int hedgeBudget;
+    private final long hedgeMinDelayNanos;
+    private final int hedgeMinSamples;
+    private final long hedgeWindowNanos;
+
+    /** The recent latencies, by manager method */
+    private final ConcurrentMap<String, LatencyHistogram> latencies = new ConcurrentHashMap<>();
+
+    /** The hedges allowed, in hundredths: each hedged read adds the budget percent, a hedge takes 100 */
+    private final AtomicLong hedgeTokens = new AtomicLong();
+
+    /** Runs the hedged calls, the thread of the request waits for the first answer */
+    private final ExecutorService hedgePool = Executors.newCachedThreadPool( runnable ->
+    {
+        Thread thread = new Thread( runnable, "fortress-rest-hedge" );
+        thread.setDaemon( true );
+
+        return thread;
+    } );
+
+    private final AtomicLong fencedReads = new AtomicLong();
+    private final AtomicLong hedges = new AtomicLong();
+    private final AtomicLong hedgeWins = new AtomicLong();
+    private final AtomicLong hedgesDenied = new AtomicLong();
+
+
+    private DirectoryRouter()
+    {
+        Config config = Config.getInstance();
+        fenceNanos = TimeUnit.MILLISECONDS.toNanos( config.getInt( FENCE, 5000 ) );
+        replicas = replicas( config.getProperty( REPLICAS ) );
+        hedging = config.getBoolean( HEDGE_ENABLED, false ) && !replicas.isEmpty();
+        hedgePercentile = config.getInt( HEDGE_PERCENTILE, 95 );
+        hedgeBudget = config.getInt( HEDGE_BUDGET, 5 );
+        hedgeMinDelayNanos = TimeUnit.MILLISECONDS.toNanos( config.getInt( HEDGE_MIN_DELAY, 2 ) );
+        hedgeMinSamples = config.getInt( HEDGE_MIN_SAMPLES, 100 );
+        hedgeWindowNanos = TimeUnit.SECONDS.toNanos( config.getInt( HEDGE_WINDOW, 60 ) );
+        RestMetrics.register( "directoryRouter", this );
+    }
+
+
+    static DirectoryRouter getInstance()
+    {
+        return INSTANCE;
+    }
+
+
+    /**
+     * @param contextId The tenant
+     * @return The ReviewMgr of the tenant
+     * @throws SecurityException If the manager could not be created
+     */
+    ReviewMgr reviewMgr( String contextId ) throws SecurityException
+    {
+        return manager( ReviewMgr.class, contextId );
+    }
+
+
+    /**
+     * @param contextId The tenant
+     * @return The AccessMgr of the tenant
+     * @throws SecurityException If the manager could not be created
+     */
+    AccessMgr accessMgr( String contextId ) throws SecurityException
+    {
+        return manager( AccessMgr.class, contextId );
+    }
+
+
+    /**
+     * @param contextId The tenant
+     * @return The AuditMgr of the tenant
+     * @throws SecurityException If the manager could not be created
+     */
+    AuditMgr auditMgr( String contextId ) throws SecurityException
+    {
+        return manager( AuditMgr.class, contextId );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void changed( String tenant, EntityType type, String key, String name, ChangeOp op )
+    {
+        if ( !replicas.isEmpty() )
+        {
+            fences.put( tenant, System.nanoTime() + fenceNanos );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void collect( Map<String, Number> metrics )
+    {
+        metrics.put( "replicas", replicas.size() );
+        metrics.put( "fencedReads", fencedReads.get() );
+        metrics.put( "hedges", hedges.get() );
+        metrics.put( "hedgeWins", hedgeWins.get() );
+        metrics.put( "hedgesDenied", hedgesDenied.get() );
+        primary.collect( metrics );
+
+        for ( Target replica : replicas )
+        {
+            replica.collect( metrics );
+        }
+    }
+
+
+    private <T> T manager( Class<T> type, String contextId ) throws SecurityException
+    {
+        if ( replicas.isEmpty() )
+        {
+            return PRIMARY.manager( type, contextId );
+        }
+
+        return type.cast( Proxy.newProxyInstance( type.getClassLoader(), new Class<?>[]
+            { type }, new Router( type, contextId ) ) );
+    }
+
+
+    /**
+     * Choose the endpoint of a call.
+     */
+    private Target select( Class<?> type, String contextId, Method method )
+    {
+        if ( type == AccessMgr.class && PRIMARY_METHODS.contains( method.getName() ) )
+        {
+            return primary;
+        }
+
+        String tenant = PolicyChanges.tenant( contextId );
+        Long fence = fences.get( tenant );
+
+        if ( fence != null )
+        {
+            if ( fence - System.nanoTime() > 0 )
+            {
+                fencedReads.incrementAndGet();
+
+                return primary;
+            }
+
+            fences.remove( tenant, fence );
+        }
+
+        return leastBusy( null );
+    }
+
+
+    /**
+     * The replica with the fewest calls in progress, ties are broken in turn.
+     *
+     * @param excluded A replica not to choose, may be null
+     * @return The replica, the primary if the only replica is excluded
+     */
+    private Target leastBusy( Target excluded )
+    {
+        int size = replicas.size();
+        int start = Math.abs( next.getAndIncrement() % size );
+        Target selected = null;
+
+        for ( int i = 0; i < size; i++ )
+        {
+            Target replica = replicas.get( ( start + i ) % size );
+
+            if ( replica == excluded )
+            {
+                continue;
+            }
+
+            if ( selected == null || replica.outstanding.get() < selected.outstanding.get() )
+            {
+                selected = replica;
+            }
+        }
+
+        return selected == null ? primary : selected;
+    }
+
+
+    /**
+     * Tell whether the calls of a manager method may be hedged.
+     */
+    private boolean hedged( Class<?> type, Method method )
+    {
+        return hedging && ( type == ReviewMgr.class
+            || ( type == AccessMgr.class && HEDGED_ACCESS_METHODS.contains( method.getName() ) ) );
+    }
+
+
+    /**
+     * Take a hedge from the budget.
+     */
+    private boolean takeHedge()
+    {
+        while ( true )
+        {
+            long tokens = hedgeTokens.get();
+
+            if ( tokens < 100 )
+            {
+                return false;
+            }
+
+            if ( hedgeTokens.compareAndSet( tokens, tokens - 100 ) )
+            {
+                return true;
+            }
+        }
+    }
+
+
+    private void addHedgeTokens()
+    {
+        while ( true )
+        {
+            long tokens = hedgeTokens.get();
+
+            if ( tokens >= MAX_TOKENS || hedgeTokens.compareAndSet( tokens, tokens + hedgeBudget ) )
+            {
+                return;
+            }
+        }
+    }
+
+
+    private LatencyHistogram latencies( Class<?> type, Method method )
+    {
+        String key = type.getSimpleName() + '.' + method.getName();
+        LatencyHistogram histogram = latencies.get( key );
+
+        if ( histogram == null )
+        {
+            LatencyHistogram newHistogram = new LatencyHistogram( hedgeWindowNanos );
+            histogram = latencies.putIfAbsent( key, newHistogram );
+
+            if ( histogram == null )
+            {
+                histogram = newHistogram;
+            }
+        }
+
+        return histogram;
+    }
+
+
+    /**
+     * Copy the sessions of the arguments of a call, the Fortress core changes them.
+     *
+     * @return The arguments with copies of the sessions, null if a session could not be copied
+     */
+    private static Object[] copySessions( Object[] args )
+    {
+        Object[] copy = args.clone();
+
+        try
+        {
+            for ( int i = 0; i < copy.length; i++ )
+            {
+                if ( copy[i] instanceof Session )
+                {
+                    copy[i] = MAPPER.readValue( MAPPER.writeValueAsString( copy[i] ), Session.class );
+                }
+            }
+        }
+        catch ( IOException ioe )
+        {
+            LOG.warn( "DirectoryRouter could not copy a session, the call is not hedged", ioe );
+
+            return null;
+        }
+
+        return copy;
+    }
+
+
+    private static List<Target> replicas( String classNames )
+    {
+        if ( StringUtils.isBlank( classNames ) )
+        {
+            return Collections.emptyList();
+        }
+
+        List<Target> targets = new ArrayList<>();
+
+        for ( String className : StringUtils.split( classNames, ',' ) )
+        {
+            try
+            {
+                Endpoint endpoint = ( Endpoint ) Class.forName( className.trim() ).getDeclaredConstructor()
+                    .newInstance();
+                targets.add( new Target( endpoint ) );
+                LOG.info( "DirectoryRouter sends the reads to " + endpoint.getName() );
+            }
+            catch ( ReflectiveOperationException | RuntimeException e )
+            {
+                LOG.error( "DirectoryRouter could not create the replica endpoint " + className, e );
+            }
+        }
+
+        return targets;
+    }
+
+
+    /**
+     * An endpoint and its statistics.
+     */
+    private static final class Target
+    {
+        private final Endpoint endpoint;
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private final AtomicLong calls = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+
+        private Target( Endpoint endpoint )
+        {
+            this.endpoint = endpoint;
+        }
+
+
+        private void collect( Map<String, Number> metrics )
+        {
+            String prefix = endpoint.getName() + '.';
+            long count = calls.get();
+            metrics.put( prefix + "calls", count );
+            metrics.put( prefix + "failures", failures.get() );
+            metrics.put( prefix + "outstanding", outstanding.get() );
+            metrics.put( prefix + "latencyMicrosAvg", count == 0 ? 0.0
+                : ( double ) TimeUnit.NANOSECONDS.toMicros( totalNanos.get() ) / count );
+            metrics.put( prefix + "latencyMicrosMax", TimeUnit.NANOSECONDS.toMicros( maxNanos.get() ) );
+        }
+    }
+
+
+    /**
+     * Sends each call of a manager to its endpoint.
+     */
+    private final class Router implements InvocationHandler
+    {
+        private final Class<?> type;
+        private final String contextId;
+
+        /** The managers created, by endpoint */
+        private final ConcurrentMap<Target, Object> managers = new ConcurrentHashMap<>();
+
+        private volatile Session admin;
+
+
+        private Router( Class<?> type, String contextId )
+        {
+            this.type = type;
+            this.contextId = contextId;
+        }
+
+
+        @Override
+        public Object invoke( Object proxy, Method method, Object[] args ) throws Throwable
+        {
+            if ( method.getDeclaringClass() == Object.class )
+            {
+                return method.invoke( this, args );
+            }
+
+            // Given to the manager chosen for each call
+            if ( "setAdmin".equals( method.getName() ) )
+            {
+                admin = ( Session ) args[0];
+                managers.clear();
+
+                return null;
+            }
+
+            Target target = select( type, contextId, method );
+
+            if ( target != primary && hedged( type, method ) )
+            {
+                return hedge( target, method, args );
+            }
+
+            return call( target, method, args );
+        }
+
+
+        /**
+         * Call a manager method on an endpoint.
+         */
+        private Object call( Target target, Method method, Object[] args ) throws Throwable
+        {
+            target.outstanding.incrementAndGet();
+            long started = System.nanoTime();
+
+            try
+            {
+                return method.invoke( managerFor( target ), args );
+            }
+            catch ( InvocationTargetException ite )
+            {
+                target.failures.incrementAndGet();
+
+                throw ite.getCause();
+            }
+            finally
+            {
+                long elapsed = System.nanoTime() - started;
+                target.outstanding.decrementAndGet();
+                target.calls.incrementAndGet();
+                target.totalNanos.addAndGet( elapsed );
+                target.maxNanos.accumulateAndGet( elapsed, Math::max );
+
+                if ( hedging )
+                {
+                    latencies( type, method ).record( elapsed );
+                }
+            }
+        }
+
+
+        /**
+         * Call a manager method on a replica, and on a second endpoint if the replica is slow.
+         */
+        private Object hedge( Target target, Method method, Object[] args ) throws Throwable
+        {
+            addHedgeTokens();
+            LatencyHistogram histogram = latencies( type, method );
+
+            // Not enough latencies yet to tell a slow call
+            if ( histogram.count() < hedgeMinSamples )
+            {
+                return call( target, method, args );
+            }
+
+            Object[] firstArgs = copySessions( args );
+
+            if ( firstArgs == null )
+            {
+                return call( target, method, args );
+            }
+
+            long delay = Math.max( hedgeMinDelayNanos, histogram.percentile( hedgePercentile ) );
+            ExecutorCompletionService<Object> attempts = new ExecutorCompletionService<>( hedgePool );
+            Future<Object> first = attempts.submit( attempt( target, method, firstArgs ) );
+            Future<Object> done = attempts.poll( delay, TimeUnit.NANOSECONDS );
+
+            if ( done != null )
+            {
+                return result( done );
+            }
+
+            if ( !takeHedge() )
+            {
+                hedgesDenied.incrementAndGet();
+
+                return result( first );
+            }
+
+            Object[] secondArgs = copySessions( args );
+
+            if ( secondArgs == null )
+            {
+                return result( first );
+            }
+
+            hedges.incrementAndGet();
+            Future<Object> second = attempts.submit( attempt( leastBusy( target ), method, secondArgs ) );
+
+            try
+            {
+                return result( attempts.take(), second );
+            }
+            catch ( SecurityException | RuntimeException e )
+            {
+                // The first answer is a failure, the other endpoint may succeed
+                return result( attempts.take(), second );
+            }
+        }
+
+
+        private Callable<Object> attempt( final Target target, final Method method,
+            final Object[] args )
+        {
+            return () ->
+            {
+                try
+                {
+                    return call( target, method, args );
+                }
+                catch ( Exception | Error e )
+                {
+                    throw e;
+                }
+                catch ( Throwable t )
+                {
+                    throw new UndeclaredThrowableException( t );
+                }
+            };
+        }
+
+
+        private Object result( Future<Object> attempt, Future<Object> hedge ) throws Throwable
+        {
+            Object result = result( attempt );
+
+            if ( attempt == hedge )
+            {
+                hedgeWins.incrementAndGet();
+            }
+
+            return result;
+        }
+
+
+        private Object result( Future<Object> attempt ) throws Throwable
+        {
+            try
+            {
+                return attempt.get();
+            }
+            catch ( ExecutionException ee )
+            {
+                throw ee.getCause();
+            }
+        }
+
+
+        private Object managerFor( Target target ) throws ReflectiveOperationException, SecurityException
+        {
+            Object manager = managers.get( target );
+
+            if ( manager == null )
+            {
+                manager = target.endpoint.manager( type, contextId );
+                type.getMethod( "setAdmin", Session.class ).invoke( manager, admin );
+                managers.put( target, manager );
+            }
+
+            return manager;
+        }
+    }
+}
@@ -0,0 +1,458 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.fortress.rest;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.directory.fortress.core.FinderException;
+import org.apache.directory.fortress.core.GlobalErrIds;
+import org.apache.directory.fortress.core.SecurityException;
+import org.apache.directory.fortress.core.model.FortRequest;
+import org.apache.directory.fortress.core.util.Config;
+import org.apache.log4j.Logger;
+
+/**
+ * Per tenant, size bounded read-through cache for the entities returned by the ReviewMgr and GroupMgr reads.
+ * <p>
+ * Entries expire after <code>rest.cache.ttl.seconds</code>, entities that were not found are remembered for
+ * <code>rest.cache.negative.ttl.seconds</code>.  Each tenant holds at most <code>rest.cache.max.entries</code>
+ * entries, the least recently used are evicted first.  The writes done through the Rest managers invalidate the
+ * entries they touch, see {@link PolicyChanges}.
+ * <p>
+ * The cache is disabled unless <code>rest.cache.enabled=true</code>.  Requests carrying an administrative session are
+ * never served from the cache, the ARBAC checks have to be done by the directory read.
+ * <p>
+ * This class is thread safe.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+final class EntityCache implements RestMetrics.Source, PolicyChanges.Listener
+{
+    /** A logger for this class */
+    private static final Logger LOG = Logger.getLogger( EntityCache.class.getName() );
+
+    private static final String ENABLED = "rest.cache.enabled";
+    private static final String MAX_ENTRIES = "rest.cache.max.entries";
+    private static final String TTL = "rest.cache.ttl.seconds";
+    private static final String NEGATIVE_TTL = "rest.cache.negative.ttl.seconds";
+
+    /** The errors meaning the entity does not exist, these are cached as negative entries */
+    private static final Set<Integer> NOT_FOUND = new HashSet<>( Arrays.asList(
+        GlobalErrIds.USER_NOT_FOUND,
+        GlobalErrIds.ROLE_NOT_FOUND,
+        GlobalErrIds.PERM_OP_NOT_FOUND,
+        GlobalErrIds.PERM_OBJ_NOT_FOUND ) );
+
+    private static final EntityCache INSTANCE = new EntityCache();
+
+    /**
+     * Reads an entity from the directory when it is not in the cache.
+     *
+     * @param <T> The entity type
+     */
+    interface Loader<T>
+    {
+        T load() throws SecurityException;
+    }
+
+    private final boolean enabled;
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final long negativeTtlNanos;
+
+    /** One segment per tenant */
+    private final ConcurrentMap<String, Segment> segments = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong negativeHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong bypassed = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong expirations = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+
+    private EntityCache()
+    {
+        Config config = Config.getInstance();
+        enabled = config.getBoolean( ENABLED, false );
+        maxEntries = config.getInt( MAX_ENTRIES, 10000 );
+        ttlNanos = TimeUnit.SECONDS.toNanos( config.getInt( TTL, 60 ) );
+        negativeTtlNanos = TimeUnit.SECONDS.toNanos( config.getInt( NEGATIVE_TTL, 10 ) );
+        RestMetrics.register( "entityCache", this );
+        LOG.info( "EntityCache enabled=" + enabled + ", maxEntries=" + maxEntries + ", ttl=" + config.getInt( TTL, 60 ) );
+    }
+
+
+    static EntityCache getInstance()
+    {
+        return INSTANCE;
+    }
+
+
+    /**
+     * Return the cached entity, or load it from the directory and cache it.
+     *
+     * @param request The request, gives the tenant and the administrative session
+     * @param type The type of entity
+     * @param key The normalized key of the entity, see {@link EntityType#key}
+     * @param loader Reads the entity when it is not cached
+     * @param <T> The entity type
+     * @return The entity
+     * @throws SecurityException The exception thrown by the loader, or the cached not found exception
+     */
+    <T> T read( FortRequest request, EntityType type, String key, Loader<T> loader ) throws SecurityException
+    {
+        if ( request.getSession() != null )
+        {
+            bypassed.incrementAndGet();
+
+            return loader.load();
+        }
+
+        return read( request.getContextId(), type, key, loader );
+    }
+
+
+    /**
+     * Return the cached entity, or load it from the directory and cache it, for the reads done by the Rest Server
+     * itself, outside of any administrative session.
+     *
+     * @param contextId The tenant
+     * @param type The type of entity
+     * @param key The normalized key of the entity, see {@link EntityType#key}
+     * @param loader Reads the entity when it is not cached
+     * @param <T> The entity type
+     * @return The entity
+     * @throws SecurityException The exception thrown by the loader, or the cached not found exception
+     */
+    <T> T read( String contextId, EntityType type, String key, Loader<T> loader ) throws SecurityException
+    {
+        if ( !enabled )
+        {
+            bypassed.incrementAndGet();
+
+            return loader.load();
+        }
+
+        Segment segment = segment( contextId );
+        String entryKey = type.name() + ':' + key;
+        long now = System.nanoTime();
+        Entry entry;
+        long generation;
+
+        synchronized ( segment )
+        {
+            entry = segment.get( entryKey );
+
+            if ( entry != null && entry.expires - now <= 0 )
+            {
+                segment.remove( entryKey );
+                expirations.incrementAndGet();
+                entry = null;
+            }
+
+            generation = segment.generation;
+        }
+
+        if ( entry != null )
+        {
+            if ( entry.notFound != null )
+            {
+                negativeHits.incrementAndGet();
+
+                throw entry.notFound;
+            }
+
+            hits.incrementAndGet();
+
+            return type( entry.value );
+        }
+
+        misses.incrementAndGet();
+
+        try
+        {
+            T value = loader.load();
+            put( segment, generation, entryKey, new Entry( value, null, now + ttlNanos ) );
+
+            return value;
+        }
+        catch ( FinderException fe )
+        {
+            if ( NOT_FOUND.contains( fe.getErrorId() ) )
+            {
+                put( segment, generation, entryKey, new Entry( null, fe, now + negativeTtlNanos ) );
+            }
+
+            throw fe;
+        }
+    }
+
+
+    /**
+     * Return a cached entity without ever reading the directory.
+     *
+     * @param contextId The tenant
+     * @param type The type of entity
+     * @param key The normalized key of the entity, see {@link EntityType#key}
+     * @param <T> The entity type
+     * @return The entity, or null if it is not cached
+     * @throws FinderException The cached not found exception
+     */
+    <T> T peek( String contextId, EntityType type, String key ) throws FinderException
+    {
+        if ( !enabled )
+        {
+            return null;
+        }
+
+        Segment segment = segment( contextId );
+        Entry entry;
+
+        synchronized ( segment )
+        {
+            entry = segment.get( type.name() + ':' + key );
+        }
+
+        if ( entry == null || entry.expires - System.nanoTime() <= 0 )
+        {
+            return null;
+        }
+
+        if ( entry.notFound != null )
+        {
+            negativeHits.incrementAndGet();
+
+            throw entry.notFound;
+        }
+
+        hits.incrementAndGet();
+
+        return type( entry.value );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void changed( String tenant, EntityType type, String key, String name, ChangeOp op )
+    {
+        if ( key == null )
+        {
+            invalidate( tenant, type );
+        }
+        else
+        {
+            invalidate( tenant, type, key );
+        }
+    }
+
+
+    /**
+     * Drop a single entity of a tenant.
+     *
+     * @param contextId The tenant
+     * @param type The type of entity
+     * @param key The normalized key of the entity
+     */
+    void invalidate( String contextId, EntityType type, String key )
+    {
+        if ( !enabled )
+        {
+            return;
+        }
+
+        Segment segment = segment( contextId );
+
+        synchronized ( segment )
+        {
+            segment.generation++;
+            segment.remove( type.name() + ':' + key );
+        }
+
+        invalidations.incrementAndGet();
+    }
+
+
+    /**
+     * Drop all the entities of a given type for a tenant, used when a write touches an unknown number of entries.
+     *
+     * @param contextId The tenant
+     * @param type The type of entity
+     */
+    void invalidate( String contextId, EntityType type )
+    {
+        if ( !enabled )
+        {
+            return;
+        }
+
+        Segment segment = segment( contextId );
+        String prefix = type.name() + ':';
+
+        synchronized ( segment )
+        {
+            segment.generation++;
+            Iterator<String> keys = segment.keySet().iterator();
+
+            while ( keys.hasNext() )
+            {
+                if ( keys.next().startsWith( prefix ) )
+                {
+                    keys.remove();
+                }
+            }
+        }
+
+        invalidations.incrementAndGet();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void collect( Map<String, Number> metrics )
+    {
+        long size = 0;
+
+        for ( Segment segment : segments.values() )
+        {
+            synchronized ( segment )
+            {
+                size += segment.size();
+            }
+        }
+
+        long hitCount = hits.get() + negativeHits.get();
+        metrics.put( "hits", hits.get() );
+        metrics.put( "negativeHits", negativeHits.get() );
+        metrics.put( "misses", misses.get() );
+        metrics.put( "bypassed", bypassed.get() );
+        metrics.put( "hitRatio", RestMetrics.ratio( hitCount, hitCount + misses.get() ) );
+        metrics.put( "evictions", evictions.get() );
+        metrics.put( "expirations", expirations.get() );
+        metrics.put( "invalidations", invalidations.get() );
+        metrics.put( "size", size );
+        metrics.put( "tenants", segments.size() );
+    }
+
+
+    private void put( Segment segment, long generation, String entryKey, Entry entry )
+    {
+        synchronized ( segment )
+        {
+            // A write invalidated the segment while we were reading, what we read may already be stale
+            if ( segment.generation == generation )
+            {
+                segment.put( entryKey, entry );
+            }
+        }
+    }
+
+
+    private Segment segment( String contextId )
+    {
+        String tenant = PolicyChanges.tenant( contextId );
+        Segment segment = segments.get( tenant );
+
+        if ( segment == null )
+        {
+            Segment newSegment = new Segment();
+            segment = segments.putIfAbsent( tenant, newSegment );
+
+            if ( segment == null )
+            {
+                segment = newSegment;
+            }
+        }
+
+        return segment;
+    }
+
+
+    @SuppressWarnings("unchecked")
+    private static <T> T type( Object value )
+    {
+        return ( T ) value;
+    }
+
+
+    /**
+     * A cached entity, or the exception thrown when it was not found.
+     */
+    private static final class Entry
+    {
+        private final Object value;
+        private final FinderException notFound;
+        private final long expires;
+
+
+        private Entry( Object value, FinderException notFound, long expires )
+        {
+            this.value = value;
+            this.notFound = notFound;
+            this.expires = expires;
+        }
+    }
+
+
+    /**
+     * The entries of one tenant in least recently used order.  Guarded by its own monitor.
+     */
+    private final class Segment extends LinkedHashMap<String, Entry>
+    {
+        private static final long serialVersionUID = 1L;
+
+        /** Incremented by every invalidation, prevents a read racing with a write from caching a stale entity */
+        private long generation;
+
+
+        private Segment()
+        {
+            super( 16, 0.75f, true );
+        }
+
+
+        @Override
+        protected boolean removeEldestEntry( Map.Entry<String, Entry> eldest )
+        {
+            if ( size() > maxEntries )
+            {
+                evictions.incrementAndGet();
+
+                return true;
+            }
+
+            return false;
+        }
+    }
+}
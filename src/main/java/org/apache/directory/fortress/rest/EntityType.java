@@ -0,0 +1,138 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.fortress.rest;
+
+import java.util.Locale;
+
+import org.apache.directory.fortress.core.model.PermObj;
+import org.apache.directory.fortress.core.model.Permission;
+
+/**
+ * The kinds of policy entities the Fortress Rest Server keeps track of when it caches or invalidates manager results.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+enum EntityType
+{
+    USER,
+    ROLE,
+    PERMISSION,
+    PERM_OBJ,
+    GROUP,
+    SSD,
+    DSD,
+    PERM_ATTR_SET,
+    ADMIN_ROLE,
+    ORG_UNIT,
+    PW_POLICY,
+    CONFIG;
+
+    /** Separates the parts of a compound key, i.e. objName, opName and objId of a permission */
+    private static final char KEY_SEP = '#';
+
+
+    /**
+     * Build the normalized key of an entity.  Directory names are case insensitive so the key is lower cased,
+     * null parts are treated as empty.
+     *
+     * @param parts The attribute values identifying the entity, i.e. userId or objName, opName, objId
+     * @return The key to use in the caches
+     */
+    static String key( String... parts )
+    {
+        return name( parts ).toLowerCase( Locale.ENGLISH );
+    }
+
+
+    /**
+     * Build the name of an entity: its key with the case of the given values kept, used where the entity is shown.
+     *
+     * @param parts The attribute values identifying the entity, i.e. userId or objName, opName, objId
+     * @return The name
+     */
+    static String name( String... parts )
+    {
+        StringBuilder sb = new StringBuilder();
+
+        for ( int i = 0; i < parts.length; i++ )
+        {
+            if ( i > 0 )
+            {
+                sb.append( KEY_SEP );
+            }
+
+            if ( parts[i] != null )
+            {
+                sb.append( parts[i].trim() );
+            }
+        }
+
+        return sb.toString();
+    }
+
+
+    /**
+     * Build the key of a permission.  Admin and RBAC permissions live in different containers so the flag is part
+     * of the key.
+     *
+     * @param perm The permission, objName, opName and objId are used
+     * @return The key to use in the caches
+     */
+    static String key( Permission perm )
+    {
+        return name( perm ).toLowerCase( Locale.ENGLISH );
+    }
+
+
+    /**
+     * Build the name of a permission, see {@link #name(String...)}.
+     *
+     * @param perm The permission, objName, opName and objId are used
+     * @return The name
+     */
+    static String name( Permission perm )
+    {
+        return name( String.valueOf( perm.isAdmin() ), perm.getObjName(), perm.getOpName(), perm.getObjId() );
+    }
+
+
+    /**
+     * Build the key of a permission object.
+     *
+     * @param obj The permission object, objName is used
+     * @return The key to use in the caches
+     */
+    static String key( PermObj obj )
+    {
+        return name( obj ).toLowerCase( Locale.ENGLISH );
+    }
+
+
+    /**
+     * Build the name of a permission object, see {@link #name(String...)}.
+     *
+     * @param obj The permission object, objName is used
+     * @return The name
+     */
+    static String name( PermObj obj )
+    {
+        return name( String.valueOf( obj.isAdmin() ), obj.getObjName() );
+    }
+}
@@ -0,0 +1,329 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.fortress.rest;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.directory.fortress.core.util.Config;
+import org.apache.log4j.Logger;
+
+/**
+ * In memory version numbers of the policy entities, per tenant, used to answer the conditional review requests
+ * without reading the directory.
+ * <p>
+ * Every write done through this server increments the version of the entity it touched, and the version of its
+ * type.  The versions of single entities are kept in a fixed number of stripes: two keys sharing a stripe only
+ * cause a spurious change, never a missed one.  The versions a read depends on make its stamp, which is only
+ * meaningful to this server.
+ * <p>
+ * The ETags themselves are computed from the content of the responses, so all the servers give the same ETag to the
+ * same data.  The ETag of the last response is kept with the stamp of its read: as long as the stamp is unchanged
+ * and the ETag at most <code>rest.etag.max.age.seconds</code> old, a matching If-None-Match is answered without
+ * reading the directory.  The age bounds how long a write made directly in the directory, or through a server not
+ * on the invalidation bus, can be hidden by a 304.  Nothing is kept when <code>rest.etag.enabled=false</code>.
+ * <p>
+ * This class is thread safe.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+final class EntityVersions implements RestMetrics.Source, PolicyChanges.Listener
+{
+    /** A logger for this class */
+    private static final Logger LOG = Logger.getLogger( EntityVersions.class.getName() );
+
+    private static final String ENABLED = "rest.etag.enabled";
+    private static final String MAX_AGE = "rest.etag.max.age.seconds";
+
+    private static final int STRIPES = 1024;
+
+    /** The max number of ETags kept */
+    private static final int MAX_ETAGS = 10000;
+
+    private static final EntityVersions INSTANCE = new EntityVersions();
+
+    private final boolean enabled;
+
+    /** How long a kept ETag is trusted, 0 for as long as its stamp is current */
+    private final long maxAgeNanos;
+
+    private final ConcurrentMap<String, Versions[]> tenants = new ConcurrentHashMap<>();
+
+    /** The ETags of the last responses by stamp, in least recently used order.  Guarded by its own monitor */
+    private final Map<String, Kept> etags = new LinkedHashMap<String, Kept>( 16, 0.75f, true )
+    {
+        private static final long serialVersionUID = 1L;
+
+
+        @Override
+        protected boolean removeEldestEntry( Map.Entry<String, Kept> eldest )
+        {
+            return size() > MAX_ETAGS;
+        }
+    };
+
+    private final AtomicLong conditionals = new AtomicLong();
+    private final AtomicLong notModified = new AtomicLong();
+
+
+    private EntityVersions()
+    {
+        Config config = Config.getInstance();
+        enabled = config.getBoolean( ENABLED, true );
+        maxAgeNanos = TimeUnit.SECONDS.toNanos( config.getInt( MAX_AGE, 60 ) );
+        RestMetrics.register( "entityVersions", this );
+        LOG.info( "EntityVersions enabled=" + enabled + ", maxAge=" + config.getInt( MAX_AGE, 60 ) );
+    }
+
+
+    static EntityVersions getInstance()
+    {
+        return INSTANCE;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void changed( String tenant, EntityType type, String key, String name, ChangeOp op )
+    {
+        if ( key == null )
+        {
+            changed( tenant, type );
+        }
+        else
+        {
+            changed( tenant, type, key );
+        }
+    }
+
+
+    /**
+     * Increment the version of an entity.
+     *
+     * @param contextId The tenant
+     * @param type The type of entity
+     * @param key The normalized key of the entity, see {@link EntityType#key}
+     */
+    void changed( String contextId, EntityType type, String key )
+    {
+        Versions versions = versions( contextId, type );
+        versions.stripes.incrementAndGet( stripe( key ) );
+        versions.modCount.incrementAndGet();
+    }
+
+
+    /**
+     * Increment the version of all the entities of a type.
+     *
+     * @param contextId The tenant
+     * @param type The type of entity
+     */
+    void changed( String contextId, EntityType type )
+    {
+        Versions versions = versions( contextId, type );
+        versions.flushCount.incrementAndGet();
+        versions.modCount.incrementAndGet();
+    }
+
+
+    /**
+     * Compute the stamp of a read.  It changes whenever the entity read, or any entity of the types the result
+     * depends on, is modified through this server.
+     *
+     * @param contextId The tenant
+     * @param type The type of entity read
+     * @param key The normalized key of the entity read
+     * @param query The other request parameters changing the result, i.e. the limit
+     * @param dependsOn The types of the other entities found in the result
+     * @return The stamp, null if disabled
+     */
+    String stamp( String contextId, EntityType type, String key, String query, EntityType... dependsOn )
+    {
+        if ( !enabled )
+        {
+            return null;
+        }
+
+        StringBuilder sb = new StringBuilder( PolicyChanges.tenant( contextId ) );
+
+        if ( type != null )
+        {
+            Versions versions = versions( contextId, type );
+            sb.append( '-' ).append( versions.flushCount.get() );
+            sb.append( '.' ).append( versions.stripes.get( stripe( key ) ) );
+        }
+
+        for ( EntityType dependency : dependsOn )
+        {
+            sb.append( '-' ).append( versions( contextId, dependency ).modCount.get() );
+        }
+
+        return sb.append( '-' ).append( key ).append( '/' ).append( query ).toString();
+    }
+
+
+    /**
+     * Return the ETag kept for a read, if its stamp is still current.
+     *
+     * @param stamp The current stamp of the read, null if disabled
+     * @return The ETag of the last response, null if the read must be done
+     */
+    String etag( String stamp )
+    {
+        if ( stamp == null )
+        {
+            return null;
+        }
+
+        Kept kept;
+
+        synchronized ( etags )
+        {
+            kept = etags.get( stamp );
+        }
+
+        return kept == null || ( maxAgeNanos > 0 && System.nanoTime() - kept.time > maxAgeNanos ) ? null : kept.etag;
+    }
+
+
+    /**
+     * Keep the ETag of a response read at a stamp.
+     *
+     * @param stamp The stamp taken before the read, null if disabled
+     * @param etag The ETag computed from the response
+     */
+    void keep( String stamp, String etag )
+    {
+        if ( stamp != null && etag != null )
+        {
+            synchronized ( etags )
+            {
+                etags.put( stamp, new Kept( etag, System.nanoTime() ) );
+            }
+        }
+    }
+
+
+    /**
+     * Count a conditional request.
+     *
+     * @param matched true if the ETag sent by the client is still current
+     */
+    void conditional( boolean matched )
+    {
+        conditionals.incrementAndGet();
+
+        if ( matched )
+        {
+            notModified.incrementAndGet();
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void collect( Map<String, Number> metrics )
+    {
+        metrics.put( "conditionalRequests", conditionals.get() );
+        metrics.put( "notModified", notModified.get() );
+        metrics.put( "notModifiedRatio", RestMetrics.ratio( notModified.get(), conditionals.get() ) );
+
+        synchronized ( etags )
+        {
+            metrics.put( "etags", etags.size() );
+        }
+    }
+
+
+    private Versions versions( String contextId, EntityType type )
+    {
+        String tenant = PolicyChanges.tenant( contextId );
+        Versions[] byType = tenants.get( tenant );
+
+        if ( byType == null )
+        {
+            Versions[] newByType = new Versions[EntityType.values().length];
+
+            for ( int i = 0; i < newByType.length; i++ )
+            {
+                newByType[i] = new Versions();
+            }
+
+            byType = tenants.putIfAbsent( tenant, newByType );
+
+            if ( byType == null )
+            {
+                byType = newByType;
+            }
+        }
+
+        return byType[type.ordinal()];
+    }
+
+
+    private static int stripe( String key )
+    {
+        int hash = key == null ? 0 : key.hashCode();
+
+        return ( hash ^ ( hash >>> 16 ) ) & ( STRIPES - 1 );
+    }
+
+
+    /**
+     * An ETag and when it was computed, in nanoseconds.
+     */
+    private static final class Kept
+    {
+        private final String etag;
+        private final long time;
+
+
+        private Kept( String etag, long time )
+        {
+            this.etag = etag;
+            this.time = time;
+        }
+    }
+
+
+    /**
+     * The version numbers of one entity type in a tenant.
+     */
+    private static final class Versions
+    {
+        /** Incremented on every change */
+        private final AtomicLong modCount = new AtomicLong();
+
+        /** Incremented when all the entities of the type may have changed */
+        private final AtomicLong flushCount = new AtomicLong();
+
+        /** The versions of the single entities, by hash of their key */
+        private final AtomicLongArray stripes = new AtomicLongArray( STRIPES );
+    }
+}
@@ -0,0 +1,248 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.fortress.rest;
+
+import java.beans.BeanInfo;
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.directory.fortress.core.model.FortEntity;
+import org.apache.directory.fortress.core.model.FortResponse;
+import org.apache.log4j.Logger;
+
+/**
+ * Trims the entities of a response down to the properties the caller selected with the <code>fields</code> query
+ * parameter, i.e. <code>.../rbac/userSearch?fields=userId,ou</code>.  Only the selected properties are serialized, the
+ * others are left out of the XML or JSON document.
+ * <p>
+ * The field names are the entity bean property names, matched case insensitively.  Names that an entity does not
+ * have are ignored so a single selection can be used on responses mixing several entity types.  The entities are
+ * copied before being trimmed, the instances held by the caches are never modified.
+ * <p>
+ * This class is thread safe.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+final class FieldProjection
+{
+    /** A logger for this class */
+    private static final Logger LOG = Logger.getLogger( FieldProjection.class.getName() );
+
+    /** The query parameter holding the comma separated list of fields */
+    static final String PARAM = "fields";
+
+    /** The readable and writable properties of the entity classes, keyed by lower cased name */
+    private static final ConcurrentMap<Class<?>, Map<String, PropertyDescriptor>> PROPERTIES = new ConcurrentHashMap<>();
+
+
+    private FieldProjection()
+    {
+    }
+
+
+    /**
+     * Extract the selected fields from a query string.
+     *
+     * @param queryString The raw query string of the request, may be null
+     * @return The lower cased field names, or null when no projection was requested
+     */
+    static Set<String> parse( String queryString )
+    {
+        if ( queryString == null || queryString.isEmpty() )
+        {
+            return null;
+        }
+
+        Set<String> fields = null;
+
+        for ( String param : queryString.split( "&" ) )
+        {
+            int eq = param.indexOf( '=' );
+
+            if ( eq < 0 || !PARAM.equals( decode( param.substring( 0, eq ) ) ) )
+            {
+                continue;
+            }
+
+            if ( fields == null )
+            {
+                fields = new HashSet<>();
+            }
+
+            for ( String field : decode( param.substring( eq + 1 ) ).split( "," ) )
+            {
+                String name = field.trim();
+
+                if ( !name.isEmpty() )
+                {
+                    fields.add( name.toLowerCase( Locale.ENGLISH ) );
+                }
+            }
+        }
+
+        return fields == null || fields.isEmpty() ? null : fields;
+    }
+
+
+    /**
+     * Replace the entities of a response by copies holding only the selected fields.
+     *
+     * @param response The response to trim
+     * @param fields The lower cased field names, see {@link #parse}
+     */
+    static void apply( FortResponse response, Set<String> fields )
+    {
+        if ( response.getEntity() != null )
+        {
+            response.setEntity( project( response.getEntity(), fields ) );
+        }
+
+        List<FortEntity> entities = response.getEntities();
+
+        if ( entities != null && !entities.isEmpty() )
+        {
+            List<FortEntity> projected = new ArrayList<>( entities.size() );
+
+            for ( FortEntity entity : entities )
+            {
+                projected.add( entity == null ? null : project( entity, fields ) );
+            }
+
+            response.setEntities( projected );
+        }
+    }
+
+
+    /**
+     * Copy the selected fields of an entity into a new instance of the same class.
+     *
+     * @param entity The entity to copy
+     * @param fields The lower cased field names
+     * @param <T> The entity type
+     * @return The trimmed copy, or the entity itself when it can't be copied
+     */
+    static <T> T project( T entity, Set<String> fields )
+    {
+        Map<String, PropertyDescriptor> properties = properties( entity.getClass() );
+
+        try
+        {
+            @SuppressWarnings("unchecked")
+            T copy = ( T ) entity.getClass().getDeclaredConstructor().newInstance();
+
+            for ( Map.Entry<String, PropertyDescriptor> entry : properties.entrySet() )
+            {
+                PropertyDescriptor property = entry.getValue();
+
+                if ( fields.contains( entry.getKey() ) )
+                {
+                    property.getWriteMethod().invoke( copy, property.getReadMethod().invoke( entity ) );
+                }
+                else if ( !property.getPropertyType().isPrimitive() )
+                {
+                    // The constructor defaults, i.e. empty collections, would be serialized too
+                    clear( copy, property );
+                }
+            }
+
+            return copy;
+        }
+        catch ( ReflectiveOperationException e )
+        {
+            LOG.warn( "project can't copy " + entity.getClass().getName() + ", returned as is: " + e );
+
+            return entity;
+        }
+    }
+
+
+    private static void clear( Object copy, PropertyDescriptor property )
+    {
+        try
+        {
+            property.getWriteMethod().invoke( copy, ( Object ) null );
+        }
+        catch ( ReflectiveOperationException | IllegalArgumentException e )
+        {
+            // The setter refuses null, the default value is kept
+            LOG.debug( "project can't clear " + property.getName() + ": " + e );
+        }
+    }
+
+
+    private static Map<String, PropertyDescriptor> properties( Class<?> clazz )
+    {
+        Map<String, PropertyDescriptor> properties = PROPERTIES.get( clazz );
+
+        if ( properties == null )
+        {
+            properties = new HashMap<>();
+
+            try
+            {
+                BeanInfo info = Introspector.getBeanInfo( clazz, Object.class );
+
+                for ( PropertyDescriptor property : info.getPropertyDescriptors() )
+                {
+                    if ( property.getReadMethod() != null && property.getWriteMethod() != null )
+                    {
+                        properties.put( property.getName().toLowerCase( Locale.ENGLISH ), property );
+                    }
+                }
+            }
+            catch ( IntrospectionException ie )
+            {
+                LOG.warn( "properties can't introspect " + clazz.getName() + ": " + ie );
+            }
+
+            properties = Collections.unmodifiableMap( properties );
+            PROPERTIES.putIfAbsent( clazz, properties );
+        }
+
+        return properties;
+    }
+
+
+    private static String decode( String value )
+    {
+        try
+        {
+            return URLDecoder.decode( value, StandardCharsets.UTF_8.name() );
+        }
+        catch ( UnsupportedEncodingException | IllegalArgumentException e )
+        {
+            return value;
+        }
+    }
+}
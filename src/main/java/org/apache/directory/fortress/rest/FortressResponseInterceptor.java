@@ -19,6 +19,8 @@
  */
 package org.apache.directory.fortress.rest;
 
+import java.util.Set;
+
 import org.apache.cxf.interceptor.Fault;
 import org.apache.cxf.jaxrs.interceptor.JAXRSOutInterceptor;
 import org.apache.cxf.message.Message;
@@ -28,7 +30,8 @@ import org.apache.cxf.phase.Phase;
 import org.apache.directory.fortress.core.model.FortResponse;
 
 /**
- * Interceptor to set the HTTP Status code based on the value present in FortResponse.
+ * Interceptor to set the HTTP Status code based on the value present in FortResponse, and to trim its entities down to
+ * the fields selected by the caller, see {@link FieldProjection}.
  *
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
@@ -57,7 +60,17 @@ public class FortressResponseInterceptor extends AbstractPhaseInterceptor<Messag
                 Object o = objs.get(0);
                 if( o instanceof FortResponse )
                 {
-                    message.getExchange().put( Message.RESPONSE_CODE, ((FortResponse)o).getHttpStatus() );
+                    FortResponse response = (FortResponse)o;
+                    message.getExchange().put( Message.RESPONSE_CODE, response.getHttpStatus() );
+                    Message inMessage = message.getExchange().getInMessage();
+                    if( inMessage != null )
+                    {
+                        Set<String> fields = FieldProjection.parse( (String)inMessage.get( Message.QUERY_STRING ) );
+                        if( fields != null )
+                        {
+                            FieldProjection.apply( response, fields );
+                        }
+                    }
                 }
             }
         }
@@ -27,9 +27,13 @@ import org.apache.directory.fortress.core.model.FortResponse;
 import org.apache.directory.fortress.core.model.Group;
 import org.apache.directory.fortress.core.model.UserRole;
 
+import java.io.InputStream;
+
 import javax.annotation.security.RolesAllowed;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.core.Response;
 
 /**
  * Interface for Fortress Rest Service methods.
@@ -2411,6 +2415,34 @@ public interface FortressService
      */
     FortResponse disableRoleConstraint( FortRequest request );
 
+
+    /**
+     * Load a policy document in the format of the Fortress Ant loader, i.e. <code>FortressRestServerPolicy.xml</code>,
+     * sent as the body of the request.  The organizational units are added first, then the roles, admin roles and
+     * permission objects, the role inheritances, the users and permission operations, and last the user and admin role
+     * assignments and the permission grants.  The independent items are applied concurrently.
+     * <p>
+     * Supported containers: <code>addorgunit</code>, <code>addrole</code>, <code>addadminrole</code>,
+     * <code>addpermobj</code>, <code>addroleinheritance</code>, <code>adduser</code>, <code>addpermop</code>,
+     * <code>adduserrole</code>, <code>adduseradminrole</code>, <code>addpermgrant</code>.
+     * <h3></h3>
+     * <h4>required parameters</h4>
+     * <ul>
+     *   <li>the XML policy document, as the request body</li>
+     * </ul>
+     * <h4>optional parameters</h4>
+     * <ul>
+     *   <li><code>contextId</code> query parameter - the tenant</li>
+     * </ul>
+     *
+     * @param document the policy document
+     * @param contextId the tenant, may be null
+     * @return reference to {@code FortResponse}, {@link FortResponse#values} contains one
+     * <code>PHASE items=N applied=N failed=N millis=N</code> line per phase followed by one line per failed item.  When
+     * items failed the {@link FortResponse#errorCode} is {@link RestErrIds#IMPORT_FAILED_ITEMS}
+     */
+    FortResponse importPolicy( InputStream document, String contextId );
+
     //------------ ReviewMgr ----------------------------------------------------------------------------------------------
     /**
      * This method returns a matching permission entity to caller.
@@ -2670,6 +2702,11 @@ public interface FortressService
     
     /**
      * Method reads Role entity from the role container in directory.
+     * <p>
+     * The response carries an ETag header computed from its content, the same on every server.  Clients sending it
+     * back in If-None-Match get an HTTP 304 with no body, without a directory read as long as the data has not been
+     * modified through this server.  Writes made directly in the directory are seen after at most
+     * <code>rest.etag.max.age.seconds</code>.
      * <h3></h3>
      * <h4>required parameters</h4>
      * <ul>
@@ -2769,6 +2806,82 @@ public interface FortressService
      */
     FortResponse readUser( FortRequest request );
 
+
+    /**
+     * Read several users in one request.  Each key is read as by the single read service, through the same cache.
+     * <h3></h3>
+     * <h4>required parameters</h4>
+     * <ul>
+     *   <li>
+     *     {@link FortRequest#value} - the userIds, one per line, at most <code>rest.multiget.max.keys</code>
+     *   </li>
+     * </ul>
+     * <h4>optional parameters</h4>
+     * <ul>
+     *   <li>
+     *     {@link FortRequest#session} - contains a reference to administrative session and if included service will 
+     *     enforce ARBAC constraints
+     *   </li>
+     * </ul>
+     *
+     * @param request contains a reference to {@code FortRequest}
+     * @return reference to {@code FortResponse}, {@link FortResponse#values} contains one element per key in request
+     * order: <code>0</code> when the entity was found, else the error id and message of its read.
+     * {@link FortResponse#entities} contains the {@link org.apache.directory.fortress.core.model.User}s found, in request order
+     */
+    FortResponse readUsers( FortRequest request );
+
+
+    /**
+     * Read several roles in one request.  Each key is read as by the single read service, through the same cache.
+     * <h3></h3>
+     * <h4>required parameters</h4>
+     * <ul>
+     *   <li>
+     *     {@link FortRequest#value} - the role names, one per line, at most <code>rest.multiget.max.keys</code>
+     *   </li>
+     * </ul>
+     * <h4>optional parameters</h4>
+     * <ul>
+     *   <li>
+     *     {@link FortRequest#session} - contains a reference to administrative session and if included service will 
+     *     enforce ARBAC constraints
+     *   </li>
+     * </ul>
+     *
+     * @param request contains a reference to {@code FortRequest}
+     * @return reference to {@code FortResponse}, {@link FortResponse#values} contains one element per key in request
+     * order: <code>0</code> when the entity was found, else the error id and message of its read.
+     * {@link FortResponse#entities} contains the {@link org.apache.directory.fortress.core.model.Role}s found, in request order
+     */
+    FortResponse readRoles( FortRequest request );
+
+
+    /**
+     * Read several permissions in one request.  Each key is read as by the single read service, through the same cache.
+     * <h3></h3>
+     * <h4>required parameters</h4>
+     * <ul>
+     *   <li>
+     *     {@link FortRequest#value} - the objName, opName and optional objId of the permissions separated by tabs, one per line, at most <code>rest.multiget.max.keys</code>
+     *   </li>
+     * </ul>
+     * <h4>optional parameters</h4>
+     * <ul>
+     *   <li>{@link FortRequest#isFlag} - if 'true' the administrative permissions are read</li>
+     *   <li>
+     *     {@link FortRequest#session} - contains a reference to administrative session and if included service will 
+     *     enforce ARBAC constraints
+     *   </li>
+     * </ul>
+     *
+     * @param request contains a reference to {@code FortRequest}
+     * @return reference to {@code FortResponse}, {@link FortResponse#values} contains one element per key in request
+     * order: <code>0</code> when the entity was found, else the error id and message of its read.
+     * {@link FortResponse#entities} contains the {@link org.apache.directory.fortress.core.model.Permission}s found, in request order
+     */
+    FortResponse readPermissions( FortRequest request );
+
     
     /**
      * Return a list of type User of all users in the people container that match all or part of the 
@@ -2818,6 +2931,11 @@ public interface FortressService
     /**
      * This method returns the data set of all users who are assigned the given role.  This searches the User data set for
      * Role relationship.  This method does NOT search for hierarchical RBAC Roles relationships.
+     * <p>
+     * The response carries an ETag header computed from its content, the same on every server.  Clients sending it
+     * back in If-None-Match get an HTTP 304 with no body, without a directory read as long as the data has not been
+     * modified through this server.  Writes made directly in the directory are seen after at most
+     * <code>rest.etag.max.age.seconds</code>.
      * <h3></h3>
      * <h4>required parameters</h4>
      * <ul>
@@ -2855,6 +2973,30 @@ public interface FortressService
     FortResponse assignedUsers( FortRequest request );
 
 
+    /**
+     * Count the users assigned to a role, as {@link #assignedUsers} would return them, without returning the users.
+     * <h3></h3>
+     * <h4>required parameters</h4>
+     * <ul>
+     *   <li>
+     *     {@link FortRequest#entity} - contains a reference to {@link org.apache.directory.fortress.core.model.Role}
+     *     entity, {@link org.apache.directory.fortress.core.model.Role#name} is required
+     *   </li>
+     * </ul>
+     * <h4>optional parameters</h4>
+     * <ul>
+     *   <li>
+     *     {@link FortRequest#session} - contains a reference to administrative session and if included service will 
+     *     enforce ARBAC constraints
+     *   </li>
+     * </ul>
+     *
+     * @param request contains a reference to {@code FortRequest}
+     * @return reference to {@code FortResponse}, {@link FortResponse#values} contains the number of users as its only element
+     */
+    FortResponse assignedUsersCount( FortRequest request );
+
+
     /**
      * This method returns the data set of all users who are assigned the given role constraint.  This searches the User data set for
      * RoleConstraint relationship.  This method does NOT search for hierarchical RBAC Roles relationships.
@@ -3003,6 +3145,31 @@ public interface FortressService
      */
     FortResponse authorizedUsers( FortRequest request );
 
+
+    /**
+     * Count the users authorized for a role, as {@link #authorizedUsers} would return them, without returning the users.
+     * Only the role hierarchy and the ids of the users assigned to the role and to the roles inheriting it are read.
+     * <h3></h3>
+     * <h4>required parameters</h4>
+     * <ul>
+     *   <li>
+     *     {@link FortRequest#entity} - contains a reference to {@link org.apache.directory.fortress.core.model.Role}
+     *     entity, {@link org.apache.directory.fortress.core.model.Role#name} is required
+     *   </li>
+     * </ul>
+     * <h4>optional parameters</h4>
+     * <ul>
+     *   <li>
+     *     {@link FortRequest#session} - contains a reference to administrative session and if included service will 
+     *     enforce ARBAC constraints
+     *   </li>
+     * </ul>
+     *
+     * @param request contains a reference to {@code FortRequest}
+     * @return reference to {@code FortResponse}, {@link FortResponse#values} contains the number of users as its only element
+     */
+    FortResponse authorizedUsersCount( FortRequest request );
+
     
     /**
      * This function returns the set of roles authorized for a given user. The function is valid if
@@ -3092,6 +3259,11 @@ public interface FortressService
      * This function returns the set of all permissions (op, obj), granted to or inherited by a
      * given role. The function is valid if and only if the role is a member of the ROLES data
      * set.
+     * <p>
+     * The response carries an ETag header computed from its content, the same on every server.  Clients sending it
+     * back in If-None-Match get an HTTP 304 with no body, without a directory read as long as the data has not been
+     * modified through this server.  Writes made directly in the directory are seen after at most
+     * <code>rest.etag.max.age.seconds</code>.
      * <h3></h3>
      * <h4>required parameters</h4>
      * <ul>
@@ -3445,6 +3617,11 @@ public interface FortressService
     /**
      * This function returns the list of all SSD sets that have a particular SSD set name.
      * If the parameter is left blank, function will return all SSD sets.
+     * <p>
+     * The response carries an ETag header computed from its content, the same on every server.  Clients sending it
+     * back in If-None-Match get an HTTP 304 with no body, without a directory read as long as the data has not been
+     * modified through this server.  Writes made directly in the directory are seen after at most
+     * <code>rest.etag.max.age.seconds</code>.
      * <h3></h3>
      * <h4>required parameters</h4>
      * <ul>
@@ -3654,6 +3831,85 @@ public interface FortressService
     FortResponse dsdSets( FortRequest request );
 
 
+    /**
+     * Export the RBAC policy of a tenant so clients can evaluate access decisions locally: the roles and their
+     * parents, the permissions with the roles and users they are granted to, the SSD and DSD sets.  The snapshot is
+     * versioned, a client sending the version it holds gets only the changes since that version when it is still
+     * kept by the server.  The binary encoding is described in {@link PolicySnapshot}.
+     * <h3></h3>
+     * <h4>required parameters</h4>
+     * <ul>
+     *   <li>none</li>
+     * </ul>
+     * <h4>optional parameters</h4>
+     * <ul>
+     *   <li>
+     *     {@link FortRequest#value} - the version of the snapshot held by the client.  When missing or no longer
+     *     known the full snapshot is returned
+     *   </li>
+     *   <li>{@link FortRequest#contextId} - the tenant</li>
+     * </ul>
+     *
+     * @param request contains a reference to {@code FortRequest}
+     * @return an <code>application/octet-stream</code> response holding the full or delta snapshot, or the
+     * {@code FortResponse} describing the error
+     */
+    Response policySnapshot( FortRequest request );
+
+
+    /**
+     * Report the effective permissions of every user of a tenant for access certification: the permissions granted
+     * to the user, to the assigned roles and to their ascendants.  The report is streamed, its formats are described
+     * in {@link AccessReview}.
+     * <h3></h3>
+     * <h4>required parameters</h4>
+     * <ul>
+     *   <li>none</li>
+     * </ul>
+     * <h4>optional parameters</h4>
+     * <ul>
+     *   <li>{@link FortRequest#value} - <code>CSV</code>, the default, or <code>NDJSON</code></li>
+     *   <li>{@link FortRequest#contextId} - the tenant</li>
+     *   <li>
+     *     {@link FortRequest#session} - contains a reference to administrative session and if included service will
+     *     enforce ARBAC constraints
+     *   </li>
+     * </ul>
+     *
+     * @param request contains a reference to {@code FortRequest}
+     * @return a <code>text/csv</code> or <code>application/x-ndjson</code> response streaming the report, or the
+     * {@code FortResponse} describing the error
+     */
+    Response accessReview( FortRequest request );
+
+
+    /**
+     * Simulate policy changes, i.e. deleting a role or revoking a grant, without writing to the directory, and report
+     * the access decisions they would change.  The changes are applied to an in memory copy of the tenant policy, the
+     * syntax of the changes is described in {@link PolicySimulation}.  The temporal constraints are not evaluated.
+     * <h3></h3>
+     * <h4>required parameters</h4>
+     * <ul>
+     *   <li>{@link FortRequest#value} - the changes, one per line</li>
+     * </ul>
+     * <h4>optional parameters</h4>
+     * <ul>
+     *   <li>{@link FortRequest#limit} - the max number of changed decisions listed, 1000 by default</li>
+     *   <li>{@link FortRequest#contextId} - the tenant</li>
+     *   <li>
+     *     {@link FortRequest#session} - contains a reference to administrative session and if included service will
+     *     enforce ARBAC constraints
+     *   </li>
+     * </ul>
+     *
+     * @param request contains a reference to {@code FortRequest}
+     * @return reference to {@code FortResponse}, {@link FortResponse#values} starts with a
+     * <code>compared=N changed=N granted=N revoked=N millis=N</code> summary followed by one
+     * <code>+ userId objName#opName#objId</code> or <code>- userId objName#opName#objId</code> line per changed decision
+     */
+    FortResponse simulatePolicy( FortRequest request );
+
+
     //------------ AccessMgr ----------------------------------------------------------------------------------------------
     /**
      * Perform user authentication only.  It does not activate RBAC roles in session but will evaluate
@@ -4001,6 +4257,8 @@ public interface FortressService
      * @param request contains a reference to {@code FortRequest}
      * @return reference to {@code FortResponse}, {@link FortResponse#isAuthorized} boolean will be 'true' if User 
      * authorized, otherwise 'false'.  Updated {@link FortResponse#session} will be included in response as well.
+     * While the directory cannot be reached, the last decision read may be returned, {@link FortResponse#values}
+     * then contains "STALE" and its age in seconds.
      */
     FortResponse checkAccess( FortRequest request );
 
@@ -4144,7 +4402,8 @@ public interface FortressService
      * @param request contains a reference to {@code FortRequest}
      * @return reference to {@code FortResponse}, {@link FortResponse#entities} containing a List of type 
      * {@link org.apache.directory.fortress.core.model.Permission}.  Updated {@link FortResponse#session} will be included 
-     * in response as well.
+     * in response as well.  While the directory cannot be reached, the last permissions read may be returned,
+     * {@link FortResponse#values} then contains "STALE" and their age in seconds.
      */
     FortResponse sessionPermissions( FortRequest request );
 
@@ -6742,6 +7001,31 @@ public interface FortressService
     FortResponse searchInvalidUsers( FortRequest request );
 
 
+    /**
+     * Search the authentications and authorization decisions recently journaled by this server, newest first.  The
+     * journal is only written when <code>rest.audit.journal.enabled=true</code>, see the fortress.properties example.
+     * Each value is a tab separated line: time in milliseconds, tenant, type (AUTHN or AUTHZ), userId, permission and
+     * result.
+     * <h3></h3>
+     * <h4>optional parameters</h4>
+     * <ul>
+     *   <li>
+     *     {@link FortRequest#entity} - contains a reference to {@link org.apache.directory.fortress.core.model.UserAudit}
+     *     entity, {@link org.apache.directory.fortress.core.model.UserAudit#userId} filters on a user,
+     *     {@link org.apache.directory.fortress.core.model.UserAudit#beginDate} and
+     *     {@link org.apache.directory.fortress.core.model.UserAudit#endDate} on the record times and
+     *     {@link org.apache.directory.fortress.core.model.UserAudit#failedOnly} keeps the failures only.  The ranges
+     *     fully covered by the local audit archive are answered from it, when <code>rest.audit.archive.enabled=true</code>
+     *   </li>
+     *   <li>{@link FortRequest#limit} - the max number of records returned, 1000 by default</li>
+     * </ul>
+     *
+     * @param request contains a reference to {@code FortRequest}
+     * @return reference to {@code FortResponse}, {@link FortResponse#values} contains the journal records
+     */
+    FortResponse searchJournal( FortRequest request );
+
+
     //------------ ConfigMgr ----------------------------------------------------------------------------------------------
     /**
      * Create a new configuration node with given name and properties.  The name is required.  If node already exists,
@@ -7289,6 +7573,127 @@ public interface FortressService
     public FortResponse rolePermissionAttributeSets( FortRequest request );
 
 
+    //------------ Rest Server ------------------------------------------------------------------------------------------
+    /**
+     * Return the runtime counters of the Fortress Rest Server components, i.e. the hit ratio and evictions of the
+     * entity cache.
+     * <h3></h3>
+     * <h4>required parameters</h4>
+     * <ul>
+     *   <li>none</li>
+     * </ul>
+     *
+     * @param request contains a reference to {@code FortRequest}
+     * @return reference to {@code FortResponse}, {@link FortResponse#values} contains a sorted list of
+     * <code>name=value</code> strings
+     */
+    FortResponse readMetrics( FortRequest request );
+
+
+    /**
+     * Long-poll the feed of the policy writes done through this server for a tenant.  The request is answered as soon
+     * as writes newer than the given cursor exist, or with no event after <code>rest.feed.wait.seconds</code>.
+     * <h3></h3>
+     * <h4>required parameters</h4>
+     * <ul>
+     *   <li>none</li>
+     * </ul>
+     * <h4>optional parameters</h4>
+     * <ul>
+     *   <li>
+     *     {@link FortRequest#value} - the cursor returned by the previous call.  When empty the current cursor is
+     *     returned at once, without events
+     *   </li>
+     *   <li>{@link FortRequest#contextId} - the tenant</li>
+     * </ul>
+     * The first element of {@link FortResponse#values} is the cursor to send on the next call, it is followed by one
+     * <code>version type op key</code> string per write, i.e. <code>1234 USER UPDATE jsmith</code>.  The key is
+     * <code>*</code> when an unknown number of entities of the type changed.  When the cursor is too old, or was
+     * returned by another server or before a restart, the {@link FortResponse#errorCode} is
+     * {@link RestErrIds#FEED_RESYNC}: the client must reload the policy it keeps and restart from the returned cursor.
+     * The clients of a cluster should keep polling the same server.
+     *
+     * @param request contains a reference to {@code FortRequest}
+     * @param asyncResponse the suspended response, resumed with a {@code FortResponse}
+     */
+    void policyChanges( FortRequest request, AsyncResponse asyncResponse );
+
+
+    /**
+     * Export all the policy of a tenant: the user and permission organizational units, password policies, roles,
+     * users, permission objects, permissions, groups, SSD and DSD sets.  The export is streamed as a gzipped file of
+     * JSON lines, one entity per line, ended by a <code>{"section":"END"}</code> line.  The format is described in
+     * {@link TenantExport}.
+     * <h3></h3>
+     * <h4>required parameters</h4>
+     * <ul>
+     *   <li>none</li>
+     * </ul>
+     * <h4>optional parameters</h4>
+     * <ul>
+     *   <li>
+     *     {@link FortRequest#value} - the checkpoint of the last line received by a previous export that was cut,
+     *     the export resumes after that entity
+     *   </li>
+     *   <li>{@link FortRequest#contextId} - the tenant</li>
+     *   <li>
+     *     {@link FortRequest#session} - contains a reference to administrative session and if included service will
+     *     enforce ARBAC constraints
+     *   </li>
+     * </ul>
+     *
+     * @param request contains a reference to {@code FortRequest}
+     * @return an <code>application/gzip</code> response streaming the export, or the {@code FortResponse} describing
+     * the error
+     */
+    Response exportTenant( FortRequest request );
+
+
+    /**
+     * Stream the differences between the policies of two tenants, i.e. a staging and a production tenant.  The format
+     * is described in {@link PolicyDiff}.
+     * <h3></h3>
+     * <h4>required parameters</h4>
+     * <ul>
+     *   <li>{@link FortRequest#value} - the target tenant</li>
+     * </ul>
+     * <h4>optional parameters</h4>
+     * <ul>
+     *   <li>{@link FortRequest#contextId} - the tenant compared to the target</li>
+     *   <li>
+     *     {@link FortRequest#session} - contains a reference to administrative session and if included service will
+     *     enforce ARBAC constraints in both tenants
+     *   </li>
+     * </ul>
+     *
+     * @param request contains a reference to {@code FortRequest}
+     * @return an <code>application/x-ndjson</code> response streaming the differences, or the {@code FortResponse}
+     * describing the error
+     */
+    Response diffTenants( FortRequest request );
+
+
+    /**
+     * Stream the differences between the policy of a tenant and an export returned by {@link #exportTenant}, sent as
+     * the body of the request.  The format is described in {@link PolicyDiff}.
+     * <h3></h3>
+     * <h4>required parameters</h4>
+     * <ul>
+     *   <li>the gzipped export, as the request body</li>
+     * </ul>
+     * <h4>optional parameters</h4>
+     * <ul>
+     *   <li><code>contextId</code> query parameter - the tenant compared to the export</li>
+     * </ul>
+     *
+     * @param export the export
+     * @param contextId the tenant, may be null
+     * @return an <code>application/x-ndjson</code> response streaming the differences, or the {@code FortResponse}
+     * describing the error
+     */
+    Response diffExport( InputStream export, String contextId );
+
+
     /**
      * If matching jax-rs service was not found, the client will be returned a response with an error generated by this method.
      *
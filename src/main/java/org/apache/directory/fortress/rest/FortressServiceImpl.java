@@ -19,12 +19,29 @@
  */
 package org.apache.directory.fortress.rest;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
 import javax.annotation.security.RolesAllowed;
 import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.Consumes;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.servlet.http.HttpServletResponse;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import org.apache.directory.fortress.core.GlobalErrIds;
 import org.apache.directory.fortress.core.model.*;
 import org.apache.directory.fortress.core.rest.HttpIds;
@@ -41,6 +58,9 @@ import org.springframework.stereotype.Service;
 public class FortressServiceImpl implements FortressService
 {
     private static final Logger log = Logger.getLogger( FortressServiceImpl.class.getName() );
+
+    /** Serializes the responses to compute their ETags */
+    private static final JacksonFieldOnlyMapper MAPPER = new JacksonFieldOnlyMapper();
     // Instantiate the implementation classes where the actual work is done:
     private final ReviewMgrImpl reviewMgrImpl = new ReviewMgrImpl();
     private final AdminMgrImpl adminMgrImpl = new AdminMgrImpl();
@@ -52,6 +72,7 @@ public class FortressServiceImpl implements FortressService
     private final AuditMgrImpl auditMgrImpl = new AuditMgrImpl();
     private final ConfigMgrImpl configMgrImpl = new ConfigMgrImpl();
     private final GroupMgrImpl groupMgrImpl = new GroupMgrImpl();
+    private final ServerMgrImpl serverMgrImpl = new ServerMgrImpl();
 
     // These are the allowed roles for the Fortress Rest services:
     private static final String SUPER_USER = "fortress-rest-super-user";
@@ -68,6 +89,9 @@ public class FortressServiceImpl implements FortressService
     @Context
     private HttpServletRequest httpRequest;
 
+    @Context
+    private HttpServletResponse httpResponse;
+
     /**
      * ************************************************************************************************************************************
      * BEGIN ADMINMGR
@@ -858,6 +882,24 @@ public class FortressServiceImpl implements FortressService
         return response;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @POST
+    @Path("/" + RestIds.POLICY_IMPORT + "/")
+    @Consumes({MediaType.APPLICATION_XML, MediaType.TEXT_XML, MediaType.APPLICATION_OCTET_STREAM})
+    @RolesAllowed({SUPER_USER, ADMIN_MGR_USER})
+    @Override
+    public FortResponse importPolicy( InputStream document, @QueryParam("contextId") String contextId )
+    {
+        FortRequest request = new FortRequest();
+        request.setContextId( contextId );
+        FortResponse response = SecUtils.initializeSession(request, httpRequest);
+        if( response == null )
+            response = adminMgrImpl.importPolicy( request, document );
+        return response;
+    }
+
 
     /**
      * ************************************************************************************************************************************
@@ -971,7 +1013,12 @@ public class FortressServiceImpl implements FortressService
     {
         FortResponse response = SecUtils.initializeSession(request, httpRequest);
         if( response == null )
-            response = reviewMgrImpl.readRole( request );
+        {
+            String stamp = reviewMgrImpl.readRoleStamp( request );
+            response = notModified( EntityVersions.getInstance().etag( stamp ) );
+            if( response == null )
+                response = withETag( reviewMgrImpl.readRole( request ), stamp );
+        }
         return response;
     }
 
@@ -1008,6 +1055,54 @@ public class FortressServiceImpl implements FortressService
     }
 
 
+    /**
+     * {@inheritDoc}
+     */
+    @POST
+    @Path("/" + RestIds.USERS_READ + "/")
+    @RolesAllowed({SUPER_USER, REVIEW_MGR_USER})
+    @Override
+    public FortResponse readUsers( FortRequest request )
+    {
+        FortResponse response = SecUtils.initializeSession(request, httpRequest);
+        if( response == null )
+            response = reviewMgrImpl.readUsersM( request );
+        return response;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @POST
+    @Path("/" + RestIds.ROLES_READ + "/")
+    @RolesAllowed({SUPER_USER, REVIEW_MGR_USER})
+    @Override
+    public FortResponse readRoles( FortRequest request )
+    {
+        FortResponse response = SecUtils.initializeSession(request, httpRequest);
+        if( response == null )
+            response = reviewMgrImpl.readRolesM( request );
+        return response;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @POST
+    @Path("/" + RestIds.PERMS_READ + "/")
+    @RolesAllowed({SUPER_USER, REVIEW_MGR_USER})
+    @Override
+    public FortResponse readPermissions( FortRequest request )
+    {
+        FortResponse response = SecUtils.initializeSession(request, httpRequest);
+        if( response == null )
+            response = reviewMgrImpl.readPermissionsM( request );
+        return response;
+    }
+
+
     /**
      * {@inheritDoc}
      */
@@ -1035,7 +1130,28 @@ public class FortressServiceImpl implements FortressService
     {
         FortResponse response = SecUtils.initializeSession(request, httpRequest);
         if( response == null )
-            response = reviewMgrImpl.assignedUsersM( request );
+        {
+            String stamp = reviewMgrImpl.assignedUsersStamp( request );
+            response = notModified( EntityVersions.getInstance().etag( stamp ) );
+            if( response == null )
+                response = withETag( reviewMgrImpl.assignedUsersM( request ), stamp );
+        }
+        return response;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @POST
+    @Path("/" + RestIds.ASSIGNED_USERS_COUNT + "/")
+    @RolesAllowed({SUPER_USER, REVIEW_MGR_USER})
+    @Override
+    public FortResponse assignedUsersCount( FortRequest request )
+    {
+        FortResponse response = SecUtils.initializeSession(request, httpRequest);
+        if( response == null )
+            response = reviewMgrImpl.assignedUsersCount( request );
         return response;
     }
 
@@ -1104,6 +1220,22 @@ public class FortressServiceImpl implements FortressService
     }
 
 
+    /**
+     * {@inheritDoc}
+     */
+    @POST
+    @Path("/" + RestIds.AUTHORIZED_USERS_COUNT + "/")
+    @RolesAllowed({SUPER_USER, REVIEW_MGR_USER})
+    @Override
+    public FortResponse authorizedUsersCount( FortRequest request )
+    {
+        FortResponse response = SecUtils.initializeSession(request, httpRequest);
+        if( response == null )
+            response = reviewMgrImpl.authorizedUsersCount( request );
+        return response;
+    }
+
+
     /**
      * {@inheritDoc}
      */
@@ -1159,7 +1291,12 @@ public class FortressServiceImpl implements FortressService
     {
         FortResponse response = SecUtils.initializeSession(request, httpRequest);
         if( response == null )
-            response = reviewMgrImpl.rolePermissionsM( request );
+        {
+            String stamp = reviewMgrImpl.rolePermissionsStamp( request );
+            response = notModified( EntityVersions.getInstance().etag( stamp ) );
+            if( response == null )
+                response = withETag( reviewMgrImpl.rolePermissionsM( request ), stamp );
+        }
         return response;
     }
 
@@ -1329,7 +1466,12 @@ public class FortressServiceImpl implements FortressService
     {
         FortResponse response = SecUtils.initializeSession(request, httpRequest);
         if( response == null )
-            response = reviewMgrImpl.ssdSetsM( request );
+        {
+            String stamp = reviewMgrImpl.ssdSetsStamp( request );
+            response = notModified( EntityVersions.getInstance().etag( stamp ) );
+            if( response == null )
+                response = withETag( reviewMgrImpl.ssdSetsM( request ), stamp );
+        }
         return response;
     }
 
@@ -1413,6 +1555,53 @@ public class FortressServiceImpl implements FortressService
         return response;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @POST
+    @Path("/" + RestIds.POLICY_SNAPSHOT + "/")
+    @Produces({MediaType.APPLICATION_OCTET_STREAM, MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON})
+    @RolesAllowed({SUPER_USER, REVIEW_MGR_USER})
+    @Override
+    public Response policySnapshot( FortRequest request )
+    {
+        FortResponse response = SecUtils.initializeSession(request, httpRequest);
+        if( response != null )
+            return Response.status( response.getHttpStatus() ).entity( response ).build();
+        return reviewMgrImpl.policySnapshot( request );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @POST
+    @Path("/" + RestIds.ACCESS_REVIEW + "/")
+    @Produces({"text/csv", "application/x-ndjson", MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON})
+    @RolesAllowed({SUPER_USER, REVIEW_MGR_USER})
+    @Override
+    public Response accessReview( FortRequest request )
+    {
+        FortResponse response = SecUtils.initializeSession(request, httpRequest);
+        if( response != null )
+            return Response.status( response.getHttpStatus() ).entity( response ).build();
+        return reviewMgrImpl.accessReview( request );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @POST
+    @Path("/" + RestIds.POLICY_SIMULATION + "/")
+    @RolesAllowed({SUPER_USER, REVIEW_MGR_USER})
+    @Override
+    public FortResponse simulatePolicy( FortRequest request )
+    {
+        FortResponse response = SecUtils.initializeSession(request, httpRequest);
+        if( response == null )
+            response = reviewMgrImpl.simulatePolicy( request );
+        return response;
+    }
+
 
     /**
      * ************************************************************************************************************************************
@@ -1428,7 +1617,7 @@ public class FortressServiceImpl implements FortressService
     @Override
     public FortResponse authenticate( FortRequest request )
     {
-        return accessMgrImpl.authenticate( request );
+        return accessMgrImpl.authenticate( request, clientAddress() );
     }
 
 
@@ -1441,7 +1630,7 @@ public class FortressServiceImpl implements FortressService
     @Override
     public FortResponse createSession( FortRequest request )
     {
-        return accessMgrImpl.createSession( request );
+        return accessMgrImpl.createSession( request, clientAddress() );
     }
 
 
@@ -2315,6 +2504,22 @@ public class FortressServiceImpl implements FortressService
         return response;
     }
 
+
+    /**
+     * {@inheritDoc}
+     */
+    @POST
+    @Path("/" + RestIds.AUDIT_JOURNAL + "/")
+    @RolesAllowed({SUPER_USER, AUDIT_MGR_USER})
+    @Override
+    public FortResponse searchJournal( FortRequest request )
+    {
+        FortResponse response = SecUtils.initializeSession(request, httpRequest);
+        if( response == null )
+            response = auditMgrImpl.searchJournal( request );
+        return response;
+    }
+
     
     /**
      * ************************************************************************************************************************************
@@ -2512,6 +2717,208 @@ public class FortressServiceImpl implements FortressService
         return response;
     }
 
+    /**
+     * ************************************************************************************************************************************
+     * BEGIN SERVER
+     * **************************************************************************************************************************************
+     */
+
+    /**
+     * {@inheritDoc}
+     */
+    @POST
+    @Path("/" + RestIds.REST_METRICS + "/")
+    @RolesAllowed({SUPER_USER})
+    @Override
+    public FortResponse readMetrics( FortRequest request )
+    {
+        FortResponse response = SecUtils.initializeSession(request, httpRequest);
+        if( response == null )
+            response = serverMgrImpl.readMetrics( request );
+        return response;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @POST
+    @Path("/" + RestIds.POLICY_CHANGES + "/")
+    @RolesAllowed({SUPER_USER, REVIEW_MGR_USER})
+    @Override
+    public void policyChanges( FortRequest request, @Suspended AsyncResponse asyncResponse )
+    {
+        FortResponse response = SecUtils.initializeSession(request, httpRequest);
+        if( response == null )
+            serverMgrImpl.policyChanges( request, asyncResponse );
+        else
+            asyncResponse.resume( response );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @POST
+    @Path("/" + RestIds.TENANT_EXPORT + "/")
+    @Produces({"application/gzip", MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON})
+    @RolesAllowed({SUPER_USER})
+    @Override
+    public Response exportTenant( FortRequest request )
+    {
+        FortResponse response = SecUtils.initializeSession(request, httpRequest);
+        if( response != null )
+            return Response.status( response.getHttpStatus() ).entity( response ).build();
+        return serverMgrImpl.exportTenant( request );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @POST
+    @Path("/" + RestIds.TENANT_DIFF + "/")
+    @Produces({"application/x-ndjson", MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON})
+    @RolesAllowed({SUPER_USER})
+    @Override
+    public Response diffTenants( FortRequest request )
+    {
+        FortResponse response = SecUtils.initializeSession(request, httpRequest);
+        if( response != null )
+            return Response.status( response.getHttpStatus() ).entity( response ).build();
+        return serverMgrImpl.diffTenants( request );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @POST
+    @Path("/" + RestIds.EXPORT_DIFF + "/")
+    @Consumes({"application/gzip", MediaType.APPLICATION_OCTET_STREAM})
+    @Produces({"application/x-ndjson", MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON})
+    @RolesAllowed({SUPER_USER})
+    @Override
+    public Response diffExport( InputStream export, @QueryParam("contextId") String contextId )
+    {
+        FortRequest request = new FortRequest();
+        request.setContextId( contextId );
+        FortResponse response = SecUtils.initializeSession(request, httpRequest);
+        if( response != null )
+            return Response.status( response.getHttpStatus() ).entity( response ).build();
+        return serverMgrImpl.diffExport( request, export );
+    }
+
+    /**
+     * Answer HTTP 304 without reading the directory when the If-None-Match header of the client contains the ETag
+     * kept for the requested review data.
+     *
+     * @param etag The kept ETag, null if the service must be called
+     * @return The 304 response, or null if the service must be called
+     */
+    private FortResponse notModified( String etag )
+    {
+        String ifNoneMatch = httpRequest == null ? null : httpRequest.getHeader( HttpHeaders.IF_NONE_MATCH );
+        if( etag == null || ifNoneMatch == null )
+            return null;
+        FortResponse response = notModified( ifNoneMatch, etag );
+        EntityVersions.getInstance().conditional( response != null );
+        if( response != null )
+            httpResponse.setHeader( HttpHeaders.ETAG, etag );
+        return response;
+    }
+
+
+    /**
+     * Add the ETag computed from its content to a successful response, and keep it for the next requests.  The
+     * response is replaced by an HTTP 304 when the client already has the same content, i.e. from another server.
+     *
+     * @param response The response returned by the service
+     * @param stamp The stamp taken before the service was called, may be null
+     * @return The response
+     */
+    private FortResponse withETag( FortResponse response, String stamp )
+    {
+        if( stamp == null || httpResponse == null || response.getErrorCode() != GlobalErrIds.NO_ERROR )
+            return response;
+        String etag = etag( response );
+        if( etag == null )
+            return response;
+        EntityVersions.getInstance().keep( stamp, etag );
+        String ifNoneMatch = httpRequest == null ? null : httpRequest.getHeader( HttpHeaders.IF_NONE_MATCH );
+        FortResponse notModified = ifNoneMatch == null ? null : notModified( ifNoneMatch, etag );
+        if( ifNoneMatch != null )
+            EntityVersions.getInstance().conditional( notModified != null );
+        httpResponse.setHeader( HttpHeaders.ETAG, etag );
+        return notModified == null ? response : notModified;
+    }
+
+
+    /**
+     * Match the If-None-Match header of a request against an ETag.
+     *
+     * @param ifNoneMatch The header, a comma separated list of ETags
+     * @param etag The current ETag
+     * @return The 304 response if one of the ETags is the current one, weak or not, null otherwise
+     */
+    static FortResponse notModified( String ifNoneMatch, String etag )
+    {
+        for( String candidate : ifNoneMatch.split( "," ) )
+        {
+            candidate = candidate.trim();
+            if( candidate.startsWith( "W/" ) )
+                candidate = candidate.substring( 2 );
+            // No '*': these are POST reads, the existence of the entity is not checked
+            if( candidate.equals( etag ) )
+            {
+                FortResponse response = new FortResponse();
+                response.setErrorCode( GlobalErrIds.NO_ERROR );
+                response.setHttpStatus( HttpServletResponse.SC_NOT_MODIFIED );
+                return response;
+            }
+        }
+        return null;
+    }
+
+
+    /**
+     * Compute the ETag of a response from its content, the same on every server for the same data.
+     *
+     * @param response A successful response
+     * @return The quoted ETag, a hash of the entities and values, or null if they can't be serialized
+     */
+    static String etag( FortResponse response )
+    {
+        try
+        {
+            ArrayNode content = MAPPER.createArrayNode();
+            content.add( MAPPER.valueToTree( response.getEntity() ) );
+            content.add( MAPPER.valueToTree( response.getEntities() ) );
+            content.add( MAPPER.valueToTree( response.getValues() ) );
+            withoutModIds( content );
+            byte[] hash = MessageDigest.getInstance( "SHA-256" ).digest( MAPPER.writeValueAsBytes( content ) );
+            StringBuilder etag = new StringBuilder( "\"" );
+            // 128 bits are plenty to tell two versions of the same data apart
+            for( int i = 0; i < 16; i++ )
+                etag.append( String.format( "%02x", hash[i] ) );
+            return etag.append( '"' ).toString();
+        }
+        catch( IOException | IllegalArgumentException | NoSuchAlgorithmException e )
+        {
+            log.warn( "Could not compute the ETag of a response", e );
+            return null;
+        }
+    }
+
+
+    /**
+     * Remove the modId fields, random for every entity instance, from a serialized response.
+     */
+    private static void withoutModIds( JsonNode node )
+    {
+        if( node instanceof ObjectNode )
+            ( ( ObjectNode ) node ).remove( "modId" );
+        for( JsonNode child : node )
+            withoutModIds( child );
+    }
+
+
     /**
      * {@inheritDoc}
      */
@@ -2540,4 +2947,13 @@ public class FortressServiceImpl implements FortressService
         response.setErrorMessage( szError );
         return response;
     }
-}
\ No newline at end of file
+
+
+    /**
+     * @return The address of the client of the current request, null if there is no servlet request
+     */
+    private String clientAddress()
+    {
+        return httpRequest == null ? null : httpRequest.getRemoteAddr();
+    }
+}
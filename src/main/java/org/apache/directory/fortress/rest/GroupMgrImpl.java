@@ -49,6 +49,7 @@ class GroupMgrImpl extends AbstractMgrImpl
             groupMgr.setAdmin( request.getSession() );
             Group inGroup = (Group) request.getEntity();
             Group outGroup = groupMgr.add( inGroup );
+            entityChanged( request, EntityType.GROUP, ChangeOp.ADD, inGroup.getName() );
             response.setEntity( outGroup );
         }
         catch ( SecurityException se )
@@ -65,10 +66,11 @@ class GroupMgrImpl extends AbstractMgrImpl
 
         try
         {
-            GroupMgr groupMgr = GroupMgrFactory.createInstance( request.getContextId() );
+            final GroupMgr groupMgr = GroupMgrFactory.createInstance( request.getContextId() );
             groupMgr.setAdmin( request.getSession() );
-            Group inGroup = (Group) request.getEntity();
-            Group outGroup = groupMgr.read( inGroup );
+            final Group inGroup = (Group) request.getEntity();
+            Group outGroup = EntityCache.getInstance().read( request, EntityType.GROUP,
+                EntityType.key( inGroup.getName() ), () -> groupMgr.read( inGroup ) );
             response.setEntity( outGroup );
         }
         catch ( SecurityException se )
@@ -91,6 +93,7 @@ class GroupMgrImpl extends AbstractMgrImpl
             Group inGroup = (Group) request.getEntity();
             Group outGroup = groupMgr.read( inGroup );
             groupMgr.delete( inGroup );
+            entityChanged( request, EntityType.GROUP, ChangeOp.DELETE, inGroup.getName() );
             response.setEntity( outGroup );
         }
         catch ( SecurityException se )
@@ -112,6 +115,7 @@ class GroupMgrImpl extends AbstractMgrImpl
             groupMgr.setAdmin( request.getSession() );
             Group inGroup = (Group) request.getEntity();
             Group outGroup = groupMgr.update( inGroup );
+            entityChanged( request, EntityType.GROUP, ChangeOp.UPDATE, inGroup.getName() );
             response.setEntity( outGroup );
         }
         catch ( SecurityException se )
@@ -190,6 +194,7 @@ class GroupMgrImpl extends AbstractMgrImpl
             Group inGroup = (Group) request.getEntity();
             String member = request.getValue();
             groupMgr.assign( inGroup, member );
+            entityChanged( request, EntityType.GROUP, ChangeOp.UPDATE, inGroup.getName() );
         }
         catch ( SecurityException se )
         {
@@ -210,6 +215,7 @@ class GroupMgrImpl extends AbstractMgrImpl
             Group inGroup = (Group) request.getEntity();
             String member = request.getValue();
             groupMgr.deassign( inGroup, member );
+            entityChanged( request, EntityType.GROUP, ChangeOp.UPDATE, inGroup.getName() );
         }
         catch ( SecurityException se )
         {
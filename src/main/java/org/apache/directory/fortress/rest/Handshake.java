@@ -0,0 +1,172 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.fortress.rest;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * The mutual challenge and response starting the connections between the servers of a cluster.  Both sides prove
+ * they know the shared secret by an HMAC-SHA256 of their role and of two random nonces, the secret itself is never
+ * sent.  What follows on the connection is not encrypted, the servers must talk over a private network.
+ * <p>
+ * This class is thread safe.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+final class Handshake
+{
+    /** The roles in the handshake, so a proof can't be reflected back */
+    private static final byte CLIENT = 1;
+    private static final byte SERVER = 2;
+
+    private static final String MAC = "HmacSHA256";
+    private static final int NONCE_BYTES = 16;
+    private static final int PROOF_BYTES = 32;
+
+    private final byte[] secret;
+    private final SecureRandom random = new SecureRandom();
+
+
+    /**
+     * @param secret The secret shared by all the servers
+     * @throws IllegalArgumentException If the secret is missing
+     */
+    Handshake( String secret )
+    {
+        if ( secret == null || secret.isEmpty() )
+        {
+            throw new IllegalArgumentException( "The servers must share a secret" );
+        }
+
+        this.secret = secret.getBytes( StandardCharsets.UTF_8 );
+    }
+
+
+    /**
+     * The server side of the handshake: proves this server knows the secret, then checks the client does.
+     *
+     * @param socket The accepted connection
+     * @param in Reads the connection
+     * @param out Writes the connection
+     * @param timeoutMillis The max time to wait for the client
+     * @return false if the client does not know the secret, or hangs up on this server's proof
+     * @throws IOException If the connection failed
+     */
+    boolean accept( Socket socket, DataInputStream in, DataOutputStream out, int timeoutMillis ) throws IOException
+    {
+        socket.setSoTimeout( timeoutMillis );
+        byte[] clientNonce = read( in, NONCE_BYTES );
+        byte[] serverNonce = nonce();
+        out.write( serverNonce );
+        out.write( proof( SERVER, clientNonce, serverNonce ) );
+        out.flush();
+        boolean authenticated;
+
+        try
+        {
+            authenticated = MessageDigest.isEqual( read( in, PROOF_BYTES ), proof( CLIENT, serverNonce, clientNonce ) );
+        }
+        catch ( EOFException eof )
+        {
+            // A client with another secret drops the connection once it has checked the proof
+            authenticated = false;
+        }
+
+        socket.setSoTimeout( 0 );
+
+        return authenticated;
+    }
+
+
+    /**
+     * The client side of the handshake: checks the server knows the secret, then proves this server does.
+     *
+     * @param in Reads the connection
+     * @param out Writes the connection
+     * @param server The server connected to, for the error message
+     * @throws IOException If the server does not know the secret, or the connection failed
+     */
+    void connect( DataInputStream in, DataOutputStream out, String server ) throws IOException
+    {
+        byte[] clientNonce = nonce();
+        out.write( clientNonce );
+        out.flush();
+        byte[] serverNonce = read( in, NONCE_BYTES );
+
+        if ( !MessageDigest.isEqual( read( in, PROOF_BYTES ), proof( SERVER, clientNonce, serverNonce ) ) )
+        {
+            throw new IOException( "the server " + server + " does not know the secret" );
+        }
+
+        out.write( proof( CLIENT, serverNonce, clientNonce ) );
+        out.flush();
+    }
+
+
+    private byte[] nonce()
+    {
+        byte[] nonce = new byte[NONCE_BYTES];
+        random.nextBytes( nonce );
+
+        return nonce;
+    }
+
+
+    /**
+     * Compute the proof of a side of the handshake, the HMAC of its role and of the nonces.
+     */
+    private byte[] proof( byte role, byte[] first, byte[] second ) throws IOException
+    {
+        try
+        {
+            Mac mac = Mac.getInstance( MAC );
+            mac.init( new SecretKeySpec( secret, MAC ) );
+            mac.update( role );
+            mac.update( first );
+            mac.update( second );
+
+            return mac.doFinal();
+        }
+        catch ( GeneralSecurityException gse )
+        {
+            throw new IOException( "can't compute " + MAC, gse );
+        }
+    }
+
+
+    private static byte[] read( DataInputStream in, int length ) throws IOException
+    {
+        byte[] bytes = new byte[length];
+        in.readFully( bytes );
+
+        return bytes;
+    }
+}
@@ -0,0 +1,274 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.fortress.rest;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A batch of policy writes sent by a node of the cluster to the others through the {@link InvalidationBus}.  The
+ * batches of a node are numbered, the receivers detect the duplicates and the lost batches.
+ * <p>
+ * Encoding: the magic number, the node id, the sequence number, the number of events, then for each event its tenant,
+ * type, key (empty for all the entities of the type), name, op and the time of the write in milliseconds.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+final class InvalidationBatch
+{
+    private static final int MAGIC = 0x46524942;
+
+    /**
+     * A write, as given to the {@link PolicyChanges.Listener}, with its time.
+     */
+    static final class Event
+    {
+        private final String tenant;
+        private final EntityType type;
+        private final String key;
+        private final String name;
+        private final ChangeOp op;
+        private final long time;
+
+
+        Event( String tenant, EntityType type, String key, String name, ChangeOp op, long time )
+        {
+            this.tenant = tenant;
+            this.type = type;
+            this.key = key;
+            this.name = name;
+            this.op = op;
+            this.time = time;
+        }
+
+
+        String getTenant()
+        {
+            return tenant;
+        }
+
+
+        EntityType getType()
+        {
+            return type;
+        }
+
+
+        /**
+         * @return The key, null when an unknown number of entities of the type changed
+         */
+        String getKey()
+        {
+            return key;
+        }
+
+
+        String getName()
+        {
+            return name;
+        }
+
+
+        ChangeOp getOp()
+        {
+            return op;
+        }
+
+
+        /**
+         * @return When the write was done on its node, in milliseconds
+         */
+        long getTime()
+        {
+            return time;
+        }
+    }
+
+    private final String node;
+    private final long sequence;
+    private final List<Event> events;
+
+
+    InvalidationBatch( String node, long sequence, List<Event> events )
+    {
+        this.node = node;
+        this.sequence = sequence;
+        this.events = events;
+    }
+
+
+    String getNode()
+    {
+        return node;
+    }
+
+
+    long getSequence()
+    {
+        return sequence;
+    }
+
+
+    List<Event> getEvents()
+    {
+        return Collections.unmodifiableList( events );
+    }
+
+
+    /**
+     * Merge the events concerning the same entity, the last one wins.  The events concerning more than maxKeys
+     * entities of a type in a tenant are replaced by a single event for all the entities of the type.  A merged event
+     * keeps the time of the earliest write it replaces, the propagation lag is measured from it.
+     *
+     * @param events The events, in the order of the writes
+     * @param maxKeys The max number of keys sent per tenant and type
+     * @return The merged events
+     */
+    static List<Event> coalesce( List<Event> events, int maxKeys )
+    {
+        // By tenant and type, then by key, null for the whole type
+        Map<String, Map<String, Event>> byType = new LinkedHashMap<>();
+
+        for ( Event event : events )
+        {
+            String typeKey = event.tenant + ':' + event.type;
+            Map<String, Event> keys = byType.computeIfAbsent( typeKey, k -> new LinkedHashMap<String, Event>() );
+            Event previous = keys.get( event.key );
+
+            if ( keys.containsKey( null ) )
+            {
+                continue;
+            }
+            else if ( event.key == null || ( previous == null && keys.size() >= maxKeys ) )
+            {
+                long time = event.time;
+
+                for ( Event replaced : keys.values() )
+                {
+                    time = Math.min( time, replaced.time );
+                }
+
+                keys.clear();
+                keys.put( null, new Event( event.tenant, event.type, null, null, ChangeOp.UPDATE, time ) );
+            }
+            else
+            {
+                keys.put( event.key, previous == null ? event : new Event( event.tenant, event.type, event.key,
+                    event.name, event.op, previous.time ) );
+            }
+        }
+
+        List<Event> coalesced = new ArrayList<>();
+
+        for ( Map<String, Event> keys : byType.values() )
+        {
+            coalesced.addAll( keys.values() );
+        }
+
+        return coalesced;
+    }
+
+
+    /**
+     * @return The encoded batch
+     */
+    byte[] encode()
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream( 64 + events.size() * 64 );
+        try ( DataOutputStream out = new DataOutputStream( bytes ) )
+        {
+            out.writeInt( MAGIC );
+            out.writeUTF( node );
+            out.writeLong( sequence );
+            out.writeInt( events.size() );
+
+            for ( Event event : events )
+            {
+                out.writeUTF( event.tenant );
+                out.writeByte( event.type.ordinal() );
+                out.writeUTF( event.key == null ? "" : event.key );
+                out.writeUTF( event.name == null ? "" : event.name );
+                out.writeByte( event.op.ordinal() );
+                out.writeLong( event.time );
+            }
+        }
+        catch ( IOException ioe )
+        {
+            // Not thrown by a ByteArrayOutputStream
+            throw new IllegalStateException( ioe );
+        }
+
+        return bytes.toByteArray();
+    }
+
+
+    /**
+     * Decode a batch.
+     *
+     * @param bytes The encoded batch
+     * @return The batch
+     * @throws IOException If the bytes are not a batch
+     */
+    static InvalidationBatch decode( byte[] bytes ) throws IOException
+    {
+        DataInputStream in = new DataInputStream( new ByteArrayInputStream( bytes ) );
+
+        if ( in.readInt() != MAGIC )
+        {
+            throw new IOException( "Not an invalidation batch" );
+        }
+
+        String node = in.readUTF();
+        long sequence = in.readLong();
+        int count = in.readInt();
+        List<Event> events = new ArrayList<>( Math.min( count, 4096 ) );
+        EntityType[] types = EntityType.values();
+        ChangeOp[] ops = ChangeOp.values();
+
+        try
+        {
+            for ( int i = 0; i < count; i++ )
+            {
+                String tenant = in.readUTF();
+                EntityType type = types[in.readUnsignedByte()];
+                String key = in.readUTF();
+                String name = in.readUTF();
+                ChangeOp op = ops[in.readUnsignedByte()];
+                long time = in.readLong();
+                events.add( key.isEmpty() ? new Event( tenant, type, null, null, op, time )
+                    : new Event( tenant, type, key, name, op, time ) );
+            }
+        }
+        catch ( ArrayIndexOutOfBoundsException aioobe )
+        {
+            throw new IOException( "Invalid type or op in invalidation batch " + sequence + " of " + node );
+        }
+
+        return new InvalidationBatch( node, sequence, events );
+    }
+}
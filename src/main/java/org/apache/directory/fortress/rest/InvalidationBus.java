@@ -0,0 +1,396 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.fortress.rest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.directory.fortress.core.util.Config;
+import org.apache.log4j.Logger;
+
+/**
+ * Broadcasts the policy writes done through this server to the other Fortress Rest Servers of the cluster, so they
+ * drop their cached copies of the modified entities, and delivers their writes to the local {@link PolicyChanges}
+ * listeners.
+ * <p>
+ * The writes are queued and sent by a single thread in batches: the writes of <code>rest.bus.batch.millis</code> are
+ * merged, see {@link InvalidationBatch#coalesce}, numbered and given to the {@link Transport}, by default a
+ * {@link TcpTransport}.  A receiver missing batches of a node, i.e. after a connection loss, drops all the entities of
+ * the tenants it knows.  The lag between a write and its delivery on the other nodes is measured from the clock of
+ * the writing node, the clocks must be synchronized.
+ * <p>
+ * The bus is disabled unless <code>rest.bus.enabled=true</code>.  This class is thread safe.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+final class InvalidationBus implements PolicyChanges.Listener, RestMetrics.Source
+{
+    /** A logger for this class */
+    private static final Logger LOG = Logger.getLogger( InvalidationBus.class.getName() );
+
+    private static final String ENABLED = "rest.bus.enabled";
+    private static final String TRANSPORT = "rest.bus.transport";
+    private static final String BATCH_MILLIS = "rest.bus.batch.millis";
+    private static final String MAX_KEYS = "rest.bus.max.keys";
+    private static final String CAPACITY = "rest.bus.queue.capacity";
+
+    /** The max number of writes sent in one batch */
+    private static final int MAX_BATCH = 10000;
+
+    private static final InvalidationBus INSTANCE = new InvalidationBus();
+
+    /**
+     * Carries the encoded batches between the nodes.  Implementations need a no argument constructor and are chosen
+     * by <code>rest.bus.transport</code>.
+     */
+    interface Transport
+    {
+        /**
+         * Start sending and receiving.
+         *
+         * @param receiver Given the batches received from the other nodes
+         * @throws IOException If the transport could not start
+         */
+        void start( Receiver receiver ) throws IOException;
+
+
+        /**
+         * Send a batch to all the other nodes.  Must not block.
+         *
+         * @param batch The encoded batch
+         */
+        void send( byte[] batch );
+
+
+        /**
+         * Stop the transport.
+         */
+        void close();
+    }
+
+    /**
+     * Receives the batches of the other nodes.
+     */
+    interface Receiver
+    {
+        /**
+         * @param batch The encoded batch
+         */
+        void receive( byte[] batch );
+    }
+
+    private final boolean enabled;
+    private final long batchNanos;
+    private final int maxKeys;
+
+    /** Identifies this node, it is new at each start so a restarted node is not taken for a node missing batches */
+    private final String node = UUID.randomUUID().toString();
+
+    private final BlockingQueue<InvalidationBatch.Event> queue;
+
+    /** The tenants and types whose writes did not fit in the queue, sent as writes to all their entities */
+    private final Set<String> overflowed = ConcurrentHashMap.newKeySet();
+
+    /** The tenants seen in the writes, dropped when batches are missing */
+    private final Set<String> tenants = ConcurrentHashMap.newKeySet();
+
+    /** The sequence number of the last batch received, by node */
+    private final ConcurrentMap<String, Long> sequences = new ConcurrentHashMap<>();
+
+    private Transport transport;
+
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong batchesSent = new AtomicLong();
+    private final AtomicLong eventsSent = new AtomicLong();
+    private final AtomicLong batchesReceived = new AtomicLong();
+    private final AtomicLong eventsReceived = new AtomicLong();
+    private final AtomicLong duplicates = new AtomicLong();
+    private final AtomicLong gaps = new AtomicLong();
+    private final AtomicLong lagTotal = new AtomicLong();
+    private final AtomicLong lagMax = new AtomicLong();
+    private final AtomicLong lagLast = new AtomicLong();
+
+
+    private InvalidationBus()
+    {
+        Config config = Config.getInstance();
+        batchNanos = TimeUnit.MILLISECONDS.toNanos( config.getInt( BATCH_MILLIS, 10 ) );
+        maxKeys = config.getInt( MAX_KEYS, 256 );
+        queue = new LinkedBlockingQueue<>( config.getInt( CAPACITY, 100000 ) );
+        enabled = config.getBoolean( ENABLED, false ) && start( config.getProperty( TRANSPORT,
+            TcpTransport.class.getName() ) );
+        RestMetrics.register( "invalidationBus", this );
+    }
+
+
+    static InvalidationBus getInstance()
+    {
+        return INSTANCE;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void changed( String tenant, EntityType type, String key, String name, ChangeOp op )
+    {
+        if ( !enabled )
+        {
+            return;
+        }
+
+        tenants.add( tenant );
+        published.incrementAndGet();
+
+        if ( !queue.offer( new InvalidationBatch.Event( tenant, type, key, name, op, System.currentTimeMillis() ) ) )
+        {
+            dropped.incrementAndGet();
+            overflowed.add( tenant + '\u0000' + type.name() );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void collect( Map<String, Number> metrics )
+    {
+        long received = eventsReceived.get();
+        metrics.put( "published", published.get() );
+        metrics.put( "dropped", dropped.get() );
+        metrics.put( "queued", queue.size() );
+        metrics.put( "batchesSent", batchesSent.get() );
+        metrics.put( "eventsSent", eventsSent.get() );
+        metrics.put( "batchesReceived", batchesReceived.get() );
+        metrics.put( "eventsReceived", received );
+        metrics.put( "duplicates", duplicates.get() );
+        metrics.put( "gaps", gaps.get() );
+        metrics.put( "lagMillisAvg", received == 0 ? 0.0 : ( double ) lagTotal.get() / received );
+        metrics.put( "lagMillisMax", lagMax.get() );
+        metrics.put( "lagMillisLast", lagLast.get() );
+
+        if ( transport instanceof RestMetrics.Source )
+        {
+            Map<String, Number> transportMetrics = new TreeMap<>();
+            ( ( RestMetrics.Source ) transport ).collect( transportMetrics );
+
+            for ( Map.Entry<String, Number> metric : transportMetrics.entrySet() )
+            {
+                metrics.put( "transport." + metric.getKey(), metric.getValue() );
+            }
+        }
+    }
+
+
+    /**
+     * Create and start the transport, then the sender.
+     *
+     * @return false if the transport could not start
+     */
+    private boolean start( String transportClass )
+    {
+        try
+        {
+            transport = ( Transport ) Class.forName( transportClass ).getDeclaredConstructor().newInstance();
+            transport.start( this::receive );
+        }
+        catch ( IOException | ReflectiveOperationException | RuntimeException e )
+        {
+            LOG.error( "InvalidationBus could not start the transport " + transportClass
+                + ", the caches of the other nodes will not be invalidated", e );
+            transport = null;
+
+            return false;
+        }
+
+        Thread sender = new Thread( this::send, "fortress-rest-bus-sender" );
+        sender.setDaemon( true );
+        sender.start();
+        LOG.info( "InvalidationBus started node " + node + " with " + transportClass );
+
+        return true;
+    }
+
+
+    /**
+     * Batch the queued writes and give them to the transport.  Runs on the sender thread.
+     */
+    private void send()
+    {
+        long sequence = 0;
+        List<InvalidationBatch.Event> events = new ArrayList<>();
+
+        while ( !Thread.currentThread().isInterrupted() )
+        {
+            try
+            {
+                InvalidationBatch.Event first = queue.poll( 1, TimeUnit.SECONDS );
+
+                if ( first != null )
+                {
+                    events.add( first );
+                    long deadline = System.nanoTime() + batchNanos;
+
+                    // Give the writes done at the same time a chance to share the batch
+                    while ( events.size() < MAX_BATCH )
+                    {
+                        InvalidationBatch.Event next = queue.poll( deadline - System.nanoTime(),
+                            TimeUnit.NANOSECONDS );
+
+                        if ( next == null )
+                        {
+                            break;
+                        }
+
+                        events.add( next );
+                    }
+                }
+
+                addOverflowed( events );
+
+                if ( !events.isEmpty() )
+                {
+                    List<InvalidationBatch.Event> coalesced = InvalidationBatch.coalesce( events, maxKeys );
+                    transport.send( new InvalidationBatch( node, ++sequence, coalesced ).encode() );
+                    batchesSent.incrementAndGet();
+                    eventsSent.addAndGet( coalesced.size() );
+                    events.clear();
+                }
+            }
+            catch ( InterruptedException ie )
+            {
+                Thread.currentThread().interrupt();
+            }
+            catch ( RuntimeException re )
+            {
+                LOG.warn( "InvalidationBus could not send " + events.size() + " writes", re );
+                events.clear();
+            }
+        }
+    }
+
+
+    /**
+     * Add the writes to all the entities of the types whose writes were dropped.
+     */
+    private void addOverflowed( List<InvalidationBatch.Event> events )
+    {
+        Iterator<String> iterator = overflowed.iterator();
+        long now = System.currentTimeMillis();
+
+        while ( iterator.hasNext() )
+        {
+            String[] parts = iterator.next().split( "\u0000" );
+            iterator.remove();
+            events.add( new InvalidationBatch.Event( parts[0], EntityType.valueOf( parts[1] ), null, null,
+                ChangeOp.UPDATE, now ) );
+        }
+    }
+
+
+    /**
+     * Deliver a batch of another node to the local listeners.  Runs on a thread of the transport.
+     */
+    private void receive( byte[] bytes )
+    {
+        InvalidationBatch batch;
+
+        try
+        {
+            batch = InvalidationBatch.decode( bytes );
+        }
+        catch ( IOException ioe )
+        {
+            LOG.warn( "InvalidationBus received an invalid batch: " + ioe.getMessage() );
+
+            return;
+        }
+
+        if ( node.equals( batch.getNode() ) )
+        {
+            return;
+        }
+
+        Long previous = sequences.put( batch.getNode(), batch.getSequence() );
+
+        if ( previous != null && batch.getSequence() <= previous )
+        {
+            sequences.put( batch.getNode(), previous );
+            duplicates.incrementAndGet();
+
+            return;
+        }
+
+        batchesReceived.incrementAndGet();
+
+        if ( batch.getSequence() != ( previous == null ? 1 : previous + 1 ) )
+        {
+            gaps.incrementAndGet();
+            LOG.warn( "InvalidationBus missed batches of node " + batch.getNode() + " before " + batch.getSequence()
+                + ", dropping the cached entities of " + tenants );
+            resync();
+        }
+
+        long now = System.currentTimeMillis();
+
+        for ( InvalidationBatch.Event event : batch.getEvents() )
+        {
+            tenants.add( event.getTenant() );
+            PolicyChanges.publishRemote( this, event.getTenant(), event.getType(), event.getKey(), event.getName(),
+                event.getOp() );
+            long lag = Math.max( 0, now - event.getTime() );
+            lagTotal.addAndGet( lag );
+            lagLast.set( lag );
+            lagMax.accumulateAndGet( lag, Math::max );
+        }
+
+        eventsReceived.addAndGet( batch.getEvents().size() );
+    }
+
+
+    /**
+     * Drop all the entities of the known tenants, the writes they missed are unknown.
+     */
+    private void resync()
+    {
+        for ( String tenant : tenants )
+        {
+            for ( EntityType type : EntityType.values() )
+            {
+                PolicyChanges.publishRemote( this, tenant, type, null, null, ChangeOp.UPDATE );
+            }
+        }
+    }
+}
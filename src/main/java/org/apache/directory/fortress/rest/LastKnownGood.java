@@ -0,0 +1,525 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.fortress.rest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.directory.fortress.core.SecurityException;
+import org.apache.directory.fortress.core.model.FortResponse;
+import org.apache.directory.fortress.core.model.Permission;
+import org.apache.directory.fortress.core.model.Session;
+import org.apache.directory.fortress.core.model.UserRole;
+import org.apache.directory.fortress.core.util.Config;
+import org.apache.log4j.Logger;
+
+/**
+ * Keeps the last checkAccess decisions and sessionPermissions results read from the directory, and serves them while
+ * the directory is unreachable.
+ * <p>
+ * A checkAccess or sessionPermissions failing because the directory is unreachable switches its tenant to the
+ * degraded mode: the failed call is then answered from the result kept for the same user, active roles and
+ * permission, if it is at most <code>rest.stale.max.age.seconds</code> old.  Every call is still sent to the
+ * directory first, a kept result only replaces a failure.  A background read of the tenant's directory, through the
+ * {@link DirectoryRouter}, every <code>rest.stale.probe.seconds</code> switches the tenant back to the normal mode
+ * once it succeeds; the other tenants are not affected.
+ * <p>
+ * A failure counts as unreachable when its causes include an I/O error, an error of the LDAP client, or an empty
+ * connection pool, or when its error id is listed in <code>rest.stale.outage.errors</code>.  A result served stale
+ * has {@link #STALE} and its age in seconds as {@link FortResponse#values}, its error code is unchanged.  The results
+ * of a tenant are dropped when its policy changes, each tenant keeps at most <code>rest.stale.max.entries</code>.
+ * <p>
+ * The degraded mode is disabled unless <code>rest.stale.enabled=true</code>.  This class is thread safe.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+final class LastKnownGood implements PolicyChanges.Listener, RestMetrics.Source
+{
+    /** A logger for this class */
+    private static final Logger LOG = Logger.getLogger( LastKnownGood.class.getName() );
+
+    /** The first of the {@link FortResponse#values} of a stale result */
+    static final String STALE = "STALE";
+
+    private static final String ENABLED = "rest.stale.enabled";
+    private static final String MAX_AGE = "rest.stale.max.age.seconds";
+    private static final String MAX_ENTRIES = "rest.stale.max.entries";
+    private static final String PROBE = "rest.stale.probe.seconds";
+    private static final String OUTAGE_ERRORS = "rest.stale.outage.errors";
+
+    /** The packages of the LDAP client, their exceptions are connection failures */
+    private static final String LDAP_CLIENT = "org.apache.directory.ldap.client.";
+
+    private static final LastKnownGood INSTANCE = new LastKnownGood();
+
+    private final boolean enabled;
+    private final long maxAgeNanos;
+    private final int maxEntries;
+    private final int probeSeconds;
+    private final Set<Integer> outageErrors = new HashSet<>();
+
+    /** One segment per tenant */
+    private final ConcurrentMap<String, Segment> segments = new ConcurrentHashMap<>();
+
+    /** The degraded tenants and since when, in milliseconds */
+    private final ConcurrentMap<String, Long> degraded = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService prober = Executors.newSingleThreadScheduledExecutor( runnable ->
+    {
+        Thread thread = new Thread( runnable, "fortress-rest-stale-probe" );
+        thread.setDaemon( true );
+
+        return thread;
+    } );
+
+    private final AtomicLong outages = new AtomicLong();
+    private final AtomicLong recoveries = new AtomicLong();
+    private final AtomicLong staleHits = new AtomicLong();
+    private final AtomicLong staleMisses = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+    private final AtomicLong probes = new AtomicLong();
+
+
+    private LastKnownGood()
+    {
+        Config config = Config.getInstance();
+        enabled = config.getBoolean( ENABLED, false );
+        maxAgeNanos = TimeUnit.SECONDS.toNanos( config.getInt( MAX_AGE, 300 ) );
+        maxEntries = config.getInt( MAX_ENTRIES, 100000 );
+        probeSeconds = Math.max( 1, config.getInt( PROBE, 5 ) );
+
+        for ( String errorId : StringUtils.split( StringUtils.defaultString( config.getProperty( OUTAGE_ERRORS ) ),
+            ',' ) )
+        {
+            outageErrors.add( Integer.valueOf( errorId.trim() ) );
+        }
+
+        RestMetrics.register( "lastKnownGood", this );
+    }
+
+
+    static LastKnownGood getInstance()
+    {
+        return INSTANCE;
+    }
+
+
+    /**
+     * Return the kept checkAccess decision, when the tenant is in the degraded mode only.
+     *
+     * @param response The response, flagged as stale when a decision is returned
+     * @param contextId The tenant
+     * @param session The session checked
+     * @param perm The permission checked
+     * @return The decision, null if none may be served
+     */
+    Boolean decision( FortResponse response, String contextId, Session session, Permission perm )
+    {
+        Entry entry = isDegraded( contextId ) ? get( contextId, decisionKey( session, perm ) ) : null;
+
+        if ( entry == null )
+        {
+            return null;
+        }
+
+        stale( response, entry );
+
+        return ( Boolean ) entry.value;
+    }
+
+
+    /**
+     * Answer a sessionPermissions from the kept permissions, when the tenant is in the degraded mode only.
+     *
+     * @param response The response to fill
+     * @param contextId The tenant
+     * @param session The session
+     * @return true if the response was filled
+     */
+    boolean sessionPermissions( FortResponse response, String contextId, Session session )
+    {
+        Entry entry = isDegraded( contextId ) ? get( contextId, permissionsKey( session ) ) : null;
+
+        if ( entry == null )
+        {
+            return false;
+        }
+
+        List<Permission> perms = type( entry.value );
+        response.setEntities( perms );
+        response.setSession( session );
+        stale( response, entry );
+
+        return true;
+    }
+
+
+    /**
+     * Keep a decision read from the directory.
+     *
+     * @param contextId The tenant
+     * @param session The session checked
+     * @param perm The permission checked
+     * @param result The decision
+     */
+    void decided( String contextId, Session session, Permission perm, boolean result )
+    {
+        put( contextId, decisionKey( session, perm ), result );
+    }
+
+
+    /**
+     * Keep the permissions of a session read from the directory.
+     *
+     * @param contextId The tenant
+     * @param session The session
+     * @param perms The permissions
+     */
+    void permitted( String contextId, Session session, List<Permission> perms )
+    {
+        put( contextId, permissionsKey( session ), perms == null ? null
+            : Collections.unmodifiableList( new ArrayList<>( perms ) ) );
+    }
+
+
+    /**
+     * Tell whether a failure means the directory is unreachable, and switch the tenant to the degraded mode if so.
+     *
+     * @param contextId The tenant of the failed call
+     * @param se The failure
+     * @return true if the call may be answered from the kept results
+     */
+    boolean unreachable( String contextId, SecurityException se )
+    {
+        if ( !enabled || !isOutage( se ) )
+        {
+            return false;
+        }
+
+        String tenant = PolicyChanges.tenant( contextId );
+
+        // The first failure of the tenant starts its probe
+        if ( degraded.putIfAbsent( tenant, System.currentTimeMillis() ) == null )
+        {
+            outages.incrementAndGet();
+            LOG.warn( "LastKnownGood: the directory of " + tenant
+                + " is unreachable, serving the kept access decisions", se );
+            prober.schedule( () -> probe( tenant ), probeSeconds, TimeUnit.SECONDS );
+        }
+
+        return true;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void changed( String tenant, EntityType type, String key, String name, ChangeOp op )
+    {
+        // Any write may change the decisions, they are kept again by the next calls
+        Segment segment = segments.get( tenant );
+
+        if ( segment != null )
+        {
+            synchronized ( segment )
+            {
+                segment.clear();
+            }
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void collect( Map<String, Number> metrics )
+    {
+        long size = 0;
+
+        for ( Segment segment : segments.values() )
+        {
+            synchronized ( segment )
+            {
+                size += segment.size();
+            }
+        }
+
+        long since = 0;
+
+        for ( Long millis : degraded.values() )
+        {
+            since = since == 0 ? millis : Math.min( since, millis );
+        }
+
+        metrics.put( "degraded", degraded.size() );
+        metrics.put( "degradedSinceMillis", since );
+        metrics.put( "outages", outages.get() );
+        metrics.put( "recoveries", recoveries.get() );
+        metrics.put( "staleHits", staleHits.get() );
+        metrics.put( "staleMisses", staleMisses.get() );
+        metrics.put( "expired", expired.get() );
+        metrics.put( "probes", probes.get() );
+        metrics.put( "size", size );
+    }
+
+
+    /**
+     * Tell whether a failure is caused by the directory being unreachable.
+     *
+     * @param se The failure
+     * @return true if unreachable
+     */
+    boolean isOutage( SecurityException se )
+    {
+        if ( outageErrors.contains( se.getErrorId() ) )
+        {
+            return true;
+        }
+
+        Throwable cause = se.getCause();
+
+        // Bounded, a cause chain may loop
+        for ( int i = 0; cause != null && i < 16; i++ )
+        {
+            if ( cause instanceof IOException || cause instanceof NoSuchElementException
+                || cause.getClass().getName().startsWith( LDAP_CLIENT ) )
+            {
+                return true;
+            }
+
+            cause = cause.getCause();
+        }
+
+        return false;
+    }
+
+
+    private boolean isDegraded( String contextId )
+    {
+        return degraded.containsKey( PolicyChanges.tenant( contextId ) );
+    }
+
+
+    /**
+     * Read the directory of a tenant, switching it back to the normal mode if it answers.  Runs on the prober thread.
+     *
+     * @param tenant The degraded tenant
+     */
+    private void probe( String tenant )
+    {
+        probes.incrementAndGet();
+
+        try
+        {
+            DirectoryRouter.getInstance().reviewMgr( tenant ).findRoles( "", 1 );
+            Long since = degraded.remove( tenant );
+            recoveries.incrementAndGet();
+            LOG.info( "LastKnownGood: the directory of " + tenant + " answers again, after "
+                + ( since == null ? 0 : ( System.currentTimeMillis() - since ) / 1000 ) + " seconds" );
+        }
+        catch ( SecurityException | RuntimeException e )
+        {
+            LOG.debug( "LastKnownGood: the directory of " + tenant + " is still unreachable: " + e.getMessage() );
+            prober.schedule( () -> probe( tenant ), probeSeconds, TimeUnit.SECONDS );
+        }
+    }
+
+
+    private void stale( FortResponse response, Entry entry )
+    {
+        long age = TimeUnit.NANOSECONDS.toSeconds( System.nanoTime() - entry.time );
+        response.setValues( Arrays.asList( STALE, String.valueOf( age ) ) );
+    }
+
+
+    private Entry get( String contextId, String key )
+    {
+        if ( key == null )
+        {
+            return null;
+        }
+
+        Segment segment = segments.get( PolicyChanges.tenant( contextId ) );
+        Entry entry = null;
+
+        if ( segment != null )
+        {
+            synchronized ( segment )
+            {
+                entry = segment.get( key );
+            }
+        }
+
+        if ( entry == null )
+        {
+            staleMisses.incrementAndGet();
+
+            return null;
+        }
+
+        if ( System.nanoTime() - entry.time > maxAgeNanos )
+        {
+            expired.incrementAndGet();
+
+            return null;
+        }
+
+        staleHits.incrementAndGet();
+
+        return entry;
+    }
+
+
+    private void put( String contextId, String key, Object value )
+    {
+        if ( !enabled || key == null || value == null )
+        {
+            return;
+        }
+
+        String tenant = PolicyChanges.tenant( contextId );
+        Segment segment = segments.get( tenant );
+
+        if ( segment == null )
+        {
+            Segment newSegment = new Segment();
+            segment = segments.putIfAbsent( tenant, newSegment );
+
+            if ( segment == null )
+            {
+                segment = newSegment;
+            }
+        }
+
+        synchronized ( segment )
+        {
+            segment.put( key, new Entry( value, System.nanoTime() ) );
+        }
+    }
+
+
+    /**
+     * The key of a decision: the user, its active roles and the permission.
+     */
+    static String decisionKey( Session session, Permission perm )
+    {
+        String sessionKey = sessionKey( session );
+
+        return sessionKey == null || perm == null ? null : sessionKey + '\u0000' + EntityType.key( perm );
+    }
+
+
+    /**
+     * The key of the permissions of a session: the user and its active roles.
+     */
+    static String permissionsKey( Session session )
+    {
+        String sessionKey = sessionKey( session );
+
+        return sessionKey == null ? null : sessionKey + '\u0000' + "permissions";
+    }
+
+
+    private static String sessionKey( Session session )
+    {
+        if ( session == null || session.getUserId() == null )
+        {
+            return null;
+        }
+
+        List<String> roles = new ArrayList<>();
+
+        if ( session.getRoles() != null )
+        {
+            for ( UserRole role : session.getRoles() )
+            {
+                roles.add( role.getName().toLowerCase( Locale.ENGLISH ) );
+            }
+        }
+
+        Collections.sort( roles );
+
+        return session.getUserId().toLowerCase( Locale.ENGLISH ) + '\u0000' + StringUtils.join( roles, ',' );
+    }
+
+
+    @SuppressWarnings("unchecked")
+    private static <T> T type( Object value )
+    {
+        return ( T ) value;
+    }
+
+
+    /**
+     * A kept result and when it was read, in nanoseconds.
+     */
+    private static final class Entry
+    {
+        private final Object value;
+        private final long time;
+
+
+        private Entry( Object value, long time )
+        {
+            this.value = value;
+            this.time = time;
+        }
+    }
+
+
+    /**
+     * The results of one tenant in least recently used order.  Guarded by its own monitor.
+     */
+    private final class Segment extends LinkedHashMap<String, Entry>
+    {
+        private static final long serialVersionUID = 1L;
+
+
+        private Segment()
+        {
+            super( 16, 0.75f, true );
+        }
+
+
+        @Override
+        protected boolean removeEldestEntry( Map.Entry<String, Entry> eldest )
+        {
+            return size() > maxEntries;
+        }
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.fortress.rest;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Distribution of the recent latencies of a call, giving its percentiles.
+ * <p>
+ * The latencies are counted in microsecond buckets whose width grows with the latency, the percentiles are within
+ * 1/16 of the value.  The latencies of the current and previous windows of the given length are kept, so the
+ * percentiles follow the changes of the directory.
+ * <p>
+ * This class is thread safe.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+final class LatencyHistogram
+{
+    /** Buckets of width 1 below this, then 16 buckets per power of two */
+    private static final int LINEAR = 16;
+    private static final int SUB_BITS = 4;
+    private static final int BUCKETS = LINEAR + ( 64 - SUB_BITS ) * LINEAR;
+
+    private final long windowNanos;
+    private volatile Window current;
+    private volatile Window previous;
+
+
+    /**
+     * @param windowNanos The length of a window
+     */
+    LatencyHistogram( long windowNanos )
+    {
+        this.windowNanos = windowNanos;
+        this.current = new Window( System.nanoTime() );
+        this.previous = new Window( current.start );
+    }
+
+
+    /**
+     * Count a latency.
+     *
+     * @param nanos The latency
+     */
+    void record( long nanos )
+    {
+        long now = System.nanoTime();
+        Window window = current;
+
+        if ( now - window.start > windowNanos )
+        {
+            synchronized ( this )
+            {
+                if ( current == window )
+                {
+                    previous = window;
+                    current = new Window( now );
+                }
+
+                window = current;
+            }
+        }
+
+        window.buckets.incrementAndGet( index( TimeUnit.NANOSECONDS.toMicros( Math.max( 0, nanos ) ) ) );
+        window.count.incrementAndGet();
+    }
+
+
+    /**
+     * @return The number of latencies counted in the current and previous windows
+     */
+    long count()
+    {
+        return current.count.get() + previous.count.get();
+    }
+
+
+    /**
+     * Return a percentile of the recent latencies.
+     *
+     * @param percentile Between 0 and 100
+     * @return The latency in nanoseconds, rounded up to its bucket, 0 if none was counted
+     */
+    long percentile( double percentile )
+    {
+        Window last = current;
+        Window before = previous;
+        long total = 0;
+        long[] counts = new long[BUCKETS];
+
+        for ( int i = 0; i < BUCKETS; i++ )
+        {
+            counts[i] = last.buckets.get( i ) + before.buckets.get( i );
+            total += counts[i];
+        }
+
+        long rank = Math.max( 1, ( long ) Math.ceil( total * percentile / 100 ) );
+        long seen = 0;
+
+        for ( int i = 0; i < BUCKETS; i++ )
+        {
+            seen += counts[i];
+
+            if ( total > 0 && seen >= rank )
+            {
+                return TimeUnit.MICROSECONDS.toNanos( upper( i ) );
+            }
+        }
+
+        return 0;
+    }
+
+
+    /**
+     * The bucket of a latency in microseconds.
+     */
+    static int index( long micros )
+    {
+        if ( micros < LINEAR )
+        {
+            return ( int ) micros;
+        }
+
+        int exponent = 63 - Long.numberOfLeadingZeros( micros );
+        int sub = ( int ) ( micros >>> ( exponent - SUB_BITS ) ) & ( LINEAR - 1 );
+
+        return LINEAR + ( exponent - SUB_BITS ) * LINEAR + sub;
+    }
+
+
+    /**
+     * The largest latency in microseconds of a bucket.
+     */
+    static long upper( int index )
+    {
+        if ( index < LINEAR )
+        {
+            return index;
+        }
+
+        int shift = ( index - LINEAR ) / LINEAR;
+        int sub = ( index - LINEAR ) % LINEAR;
+
+        return ( ( ( long ) LINEAR + sub + 1 ) << shift ) - 1;
+    }
+
+
+    /**
+     * The latencies counted during a window.
+     */
+    private static final class Window
+    {
+        private final long start;
+        private final AtomicLongArray buckets = new AtomicLongArray( BUCKETS );
+        private final AtomicLong count = new AtomicLong();
+
+
+        private Window( long start )
+        {
+            this.start = start;
+        }
+    }
+}
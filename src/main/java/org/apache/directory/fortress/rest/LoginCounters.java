@@ -0,0 +1,235 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.fortress.rest;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The decaying failure counts of the {@link LoginThrottle}, by key.
+ * <p>
+ * A count decays by half every half life.  The counts are spread over independently locked shards, a full shard
+ * first forgets the counts that decayed, then the lowest ones down to three quarters of its size: a flood of keys
+ * failing once can't push out the counts of a key under attack.
+ * <p>
+ * The times are in nanoseconds, given by the caller.  This class is thread safe.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+final class LoginCounters
+{
+    /** Counts that decayed below this are forgotten */
+    private static final double FORGOTTEN = 0.5;
+
+    private final long halfLifeNanos;
+    private final int maxShardEntries;
+
+    /** The size a full shard is brought back to */
+    private final int lowWater;
+
+    /** The counts, each shard guarded by its own monitor */
+    private final List<Map<String, Counter>> shards;
+
+
+    /**
+     * @param shardCount The number of shards
+     * @param maxEntries The max number of keys, all shards together
+     * @param halfLifeNanos How long a count takes to decay by half
+     */
+    LoginCounters( int shardCount, int maxEntries, long halfLifeNanos )
+    {
+        int count = Math.max( 1, shardCount );
+        this.halfLifeNanos = halfLifeNanos;
+        maxShardEntries = Math.max( 1, maxEntries / count );
+        lowWater = maxShardEntries * 3 / 4;
+        shards = new ArrayList<>( count );
+
+        for ( int i = 0; i < count; i++ )
+        {
+            shards.add( new HashMap<>() );
+        }
+    }
+
+
+    /**
+     * @param key The key
+     * @param now The current time
+     * @return The decayed failure count of the key, 0 if unknown
+     */
+    double failures( String key, long now )
+    {
+        Map<String, Counter> shard = shard( key );
+
+        synchronized ( shard )
+        {
+            Counter counter = shard.get( key );
+
+            return counter == null ? 0 : counter.decay( now, halfLifeNanos );
+        }
+    }
+
+
+    /**
+     * Count a failure.
+     *
+     * @param key The key
+     * @param now The current time
+     * @return The number of counts evicted to make room
+     */
+    int fail( String key, long now )
+    {
+        Map<String, Counter> shard = shard( key );
+        int evicted = 0;
+
+        synchronized ( shard )
+        {
+            Counter counter = shard.get( key );
+
+            if ( counter == null )
+            {
+                if ( shard.size() >= maxShardEntries )
+                {
+                    evicted = purge( shard, now );
+                }
+
+                counter = new Counter( now );
+                shard.put( key, counter );
+            }
+
+            counter.decay( now, halfLifeNanos );
+            counter.failures++;
+        }
+
+        return evicted;
+    }
+
+
+    /**
+     * Forget a key.
+     *
+     * @param key The key
+     * @return true if it was counted
+     */
+    boolean clear( String key )
+    {
+        Map<String, Counter> shard = shard( key );
+
+        synchronized ( shard )
+        {
+            return shard.remove( key ) != null;
+        }
+    }
+
+
+    /**
+     * @return The number of keys counted
+     */
+    long size()
+    {
+        long size = 0;
+
+        for ( Map<String, Counter> shard : shards )
+        {
+            synchronized ( shard )
+            {
+                size += shard.size();
+            }
+        }
+
+        return size;
+    }
+
+
+    /**
+     * Drop the counts that decayed, then the lowest ones down to the low water mark.  Called with the shard monitor
+     * held.
+     *
+     * @return The number of counts dropped that had not decayed
+     */
+    private int purge( Map<String, Counter> shard, long now )
+    {
+        Iterator<Counter> counters = shard.values().iterator();
+
+        while ( counters.hasNext() )
+        {
+            if ( counters.next().decay( now, halfLifeNanos ) < FORGOTTEN )
+            {
+                counters.remove();
+            }
+        }
+
+        int excess = shard.size() - lowWater;
+
+        if ( excess <= 0 )
+        {
+            return 0;
+        }
+
+        // The counts were all decayed to now above
+        List<Map.Entry<String, Counter>> lowest = new ArrayList<>( shard.entrySet() );
+        lowest.sort( ( a, b ) -> Double.compare( a.getValue().failures, b.getValue().failures ) );
+
+        for ( int i = 0; i < excess; i++ )
+        {
+            shard.remove( lowest.get( i ).getKey() );
+        }
+
+        return excess;
+    }
+
+
+    private Map<String, Counter> shard( String key )
+    {
+        return shards.get( ( key.hashCode() & Integer.MAX_VALUE ) % shards.size() );
+    }
+
+
+    /**
+     * The decaying failure count of a key.  Guarded by the monitor of its shard.
+     */
+    private static final class Counter
+    {
+        private double failures;
+        private long updated;
+
+
+        private Counter( long now )
+        {
+            updated = now;
+        }
+
+
+        /**
+         * Apply the decay since the last update.
+         *
+         * @return The decayed failure count
+         */
+        private double decay( long now, long halfLifeNanos )
+        {
+            failures *= Math.pow( 0.5, ( double ) ( now - updated ) / halfLifeNanos );
+            updated = now;
+
+            return failures;
+        }
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.fortress.rest;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.directory.fortress.core.GlobalErrIds;
+import org.apache.directory.fortress.core.model.FortResponse;
+import org.apache.directory.fortress.core.model.User;
+import org.apache.directory.fortress.core.util.Config;
+import org.apache.log4j.Logger;
+
+/**
+ * Counts the failed password authentications by tenant, userId and client address, and rejects the authentications
+ * of a key whose failures cross a threshold before they reach fortress-core, the directory bind or the password
+ * policy writes.
+ * <p>
+ * The failure count of a key decays by half every <code>rest.login.throttle.half.life.seconds</code>, its
+ * authentications are rejected while it is at or above <code>rest.login.throttle.max.failures</code>.  A successful
+ * authentication clears the key.  Only the bad password and unknown user errors are counted, so the other users and
+ * the other clients of the same user are not affected.  The {@link LoginCounters} are spread over
+ * <code>rest.login.throttle.shards</code> independently locked shards holding at most
+ * <code>rest.login.throttle.max.entries</code> keys all together, a full shard drops its lowest counts first.
+ * <p>
+ * The throttle is disabled unless <code>rest.login.throttle.enabled=true</code>.
+ * <p>
+ * This class is thread safe.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+final class LoginThrottle implements RestMetrics.Source
+{
+    /** A logger for this class */
+    private static final Logger LOG = Logger.getLogger( LoginThrottle.class.getName() );
+
+    private static final String ENABLED = "rest.login.throttle.enabled";
+    private static final String MAX_FAILURES = "rest.login.throttle.max.failures";
+    private static final String HALF_LIFE = "rest.login.throttle.half.life.seconds";
+    private static final String SHARDS = "rest.login.throttle.shards";
+    private static final String MAX_ENTRIES = "rest.login.throttle.max.entries";
+
+    /** The HTTP status of the rejected requests, not defined by the servlet API */
+    private static final int TOO_MANY_REQUESTS = 429;
+
+    private static final LoginThrottle INSTANCE = new LoginThrottle();
+
+    private final boolean enabled;
+    private final double maxFailures;
+    private final LoginCounters counters;
+
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong cleared = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+
+
+    private LoginThrottle()
+    {
+        Config config = Config.getInstance();
+        enabled = config.getBoolean( ENABLED, false );
+        maxFailures = config.getInt( MAX_FAILURES, 10 );
+        counters = new LoginCounters( config.getInt( SHARDS, 16 ), config.getInt( MAX_ENTRIES, 100000 ),
+            TimeUnit.SECONDS.toNanos( Math.max( 1, config.getInt( HALF_LIFE, 60 ) ) ) );
+        RestMetrics.register( "loginThrottle", this );
+        LOG.info( "LoginThrottle enabled=" + enabled + ", maxFailures=" + maxFailures );
+    }
+
+
+    static LoginThrottle getInstance()
+    {
+        return INSTANCE;
+    }
+
+
+    /**
+     * Check whether an authentication must be rejected.
+     *
+     * @param contextId The tenant
+     * @param user The user authenticating, may be null
+     * @param clientAddress The address of the client, may be null
+     * @return The error response to return, or null if the authentication can go on
+     */
+    FortResponse reject( String contextId, User user, String clientAddress )
+    {
+        if ( !enabled || user == null || user.getUserId() == null )
+        {
+            return null;
+        }
+
+        if ( counters.failures( key( contextId, user, clientAddress ), System.nanoTime() ) < maxFailures )
+        {
+            return null;
+        }
+
+        rejected.incrementAndGet();
+        FortResponse response = new FortResponse();
+        response.setErrorCode( RestErrIds.LOGIN_THROTTLED );
+        response.setErrorMessage( "Too many failed authentications for user " + user.getUserId() );
+        response.setHttpStatus( TOO_MANY_REQUESTS );
+
+        return response;
+    }
+
+
+    /**
+     * Record the outcome of an authentication.
+     *
+     * @param contextId The tenant
+     * @param user The user authenticating, may be null
+     * @param clientAddress The address of the client, may be null
+     * @param response The response of the authentication
+     */
+    void record( String contextId, User user, String clientAddress, FortResponse response )
+    {
+        if ( !enabled || user == null || user.getUserId() == null )
+        {
+            return;
+        }
+
+        int errorCode = response.getErrorCode();
+        boolean failed = errorCode == GlobalErrIds.USER_PW_INVLD || errorCode == GlobalErrIds.USER_NOT_FOUND;
+
+        if ( errorCode != GlobalErrIds.NO_ERROR && !failed )
+        {
+            return;
+        }
+
+        String key = key( contextId, user, clientAddress );
+
+        if ( !failed )
+        {
+            if ( counters.clear( key ) )
+            {
+                cleared.incrementAndGet();
+            }
+
+            return;
+        }
+
+        int dropped = counters.fail( key, System.nanoTime() );
+
+        if ( dropped > 0 )
+        {
+            evicted.addAndGet( dropped );
+            LOG.warn( "LoginThrottle shard full, dropped the " + dropped + " lowest counters" );
+        }
+
+        failures.incrementAndGet();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void collect( Map<String, Number> metrics )
+    {
+        metrics.put( "failures", failures.get() );
+        metrics.put( "rejected", rejected.get() );
+        metrics.put( "cleared", cleared.get() );
+        metrics.put( "evicted", evicted.get() );
+        metrics.put( "tracked", counters.size() );
+    }
+
+
+    private static String key( String contextId, User user, String clientAddress )
+    {
+        return PolicyChanges.tenant( contextId ) + ':' + EntityType.key( user.getUserId() ) + ':' + clientAddress;
+    }
+}
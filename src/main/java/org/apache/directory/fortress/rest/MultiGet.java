@@ -0,0 +1,187 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.fortress.rest;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.directory.fortress.core.GlobalErrIds;
+import org.apache.directory.fortress.core.SecurityException;
+import org.apache.directory.fortress.core.ValidationException;
+import org.apache.directory.fortress.core.model.FortEntity;
+import org.apache.directory.fortress.core.model.FortRequest;
+import org.apache.directory.fortress.core.model.FortResponse;
+import org.apache.directory.fortress.core.util.Config;
+
+/**
+ * Reads a list of entities for the multi-get services.
+ * <p>
+ * The keys are given in {@link FortRequest#value}, one per line, the parts of a compound key (i.e. objName, opName
+ * and objId of a permission) separated by a tab.  Keys appearing several times are read once and every read goes
+ * through the {@link EntityCache}.  {@link FortResponse#values} gets one element per key, in request order:
+ * <code>0</code> when the entity was read, it is then the next element of {@link FortResponse#entities}, or the
+ * error id followed by a space and the error message.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+final class MultiGet
+{
+    private static final String MAX_KEYS = "rest.multiget.max.keys";
+
+    private static final String KEY_SEP = "\t";
+
+    /**
+     * Reads one entity.
+     *
+     * @param <T> The entity type
+     */
+    interface Reader<T extends FortEntity>
+    {
+        /**
+         * @param parts The parts of the key, as many as requested by {@link MultiGet#read}, missing ones are null
+         * @return The entity
+         * @throws SecurityException If the entity can't be read
+         */
+        T read( String[] parts ) throws SecurityException;
+    }
+
+
+    /**
+     * Computes the normalized key of an entity.
+     */
+    interface KeyFunction
+    {
+        String key( String[] parts );
+    }
+
+
+    private MultiGet()
+    {
+    }
+
+
+    /**
+     * Read all the entities requested and fill the response.
+     *
+     * @param request The request, gives the keys, the tenant and the administrative session
+     * @param response The response to fill
+     * @param type The type of entity
+     * @param keyParts The number of parts of a key
+     * @param cacheKey Computes the normalized key of an entity from the key parts, see {@link EntityType#key}
+     * @param reader Reads an entity
+     * @param <T> The entity type
+     * @throws ValidationException If there are no keys, too many keys or a key has too many parts
+     */
+    static <T extends FortEntity> void read( FortRequest request, FortResponse response, EntityType type, int keyParts,
+        KeyFunction cacheKey, final Reader<T> reader ) throws ValidationException
+    {
+        List<String[]> keys = keys( request, keyParts );
+        Map<String, Object> results = new HashMap<>();
+        List<T> entities = new ArrayList<>();
+        List<String> values = new ArrayList<>( keys.size() );
+
+        for ( final String[] parts : keys )
+        {
+            String key = cacheKey.key( parts );
+            Object result = results.get( key );
+
+            if ( result == null )
+            {
+                try
+                {
+                    result = EntityCache.getInstance().read( request, type, key, () -> reader.read( parts ) );
+                }
+                catch ( SecurityException se )
+                {
+                    result = se;
+                }
+
+                results.put( key, result );
+            }
+
+            if ( result instanceof SecurityException )
+            {
+                SecurityException se = ( SecurityException ) result;
+                values.add( se.getErrorId() + " " + se.getMessage() );
+            }
+            else
+            {
+                values.add( String.valueOf( GlobalErrIds.NO_ERROR ) );
+                entities.add( cast( result ) );
+            }
+        }
+
+        response.setEntities( entities );
+        response.setValues( values );
+    }
+
+
+    private static List<String[]> keys( FortRequest request, int keyParts ) throws ValidationException
+    {
+        if ( StringUtils.isBlank( request.getValue() ) )
+        {
+            throw new ValidationException( RestErrIds.MULTI_GET_INVALID_KEYS, "No key given" );
+        }
+
+        int maxKeys = Config.getInstance().getInt( MAX_KEYS, 500 );
+        List<String[]> keys = new ArrayList<>();
+
+        for ( String line : request.getValue().split( "\r?\n" ) )
+        {
+            if ( StringUtils.isBlank( line ) )
+            {
+                continue;
+            }
+
+            String[] given = line.split( KEY_SEP, -1 );
+
+            if ( given.length > keyParts )
+            {
+                throw new ValidationException( RestErrIds.MULTI_GET_INVALID_KEYS, "Invalid key " + line );
+            }
+
+            String[] parts = new String[keyParts];
+
+            for ( int i = 0; i < given.length; i++ )
+            {
+                parts[i] = given[i].trim();
+            }
+
+            keys.add( parts );
+
+            if ( keys.size() > maxKeys )
+            {
+                throw new ValidationException( RestErrIds.MULTI_GET_INVALID_KEYS, "More than " + maxKeys + " keys" );
+            }
+        }
+
+        return keys;
+    }
+
+
+    @SuppressWarnings("unchecked")
+    private static <T> T cast( Object value )
+    {
+        return ( T ) value;
+    }
+}
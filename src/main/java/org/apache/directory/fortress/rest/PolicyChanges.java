@@ -0,0 +1,163 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.fortress.rest;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.directory.fortress.core.GlobalIds;
+import org.apache.log4j.Logger;
+
+/**
+ * Dispatches the writes done through the Rest managers to the components that depend on the policy: the entity
+ * cache, the ETag versions, the change feed, the reads in flight and the prefix index.  The managers report their writes through
+ * {@link AbstractMgrImpl#entityChanged}, the writes done on the other servers of the cluster are received through the
+ * {@link InvalidationBus}.
+ * <p>
+ * This class is thread safe.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+final class PolicyChanges
+{
+    /** A logger for this class */
+    private static final Logger LOG = Logger.getLogger( PolicyChanges.class.getName() );
+
+    /**
+     * Implemented by the components notified of the policy writes.
+     */
+    interface Listener
+    {
+        /**
+         * Called after a successful write, on the thread of the request.  Must not block.
+         *
+         * @param tenant The tenant, never empty
+         * @param type The type of the modified entity
+         * @param key The normalized key of the entity, see {@link EntityType#key}, null when an unknown number of
+         * entities of the type changed
+         * @param name The key with its case kept, see {@link EntityType#name}, null with the key
+         * @param op The kind of write
+         */
+        void changed( String tenant, EntityType type, String key, String name, ChangeOp op );
+    }
+
+    private static final List<Listener> LISTENERS = new CopyOnWriteArrayList<>();
+
+    static
+    {
+        LISTENERS.add( EntityCache.getInstance() );
+        LISTENERS.add( EntityVersions.getInstance() );
+        LISTENERS.add( ChangeFeed.getInstance() );
+        LISTENERS.add( SingleFlight.getInstance() );
+        LISTENERS.add( PrefixIndex.getInstance() );
+        LISTENERS.add( SdIndex.getInstance() );
+        LISTENERS.add( AuthCache.getInstance() );
+        LISTENERS.add( PolicySimulation.getInstance() );
+        LISTENERS.add( DirectoryRouter.getInstance() );
+        LISTENERS.add( LastKnownGood.getInstance() );
+        LISTENERS.add( InvalidationBus.getInstance() );
+    }
+
+
+    private PolicyChanges()
+    {
+    }
+
+
+    /**
+     * Add a listener, it is notified of the writes done after this call.
+     *
+     * @param listener The listener
+     */
+    static void register( Listener listener )
+    {
+        LISTENERS.add( listener );
+    }
+
+
+    /**
+     * Notify all the listeners of a write.  A failing listener is logged, it does not fail the write, which is
+     * already done in the directory.
+     *
+     * @param contextId The tenant of the request
+     * @param type The type of the modified entity
+     * @param key The normalized key of the entity, null when an unknown number of entities of the type changed
+     * @param name The key with its case kept, null with the key
+     * @param op The kind of write
+     */
+    static void publish( String contextId, EntityType type, String key, String name, ChangeOp op )
+    {
+        dispatch( null, tenant( contextId ), type, key, name, op );
+    }
+
+
+    /**
+     * Notify the listeners of a write done on another server, except the listener that received it so it is not
+     * sent back.
+     *
+     * @param receiver The listener that received the write
+     * @param tenant The tenant, never empty
+     * @param type The type of the modified entity
+     * @param key The normalized key of the entity, null when an unknown number of entities of the type changed
+     * @param name The key with its case kept, null with the key
+     * @param op The kind of write
+     */
+    static void publishRemote( Listener receiver, String tenant, EntityType type, String key, String name,
+        ChangeOp op )
+    {
+        dispatch( receiver, tenant, type, key, name, op );
+    }
+
+
+    private static void dispatch( Listener skipped, String tenant, EntityType type, String key, String name,
+        ChangeOp op )
+    {
+        for ( Listener listener : LISTENERS )
+        {
+            if ( listener == skipped )
+            {
+                continue;
+            }
+
+            try
+            {
+                listener.changed( tenant, type, key, name, op );
+            }
+            catch ( RuntimeException re )
+            {
+                LOG.warn( "PolicyChanges listener " + listener.getClass().getSimpleName() + " failed on " + type
+                    + " " + key, re );
+            }
+        }
+    }
+
+
+    /**
+     * Normalize the tenant of a request, an empty contextId is the default tenant.
+     *
+     * @param contextId The contextId of the request
+     * @return The tenant
+     */
+    static String tenant( String contextId )
+    {
+        return StringUtils.isEmpty( contextId ) ? GlobalIds.HOME : contextId;
+    }
+}
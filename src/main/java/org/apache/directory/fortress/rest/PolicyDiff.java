@@ -0,0 +1,393 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.fortress.rest;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.GZIPInputStream;
+
+import javax.ws.rs.core.StreamingOutput;
+
+import org.apache.directory.fortress.core.SecurityException;
+import org.apache.directory.fortress.core.ValidationException;
+import org.apache.directory.fortress.core.model.FortEntity;
+import org.apache.directory.fortress.core.model.FortRequest;
+import org.apache.directory.fortress.core.model.Session;
+import org.apache.log4j.Logger;
+
+/**
+ * Streams the differences between the policy of a tenant and the policy of another tenant, or a
+ * {@link TenantExport}, as JSON lines:
+ * <pre>
+ * {"section":"ROLE","key":"auditor","op":"ADD","entity":{...}}
+ * </pre>
+ * <code>ADD</code> entities are only in the target, <code>DELETE</code> entities only in the tenant, and
+ * <code>UPDATE</code> entities differ, the target version is given.  The last line is
+ * <code>{"section":"END","adds":N,"deletes":N,"updates":N,"same":N}</code>, or an
+ * <code>{"section":"ERROR","message":...}</code> line when a policy could not be read.
+ * <p>
+ * Both policies are read in the order of the export, section by section and sorted by key, and compared as a merge
+ * join: an export is read one line at a time, a tenant one section at a time.  The generated identifiers and the
+ * directory names, which differ between tenants, are left out of the comparison.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+final class PolicyDiff implements StreamingOutput
+{
+    /** A logger for this class */
+    private static final Logger LOG = Logger.getLogger( PolicyDiff.class.getName() );
+
+    private static final JacksonFieldOnlyMapper MAPPER = new JacksonFieldOnlyMapper();
+
+    /** The entity fields that differ between copies of the same policy */
+    private static final Set<String> IGNORED = new HashSet<>( Arrays.asList( "id", "internalId", "dn", "contextId",
+        "modCode", "modId", "sequenceId", "password" ) );
+
+    /** Orders the lists of the entities, whose order is not significant */
+    private static final Comparator<Object> BY_STRING = Comparator.comparing( String::valueOf );
+
+    /**
+     * The entities of a policy, in the order of the export.
+     */
+    private interface Source
+    {
+        /**
+         * @return The next entity, null at the end
+         */
+        Entry next() throws IOException, SecurityException;
+    }
+
+    private final Source source;
+    private final Source target;
+
+
+    private PolicyDiff( Source source, Source target )
+    {
+        this.source = source;
+        this.target = target;
+    }
+
+
+    /**
+     * Compare the policies of two tenants.
+     *
+     * @param request The request, gives the tenant, the administrative session and in value the target tenant
+     * @return The diff, written when the response is sent
+     * @throws ValidationException If the target tenant is missing
+     */
+    static PolicyDiff tenants( FortRequest request ) throws ValidationException
+    {
+        if ( request.getValue() == null || request.getValue().trim().isEmpty() )
+        {
+            throw new ValidationException( RestErrIds.DIFF_INVALID_TARGET, "The target tenant is missing" );
+        }
+
+        return new PolicyDiff( new TenantSource( request.getContextId(), request.getSession() ),
+            new TenantSource( request.getValue().trim(), request.getSession() ) );
+    }
+
+
+    /**
+     * Compare the policy of a tenant with an export.
+     *
+     * @param request The request, gives the tenant and the administrative session
+     * @param export The gzipped export, read while the diff is written
+     * @return The diff, written when the response is sent
+     */
+    static PolicyDiff export( FortRequest request, InputStream export )
+    {
+        return new PolicyDiff( new TenantSource( request.getContextId(), request.getSession() ),
+            new ExportSource( export ) );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write( OutputStream output ) throws IOException
+    {
+        Writer out = new BufferedWriter( new OutputStreamWriter( output, StandardCharsets.UTF_8 ), 64 * 1024 );
+        long adds = 0;
+        long deletes = 0;
+        long updates = 0;
+        long same = 0;
+
+        try
+        {
+            Entry left = source.next();
+            Entry right = target.next();
+
+            while ( left != null || right != null )
+            {
+                int cmp = left == null ? 1 : right == null ? -1 : left.compareTo( right );
+
+                if ( cmp < 0 )
+                {
+                    write( out, left, "DELETE", null );
+                    deletes++;
+                    left = source.next();
+                }
+                else if ( cmp > 0 )
+                {
+                    write( out, right, "ADD", right.json );
+                    adds++;
+                    right = target.next();
+                }
+                else
+                {
+                    if ( left.canonical.equals( right.canonical ) )
+                    {
+                        same++;
+                    }
+                    else
+                    {
+                        write( out, right, "UPDATE", right.json );
+                        updates++;
+                    }
+
+                    left = source.next();
+                    right = target.next();
+                }
+            }
+
+            out.write( "{\"section\":\"END\",\"adds\":" + adds + ",\"deletes\":" + deletes + ",\"updates\":" + updates
+                + ",\"same\":" + same + "}\n" );
+        }
+        catch ( SecurityException | IOException e )
+        {
+            LOG.warn( "PolicyDiff stopped: " + e );
+            out.write( "{\"section\":\"ERROR\",\"message\":" + MAPPER.writeValueAsString( e.getMessage() ) + "}\n" );
+        }
+
+        out.flush();
+    }
+
+
+    private static void write( Writer out, Entry entry, String op, String json ) throws IOException
+    {
+        out.write( "{\"section\":\"" + entry.section + "\",\"key\":" + MAPPER.writeValueAsString( entry.key )
+            + ",\"op\":\"" + op + "\"" + ( json == null ? "" : ",\"entity\":" + json ) + "}\n" );
+    }
+
+
+    /**
+     * Bring a parsed entity to a form where equal policies compare equal: the ignored fields are removed and the
+     * lists sorted.
+     *
+     * @param value The value parsed from JSON
+     * @return The canonical value
+     */
+    static Object canonical( Object value )
+    {
+        if ( value instanceof Map )
+        {
+            Map<String, Object> canonical = new TreeMap<>();
+
+            for ( Map.Entry<?, ?> field : ( ( Map<?, ?> ) value ).entrySet() )
+            {
+                String name = String.valueOf( field.getKey() );
+
+                if ( !IGNORED.contains( name ) && field.getValue() != null )
+                {
+                    canonical.put( name, canonical( field.getValue() ) );
+                }
+            }
+
+            return canonical;
+        }
+        else if ( value instanceof List )
+        {
+            List<Object> canonical = new ArrayList<>();
+
+            for ( Object element : ( List<?> ) value )
+            {
+                canonical.add( canonical( element ) );
+            }
+
+            Collections.sort( canonical, BY_STRING );
+
+            return canonical;
+        }
+
+        return value;
+    }
+
+
+    /**
+     * An entity of a policy.
+     */
+    private static final class Entry implements Comparable<Entry>
+    {
+        private final TenantExport.Section section;
+        private final String key;
+        private final String json;
+        private final Object canonical;
+
+
+        private Entry( TenantExport.Section section, String key, String json, Object parsed )
+        {
+            this.section = section;
+            this.key = key;
+            this.json = json;
+            this.canonical = canonical( parsed );
+        }
+
+
+        @Override
+        public int compareTo( Entry other )
+        {
+            int cmp = section.compareTo( other.section );
+
+            return cmp != 0 ? cmp : key.compareTo( other.key );
+        }
+    }
+
+
+    /**
+     * Reads a tenant from the directory, one section at a time.
+     */
+    private static final class TenantSource implements Source
+    {
+        private final String contextId;
+        private final Session session;
+        private int section = -1;
+        private Iterator<Map.Entry<String, FortEntity>> entities = Collections.emptyIterator();
+
+
+        private TenantSource( String contextId, Session session )
+        {
+            this.contextId = contextId;
+            this.session = session;
+        }
+
+
+        @Override
+        public Entry next() throws IOException, SecurityException
+        {
+            while ( !entities.hasNext() )
+            {
+                if ( ++section >= TenantExport.Section.values().length )
+                {
+                    return null;
+                }
+
+                entities = TenantExport.scan( contextId, session, TenantExport.Section.values()[section] )
+                    .entrySet().iterator();
+            }
+
+            Map.Entry<String, FortEntity> entity = entities.next();
+            // Drop the entity as soon as it is compared
+            entities.remove();
+            String json = MAPPER.writeValueAsString( entity.getValue() );
+
+            return new Entry( TenantExport.Section.values()[section], entity.getKey(), json,
+                MAPPER.readValue( json, Map.class ) );
+        }
+    }
+
+
+    /**
+     * Reads an export, one line at a time.
+     */
+    private static final class ExportSource implements Source
+    {
+        private final InputStream export;
+        private BufferedReader reader;
+        private Entry previous;
+
+
+        private ExportSource( InputStream export )
+        {
+            this.export = export;
+        }
+
+
+        @Override
+        public Entry next() throws IOException
+        {
+            if ( reader == null )
+            {
+                reader = new BufferedReader( new InputStreamReader( new GZIPInputStream( export ),
+                    StandardCharsets.UTF_8 ) );
+            }
+
+            String line = reader.readLine();
+
+            if ( line == null )
+            {
+                throw new IOException( "The export is truncated, its END line is missing" );
+            }
+
+            Map<?, ?> parsed = MAPPER.readValue( line, Map.class );
+            String sectionName = String.valueOf( parsed.get( "section" ) );
+
+            if ( "END".equals( sectionName ) )
+            {
+                return null;
+            }
+            else if ( "ERROR".equals( sectionName ) )
+            {
+                throw new IOException( "The export failed: " + parsed.get( "message" ) );
+            }
+
+            String checkpoint = String.valueOf( parsed.get( "checkpoint" ) );
+            Entry entry;
+
+            try
+            {
+                entry = new Entry( TenantExport.Section.valueOf( sectionName ),
+                    checkpoint.substring( checkpoint.indexOf( '\t' ) + 1 ),
+                    MAPPER.writeValueAsString( parsed.get( "entity" ) ), parsed.get( "entity" ) );
+            }
+            catch ( IllegalArgumentException iae )
+            {
+                throw new IOException( "Invalid export line: " + sectionName );
+            }
+
+            // The merge join needs the export order
+            if ( previous != null && previous.compareTo( entry ) >= 0 )
+            {
+                throw new IOException( "The export is not sorted at " + sectionName + " " + entry.key );
+            }
+
+            previous = entry;
+
+            return entry;
+        }
+    }
+}
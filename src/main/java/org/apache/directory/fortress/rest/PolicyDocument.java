@@ -0,0 +1,361 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.fortress.rest;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.directory.fortress.core.ValidationException;
+
+/**
+ * A policy document in the format of the Fortress Ant loader, i.e. <code>FortressRestServerPolicy.xml</code>, read by
+ * the {@link FortressService#importPolicy} service.  The document is read with a streaming parser: only the attributes
+ * of the supported items are kept, sorted by the {@link Phase} they must be applied in so the entities exist before
+ * they are referenced.
+ * <p>
+ * The items must be in the <code>FortressAdmin</code> element, grouped in containers such as <code>adduser</code>.  The
+ * items of the containers that can't be imported are listed by {@link #getUnsupported()}.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+final class PolicyDocument
+{
+    /** The element holding the containers */
+    private static final String ROOT = "FortressAdmin";
+
+    private static final XMLInputFactory FACTORY = XMLInputFactory.newInstance();
+
+    static
+    {
+        // The documents are uploaded by clients, no DTD or external entity is resolved
+        FACTORY.setProperty( XMLInputFactory.SUPPORT_DTD, false );
+        FACTORY.setProperty( XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false );
+    }
+
+    /**
+     * The groups of items applied one after the other, the items of a group depend only on the items of the
+     * previous groups.
+     */
+    enum Phase
+    {
+        ORG_UNIT( true ),
+        ROLE( true ),
+        /** The hierarchy changes are validated against the whole graph, they are applied one at a time */
+        HIERARCHY( false ),
+        USER( true ),
+        GRANT( true );
+
+        private final boolean parallel;
+
+
+        Phase( boolean parallel )
+        {
+            this.parallel = parallel;
+        }
+
+
+        /**
+         * @return true if the items of the phase don't depend on each other and can be applied concurrently
+         */
+        boolean isParallel()
+        {
+            return parallel;
+        }
+    }
+
+    /**
+     * The supported kinds of item, by container element.
+     */
+    enum Kind
+    {
+        ORG_UNIT( "addorgunit", Phase.ORG_UNIT ),
+        ROLE( "addrole", Phase.ROLE ),
+        ADMIN_ROLE( "addadminrole", Phase.ROLE ),
+        PERM_OBJ( "addpermobj", Phase.ROLE ),
+        ROLE_INHERITANCE( "addroleinheritance", Phase.HIERARCHY ),
+        USER( "adduser", Phase.USER ),
+        PERMISSION( "addpermop", Phase.USER ),
+        USER_ROLE( "adduserrole", Phase.GRANT ),
+        USER_ADMIN_ROLE( "adduseradminrole", Phase.GRANT ),
+        PERM_GRANT( "addpermgrant", Phase.GRANT );
+
+        private final String container;
+        private final Phase phase;
+
+
+        Kind( String container, Phase phase )
+        {
+            this.container = container;
+            this.phase = phase;
+        }
+
+
+        Phase getPhase()
+        {
+            return phase;
+        }
+
+
+        private static Kind of( String container )
+        {
+            for ( Kind kind : values() )
+            {
+                if ( kind.container.equalsIgnoreCase( container ) )
+                {
+                    return kind;
+                }
+            }
+
+            return null;
+        }
+    }
+
+    /**
+     * One element of a container, i.e. a <code>user</code> of an <code>adduser</code>.
+     */
+    static final class Item
+    {
+        private final Kind kind;
+        private final int line;
+        private final Map<String, String> attributes;
+
+
+        private Item( Kind kind, int line, Map<String, String> attributes )
+        {
+            this.kind = kind;
+            this.line = line;
+            this.attributes = attributes;
+        }
+
+
+        Kind getKind()
+        {
+            return kind;
+        }
+
+
+        /**
+         * @return The line of the element in the document, used in the error reports
+         */
+        int getLine()
+        {
+            return line;
+        }
+
+
+        /**
+         * @return The attributes of the element, by lower cased name
+         */
+        Map<String, String> getAttributes()
+        {
+            return attributes;
+        }
+
+
+        /**
+         * @param name The lower cased attribute name
+         * @return The value, null if the attribute is missing
+         */
+        String get( String name )
+        {
+            return attributes.get( name );
+        }
+
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String toString()
+        {
+            // The attributes are left out, they may hold a password
+            return "line " + line + " " + kind.container;
+        }
+    }
+
+    private final Map<Phase, List<Item>> items = new EnumMap<>( Phase.class );
+    private final List<String> unsupported = new ArrayList<>();
+    private int size;
+
+
+    private PolicyDocument()
+    {
+        for ( Phase phase : Phase.values() )
+        {
+            items.put( phase, new ArrayList<Item>() );
+        }
+    }
+
+
+    /**
+     * Read a policy document.
+     *
+     * @param input The document, not closed
+     * @return The items of the document
+     * @throws ValidationException If the document is not well formed XML
+     */
+    static PolicyDocument parse( InputStream input ) throws ValidationException
+    {
+        PolicyDocument document = new PolicyDocument();
+        XMLStreamReader reader = null;
+
+        try
+        {
+            reader = FACTORY.createXMLStreamReader( input );
+            document.read( reader );
+        }
+        catch ( XMLStreamException xse )
+        {
+            throw new ValidationException( RestErrIds.IMPORT_INVALID_DOCUMENT, "Invalid policy document: "
+                + xse.getMessage() );
+        }
+        finally
+        {
+            close( reader );
+        }
+
+        return document;
+    }
+
+
+    /**
+     * @param phase The phase
+     * @return The items to apply in that phase, in document order
+     */
+    List<Item> getItems( Phase phase )
+    {
+        return Collections.unmodifiableList( items.get( phase ) );
+    }
+
+
+    /**
+     * @return The number of supported items
+     */
+    int size()
+    {
+        return size;
+    }
+
+
+    /**
+     * @return The items of the containers that can't be imported, as <code>line N container</code> strings
+     */
+    List<String> getUnsupported()
+    {
+        return Collections.unmodifiableList( unsupported );
+    }
+
+
+    private void read( XMLStreamReader reader ) throws XMLStreamException
+    {
+        // Depth of the current element, and of the FortressAdmin element or -1 when outside of it
+        int depth = 0;
+        int rootDepth = -1;
+        String container = null;
+
+        while ( reader.hasNext() )
+        {
+            int event = reader.next();
+
+            if ( event == XMLStreamConstants.START_ELEMENT )
+            {
+                depth++;
+                String name = reader.getLocalName();
+
+                if ( rootDepth < 0 )
+                {
+                    if ( ROOT.equals( name ) )
+                    {
+                        rootDepth = depth;
+                    }
+                }
+                else if ( depth == rootDepth + 1 )
+                {
+                    container = name;
+                }
+                else if ( depth == rootDepth + 2 )
+                {
+                    add( container, reader );
+                }
+            }
+            else if ( event == XMLStreamConstants.END_ELEMENT )
+            {
+                if ( depth == rootDepth )
+                {
+                    rootDepth = -1;
+                }
+
+                depth--;
+            }
+        }
+    }
+
+
+    private void add( String container, XMLStreamReader reader )
+    {
+        int line = reader.getLocation().getLineNumber();
+        Kind kind = Kind.of( container );
+
+        if ( kind == null )
+        {
+            unsupported.add( "line " + line + " " + container );
+
+            return;
+        }
+
+        Map<String, String> attributes = new LinkedHashMap<>();
+
+        for ( int i = 0; i < reader.getAttributeCount(); i++ )
+        {
+            attributes.put( reader.getAttributeLocalName( i ).toLowerCase( Locale.ENGLISH ),
+                reader.getAttributeValue( i ) );
+        }
+
+        items.get( kind.getPhase() ).add( new Item( kind, line, attributes ) );
+        size++;
+    }
+
+
+    private static void close( XMLStreamReader reader )
+    {
+        if ( reader != null )
+        {
+            try
+            {
+                reader.close();
+            }
+            catch ( XMLStreamException xse )
+            {
+                // Nothing was held open by the reader
+            }
+        }
+    }
+}
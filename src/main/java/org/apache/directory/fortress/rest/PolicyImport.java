@@ -0,0 +1,511 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.fortress.rest;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.directory.fortress.core.AdminMgr;
+import org.apache.directory.fortress.core.AdminMgrFactory;
+import org.apache.directory.fortress.core.DelAdminMgr;
+import org.apache.directory.fortress.core.DelAdminMgrFactory;
+import org.apache.directory.fortress.core.SecurityException;
+import org.apache.directory.fortress.core.ValidationException;
+import org.apache.directory.fortress.core.model.AdminRole;
+import org.apache.directory.fortress.core.model.FortRequest;
+import org.apache.directory.fortress.core.model.OrgUnit;
+import org.apache.directory.fortress.core.model.PermObj;
+import org.apache.directory.fortress.core.model.Permission;
+import org.apache.directory.fortress.core.model.Role;
+import org.apache.directory.fortress.core.model.User;
+import org.apache.directory.fortress.core.model.UserAdminRole;
+import org.apache.directory.fortress.core.model.UserRole;
+import org.apache.directory.fortress.core.util.Config;
+import org.apache.log4j.Logger;
+
+/**
+ * Applies a {@link PolicyDocument} through the AdminMgr and DelAdminMgr, one {@link PolicyDocument.Phase} after the
+ * other.  The items of a phase are split in batches of <code>rest.import.batch.size</code> items applied concurrently
+ * by <code>rest.import.threads</code> threads shared by all the imports.
+ * <p>
+ * A failed item does not stop the import, it is reported with its line and the error.  The items depending on it
+ * fail in turn, i.e. the assignments of a user that could not be added.
+ * <p>
+ * This class is thread safe.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+final class PolicyImport implements RestMetrics.Source
+{
+    /** A logger for this class */
+    private static final Logger LOG = Logger.getLogger( PolicyImport.class.getName() );
+
+    private static final String THREADS = "rest.import.threads";
+    private static final String BATCH_SIZE = "rest.import.batch.size";
+    private static final String MAX_REPORTED = "rest.import.max.reported.failures";
+
+    private static final PolicyImport INSTANCE = new PolicyImport();
+
+    private final int batchSize;
+    private final int maxReported;
+
+    /** Applies the batches, out of the thread of the requests */
+    private final ExecutorService workers;
+
+    private final AtomicLong imports = new AtomicLong();
+    private final AtomicLong applied = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    /**
+     * The outcome of an import.
+     */
+    static final class Report
+    {
+        /** One line per phase, then one per reported failure */
+        private final List<String> lines = new ArrayList<>();
+        private int applied;
+        private int failed;
+
+
+        /**
+         * @return <code>PHASE items=N applied=N failed=N millis=N</code> lines, then
+         * <code>line N container entity: errorId message</code> lines for the failed items
+         */
+        List<String> getLines()
+        {
+            return lines;
+        }
+
+
+        int getApplied()
+        {
+            return applied;
+        }
+
+
+        int getFailed()
+        {
+            return failed;
+        }
+    }
+
+
+    private PolicyImport()
+    {
+        Config config = Config.getInstance();
+        batchSize = Math.max( 1, config.getInt( BATCH_SIZE, 50 ) );
+        maxReported = config.getInt( MAX_REPORTED, 1000 );
+        workers = Executors.newFixedThreadPool( Math.max( 1, config.getInt( THREADS, 4 ) ), runnable ->
+        {
+            Thread thread = new Thread( runnable, "fortress-rest-import" );
+            thread.setDaemon( true );
+
+            return thread;
+        } );
+        RestMetrics.register( "policyImport", this );
+    }
+
+
+    static PolicyImport getInstance()
+    {
+        return INSTANCE;
+    }
+
+
+    /**
+     * Apply all the items of a document.
+     *
+     * @param request The request, gives the tenant and the administrative session
+     * @param document The items
+     * @return The progress of each phase and the failed items
+     */
+    Report apply( FortRequest request, PolicyDocument document )
+    {
+        Report report = new Report();
+        List<String> failures = new ArrayList<>();
+        imports.incrementAndGet();
+
+        for ( PolicyDocument.Phase phase : PolicyDocument.Phase.values() )
+        {
+            List<PolicyDocument.Item> items = document.getItems( phase );
+            long started = System.currentTimeMillis();
+            int phaseFailed = apply( request, phase, items, failures );
+            long millis = System.currentTimeMillis() - started;
+
+            report.applied += items.size() - phaseFailed;
+            report.failed += phaseFailed;
+            report.lines.add( phase + " items=" + items.size() + " applied=" + ( items.size() - phaseFailed )
+                + " failed=" + phaseFailed + " millis=" + millis );
+            LOG.info( "PolicyImport of " + request.getContextId() + " " + report.lines.get( report.lines.size() - 1 ) );
+        }
+
+        for ( String unsupported : document.getUnsupported() )
+        {
+            failures.add( unsupported + ": unsupported" );
+        }
+
+        report.failed += document.getUnsupported().size();
+        applied.addAndGet( report.applied );
+        failed.addAndGet( report.failed );
+
+        int reported = Math.min( failures.size(), maxReported );
+        report.lines.addAll( failures.subList( 0, reported ) );
+
+        if ( reported < failures.size() )
+        {
+            report.lines.add( ( failures.size() - reported ) + " more failures" );
+        }
+
+        return report;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void collect( Map<String, Number> metrics )
+    {
+        metrics.put( "imports", imports.get() );
+        metrics.put( "applied", applied.get() );
+        metrics.put( "failed", failed.get() );
+    }
+
+
+    /**
+     * Apply the items of a phase, waiting for all of them.
+     *
+     * @return The number of failed items, their descriptions are added to failures
+     */
+    private int apply( FortRequest request, PolicyDocument.Phase phase, List<PolicyDocument.Item> items,
+        List<String> failures )
+    {
+        int size = phase.isParallel() ? batchSize : Math.max( 1, items.size() );
+        List<Future<List<String>>> batches = new ArrayList<>();
+
+        for ( int from = 0; from < items.size(); from += size )
+        {
+            final List<PolicyDocument.Item> batch = items.subList( from, Math.min( items.size(), from + size ) );
+            batches.add( workers.submit( () -> applyBatch( request, batch ) ) );
+        }
+
+        int phaseFailed = 0;
+
+        for ( int i = 0; i < batches.size(); i++ )
+        {
+            List<String> batchFailures;
+
+            try
+            {
+                batchFailures = batches.get( i ).get();
+            }
+            catch ( InterruptedException ie )
+            {
+                Thread.currentThread().interrupt();
+                batchFailures = failAll( items, i * size, size, "interrupted" );
+            }
+            catch ( ExecutionException ee )
+            {
+                batchFailures = failAll( items, i * size, size, String.valueOf( ee.getCause() ) );
+            }
+
+            phaseFailed += batchFailures.size();
+            failures.addAll( batchFailures );
+        }
+
+        return phaseFailed;
+    }
+
+
+    private static List<String> failAll( List<PolicyDocument.Item> items, int from, int size, String message )
+    {
+        List<String> failures = new ArrayList<>();
+
+        for ( PolicyDocument.Item item : items.subList( from, Math.min( items.size(), from + size ) ) )
+        {
+            failures.add( item + " " + describe( item ) + ": " + message );
+        }
+
+        return failures;
+    }
+
+
+    /**
+     * Apply a batch of items with a single pair of managers.  Runs on a worker thread.
+     *
+     * @return The descriptions of the failed items
+     */
+    private List<String> applyBatch( FortRequest request, List<PolicyDocument.Item> batch ) throws SecurityException
+    {
+        AdminMgr adminMgr = AdminMgrFactory.createInstance( request.getContextId() );
+        adminMgr.setAdmin( request.getSession() );
+        DelAdminMgr delAdminMgr = DelAdminMgrFactory.createInstance( request.getContextId() );
+        delAdminMgr.setAdmin( request.getSession() );
+        List<String> failures = new ArrayList<>();
+
+        for ( PolicyDocument.Item item : batch )
+        {
+            try
+            {
+                applyItem( request, adminMgr, delAdminMgr, item );
+            }
+            catch ( SecurityException se )
+            {
+                failures.add( item + " " + describe( item ) + ": " + se.getErrorId() + " " + se.getMessage() );
+            }
+            catch ( RuntimeException re )
+            {
+                LOG.warn( "PolicyImport failed on " + item, re );
+                failures.add( item + " " + describe( item ) + ": " + re );
+            }
+        }
+
+        return failures;
+    }
+
+
+    private static void applyItem( FortRequest request, AdminMgr adminMgr, DelAdminMgr delAdminMgr,
+        PolicyDocument.Item item ) throws SecurityException
+    {
+        String contextId = request.getContextId();
+
+        switch ( item.getKind() )
+        {
+            case ORG_UNIT:
+                OrgUnit orgUnit = populate( new OrgUnit(), item );
+                orgUnit.setType( orgUnitType( item ) );
+                delAdminMgr.add( orgUnit );
+                publish( contextId, EntityType.ORG_UNIT, ChangeOp.ADD, orgUnit.getName() );
+                break;
+
+            case ROLE:
+                Role role = adminMgr.addRole( populate( new Role(), item ) );
+                publish( contextId, EntityType.ROLE, ChangeOp.ADD, role.getName() );
+                break;
+
+            case ADMIN_ROLE:
+                AdminRole adminRole = delAdminMgr.addRole( populate( new AdminRole(), item ) );
+                publish( contextId, EntityType.ADMIN_ROLE, ChangeOp.ADD, adminRole.getName() );
+                break;
+
+            case PERM_OBJ:
+                PermObj permObj = populate( new PermObj(), item );
+                adminMgr.addPermObj( permObj );
+                PolicyChanges.publish( contextId, EntityType.PERM_OBJ, EntityType.key( permObj ),
+                    EntityType.name( permObj ), ChangeOp.ADD );
+                break;
+
+            case ROLE_INHERITANCE:
+                adminMgr.addInheritance( new Role( item.get( "parent" ) ), new Role( item.get( "child" ) ) );
+                publish( contextId, EntityType.ROLE, ChangeOp.UPDATE, item.get( "parent" ) );
+                publish( contextId, EntityType.ROLE, ChangeOp.UPDATE, item.get( "child" ) );
+                break;
+
+            case USER:
+                User user = populate( new User(), item );
+                adminMgr.addUser( user );
+                publish( contextId, EntityType.USER, ChangeOp.ADD, user.getUserId() );
+                break;
+
+            case PERMISSION:
+                Permission perm = populate( new Permission(), item );
+                adminMgr.addPermission( perm );
+                publish( contextId, ChangeOp.ADD, perm );
+                break;
+
+            case USER_ROLE:
+                UserRole userRole = populate( new UserRole(), item );
+                adminMgr.assignUser( userRole );
+                publish( contextId, EntityType.USER, ChangeOp.UPDATE, userRole.getUserId() );
+                publish( contextId, EntityType.ROLE, ChangeOp.UPDATE, userRole.getName() );
+                break;
+
+            case USER_ADMIN_ROLE:
+                UserAdminRole userAdminRole = populate( new UserAdminRole(), item );
+                delAdminMgr.assignUser( userAdminRole );
+                publish( contextId, EntityType.USER, ChangeOp.UPDATE, userAdminRole.getUserId() );
+                break;
+
+            case PERM_GRANT:
+                grant( contextId, adminMgr, item );
+                break;
+
+            default:
+                break;
+        }
+    }
+
+
+    /**
+     * Grant a permission to the role named by roleNm, or else to the user named by userId.
+     */
+    private static void grant( String contextId, AdminMgr adminMgr, PolicyDocument.Item item )
+        throws SecurityException
+    {
+        Permission perm = new Permission( item.get( "objname" ), item.get( "opname" ), item.get( "objid" ) );
+        perm.setAdmin( Boolean.parseBoolean( item.get( "admin" ) ) );
+        String roleName = item.get( "rolenm" );
+
+        if ( roleName != null )
+        {
+            adminMgr.grantPermission( perm, new Role( roleName ) );
+        }
+        else
+        {
+            adminMgr.grantPermission( perm, new User( item.get( "userid" ) ) );
+        }
+
+        publish( contextId, ChangeOp.UPDATE, perm );
+    }
+
+
+    private static void publish( String contextId, EntityType type, ChangeOp op, String... keyParts )
+    {
+        PolicyChanges.publish( contextId, type, EntityType.key( keyParts ), EntityType.name( keyParts ), op );
+    }
+
+
+    private static void publish( String contextId, ChangeOp op, Permission perm )
+    {
+        PolicyChanges.publish( contextId, EntityType.PERMISSION, EntityType.key( perm ), EntityType.name( perm ), op );
+    }
+
+
+    private static OrgUnit.Type orgUnitType( PolicyDocument.Item item ) throws ValidationException
+    {
+        String typeName = item.get( "typename" );
+
+        try
+        {
+            return OrgUnit.Type.valueOf( String.valueOf( typeName ).toUpperCase( Locale.ENGLISH ) );
+        }
+        catch ( IllegalArgumentException iae )
+        {
+            throw new ValidationException( RestErrIds.IMPORT_INVALID_DOCUMENT, "Invalid typeName " + typeName );
+        }
+    }
+
+
+    /**
+     * Set the attributes of an item on an entity the way the Fortress Ant loader does: each attribute is given to the
+     * setter of the same name, ignoring case, taking a String, a boolean or an int.  The attributes without such a
+     * setter are ignored.
+     */
+    private static <T> T populate( T entity, PolicyDocument.Item item )
+    {
+        for ( Method method : entity.getClass().getMethods() )
+        {
+            String name = method.getName();
+
+            if ( !name.startsWith( "set" ) || method.getParameterTypes().length != 1 )
+            {
+                continue;
+            }
+
+            String value = item.get( name.substring( 3 ).toLowerCase( Locale.ENGLISH ) );
+
+            if ( value != null )
+            {
+                set( entity, method, value );
+            }
+        }
+
+        return entity;
+    }
+
+
+    private static void set( Object entity, Method method, String value )
+    {
+        Class<?> type = method.getParameterTypes()[0];
+        Object argument;
+
+        if ( type == String.class )
+        {
+            argument = value;
+        }
+        else if ( type == boolean.class || type == Boolean.class )
+        {
+            argument = Boolean.valueOf( value );
+        }
+        else if ( ( type == int.class || type == Integer.class ) && !value.isEmpty() )
+        {
+            argument = Integer.valueOf( value );
+        }
+        else if ( type == char[].class )
+        {
+            argument = value.toCharArray();
+        }
+        else
+        {
+            return;
+        }
+
+        try
+        {
+            method.invoke( entity, argument );
+        }
+        catch ( IllegalAccessException | InvocationTargetException e )
+        {
+            throw new IllegalArgumentException( "Invalid " + method.getName().substring( 3 ) + " " + value, e );
+        }
+    }
+
+
+    /**
+     * @return The name of the entity of an item, shown in the reports
+     */
+    private static String describe( PolicyDocument.Item item )
+    {
+        switch ( item.getKind() )
+        {
+            case USER:
+                return item.get( "userid" );
+
+            case USER_ROLE:
+            case USER_ADMIN_ROLE:
+                return item.get( "userid" ) + "->" + item.get( "name" );
+
+            case ROLE_INHERITANCE:
+                return item.get( "child" ) + "->" + item.get( "parent" );
+
+            case PERM_OBJ:
+                return item.get( "objname" );
+
+            case PERMISSION:
+                return EntityType.name( item.get( "objname" ), item.get( "opname" ), item.get( "objid" ) );
+
+            case PERM_GRANT:
+                return EntityType.name( item.get( "objname" ), item.get( "opname" ), item.get( "objid" ) ) + "->"
+                    + ( item.get( "rolenm" ) != null ? item.get( "rolenm" ) : item.get( "userid" ) );
+
+            default:
+                return item.get( "name" );
+        }
+    }
+}
@@ -0,0 +1,565 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.fortress.rest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+import org.apache.directory.fortress.core.model.Permission;
+import org.apache.directory.fortress.core.model.Role;
+import org.apache.directory.fortress.core.model.User;
+import org.apache.directory.fortress.core.model.UserRole;
+
+/**
+ * In memory copy of the RBAC policy of a tenant answering which permissions a user holds: the permissions granted to
+ * the user directly, to the assigned roles and to the ascendants of these roles.  The temporal constraints of the
+ * roles and assignments are not evaluated.
+ * <p>
+ * A matrix can be copied and modified to simulate policy changes, the copy shares the unchanged bitsets with the
+ * original.  The modifications must be followed by {@link #close()} before the permissions are read again.  The
+ * reads are thread safe, the modifications are not.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+final class PolicyMatrix
+{
+    /** The permissions, and their indexes by {@link #permissionKey} */
+    private final List<Permission> permissions;
+    private final Map<String, Integer> permIds;
+
+    /** The role indexes, by key */
+    private final Map<String, Integer> roleIds;
+
+    /** The user ids, and their indexes by key */
+    private final String[] userIds;
+    private final Map<String, Integer> userIndexes;
+
+    /** The permissions granted to each role, and its parents, by role index.  Never modified in place */
+    private final BitSet[] direct;
+    private final int[][] parents;
+    private final BitSet deleted;
+
+    /**
+     * The roles assigned to each user, and the permissions granted directly or null, by user index.  The direct
+     * grants of the users are not modified by the simulations, they are shared by the copies.
+     */
+    private final int[][] userRoles;
+    private final BitSet[] userGrants;
+
+    /** The permissions of each role, its own and those of its ascendants */
+    private BitSet[] roleGrants;
+
+
+    private PolicyMatrix( List<Permission> permissions, Map<String, Integer> permIds, Map<String, Integer> roleIds,
+        String[] userIds, Map<String, Integer> userIndexes, BitSet[] direct, int[][] parents, BitSet deleted,
+        int[][] userRoles, BitSet[] userGrants, BitSet[] roleGrants )
+    {
+        this.permissions = permissions;
+        this.permIds = permIds;
+        this.roleIds = roleIds;
+        this.userIds = userIds;
+        this.userIndexes = userIndexes;
+        this.direct = direct;
+        this.parents = parents;
+        this.deleted = deleted;
+        this.userRoles = userRoles;
+        this.userGrants = userGrants;
+        this.roleGrants = roleGrants;
+    }
+
+
+    /**
+     * Build the matrix.
+     *
+     * @param roles The roles with their parents
+     * @param permissions The permissions with the roles and users they are granted to
+     * @param users The users with their role assignments
+     * @return The matrix
+     */
+    static PolicyMatrix build( List<Role> roles, List<Permission> permissions, List<User> users )
+    {
+        Map<String, Integer> roleIds = new HashMap<>();
+
+        for ( Role role : roles )
+        {
+            roleIds.put( EntityType.key( role.getName() ), roleIds.size() );
+        }
+
+        Map<String, Integer> permIds = new HashMap<>();
+        BitSet[] direct = new BitSet[roleIds.size()];
+        Map<String, BitSet> grantsByUser = new HashMap<>();
+
+        for ( int i = 0; i < direct.length; i++ )
+        {
+            direct[i] = new BitSet();
+        }
+
+        for ( int perm = 0; perm < permissions.size(); perm++ )
+        {
+            Permission permission = permissions.get( perm );
+            permIds.put( permissionKey( permission.getObjName(), permission.getOpName(), permission.getObjId() ), perm );
+
+            for ( int roleId : ids( roleIds, permission.getRoles() ) )
+            {
+                direct[roleId].set( perm );
+            }
+
+            if ( permission.getUsers() != null )
+            {
+                for ( String userId : permission.getUsers() )
+                {
+                    grantsByUser.computeIfAbsent( EntityType.key( userId ), key -> new BitSet() ).set( perm );
+                }
+            }
+        }
+
+        int[][] parents = new int[roles.size()][];
+
+        for ( int i = 0; i < roles.size(); i++ )
+        {
+            parents[i] = ids( roleIds, roles.get( i ).getParents() );
+        }
+
+        String[] userIds = new String[users.size()];
+        Map<String, Integer> userIndexes = new HashMap<>();
+        int[][] userRoles = new int[users.size()][];
+        BitSet[] userGrants = new BitSet[users.size()];
+
+        for ( int i = 0; i < users.size(); i++ )
+        {
+            User user = users.get( i );
+            List<String> names = new ArrayList<>();
+
+            if ( user.getRoles() != null )
+            {
+                for ( UserRole userRole : user.getRoles() )
+                {
+                    names.add( userRole.getName() );
+                }
+            }
+
+            userIds[i] = user.getUserId();
+            userIndexes.put( EntityType.key( user.getUserId() ), i );
+            userRoles[i] = ids( roleIds, names );
+            userGrants[i] = grantsByUser.get( EntityType.key( user.getUserId() ) );
+        }
+
+        PolicyMatrix matrix = new PolicyMatrix( new ArrayList<>( permissions ), permIds, roleIds, userIds, userIndexes,
+            direct, parents, new BitSet(), userRoles, userGrants, null );
+        matrix.close();
+
+        return matrix;
+    }
+
+
+    /**
+     * Build the key of a permission in the matrix.
+     *
+     * @param objName The object name
+     * @param opName The operation name
+     * @param objId The object id, may be null
+     * @return The key
+     */
+    static String permissionKey( String objName, String opName, String objId )
+    {
+        return EntityType.key( objName, opName, objId );
+    }
+
+
+    /**
+     * @return A copy of the matrix, to be modified
+     */
+    PolicyMatrix copy()
+    {
+        return new PolicyMatrix( permissions, permIds, roleIds, userIds, userIndexes, direct.clone(), parents.clone(),
+            ( BitSet ) deleted.clone(), userRoles.clone(), userGrants, roleGrants.clone() );
+    }
+
+
+    /**
+     * @return The number of users
+     */
+    int users()
+    {
+        return userIds.length;
+    }
+
+
+    String userId( int user )
+    {
+        return userIds[user];
+    }
+
+
+    /**
+     * @param userId The user id
+     * @return The index of the user, -1 if unknown
+     */
+    int user( String userId )
+    {
+        Integer index = userIndexes.get( EntityType.key( userId ) );
+
+        return index == null ? -1 : index;
+    }
+
+
+    Permission permission( int perm )
+    {
+        return permissions.get( perm );
+    }
+
+
+    /**
+     * @param key The key of the permission, see {@link #permissionKey}
+     * @return The index of the permission, -1 if unknown
+     */
+    int permission( String key )
+    {
+        Integer index = permIds.get( key );
+
+        return index == null ? -1 : index;
+    }
+
+
+    /**
+     * Compute the effective permissions of a user.
+     *
+     * @param user The index of the user
+     * @return The indexes of the permissions
+     */
+    BitSet row( int user )
+    {
+        BitSet row = new BitSet( permissions.size() );
+
+        if ( userGrants[user] != null )
+        {
+            row.or( userGrants[user] );
+        }
+
+        for ( int roleId : userRoles[user] )
+        {
+            row.or( roleGrants[roleId] );
+        }
+
+        return row;
+    }
+
+
+    /**
+     * Tell if a user holds a permission.
+     *
+     * @param user The index of the user
+     * @param perm The index of the permission
+     * @return true if the permission is granted to the user or to one of the user's roles or their ascendants
+     */
+    boolean isGranted( int user, int perm )
+    {
+        if ( userGrants[user] != null && userGrants[user].get( perm ) )
+        {
+            return true;
+        }
+
+        for ( int roleId : userRoles[user] )
+        {
+            if ( roleGrants[roleId].get( perm ) )
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+
+    /**
+     * Remove a role with its grants, inheritance relationships and assignments.
+     *
+     * @param role The role name
+     * @return false if the role is unknown
+     */
+    boolean deleteRole( String role )
+    {
+        int roleId = role( role );
+
+        if ( roleId < 0 )
+        {
+            return false;
+        }
+
+        deleted.set( roleId );
+        direct[roleId] = new BitSet();
+
+        for ( int i = 0; i < parents.length; i++ )
+        {
+            parents[i] = without( parents[i], roleId );
+        }
+
+        for ( int i = 0; i < userRoles.length; i++ )
+        {
+            userRoles[i] = without( userRoles[i], roleId );
+        }
+
+        return true;
+    }
+
+
+    /**
+     * Make a role inherit the permissions of a parent role, or stop inheriting them.
+     *
+     * @param parent The name of the parent role
+     * @param child The name of the child role
+     * @param add true to add the relationship, false to remove it
+     * @return false if a role is unknown
+     */
+    boolean inheritance( String parent, String child, boolean add )
+    {
+        int parentId = role( parent );
+        int childId = role( child );
+
+        if ( parentId < 0 || childId < 0 )
+        {
+            return false;
+        }
+
+        parents[childId] = add ? with( parents[childId], parentId ) : without( parents[childId], parentId );
+
+        return true;
+    }
+
+
+    /**
+     * Grant a permission to a role, or revoke it.
+     *
+     * @param permKey The key of the permission, see {@link #permissionKey}
+     * @param role The name of the role
+     * @param grant true to grant the permission, false to revoke it
+     * @return false if the permission or the role is unknown
+     */
+    boolean grant( String permKey, String role, boolean grant )
+    {
+        int perm = permission( permKey );
+        int roleId = role( role );
+
+        if ( perm < 0 || roleId < 0 )
+        {
+            return false;
+        }
+
+        BitSet grants = ( BitSet ) direct[roleId].clone();
+        grants.set( perm, grant );
+        direct[roleId] = grants;
+
+        return true;
+    }
+
+
+    /**
+     * Assign a role to a user, or deassign it.
+     *
+     * @param userId The user id
+     * @param role The name of the role
+     * @param assign true to assign the role, false to deassign it
+     * @return false if the user or the role is unknown
+     */
+    boolean assign( String userId, String role, boolean assign )
+    {
+        int user = user( userId );
+        int roleId = role( role );
+
+        if ( user < 0 || roleId < 0 )
+        {
+            return false;
+        }
+
+        userRoles[user] = assign ? with( userRoles[user], roleId ) : without( userRoles[user], roleId );
+
+        return true;
+    }
+
+
+    /**
+     * Compute the permissions of the roles over their ascendants, must be called after the modifications.
+     */
+    void close()
+    {
+        roleGrants = new BitSet[direct.length];
+
+        for ( int i = 0; i < direct.length; i++ )
+        {
+            close( i, new BitSet() );
+        }
+    }
+
+
+    /**
+     * Compare the permissions held in this matrix and in a modified copy.
+     *
+     * @param after The modified copy
+     * @param pairs The user and permission indexes to compare, or null to compare all the users and permissions
+     * @return For each user index, the permissions whose outcome changed, or null when none changed
+     */
+    BitSet[] diff( PolicyMatrix after, List<int[]> pairs )
+    {
+        BitSet[] changes = new BitSet[userIds.length];
+
+        if ( pairs == null )
+        {
+            IntStream.range( 0, userIds.length ).parallel().forEach( user ->
+            {
+                BitSet changed = row( user );
+                changed.xor( after.row( user ) );
+                changes[user] = changed.isEmpty() ? null : changed;
+            } );
+        }
+        else
+        {
+            boolean[] changed = new boolean[pairs.size()];
+            IntStream.range( 0, pairs.size() ).parallel().forEach( i ->
+                changed[i] = isGranted( pairs.get( i )[0], pairs.get( i )[1] )
+                    != after.isGranted( pairs.get( i )[0], pairs.get( i )[1] ) );
+
+            for ( int i = 0; i < changed.length; i++ )
+            {
+                if ( changed[i] )
+                {
+                    int user = pairs.get( i )[0];
+
+                    if ( changes[user] == null )
+                    {
+                        changes[user] = new BitSet();
+                    }
+
+                    changes[user].set( pairs.get( i )[1] );
+                }
+            }
+        }
+
+        return changes;
+    }
+
+
+    /**
+     * @return The number of permissions
+     */
+    int permissions()
+    {
+        return permissions.size();
+    }
+
+
+    private int role( String role )
+    {
+        Integer roleId = roleIds.get( EntityType.key( role ) );
+
+        return roleId == null || deleted.get( roleId ) ? -1 : roleId;
+    }
+
+
+    /**
+     * Compute the permissions of a role and of its ascendants, depth first.  A role met again on the path is part of
+     * a cycle, its permissions are already being collected.
+     */
+    private BitSet close( int roleId, BitSet path )
+    {
+        if ( roleGrants[roleId] != null )
+        {
+            return roleGrants[roleId];
+        }
+
+        BitSet grants = ( BitSet ) direct[roleId].clone();
+        path.set( roleId );
+
+        for ( int parent : parents[roleId] )
+        {
+            if ( !path.get( parent ) )
+            {
+                grants.or( close( parent, path ) );
+            }
+        }
+
+        path.clear( roleId );
+        roleGrants[roleId] = grants;
+
+        return grants;
+    }
+
+
+    private static int[] ids( Map<String, Integer> roleIds, Collection<String> names )
+    {
+        int[] ids = new int[names == null ? 0 : names.size()];
+        int size = 0;
+
+        if ( names != null )
+        {
+            for ( String name : names )
+            {
+                Integer id = roleIds.get( EntityType.key( name ) );
+
+                // The roles deleted while the policy was read are left out
+                if ( id != null )
+                {
+                    ids[size++] = id;
+                }
+            }
+        }
+
+        return Arrays.copyOf( ids, size );
+    }
+
+
+    private static int[] with( int[] ids, int id )
+    {
+        for ( int existing : ids )
+        {
+            if ( existing == id )
+            {
+                return ids;
+            }
+        }
+
+        int[] result = Arrays.copyOf( ids, ids.length + 1 );
+        result[ids.length] = id;
+
+        return result;
+    }
+
+
+    private static int[] without( int[] ids, int id )
+    {
+        int[] result = new int[ids.length];
+        int size = 0;
+
+        for ( int existing : ids )
+        {
+            if ( existing != id )
+            {
+                result[size++] = existing;
+            }
+        }
+
+        return size == ids.length ? ids : Arrays.copyOf( result, size );
+    }
+}
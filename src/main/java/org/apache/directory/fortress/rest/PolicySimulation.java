@@ -0,0 +1,355 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.fortress.rest;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.directory.fortress.core.ReviewMgr;
+import org.apache.directory.fortress.core.ReviewMgrFactory;
+import org.apache.directory.fortress.core.SecurityException;
+import org.apache.directory.fortress.core.ValidationException;
+import org.apache.directory.fortress.core.model.FortRequest;
+import org.apache.directory.fortress.core.model.Permission;
+import org.apache.directory.fortress.core.model.User;
+import org.apache.directory.fortress.core.util.Config;
+import org.apache.log4j.Logger;
+
+/**
+ * Simulates policy changes on a {@link PolicyMatrix} copy of a tenant policy, without writing to the directory, and
+ * reports the access decisions they change.  The changes are given one per line:
+ * <pre>
+ * deleteRole role
+ * addInheritance parentRole childRole
+ * deleteInheritance parentRole childRole
+ * grantPermission objName#opName[#objId] role
+ * revokePermission objName#opName[#objId] role
+ * assignUser userId role
+ * deassignUser userId role
+ * checkAccess userId objName#opName[#objId]
+ * </pre>
+ * The <code>checkAccess</code> lines give the decisions to compare, when there are none every user is compared on
+ * every permission.
+ * <p>
+ * The policy of a tenant is read once and kept for <code>rest.simulation.max.age.seconds</code>, the writes done
+ * through this server drop it.  Requests carrying an administrative session always read the policy.
+ * <p>
+ * This class is thread safe.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+final class PolicySimulation implements PolicyChanges.Listener, RestMetrics.Source
+{
+    /** A logger for this class */
+    private static final Logger LOG = Logger.getLogger( PolicySimulation.class.getName() );
+
+    private static final String MAX_AGE = "rest.simulation.max.age.seconds";
+
+    /** The max number of changed decisions listed when the request has no limit */
+    private static final int DEFAULT_LIMIT = 1000;
+
+    private static final PolicySimulation INSTANCE = new PolicySimulation();
+
+    private final long maxAgeNanos;
+
+    /** The policies read, by tenant */
+    private final ConcurrentMap<String, Policy> policies = new ConcurrentHashMap<>();
+
+    /** Incremented by every write, prevents a read racing with a write from keeping a stale policy */
+    private final AtomicLong generation = new AtomicLong();
+
+    private final AtomicLong simulations = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong loads = new AtomicLong();
+
+
+    private PolicySimulation()
+    {
+        maxAgeNanos = TimeUnit.SECONDS.toNanos( Config.getInstance().getInt( MAX_AGE, 300 ) );
+        RestMetrics.register( "policySimulation", this );
+    }
+
+
+    static PolicySimulation getInstance()
+    {
+        return INSTANCE;
+    }
+
+
+    /**
+     * Run a simulation.
+     *
+     * @param request The request, gives the tenant, the administrative session, the changes in value and the max
+     * number of changed decisions listed in limit
+     * @return A <code>compared=N changed=N granted=N revoked=N millis=N</code> summary, followed by one
+     * <code>+ userId objName#opName#objId</code> line per decision granted by the changes, and one <code>-</code> line
+     * per decision denied by them
+     * @throws SecurityException If a change is invalid or the policy could not be read
+     */
+    List<String> simulate( FortRequest request ) throws SecurityException
+    {
+        long started = System.nanoTime();
+        simulations.incrementAndGet();
+        PolicyMatrix before = policy( request );
+        PolicyMatrix after = before.copy();
+        List<int[]> pairs = apply( after, request.getValue() );
+        after.close();
+        BitSet[] changes = before.diff( after, pairs );
+
+        int limit = request.getLimit() != null && request.getLimit() > 0 ? request.getLimit() : DEFAULT_LIMIT;
+        List<String> lines = new ArrayList<>();
+        lines.add( "" );
+        int granted = 0;
+        int revoked = 0;
+
+        for ( int user = 0; user < changes.length; user++ )
+        {
+            if ( changes[user] == null )
+            {
+                continue;
+            }
+
+            for ( int perm = changes[user].nextSetBit( 0 ); perm >= 0; perm = changes[user].nextSetBit( perm + 1 ) )
+            {
+                boolean isGranted = after.isGranted( user, perm );
+
+                if ( isGranted )
+                {
+                    granted++;
+                }
+                else
+                {
+                    revoked++;
+                }
+
+                if ( lines.size() <= limit )
+                {
+                    Permission permission = before.permission( perm );
+                    lines.add( ( isGranted ? "+ " : "- " ) + before.userId( user ) + " " + EntityType.name(
+                        permission.getObjName(), permission.getOpName(), permission.getObjId() ) );
+                }
+            }
+        }
+
+        long compared = pairs != null ? pairs.size() : ( long ) before.users() * before.permissions();
+        lines.set( 0, "compared=" + compared + " changed=" + ( granted + revoked ) + " granted=" + granted
+            + " revoked=" + revoked + " millis=" + TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - started ) );
+
+        return lines;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void changed( String tenant, EntityType type, String key, String name, ChangeOp op )
+    {
+        if ( type == EntityType.USER || type == EntityType.ROLE || type == EntityType.PERMISSION
+            || type == EntityType.PERM_OBJ )
+        {
+            generation.incrementAndGet();
+            policies.remove( tenant );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void collect( Map<String, Number> metrics )
+    {
+        metrics.put( "simulations", simulations.get() );
+        metrics.put( "hits", hits.get() );
+        metrics.put( "loads", loads.get() );
+        metrics.put( "tenants", policies.size() );
+    }
+
+
+    /**
+     * Return the policy of the tenant of a request, read from the directory when not kept.
+     */
+    private PolicyMatrix policy( FortRequest request ) throws SecurityException
+    {
+        if ( request.getSession() != null )
+        {
+            return read( request );
+        }
+
+        String tenant = PolicyChanges.tenant( request.getContextId() );
+        Policy policy = policies.get( tenant );
+
+        if ( policy != null && System.nanoTime() - policy.loaded < maxAgeNanos )
+        {
+            hits.incrementAndGet();
+
+            return policy.matrix;
+        }
+
+        long readGeneration = generation.get();
+        long loaded = System.nanoTime();
+        PolicyMatrix matrix = SingleFlight.getInstance().execute( request, "policyMatrix", "", () -> read( request ) );
+
+        if ( generation.get() == readGeneration )
+        {
+            policies.put( tenant, new Policy( matrix, loaded ) );
+        }
+
+        return matrix;
+    }
+
+
+    private PolicyMatrix read( FortRequest request ) throws SecurityException
+    {
+        long started = System.currentTimeMillis();
+        ReviewMgr reviewMgr = ReviewMgrFactory.createInstance( request.getContextId() );
+        reviewMgr.setAdmin( request.getSession() );
+        PolicyMatrix matrix = PolicyMatrix.build( reviewMgr.findRoles( "" ),
+            reviewMgr.findPermissions( new Permission( "", "" ) ), reviewMgr.findUsers( new User( "" ) ) );
+        loads.incrementAndGet();
+        LOG.info( "PolicySimulation read the policy of " + request.getContextId() + ": " + matrix.users() + " users, "
+            + matrix.permissions() + " permissions in " + ( System.currentTimeMillis() - started ) + " ms" );
+
+        return matrix;
+    }
+
+
+    /**
+     * Apply the changes to the copy of the policy.
+     *
+     * @return The user and permission indexes of the checkAccess lines, null if there are none
+     */
+    private static List<int[]> apply( PolicyMatrix matrix, String changes ) throws ValidationException
+    {
+        if ( changes == null )
+        {
+            return null;
+        }
+
+        List<int[]> pairs = new ArrayList<>();
+
+        String[] lines = changes.split( "\r?\n" );
+
+        for ( int i = 0; i < lines.length; i++ )
+        {
+            String line = lines[i].trim();
+
+            if ( line.isEmpty() )
+            {
+                continue;
+            }
+
+            String[] args = line.split( "\\s+" );
+
+            if ( args.length != ( args[0].equals( "deleteRole" ) ? 2 : 3 ) || !apply( matrix, args, pairs ) )
+            {
+                throw new ValidationException( RestErrIds.SIMULATION_INVALID_CHANGE, "Invalid change on line "
+                    + ( i + 1 ) + ": " + line );
+            }
+        }
+
+        return pairs.isEmpty() ? null : pairs;
+    }
+
+
+    /**
+     * Apply a single change.
+     *
+     * @return false if the change or one of its entities is unknown
+     */
+    private static boolean apply( PolicyMatrix matrix, String[] args, List<int[]> pairs )
+    {
+        switch ( args[0] )
+        {
+            case "deleteRole":
+                return matrix.deleteRole( args[1] );
+
+            case "addInheritance":
+                return matrix.inheritance( args[1], args[2], true );
+
+            case "deleteInheritance":
+                return matrix.inheritance( args[1], args[2], false );
+
+            case "grantPermission":
+                return matrix.grant( permissionKey( args[1] ), args[2], true );
+
+            case "revokePermission":
+                return matrix.grant( permissionKey( args[1] ), args[2], false );
+
+            case "assignUser":
+                return matrix.assign( args[1], args[2], true );
+
+            case "deassignUser":
+                return matrix.assign( args[1], args[2], false );
+
+            case "checkAccess":
+                int user = matrix.user( args[1] );
+                int perm = matrix.permission( permissionKey( args[2] ) );
+
+                if ( user < 0 || perm < 0 )
+                {
+                    return false;
+                }
+
+                pairs.add( new int[] { user, perm } );
+
+                return true;
+
+            default:
+                return false;
+        }
+    }
+
+
+    /**
+     * Parse an <code>objName#opName[#objId]</code> permission.
+     */
+    private static String permissionKey( String permission )
+    {
+        String[] parts = permission.split( "#", 3 );
+
+        return PolicyMatrix.permissionKey( parts[0], parts.length > 1 ? parts[1] : null,
+            parts.length > 2 ? parts[2] : null );
+    }
+
+
+    /**
+     * The policy of a tenant and when it was read.
+     */
+    private static final class Policy
+    {
+        private final PolicyMatrix matrix;
+        private final long loaded;
+
+
+        private Policy( PolicyMatrix matrix, long loaded )
+        {
+            this.matrix = matrix;
+            this.loaded = loaded;
+        }
+    }
+}
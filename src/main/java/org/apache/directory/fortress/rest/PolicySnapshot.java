@@ -0,0 +1,491 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.fortress.rest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.directory.fortress.core.ReviewMgr;
+import org.apache.directory.fortress.core.SecurityException;
+import org.apache.directory.fortress.core.model.Permission;
+import org.apache.directory.fortress.core.model.Role;
+import org.apache.directory.fortress.core.model.SDSet;
+
+/**
+ * Immutable copy of the RBAC policy of a tenant: the roles and their parents, the permissions and the roles and
+ * users they are granted to, the SSD and DSD sets.  It is encoded in a compact binary form, either in full or as
+ * the delta from an older snapshot.
+ * <p>
+ * The encoding is big endian, <code>varint</code> is an unsigned LEB128 integer and <code>ref</code> a varint
+ * index in the string table plus one, 0 meaning null:
+ * <pre>
+ * int magic 0x46525053 ("FRPS"), byte format 1, byte kind (0 full, 1 delta)
+ * long version, long base version (0 in a full snapshot)
+ * varint string count, then for each string: varint length, UTF-8 bytes
+ * for each of the ROLE, PERMISSION, SSD and DSD sections:
+ *   varint count of records added or changed since the base, the records
+ *   varint count of records removed since the base, their identity
+ * ROLE record:       ref name, varint parent count, refs
+ * PERMISSION record: ref objName, ref opName, ref objId, byte admin, varint role count, refs, varint user count, refs
+ * SSD/DSD record:    ref name, varint cardinality, varint member count, refs
+ * </pre>
+ * A removed record is encoded by its identity only: the name of a role or set, the objName, opName, objId and
+ * admin flag of a permission.  The lists are sorted, case is kept as stored in the directory.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+final class PolicySnapshot
+{
+    private static final int MAGIC = 0x46525053;
+    private static final int FORMAT = 1;
+    private static final int FULL = 0;
+    private static final int DELTA = 1;
+
+    /** The sections, in encoding order */
+    private enum Section
+    {
+        ROLE,
+        PERMISSION,
+        SSD,
+        DSD
+    }
+
+    /** The records of each section, by normalized key */
+    private final Map<Section, Map<String, Item>> sections;
+
+    /** The version, set when the snapshot is published by {@link PolicySnapshots} */
+    private long version;
+
+    /** The full encoding, computed once */
+    private volatile byte[] full;
+
+    /** The deltas already encoded, by base version */
+    private final ConcurrentMap<Long, byte[]> deltas = new ConcurrentHashMap<>();
+
+
+    private PolicySnapshot( Map<Section, Map<String, Item>> sections )
+    {
+        this.sections = sections;
+    }
+
+
+    /**
+     * Read the policy of a tenant.
+     *
+     * @param reviewMgr The ReviewMgr of the tenant, with its administrative session set
+     * @return The snapshot, not yet versioned
+     * @throws SecurityException If a read fails
+     */
+    static PolicySnapshot read( ReviewMgr reviewMgr ) throws SecurityException
+    {
+        Map<Section, Map<String, Item>> sections = new HashMap<>();
+
+        Map<String, Item> roles = new TreeMap<>();
+
+        for ( Role role : reviewMgr.findRoles( "" ) )
+        {
+            roles.put( EntityType.key( role.getName() ), new Item( role.getName(), null, null, false, 0,
+                sorted( role.getParents() ), Collections.<String>emptyList() ) );
+        }
+
+        sections.put( Section.ROLE, roles );
+
+        Map<String, Item> perms = new TreeMap<>();
+
+        for ( Permission perm : reviewMgr.findPermissions( new Permission( "", "" ) ) )
+        {
+            perms.put( EntityType.key( perm ), new Item( perm.getObjName(), perm.getOpName(), perm.getObjId(),
+                perm.isAdmin(), 0, sorted( perm.getRoles() ), sorted( perm.getUsers() ) ) );
+        }
+
+        sections.put( Section.PERMISSION, perms );
+
+        SDSet allSets = new SDSet();
+        allSets.setName( "" );
+        sections.put( Section.SSD, sets( reviewMgr.ssdSets( allSets ) ) );
+        sections.put( Section.DSD, sets( reviewMgr.dsdSets( allSets ) ) );
+
+        return new PolicySnapshot( sections );
+    }
+
+
+    long getVersion()
+    {
+        return version;
+    }
+
+
+    void setVersion( long version )
+    {
+        this.version = version;
+    }
+
+
+    /**
+     * @param other Another snapshot
+     * @return true if both hold the same policy, whatever their versions
+     */
+    boolean samePolicy( PolicySnapshot other )
+    {
+        return sections.equals( other.sections );
+    }
+
+
+    /**
+     * @return The number of roles, permissions and sets
+     */
+    int size()
+    {
+        int size = 0;
+
+        for ( Map<String, Item> items : sections.values() )
+        {
+            size += items.size();
+        }
+
+        return size;
+    }
+
+
+    /**
+     * @return The full encoding of this snapshot
+     */
+    byte[] encode()
+    {
+        byte[] bytes = full;
+
+        if ( bytes == null )
+        {
+            bytes = encode( null );
+            full = bytes;
+        }
+
+        return bytes;
+    }
+
+
+    /**
+     * @param base An older snapshot of the same tenant
+     * @return The encoding of the changes from the base to this snapshot
+     */
+    byte[] encodeDelta( PolicySnapshot base )
+    {
+        byte[] bytes = deltas.get( base.version );
+
+        if ( bytes == null )
+        {
+            bytes = encode( base );
+            deltas.putIfAbsent( base.version, bytes );
+        }
+
+        return bytes;
+    }
+
+
+    private byte[] encode( PolicySnapshot base )
+    {
+        Map<Section, List<Item>> upserts = new HashMap<>();
+        Map<Section, List<Item>> removals = new HashMap<>();
+        StringTable strings = new StringTable();
+
+        for ( Section section : Section.values() )
+        {
+            Map<String, Item> items = sections.get( section );
+            Map<String, Item> baseItems = base == null ? Collections.<String, Item>emptyMap() : base.sections.get( section );
+            List<Item> upserted = new ArrayList<>();
+            List<Item> removed = new ArrayList<>();
+
+            for ( Map.Entry<String, Item> entry : items.entrySet() )
+            {
+                if ( !entry.getValue().equals( baseItems.get( entry.getKey() ) ) )
+                {
+                    upserted.add( entry.getValue() );
+                    entry.getValue().intern( strings, true );
+                }
+            }
+
+            for ( Map.Entry<String, Item> entry : baseItems.entrySet() )
+            {
+                if ( !items.containsKey( entry.getKey() ) )
+                {
+                    removed.add( entry.getValue() );
+                    entry.getValue().intern( strings, false );
+                }
+            }
+
+            upserts.put( section, upserted );
+            removals.put( section, removed );
+        }
+
+        try
+        {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream( bytes );
+            out.writeInt( MAGIC );
+            out.writeByte( FORMAT );
+            out.writeByte( base == null ? FULL : DELTA );
+            out.writeLong( version );
+            out.writeLong( base == null ? 0 : base.version );
+            strings.write( out );
+
+            for ( Section section : Section.values() )
+            {
+                writeVarint( out, upserts.get( section ).size() );
+
+                for ( Item item : upserts.get( section ) )
+                {
+                    item.write( out, section, strings, true );
+                }
+
+                writeVarint( out, removals.get( section ).size() );
+
+                for ( Item item : removals.get( section ) )
+                {
+                    item.write( out, section, strings, false );
+                }
+            }
+
+            out.flush();
+
+            return bytes.toByteArray();
+        }
+        catch ( IOException ioe )
+        {
+            // Can't happen, the stream is in memory
+            throw new IllegalStateException( ioe );
+        }
+    }
+
+
+    private static Map<String, Item> sets( List<SDSet> sdSets )
+    {
+        Map<String, Item> items = new TreeMap<>();
+
+        for ( SDSet sdSet : sdSets )
+        {
+            int cardinality = sdSet.getCardinality() == null ? 0 : sdSet.getCardinality();
+            items.put( EntityType.key( sdSet.getName() ), new Item( sdSet.getName(), null, null, false, cardinality,
+                sorted( sdSet.getMembers() ), Collections.<String>emptyList() ) );
+        }
+
+        return items;
+    }
+
+
+    private static List<String> sorted( Collection<String> values )
+    {
+        if ( values == null || values.isEmpty() )
+        {
+            return Collections.emptyList();
+        }
+
+        List<String> list = new ArrayList<>( values );
+        Collections.sort( list );
+
+        return Collections.unmodifiableList( list );
+    }
+
+
+    private static void writeVarint( DataOutputStream out, int value ) throws IOException
+    {
+        int remaining = value;
+
+        while ( ( remaining & ~0x7F ) != 0 )
+        {
+            out.writeByte( ( remaining & 0x7F ) | 0x80 );
+            remaining >>>= 7;
+        }
+
+        out.writeByte( remaining );
+    }
+
+
+    /**
+     * The strings used by an encoding, each is written once.
+     */
+    private static final class StringTable
+    {
+        private final Map<String, Integer> refs = new HashMap<>();
+        private final List<String> values = new ArrayList<>();
+
+
+        private void add( String value )
+        {
+            if ( value != null && !refs.containsKey( value ) )
+            {
+                values.add( value );
+                refs.put( value, values.size() );
+            }
+        }
+
+
+        private void addAll( List<String> list )
+        {
+            for ( String value : list )
+            {
+                add( value );
+            }
+        }
+
+
+        private void write( DataOutputStream out ) throws IOException
+        {
+            writeVarint( out, values.size() );
+
+            for ( String value : values )
+            {
+                byte[] utf8 = value.getBytes( StandardCharsets.UTF_8 );
+                writeVarint( out, utf8.length );
+                out.write( utf8 );
+            }
+        }
+
+
+        private void writeRef( DataOutputStream out, String value ) throws IOException
+        {
+            writeVarint( out, value == null ? 0 : refs.get( value ) );
+        }
+
+
+        private void writeRefs( DataOutputStream out, List<String> list ) throws IOException
+        {
+            writeVarint( out, list.size() );
+
+            for ( String value : list )
+            {
+                writeRef( out, value );
+            }
+        }
+    }
+
+
+    /**
+     * A role, permission or SD set.  Roles and sets use the name and the first list (parents or members), sets
+     * the cardinality too.  Permissions use all the fields except the cardinality, name being the objName.
+     */
+    private static final class Item
+    {
+        private final String name;
+        private final String opName;
+        private final String objId;
+        private final boolean admin;
+        private final int cardinality;
+        private final List<String> list;
+        private final List<String> users;
+
+
+        private Item( String name, String opName, String objId, boolean admin, int cardinality, List<String> list,
+            List<String> users )
+        {
+            this.name = name;
+            this.opName = opName;
+            this.objId = objId;
+            this.admin = admin;
+            this.cardinality = cardinality;
+            this.list = list;
+            this.users = users;
+        }
+
+
+        private void intern( StringTable strings, boolean content )
+        {
+            strings.add( name );
+            strings.add( opName );
+            strings.add( objId );
+
+            if ( content )
+            {
+                strings.addAll( list );
+                strings.addAll( users );
+            }
+        }
+
+
+        private void write( DataOutputStream out, Section section, StringTable strings, boolean content )
+            throws IOException
+        {
+            strings.writeRef( out, name );
+
+            if ( section == Section.PERMISSION )
+            {
+                strings.writeRef( out, opName );
+                strings.writeRef( out, objId );
+                out.writeByte( admin ? 1 : 0 );
+            }
+
+            if ( !content )
+            {
+                return;
+            }
+
+            if ( section == Section.SSD || section == Section.DSD )
+            {
+                writeVarint( out, cardinality );
+            }
+
+            strings.writeRefs( out, list );
+
+            if ( section == Section.PERMISSION )
+            {
+                strings.writeRefs( out, users );
+            }
+        }
+
+
+        @Override
+        public boolean equals( Object o )
+        {
+            if ( this == o )
+            {
+                return true;
+            }
+
+            if ( !( o instanceof Item ) )
+            {
+                return false;
+            }
+
+            Item other = ( Item ) o;
+
+            return admin == other.admin && cardinality == other.cardinality && Objects.equals( name, other.name )
+                && Objects.equals( opName, other.opName ) && Objects.equals( objId, other.objId )
+                && list.equals( other.list ) && users.equals( other.users );
+        }
+
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash( name, opName, objId, admin, cardinality, list, users );
+        }
+    }
+}
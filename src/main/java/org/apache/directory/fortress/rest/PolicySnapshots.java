@@ -0,0 +1,251 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.fortress.rest;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.directory.fortress.core.ReviewMgr;
+import org.apache.directory.fortress.core.SecurityException;
+import org.apache.directory.fortress.core.model.FortRequest;
+import org.apache.directory.fortress.core.util.Config;
+
+/**
+ * The last {@link PolicySnapshot}s of each tenant, used to answer the clients with the delta from the snapshot they
+ * already hold.
+ * <p>
+ * A snapshot is reused while no write is done through this server in the tenant and it is younger than
+ * <code>rest.snapshot.max.age.seconds</code>, the age bound picks the writes done directly in the directory.  A
+ * rebuilt snapshot holding the same policy as the last one keeps its version.  The last
+ * <code>rest.snapshot.history</code> versions are kept, a client holding an older one gets a full snapshot.
+ * Requests carrying an administrative session always read the directory so the ARBAC checks are done.
+ * <p>
+ * This class is thread safe.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+final class PolicySnapshots implements RestMetrics.Source
+{
+    private static final String HISTORY = "rest.snapshot.history";
+    private static final String MAX_AGE = "rest.snapshot.max.age.seconds";
+
+    private static final PolicySnapshots INSTANCE = new PolicySnapshots();
+
+    private final int history;
+    private final long maxAgeNanos;
+
+    /**
+     * The version before the first snapshot, derived from the clock so the versions given by a previous instance
+     * of the server are not mistaken for current ones.
+     */
+    private final long origin = TimeUnit.MILLISECONDS.toMicros( System.currentTimeMillis() );
+
+    private final ConcurrentMap<String, History> tenants = new ConcurrentHashMap<>();
+
+    private final AtomicLong builds = new AtomicLong();
+    private final AtomicLong reused = new AtomicLong();
+    private final AtomicLong fullExports = new AtomicLong();
+    private final AtomicLong deltaExports = new AtomicLong();
+    private final AtomicLong exportedBytes = new AtomicLong();
+
+
+    private PolicySnapshots()
+    {
+        Config config = Config.getInstance();
+        history = Math.max( 1, config.getInt( HISTORY, 8 ) );
+        maxAgeNanos = TimeUnit.SECONDS.toNanos( config.getInt( MAX_AGE, 60 ) );
+        RestMetrics.register( "policySnapshots", this );
+    }
+
+
+    static PolicySnapshots getInstance()
+    {
+        return INSTANCE;
+    }
+
+
+    /**
+     * Encode the current policy of the tenant, as a delta when the client holds a version still known.
+     *
+     * @param request The request, gives the tenant, the administrative session and in {@link FortRequest#value}
+     * the version held by the client
+     * @param reviewMgr The ReviewMgr of the tenant
+     * @return The encoded snapshot, see {@link PolicySnapshot}
+     * @throws SecurityException If the policy can't be read
+     */
+    byte[] export( FortRequest request, ReviewMgr reviewMgr ) throws SecurityException
+    {
+        String tenant = PolicyChanges.tenant( request.getContextId() );
+        History tenantHistory = history( tenant );
+        PolicySnapshot current = current( request, tenantHistory, tenant, reviewMgr );
+        PolicySnapshot base = null;
+
+        if ( StringUtils.isNotBlank( request.getValue() ) )
+        {
+            try
+            {
+                base = tenantHistory.find( Long.parseLong( request.getValue().trim() ) );
+            }
+            catch ( NumberFormatException nfe )
+            {
+                // Unknown version, send the full snapshot
+            }
+        }
+
+        byte[] bytes;
+
+        if ( base == null )
+        {
+            fullExports.incrementAndGet();
+            bytes = current.encode();
+        }
+        else
+        {
+            deltaExports.incrementAndGet();
+            bytes = current.encodeDelta( base );
+        }
+
+        exportedBytes.addAndGet( bytes.length );
+
+        return bytes;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void collect( Map<String, Number> metrics )
+    {
+        metrics.put( "builds", builds.get() );
+        metrics.put( "reused", reused.get() );
+        metrics.put( "fullExports", fullExports.get() );
+        metrics.put( "deltaExports", deltaExports.get() );
+        metrics.put( "exportedBytes", exportedBytes.get() );
+        metrics.put( "tenants", tenants.size() );
+    }
+
+
+    private PolicySnapshot current( FortRequest request, History tenantHistory, String tenant, ReviewMgr reviewMgr )
+        throws SecurityException
+    {
+        // Read before the directory so a write done during the build is seen by the next request
+        String feedCursor = ChangeFeed.getInstance().cursor( tenant );
+        long now = System.nanoTime();
+
+        if ( request.getSession() == null )
+        {
+            synchronized ( tenantHistory )
+            {
+                PolicySnapshot last = tenantHistory.snapshots.peekLast();
+
+                if ( last != null && feedCursor.equals( tenantHistory.feedCursor )
+                    && now - tenantHistory.built < maxAgeNanos )
+                {
+                    reused.incrementAndGet();
+
+                    return last;
+                }
+            }
+        }
+
+        PolicySnapshot snapshot = PolicySnapshot.read( reviewMgr );
+        builds.incrementAndGet();
+
+        synchronized ( tenantHistory )
+        {
+            PolicySnapshot last = tenantHistory.snapshots.peekLast();
+            tenantHistory.feedCursor = feedCursor;
+            tenantHistory.built = now;
+
+            if ( last != null && last.samePolicy( snapshot ) )
+            {
+                return last;
+            }
+
+            snapshot.setVersion( last == null ? origin + 1 : last.getVersion() + 1 );
+            tenantHistory.snapshots.addLast( snapshot );
+
+            if ( tenantHistory.snapshots.size() > history )
+            {
+                tenantHistory.snapshots.removeFirst();
+            }
+
+            return snapshot;
+        }
+    }
+
+
+    private History history( String tenant )
+    {
+        History tenantHistory = tenants.get( tenant );
+
+        if ( tenantHistory == null )
+        {
+            History newHistory = new History();
+            tenantHistory = tenants.putIfAbsent( tenant, newHistory );
+
+            if ( tenantHistory == null )
+            {
+                tenantHistory = newHistory;
+            }
+        }
+
+        return tenantHistory;
+    }
+
+
+    /**
+     * The last snapshots of a tenant, oldest first.  Guarded by its own monitor.
+     */
+    private static final class History
+    {
+        private final Deque<PolicySnapshot> snapshots = new ArrayDeque<>();
+
+        /** The cursor of the change feed when the last snapshot was read */
+        private String feedCursor;
+
+        /** When the last snapshot was read, in nanoseconds */
+        private long built;
+
+
+        private PolicySnapshot find( long version )
+        {
+            synchronized ( this )
+            {
+                for ( PolicySnapshot snapshot : snapshots )
+                {
+                    if ( snapshot.getVersion() == version )
+                    {
+                        return snapshot;
+                    }
+                }
+
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,373 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.fortress.rest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.directory.fortress.core.ReviewMgr;
+import org.apache.directory.fortress.core.ReviewMgrFactory;
+import org.apache.directory.fortress.core.SecurityException;
+import org.apache.directory.fortress.core.model.FortRequest;
+import org.apache.directory.fortress.core.model.Role;
+import org.apache.directory.fortress.core.model.User;
+import org.apache.directory.fortress.core.util.Config;
+import org.apache.log4j.Logger;
+
+/**
+ * Per tenant, in memory sorted index of the user ids and role names, serving the limited findUsers and findRoles
+ * searches used for typeahead without a directory substring search.
+ * <p>
+ * An index is loaded from the directory in the background on its first use, the searches are sent to the directory
+ * until it is ready.  It is then kept current by the user and role adds and deletes done through this server, and
+ * reloaded after <code>rest.prefix.index.max.age.seconds</code> to pick the writes done directly in the directory.
+ * <p>
+ * A load cut short by the size or time limit of the directory, or reading at least
+ * <code>rest.prefix.index.directory.size.limit</code> names, is dropped: the searches of that tenant keep going to the
+ * directory, and the load is tried again after the max age.
+ * <p>
+ * The index is disabled unless <code>rest.prefix.index.enabled=true</code>.  Requests carrying an administrative
+ * session are always sent to the directory.
+ * <p>
+ * This class is thread safe.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+final class PrefixIndex implements PolicyChanges.Listener, RestMetrics.Source
+{
+    /** A logger for this class */
+    private static final Logger LOG = Logger.getLogger( PrefixIndex.class.getName() );
+
+    private static final String ENABLED = "rest.prefix.index.enabled";
+    private static final String MAX_AGE = "rest.prefix.index.max.age.seconds";
+    private static final String SIZE_LIMIT = "rest.prefix.index.directory.size.limit";
+
+    private static final PrefixIndex INSTANCE = new PrefixIndex();
+
+    private final boolean enabled;
+    private final long maxAgeNanos;
+
+    /** The size limit of the directory searches, 0 if unknown */
+    private final int sizeLimit;
+
+    /** The indexes, by tenant and type */
+    private final ConcurrentMap<String, Index> indexes = new ConcurrentHashMap<>();
+
+    /** Loads the indexes, out of the thread of the requests */
+    private final ExecutorService loader = Executors.newSingleThreadExecutor( runnable ->
+    {
+        Thread thread = new Thread( runnable, "fortress-rest-prefix-index" );
+        thread.setDaemon( true );
+
+        return thread;
+    } );
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong loads = new AtomicLong();
+    private final AtomicLong updates = new AtomicLong();
+    private final AtomicLong truncated = new AtomicLong();
+
+
+    private PrefixIndex()
+    {
+        Config config = Config.getInstance();
+        enabled = config.getBoolean( ENABLED, false );
+        maxAgeNanos = TimeUnit.SECONDS.toNanos( config.getInt( MAX_AGE, 300 ) );
+        sizeLimit = config.getInt( SIZE_LIMIT, 500 );
+        RestMetrics.register( "prefixIndex", this );
+    }
+
+
+    static PrefixIndex getInstance()
+    {
+        return INSTANCE;
+    }
+
+
+    /**
+     * Find the user ids or role names starting with a prefix, ignoring case.
+     *
+     * @param request The request, gives the tenant and the administrative session
+     * @param type {@link EntityType#USER} or {@link EntityType#ROLE}
+     * @param prefix The start of the names
+     * @param limit The max number of names returned
+     * @return The names in ascending order, or null if the search must be sent to the directory
+     */
+    List<String> find( FortRequest request, EntityType type, String prefix, int limit )
+    {
+        // A '*' is a wildcard for the directory
+        if ( !enabled || request.getSession() != null || ( prefix != null && prefix.indexOf( '*' ) >= 0 ) )
+        {
+            return null;
+        }
+
+        Index index = index( PolicyChanges.tenant( request.getContextId() ), type );
+        NavigableMap<String, String> names = index.names;
+
+        // A truncated index is not loaded again before its max age
+        if ( ( names == null && !index.truncated ) || System.nanoTime() - index.loaded > maxAgeNanos )
+        {
+            load( index );
+        }
+
+        if ( names == null )
+        {
+            misses.incrementAndGet();
+
+            return null;
+        }
+
+        hits.incrementAndGet();
+        String from = prefix == null ? "" : prefix.trim().toLowerCase( Locale.ENGLISH );
+        List<String> found = new ArrayList<>( Math.min( limit, 64 ) );
+
+        for ( String name : names.subMap( from, true, from + Character.MAX_VALUE, false ).values() )
+        {
+            if ( found.size() >= limit )
+            {
+                break;
+            }
+
+            found.add( name );
+        }
+
+        return found;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void changed( String tenant, EntityType type, String key, String name, ChangeOp op )
+    {
+        // Updates do not change user ids or role names
+        if ( key == null || op == ChangeOp.UPDATE || ( type != EntityType.USER && type != EntityType.ROLE ) )
+        {
+            return;
+        }
+
+        Index index = indexes.get( tenant + ':' + type );
+
+        if ( index == null )
+        {
+            return;
+        }
+
+        synchronized ( index )
+        {
+            index.changes++;
+
+            if ( index.names != null )
+            {
+                if ( op == ChangeOp.ADD )
+                {
+                    index.names.put( key, name );
+                }
+                else
+                {
+                    index.names.remove( key );
+                }
+            }
+        }
+
+        updates.incrementAndGet();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void collect( Map<String, Number> metrics )
+    {
+        long size = 0;
+
+        for ( Index index : indexes.values() )
+        {
+            NavigableMap<String, String> names = index.names;
+            size += names == null ? 0 : names.size();
+        }
+
+        metrics.put( "hits", hits.get() );
+        metrics.put( "misses", misses.get() );
+        metrics.put( "loads", loads.get() );
+        metrics.put( "updates", updates.get() );
+        metrics.put( "truncated", truncated.get() );
+        metrics.put( "size", size );
+    }
+
+
+    private void load( final Index index )
+    {
+        final long changes;
+
+        synchronized ( index )
+        {
+            if ( index.loading )
+            {
+                return;
+            }
+
+            index.loading = true;
+            changes = index.changes;
+        }
+
+        loader.execute( () -> load( index, changes ) );
+    }
+
+
+    /**
+     * Read all the names of an index from the directory.  Runs on the loader thread.
+     */
+    private void load( Index index, long changes )
+    {
+        ConcurrentSkipListMap<String, String> names = new ConcurrentSkipListMap<>();
+        long started = System.nanoTime();
+        int count = 0;
+        boolean exceeded = false;
+
+        try
+        {
+            ReviewMgr reviewMgr = ReviewMgrFactory.createInstance( index.tenant );
+
+            if ( index.type == EntityType.USER )
+            {
+                for ( User user : reviewMgr.findUsers( new User( "" ) ) )
+                {
+                    names.put( EntityType.key( user.getUserId() ), user.getUserId() );
+                    count++;
+                }
+            }
+            else
+            {
+                for ( Role role : reviewMgr.findRoles( "" ) )
+                {
+                    names.put( EntityType.key( role.getName() ), role.getName() );
+                    count++;
+                }
+            }
+
+            loads.incrementAndGet();
+            exceeded = SearchLimits.reached( count, sizeLimit );
+        }
+        catch ( SecurityException | RuntimeException e )
+        {
+            exceeded = SearchLimits.exceeded( e );
+
+            if ( !exceeded )
+            {
+                LOG.warn( "PrefixIndex could not load the " + index.type + " names of " + index.tenant, e );
+            }
+
+            names = null;
+        }
+
+        if ( exceeded )
+        {
+            LOG.warn( "PrefixIndex dropped the " + index.type + " names of " + index.tenant
+                + ", the directory may not have returned them all (" + count + " read, size limit " + sizeLimit
+                + "), its searches are sent to the directory" );
+            truncated.incrementAndGet();
+        }
+
+        synchronized ( index )
+        {
+            index.loading = false;
+
+            if ( exceeded )
+            {
+                index.names = null;
+                index.truncated = true;
+                index.loaded = started;
+            }
+            // A write during the load may be missing from what was read, the next search loads again
+            else if ( names != null && index.changes == changes )
+            {
+                index.names = names;
+                index.truncated = false;
+                index.loaded = started;
+            }
+        }
+    }
+
+
+    private Index index( String tenant, EntityType type )
+    {
+        String indexKey = tenant + ':' + type;
+        Index index = indexes.get( indexKey );
+
+        if ( index == null )
+        {
+            Index newIndex = new Index( tenant, type );
+            index = indexes.putIfAbsent( indexKey, newIndex );
+
+            if ( index == null )
+            {
+                index = newIndex;
+            }
+        }
+
+        return index;
+    }
+
+
+    /**
+     * The names of one type in one tenant, by normalized key.  The fields are guarded by the index monitor, the
+     * names map is read without it.
+     */
+    private static final class Index
+    {
+        private final String tenant;
+        private final EntityType type;
+
+        /** Null until loaded */
+        private volatile ConcurrentSkipListMap<String, String> names;
+
+        /** When the names were read, in nanoseconds */
+        private volatile long loaded;
+
+        /** The last load did not read all the names */
+        private volatile boolean truncated;
+
+        /** Number of adds and deletes received, detects the writes done while loading */
+        private long changes;
+
+        private boolean loading;
+
+
+        private Index( String tenant, EntityType type )
+        {
+            this.tenant = tenant;
+            this.type = type;
+        }
+    }
+}
@@ -54,6 +54,7 @@ class PswdPolicyMgrImpl extends AbstractMgrImpl
             PwPolicyMgr policyMgr = PwPolicyMgrFactory.createInstance( request.getContextId() );
             policyMgr.setAdmin( request.getSession() );
             policyMgr.add( inPolicy );
+            entityChanged( request, EntityType.PW_POLICY, ChangeOp.ADD, inPolicy.getName() );
             response.setEntity( inPolicy );
         }
         catch ( SecurityException se )
@@ -75,6 +76,7 @@ class PswdPolicyMgrImpl extends AbstractMgrImpl
             PwPolicyMgr policyMgr = PwPolicyMgrFactory.createInstance( request.getContextId() );
             policyMgr.setAdmin( request.getSession() );
             policyMgr.update( inPolicy );
+            entityChanged( request, EntityType.PW_POLICY, ChangeOp.UPDATE, inPolicy.getName() );
             response.setEntity( inPolicy );
         }
         catch ( SecurityException se )
@@ -96,6 +98,9 @@ class PswdPolicyMgrImpl extends AbstractMgrImpl
             PwPolicyMgr policyMgr = PwPolicyMgrFactory.createInstance( request.getContextId() );
             policyMgr.setAdmin( request.getSession() );
             policyMgr.delete( inPolicy );
+            entityChanged( request, EntityType.PW_POLICY, ChangeOp.DELETE, inPolicy.getName() );
+            // Users still referencing the policy are updated by the directory:
+            entitiesChanged( request, EntityType.USER );
             response.setEntity( inPolicy );
         }
         catch ( SecurityException se )
@@ -164,6 +169,7 @@ class PswdPolicyMgrImpl extends AbstractMgrImpl
             policyMgr.setAdmin( request.getSession() );
             String userId = request.getValue();
             policyMgr.updateUserPolicy( userId, inPolicy.getName() );
+            entityChanged( request, EntityType.USER, ChangeOp.UPDATE, userId );
         }
         catch ( SecurityException se )
         {
@@ -184,6 +190,7 @@ class PswdPolicyMgrImpl extends AbstractMgrImpl
             policyMgr.setAdmin( request.getSession() );
             String userId = request.getValue();
             policyMgr.deletePasswordPolicy( userId );
+            entityChanged( request, EntityType.USER, ChangeOp.UPDATE, userId );
         }
         catch ( SecurityException se )
         {
@@ -0,0 +1,144 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.fortress.rest;
+
+/**
+ * Error ids returned by the services that are specific to this server.  The values are kept away from the ranges
+ * used by {@link org.apache.directory.fortress.core.GlobalErrIds}.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public final class RestErrIds
+{
+    /**
+     * ************************************************************************************************************************************
+     * BEGIN CHANGE FEED ERRORS
+     * **************************************************************************************************************************************
+     */
+
+    /**
+     * The cursor given to the change feed is older than the oldest event kept, or was given by another server or
+     * before a restart: the client must reload its copy of the policy and restart from the cursor returned.
+     */
+    public static final int FEED_RESYNC = 20001;
+
+    /**
+     * The cursor given to the change feed is not one it returned.
+     */
+    public static final int FEED_INVALID_CURSOR = 20002;
+
+    /**
+     * The change feed already has its maximum number of waiting subscribers.
+     */
+    public static final int FEED_TOO_MANY_SUBSCRIBERS = 20003;
+
+    /**
+     * ************************************************************************************************************************************
+     * BEGIN MULTI-GET ERRORS
+     * **************************************************************************************************************************************
+     */
+
+    /**
+     * The keys given to a multi-get service are missing, malformed or too many.
+     */
+    public static final int MULTI_GET_INVALID_KEYS = 20101;
+
+    /**
+     * ************************************************************************************************************************************
+     * BEGIN AUTHENTICATION ERRORS
+     * **************************************************************************************************************************************
+     */
+
+    /**
+     * The authentication was rejected without checking the password, too many recent authentications of the same user
+     * from the same client failed.
+     */
+    public static final int LOGIN_THROTTLED = 20301;
+
+    /**
+     * ************************************************************************************************************************************
+     * BEGIN EXPORT ERRORS
+     * **************************************************************************************************************************************
+     */
+
+    /**
+     * The checkpoint given to resume a tenant export is not one returned by a previous export.
+     */
+    public static final int EXPORT_INVALID_CHECKPOINT = 20401;
+
+    /**
+     * The tenant to compare with is missing from the diff request.
+     */
+    public static final int DIFF_INVALID_TARGET = 20402;
+
+    /**
+     * ************************************************************************************************************************************
+     * BEGIN IMPORT ERRORS
+     * **************************************************************************************************************************************
+     */
+
+    /**
+     * The policy document given to the import service is not well formed, or one of its items is invalid.
+     */
+    public static final int IMPORT_INVALID_DOCUMENT = 20501;
+
+    /**
+     * Some items of the policy document could not be applied, they are listed in the response.
+     */
+    public static final int IMPORT_FAILED_ITEMS = 20502;
+
+    /**
+     * ************************************************************************************************************************************
+     * BEGIN ACCESS REVIEW ERRORS
+     * **************************************************************************************************************************************
+     */
+
+    /**
+     * The format requested from the access review service is neither CSV nor NDJSON.
+     */
+    public static final int ACCESS_REVIEW_INVALID_FORMAT = 20601;
+
+    /**
+     * ************************************************************************************************************************************
+     * BEGIN SIMULATION ERRORS
+     * **************************************************************************************************************************************
+     */
+
+    /**
+     * A change given to the policy simulation service is malformed, or names an unknown user, role or permission.
+     */
+    public static final int SIMULATION_INVALID_CHANGE = 20701;
+
+    /**
+     * ************************************************************************************************************************************
+     * BEGIN SESSION REGISTRY ERRORS
+     * **************************************************************************************************************************************
+     */
+
+    /**
+     * The request gives the sessionId of a session the session registry does not hold.
+     */
+    public static final int SESSION_NOT_FOUND = 20801;
+
+
+    private RestErrIds()
+    {
+    }
+}
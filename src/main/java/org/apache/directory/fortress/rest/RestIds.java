@@ -0,0 +1,73 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.fortress.rest;
+
+/**
+ * Paths of the Fortress Rest services that are specific to this server, i.e. not part of
+ * {@link org.apache.directory.fortress.core.rest.HttpIds}.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public final class RestIds
+{
+    /**
+     * ************************************************************************************************************************************
+     * BEGIN SERVER
+     * **************************************************************************************************************************************
+     */
+    public static final String REST_METRICS = "restMetrics";
+    public static final String POLICY_CHANGES = "policyChanges";
+    public static final String TENANT_EXPORT = "tenantExport";
+    public static final String TENANT_DIFF = "tenantDiff";
+    public static final String EXPORT_DIFF = "exportDiff";
+
+    /**
+     * ************************************************************************************************************************************
+     * BEGIN REVIEWMGR
+     * **************************************************************************************************************************************
+     */
+    public static final String POLICY_SNAPSHOT = "policySnapshot";
+    public static final String USERS_READ = "usersRead";
+    public static final String ROLES_READ = "rolesRead";
+    public static final String PERMS_READ = "permsRead";
+    public static final String ASSIGNED_USERS_COUNT = "userAsignedCount";
+    public static final String AUTHORIZED_USERS_COUNT = "userAuthzdCount";
+    public static final String ACCESS_REVIEW = "accessReview";
+    public static final String POLICY_SIMULATION = "policySimulation";
+
+    /**
+     * ************************************************************************************************************************************
+     * BEGIN AUDIT MGR
+     * **************************************************************************************************************************************
+     */
+    public static final String AUDIT_JOURNAL = "auditJournal";
+
+    /**
+     * ************************************************************************************************************************************
+     * BEGIN ADMINMGR
+     * **************************************************************************************************************************************
+     */
+    public static final String POLICY_IMPORT = "policyImport";
+
+
+    private RestIds()
+    {
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.fortress.rest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of the runtime counters kept by the Fortress Rest Server components (caches, queues, ...).  Each component
+ * registers itself once under a name, the values are collected on demand by the {@link FortressService#readMetrics}
+ * service.  This class is thread safe.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+final class RestMetrics
+{
+    /**
+     * Implemented by the components that publish counters.
+     */
+    interface Source
+    {
+        /**
+         * Add the current values of the counters to the given map.
+         *
+         * @param metrics The map to fill, keyed by counter name
+         */
+        void collect( Map<String, Number> metrics );
+    }
+
+    /** The registered sources, by name */
+    private static final Map<String, Source> SOURCES = new ConcurrentHashMap<>();
+
+
+    private RestMetrics()
+    {
+    }
+
+
+    /**
+     * Register a component.  A source registered under an existing name replaces the previous one.
+     *
+     * @param name The prefix added to the names of the component counters
+     * @param source The component
+     */
+    static void register( String name, Source source )
+    {
+        SOURCES.put( name, source );
+    }
+
+
+    /**
+     * Collect the counters of all the registered components.
+     *
+     * @return A sorted list of <code>name.counter=value</code> strings
+     */
+    static List<String> snapshot()
+    {
+        Map<String, Number> all = new TreeMap<>();
+
+        for ( Map.Entry<String, Source> entry : SOURCES.entrySet() )
+        {
+            Map<String, Number> metrics = new TreeMap<>();
+            entry.getValue().collect( metrics );
+
+            for ( Map.Entry<String, Number> metric : metrics.entrySet() )
+            {
+                all.put( entry.getKey() + "." + metric.getKey(), metric.getValue() );
+            }
+        }
+
+        List<String> values = new ArrayList<>( all.size() );
+
+        for ( Map.Entry<String, Number> metric : all.entrySet() )
+        {
+            values.add( metric.getKey() + "=" + metric.getValue() );
+        }
+
+        return values;
+    }
+
+
+    /**
+     * Compute a ratio, returning 0 instead of NaN when nothing was counted yet.
+     *
+     * @param part The numerator
+     * @param total The denominator
+     * @return part / total
+     */
+    static double ratio( long part, long total )
+    {
+        return total == 0 ? 0.0 : ( double ) part / total;
+    }
+}
@@ -21,7 +21,6 @@ package org.apache.directory.fortress.rest;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.directory.fortress.core.ReviewMgr;
-import org.apache.directory.fortress.core.ReviewMgrFactory;
 import org.apache.directory.fortress.core.SecurityException;
 import org.apache.directory.fortress.core.model.OrgUnit;
 import org.apache.directory.fortress.core.model.PermObj;
@@ -36,9 +35,19 @@ import org.apache.directory.fortress.core.model.FortRequest;
 import org.apache.directory.fortress.core.model.FortResponse;
 import org.apache.log4j.Logger;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
 /**
  * Utility for Fortress Rest Server.  This class is thread safe.
  *
@@ -55,10 +64,11 @@ class ReviewMgrImpl extends AbstractMgrImpl
         
         try
         {
-            Permission inPerm = (Permission) request.getEntity();
-            ReviewMgr reviewMgr = ReviewMgrFactory.createInstance( request.getContextId() );
+            final Permission inPerm = (Permission) request.getEntity();
+            final ReviewMgr reviewMgr = DirectoryRouter.getInstance().reviewMgr( request.getContextId() );
             reviewMgr.setAdmin( request.getSession() );
-            Permission retPerm = reviewMgr.readPermission( inPerm );
+            Permission retPerm = EntityCache.getInstance().read( request, EntityType.PERMISSION,
+                EntityType.key( inPerm ), () -> reviewMgr.readPermission( inPerm ) );
             response.setEntity( retPerm );
         }
         catch ( SecurityException se )
@@ -76,10 +86,11 @@ class ReviewMgrImpl extends AbstractMgrImpl
         
         try
         {
-            PermObj inObj = (PermObj) request.getEntity();
-            ReviewMgr reviewMgr = ReviewMgrFactory.createInstance( request.getContextId() );
+            final PermObj inObj = (PermObj) request.getEntity();
+            final ReviewMgr reviewMgr = DirectoryRouter.getInstance().reviewMgr( request.getContextId() );
             reviewMgr.setAdmin( request.getSession() );
-            PermObj retObj = reviewMgr.readPermObj( inObj );
+            PermObj retObj = EntityCache.getInstance().read( request, EntityType.PERM_OBJ,
+                EntityType.key( inObj ), () -> reviewMgr.readPermObj( inObj ) );
             response.setEntity( retObj );
         }
         catch ( SecurityException se )
@@ -97,7 +108,7 @@ class ReviewMgrImpl extends AbstractMgrImpl
         
         try
         {
-            ReviewMgr reviewMgr = ReviewMgrFactory.createInstance( request.getContextId() );
+            ReviewMgr reviewMgr = DirectoryRouter.getInstance().reviewMgr( request.getContextId() );
             reviewMgr.setAdmin( request.getSession() );
             Permission inPerm = (Permission) request.getEntity();
             List<Permission> perms = reviewMgr.findPermissions( inPerm );
@@ -118,7 +129,7 @@ class ReviewMgrImpl extends AbstractMgrImpl
 
         try
         {
-            ReviewMgr reviewMgr = ReviewMgrFactory.createInstance( request.getContextId() );
+            ReviewMgr reviewMgr = DirectoryRouter.getInstance().reviewMgr( request.getContextId() );
             reviewMgr.setAdmin( request.getSession() );
             PermObj inObj = (PermObj) request.getEntity();
             List<Permission> perms = reviewMgr.findPermsByObj( inObj );
@@ -139,7 +150,7 @@ class ReviewMgrImpl extends AbstractMgrImpl
 
         try
         {
-            ReviewMgr reviewMgr = ReviewMgrFactory.createInstance( request.getContextId() );
+            ReviewMgr reviewMgr = DirectoryRouter.getInstance().reviewMgr( request.getContextId() );
             reviewMgr.setAdmin( request.getSession() );
             Permission inPerm = (Permission) request.getEntity();
             List<Permission> perms = reviewMgr.findAnyPermissions( inPerm );
@@ -160,7 +171,7 @@ class ReviewMgrImpl extends AbstractMgrImpl
         
         try
         {
-            ReviewMgr reviewMgr = ReviewMgrFactory.createInstance( request.getContextId() );
+            ReviewMgr reviewMgr = DirectoryRouter.getInstance().reviewMgr( request.getContextId() );
             reviewMgr.setAdmin( request.getSession() );
             PermObj inObj = (PermObj) request.getEntity();
             List<PermObj> objs = null;
@@ -191,10 +202,11 @@ class ReviewMgrImpl extends AbstractMgrImpl
         
         try
         {
-            ReviewMgr reviewMgr = ReviewMgrFactory.createInstance( request.getContextId() );
+            final ReviewMgr reviewMgr = DirectoryRouter.getInstance().reviewMgr( request.getContextId() );
             reviewMgr.setAdmin( request.getSession() );
-            Role inRole = (Role) request.getEntity();
-            Role outRole = reviewMgr.readRole( inRole );
+            final Role inRole = (Role) request.getEntity();
+            Role outRole = EntityCache.getInstance().read( request, EntityType.ROLE,
+                EntityType.key( inRole.getName() ), () -> reviewMgr.readRole( inRole ) );
             response.setEntity( outRole );
         }
         catch ( SecurityException se )
@@ -212,13 +224,20 @@ class ReviewMgrImpl extends AbstractMgrImpl
         
         try
         {
-            ReviewMgr reviewMgr = ReviewMgrFactory.createInstance( request.getContextId() );
+            ReviewMgr reviewMgr = DirectoryRouter.getInstance().reviewMgr( request.getContextId() );
             reviewMgr.setAdmin( request.getSession() );
             String searchValue = request.getValue();
             
             if ( request.getLimit() != null )
             {
-                List<String> retRoles = reviewMgr.findRoles( searchValue, request.getLimit() );
+                List<String> retRoles = PrefixIndex.getInstance().find( request, EntityType.ROLE, searchValue,
+                    request.getLimit() );
+
+                if ( retRoles == null )
+                {
+                    retRoles = reviewMgr.findRoles( searchValue, request.getLimit() );
+                }
+
                 response.setValues( retRoles );
             }
             else
@@ -242,10 +261,11 @@ class ReviewMgrImpl extends AbstractMgrImpl
         
         try
         {
-            ReviewMgr reviewMgr = ReviewMgrFactory.createInstance( request.getContextId() );
+            final ReviewMgr reviewMgr = DirectoryRouter.getInstance().reviewMgr( request.getContextId() );
             reviewMgr.setAdmin( request.getSession() );
-            User inUser = (User) request.getEntity();
-            User outUser = reviewMgr.readUser( inUser );
+            final User inUser = (User) request.getEntity();
+            User outUser = EntityCache.getInstance().read( request, EntityType.USER,
+                EntityType.key( inUser.getUserId() ), () -> reviewMgr.readUser( inUser ) );
             response.setEntity( outUser );
         }
         catch ( SecurityException se )
@@ -263,13 +283,20 @@ class ReviewMgrImpl extends AbstractMgrImpl
         
         try
         {
-            ReviewMgr reviewMgr = ReviewMgrFactory.createInstance( request.getContextId() );
+            ReviewMgr reviewMgr = DirectoryRouter.getInstance().reviewMgr( request.getContextId() );
             reviewMgr.setAdmin( request.getSession() );
             User inUser = (User) request.getEntity();
             
             if ( request.getLimit() != null )
             {
-                List<String> retUsers = reviewMgr.findUsers( inUser, request.getLimit() );
+                List<String> retUsers = PrefixIndex.getInstance().find( request, EntityType.USER, inUser.getUserId(),
+                    request.getLimit() );
+
+                if ( retUsers == null )
+                {
+                    retUsers = reviewMgr.findUsers( inUser, request.getLimit() );
+                }
+
                 response.setValues( retUsers );
             }
             else
@@ -303,18 +330,22 @@ class ReviewMgrImpl extends AbstractMgrImpl
         
         try
         {
-            ReviewMgr reviewMgr = ReviewMgrFactory.createInstance( request.getContextId() );
+            final ReviewMgr reviewMgr = DirectoryRouter.getInstance().reviewMgr( request.getContextId() );
             reviewMgr.setAdmin( request.getSession() );
-            Role inRole = (Role) request.getEntity();
+            final Role inRole = (Role) request.getEntity();
+            final Integer limit = request.getLimit();
             
-            if ( request.getLimit() != null )
+            if ( limit != null )
             {
-                List<String> retUsers = reviewMgr.assignedUsers( inRole, request.getLimit() );
+                List<String> retUsers = SingleFlight.getInstance().execute( request, "assignedUserIds",
+                    EntityType.key( inRole.getName(), String.valueOf( limit ) ),
+                    () -> reviewMgr.assignedUsers( inRole, limit ) );
                 response.setValues( retUsers );
             }
             else
             {
-                List<User> users = reviewMgr.assignedUsers( inRole );
+                List<User> users = SingleFlight.getInstance().execute( request, "assignedUsers",
+                    EntityType.key( inRole.getName() ), () -> reviewMgr.assignedUsers( inRole ) );
                 response.setEntities( users );
             }
         }
@@ -333,7 +364,7 @@ class ReviewMgrImpl extends AbstractMgrImpl
 
         try
         {
-            ReviewMgr reviewMgr = ReviewMgrFactory.createInstance( request.getContextId() );
+            ReviewMgr reviewMgr = DirectoryRouter.getInstance().reviewMgr( request.getContextId() );
             reviewMgr.setAdmin( request.getSession() );
             Role inRole = (Role) request.getEntity();
             RoleConstraint inConstraint = (RoleConstraint) request.getEntity2();
@@ -355,7 +386,7 @@ class ReviewMgrImpl extends AbstractMgrImpl
 
         try
         {
-            ReviewMgr reviewMgr = ReviewMgrFactory.createInstance( request.getContextId() );
+            ReviewMgr reviewMgr = DirectoryRouter.getInstance().reviewMgr( request.getContextId() );
             reviewMgr.setAdmin( request.getSession() );
             Role inRole = (Role) request.getEntity();
             RoleConstraint inConstraint = (RoleConstraint) request.getEntity2();
@@ -377,7 +408,7 @@ class ReviewMgrImpl extends AbstractMgrImpl
         
         try
         {
-            ReviewMgr reviewMgr = ReviewMgrFactory.createInstance( request.getContextId() );
+            ReviewMgr reviewMgr = DirectoryRouter.getInstance().reviewMgr( request.getContextId() );
             reviewMgr.setAdmin( request.getSession() );
             
             if ( StringUtils.isNotEmpty( request.getValue() ) )
@@ -408,7 +439,7 @@ class ReviewMgrImpl extends AbstractMgrImpl
         
         try
         {
-            ReviewMgr reviewMgr = ReviewMgrFactory.createInstance( request.getContextId() );
+            ReviewMgr reviewMgr = DirectoryRouter.getInstance().reviewMgr( request.getContextId() );
             reviewMgr.setAdmin( request.getSession() );
             Role inRole = (Role) request.getEntity();
             List<User> users = reviewMgr.authorizedUsers( inRole );
@@ -429,10 +460,11 @@ class ReviewMgrImpl extends AbstractMgrImpl
         
         try
         {
-            ReviewMgr reviewMgr = ReviewMgrFactory.createInstance( request.getContextId() );
+            final ReviewMgr reviewMgr = DirectoryRouter.getInstance().reviewMgr( request.getContextId() );
             reviewMgr.setAdmin( request.getSession() );
-            User inUser = (User) request.getEntity();
-            Set<String> outSet = reviewMgr.authorizedRoles( inUser );
+            final User inUser = (User) request.getEntity();
+            Set<String> outSet = SingleFlight.getInstance().execute( request, "authorizedRoles",
+                EntityType.key( inUser.getUserId() ), () -> reviewMgr.authorizedRoles( inUser ) );
             response.setValueSet( outSet );
         }
         catch ( SecurityException se )
@@ -450,7 +482,7 @@ class ReviewMgrImpl extends AbstractMgrImpl
         
         try
         {
-            ReviewMgr reviewMgr = ReviewMgrFactory.createInstance( request.getContextId() );
+            ReviewMgr reviewMgr = DirectoryRouter.getInstance().reviewMgr( request.getContextId() );
             reviewMgr.setAdmin( request.getSession() );
             Permission inPerm = (Permission) request.getEntity();
             List<String> outList = reviewMgr.permissionRoles( inPerm );
@@ -471,7 +503,7 @@ class ReviewMgrImpl extends AbstractMgrImpl
         
         try
         {
-            ReviewMgr reviewMgr = ReviewMgrFactory.createInstance( request.getContextId() );
+            ReviewMgr reviewMgr = DirectoryRouter.getInstance().reviewMgr( request.getContextId() );
             reviewMgr.setAdmin( request.getSession() );
             Permission inPerm = (Permission) request.getEntity();
             Set<String> outSet = reviewMgr.authorizedPermissionRoles( inPerm );
@@ -492,7 +524,7 @@ class ReviewMgrImpl extends AbstractMgrImpl
         
         try
         {
-            ReviewMgr reviewMgr = ReviewMgrFactory.createInstance( request.getContextId() );
+            ReviewMgr reviewMgr = DirectoryRouter.getInstance().reviewMgr( request.getContextId() );
             Permission inPerm = (Permission) request.getEntity();
             List<String> outList = reviewMgr.permissionUsers( inPerm );
             response.setValues( outList );
@@ -512,7 +544,7 @@ class ReviewMgrImpl extends AbstractMgrImpl
         
         try
         {
-            ReviewMgr reviewMgr = ReviewMgrFactory.createInstance( request.getContextId() );
+            ReviewMgr reviewMgr = DirectoryRouter.getInstance().reviewMgr( request.getContextId() );
             Permission inPerm = (Permission) request.getEntity();
             Set<String> outSet = reviewMgr.authorizedPermissionUsers( inPerm );
             response.setValueSet( outSet );
@@ -532,7 +564,7 @@ class ReviewMgrImpl extends AbstractMgrImpl
         
         try
         {
-            ReviewMgr reviewMgr = ReviewMgrFactory.createInstance( request.getContextId() );
+            ReviewMgr reviewMgr = DirectoryRouter.getInstance().reviewMgr( request.getContextId() );
             reviewMgr.setAdmin( request.getSession() );
             User inUser = (User) request.getEntity();
             List<Permission> perms = reviewMgr.userPermissions( inUser );
@@ -553,11 +585,13 @@ class ReviewMgrImpl extends AbstractMgrImpl
         
         try
         {
-            ReviewMgr reviewMgr = ReviewMgrFactory.createInstance( request.getContextId() );
+            final ReviewMgr reviewMgr = DirectoryRouter.getInstance().reviewMgr( request.getContextId() );
             reviewMgr.setAdmin( request.getSession() );
-            Role inRole = (Role) request.getEntity();
-            boolean noInheritance = request.getIsFlag();
-            List<Permission> perms = reviewMgr.rolePermissions( inRole, noInheritance );
+            final Role inRole = (Role) request.getEntity();
+            final boolean noInheritance = request.getIsFlag();
+            List<Permission> perms = SingleFlight.getInstance().execute( request, "rolePermissions",
+                EntityType.key( inRole.getName(), String.valueOf( noInheritance ) ),
+                () -> reviewMgr.rolePermissions( inRole, noInheritance ) );
             response.setEntities( perms );
         }
         catch ( SecurityException se )
@@ -575,10 +609,16 @@ class ReviewMgrImpl extends AbstractMgrImpl
         
         try
         {
-            ReviewMgr reviewMgr = ReviewMgrFactory.createInstance( request.getContextId() );
+            ReviewMgr reviewMgr = DirectoryRouter.getInstance().reviewMgr( request.getContextId() );
             reviewMgr.setAdmin( request.getSession() );
             Role inRole = (Role) request.getEntity();
-            List<SDSet> outSets = reviewMgr.ssdRoleSets( inRole );
+            List<SDSet> outSets = SdIndex.getInstance().roleSets( request, EntityType.SSD, inRole.getName() );
+
+            if ( outSets == null )
+            {
+                outSets = reviewMgr.ssdRoleSets( inRole );
+            }
+
             response.setEntities( outSets );
         }
         catch ( SecurityException se )
@@ -596,7 +636,7 @@ class ReviewMgrImpl extends AbstractMgrImpl
         
         try
         {
-            ReviewMgr reviewMgr = ReviewMgrFactory.createInstance( request.getContextId() );
+            ReviewMgr reviewMgr = DirectoryRouter.getInstance().reviewMgr( request.getContextId() );
             reviewMgr.setAdmin( request.getSession() );
             SDSet inSet = (SDSet) request.getEntity();
             SDSet outSet = reviewMgr.ssdRoleSet( inSet );
@@ -617,7 +657,7 @@ class ReviewMgrImpl extends AbstractMgrImpl
         
         try
         {
-            ReviewMgr reviewMgr = ReviewMgrFactory.createInstance( request.getContextId() );
+            ReviewMgr reviewMgr = DirectoryRouter.getInstance().reviewMgr( request.getContextId() );
             SDSet inSet = (SDSet) request.getEntity();
             Set<String> outSet = reviewMgr.ssdRoleSetRoles( inSet );
             response.setValueSet( outSet );
@@ -637,7 +677,7 @@ class ReviewMgrImpl extends AbstractMgrImpl
         
         try
         {
-            ReviewMgr reviewMgr = ReviewMgrFactory.createInstance( request.getContextId() );
+            ReviewMgr reviewMgr = DirectoryRouter.getInstance().reviewMgr( request.getContextId() );
             SDSet inSet = (SDSet) request.getEntity();
             int cardinality = reviewMgr.ssdRoleSetCardinality( inSet );
             inSet.setCardinality( cardinality );
@@ -658,7 +698,7 @@ class ReviewMgrImpl extends AbstractMgrImpl
         
         try
         {
-            ReviewMgr reviewMgr = ReviewMgrFactory.createInstance( request.getContextId() );
+            ReviewMgr reviewMgr = DirectoryRouter.getInstance().reviewMgr( request.getContextId() );
             reviewMgr.setAdmin( request.getSession() );
             SDSet inSdSet = (SDSet) request.getEntity();
             List<SDSet> outSets = reviewMgr.ssdSets( inSdSet );
@@ -679,10 +719,16 @@ class ReviewMgrImpl extends AbstractMgrImpl
         
         try
         {
-            ReviewMgr reviewMgr = ReviewMgrFactory.createInstance( request.getContextId() );
+            ReviewMgr reviewMgr = DirectoryRouter.getInstance().reviewMgr( request.getContextId() );
             reviewMgr.setAdmin( request.getSession() );
             Role inRole = (Role) request.getEntity();
-            List<SDSet> outSets = reviewMgr.dsdRoleSets( inRole );
+            List<SDSet> outSets = SdIndex.getInstance().roleSets( request, EntityType.DSD, inRole.getName() );
+
+            if ( outSets == null )
+            {
+                outSets = reviewMgr.dsdRoleSets( inRole );
+            }
+
             response.setEntities( outSets );
         }
         catch ( SecurityException se )
@@ -700,7 +746,7 @@ class ReviewMgrImpl extends AbstractMgrImpl
         
         try
         {
-            ReviewMgr reviewMgr = ReviewMgrFactory.createInstance( request.getContextId() );
+            ReviewMgr reviewMgr = DirectoryRouter.getInstance().reviewMgr( request.getContextId() );
             reviewMgr.setAdmin( request.getSession() );
             SDSet inSet = (SDSet) request.getEntity();
             SDSet outSet = reviewMgr.dsdRoleSet( inSet );
@@ -721,7 +767,7 @@ class ReviewMgrImpl extends AbstractMgrImpl
         
         try
         {
-            ReviewMgr reviewMgr = ReviewMgrFactory.createInstance( request.getContextId() );
+            ReviewMgr reviewMgr = DirectoryRouter.getInstance().reviewMgr( request.getContextId() );
             SDSet inSet = (SDSet) request.getEntity();
             Set<String> outSet = reviewMgr.dsdRoleSetRoles( inSet );
             response.setValueSet( outSet );
@@ -741,7 +787,7 @@ class ReviewMgrImpl extends AbstractMgrImpl
         
         try
         {
-            ReviewMgr reviewMgr = ReviewMgrFactory.createInstance( request.getContextId() );
+            ReviewMgr reviewMgr = DirectoryRouter.getInstance().reviewMgr( request.getContextId() );
             SDSet inSet = (SDSet) request.getEntity();
             int cardinality = reviewMgr.dsdRoleSetCardinality( inSet );
             inSet.setCardinality( cardinality );
@@ -762,7 +808,7 @@ class ReviewMgrImpl extends AbstractMgrImpl
 
         try
         {
-            ReviewMgr reviewMgr = ReviewMgrFactory.createInstance( request.getContextId() );
+            ReviewMgr reviewMgr = DirectoryRouter.getInstance().reviewMgr( request.getContextId() );
             reviewMgr.setAdmin( request.getSession() );
             SDSet inSdSet = (SDSet) request.getEntity();
             List<SDSet> outSets = reviewMgr.dsdSets( inSdSet );
@@ -783,7 +829,7 @@ class ReviewMgrImpl extends AbstractMgrImpl
 
         try
         {
-            ReviewMgr reviewMgr = ReviewMgrFactory.createInstance( request.getContextId() );
+            ReviewMgr reviewMgr = DirectoryRouter.getInstance().reviewMgr( request.getContextId() );
             reviewMgr.setAdmin( request.getSession() );
             User inUser = (User) request.getEntity();
             Permission inPerm = (Permission) request.getEntity2();
@@ -806,7 +852,7 @@ class ReviewMgrImpl extends AbstractMgrImpl
 
         try
         {
-            ReviewMgr reviewMgr = ReviewMgrFactory.createInstance( request.getContextId() );
+            ReviewMgr reviewMgr = DirectoryRouter.getInstance().reviewMgr( request.getContextId() );
             reviewMgr.setAdmin( request.getSession() );
             Role inRole = (Role) request.getEntity();
             boolean isReplace = request.getIsFlag();
@@ -828,7 +874,7 @@ class ReviewMgrImpl extends AbstractMgrImpl
 
         try
         {
-            ReviewMgr reviewMgr = ReviewMgrFactory.createInstance( request.getContextId() );
+            ReviewMgr reviewMgr = DirectoryRouter.getInstance().reviewMgr( request.getContextId() );
             reviewMgr.setAdmin( request.getSession() );
             PermissionAttributeSet inSet = (PermissionAttributeSet) request.getEntity();
             PermissionAttributeSet outSet = reviewMgr.readPermAttributeSet( inSet );
@@ -842,4 +888,305 @@ class ReviewMgrImpl extends AbstractMgrImpl
         return response;
     }
 
-}
\ No newline at end of file
+
+    /* No qualifier */ FortResponse assignedUsersCount( FortRequest request )
+    {
+        FortResponse response = createResponse();
+
+        try
+        {
+            ReviewMgr reviewMgr = DirectoryRouter.getInstance().reviewMgr( request.getContextId() );
+            reviewMgr.setAdmin( request.getSession() );
+            Role inRole = (Role) request.getEntity();
+            // Only the user ids are read from the directory
+            List<String> userIds = reviewMgr.assignedUsers( inRole, Integer.MAX_VALUE );
+            setCount( response, userIds.size() );
+        }
+        catch ( SecurityException se )
+        {
+            createError( response, LOG, se );
+        }
+
+        return response;
+    }
+
+
+    /* No qualifier */ FortResponse authorizedUsersCount( FortRequest request )
+    {
+        FortResponse response = createResponse();
+
+        try
+        {
+            ReviewMgr reviewMgr = DirectoryRouter.getInstance().reviewMgr( request.getContextId() );
+            reviewMgr.setAdmin( request.getSession() );
+            Role inRole = (Role) request.getEntity();
+            // The ids of the users assigned to the role and to the roles inheriting it, not the users
+            Set<String> userIds = new HashSet<>();
+
+            for ( String userId : reviewMgr.assignedUsers( inRole, Integer.MAX_VALUE ) )
+            {
+                userIds.add( EntityType.key( userId ) );
+            }
+
+            for ( String roleName : inheriting( reviewMgr.findRoles( "" ), inRole.getName() ) )
+            {
+                for ( String userId : reviewMgr.assignedUsers( new Role( roleName ), Integer.MAX_VALUE ) )
+                {
+                    userIds.add( EntityType.key( userId ) );
+                }
+            }
+
+            setCount( response, userIds.size() );
+        }
+        catch ( SecurityException se )
+        {
+            createError( response, LOG, se );
+        }
+
+        return response;
+    }
+
+
+    /* No qualifier */ FortResponse readUsersM( FortRequest request )
+    {
+        FortResponse response = createResponse();
+
+        try
+        {
+            final ReviewMgr reviewMgr = DirectoryRouter.getInstance().reviewMgr( request.getContextId() );
+            reviewMgr.setAdmin( request.getSession() );
+            MultiGet.read( request, response, EntityType.USER, 1, parts -> EntityType.key( parts ),
+                parts -> reviewMgr.readUser( new User( parts[0] ) ) );
+        }
+        catch ( SecurityException se )
+        {
+            createError( response, LOG, se );
+        }
+
+        return response;
+    }
+
+
+    /* No qualifier */ FortResponse readRolesM( FortRequest request )
+    {
+        FortResponse response = createResponse();
+
+        try
+        {
+            final ReviewMgr reviewMgr = DirectoryRouter.getInstance().reviewMgr( request.getContextId() );
+            reviewMgr.setAdmin( request.getSession() );
+            MultiGet.read( request, response, EntityType.ROLE, 1, parts -> EntityType.key( parts ),
+                parts -> reviewMgr.readRole( new Role( parts[0] ) ) );
+        }
+        catch ( SecurityException se )
+        {
+            createError( response, LOG, se );
+        }
+
+        return response;
+    }
+
+
+    /* No qualifier */ FortResponse readPermissionsM( FortRequest request )
+    {
+        FortResponse response = createResponse();
+
+        try
+        {
+            final ReviewMgr reviewMgr = DirectoryRouter.getInstance().reviewMgr( request.getContextId() );
+            reviewMgr.setAdmin( request.getSession() );
+            final boolean isAdmin = request.getIsFlag();
+            MultiGet.read( request, response, EntityType.PERMISSION, 3,
+                parts -> EntityType.key( permission( parts, isAdmin ) ),
+                parts -> reviewMgr.readPermission( permission( parts, isAdmin ) ) );
+        }
+        catch ( SecurityException se )
+        {
+            createError( response, LOG, se );
+        }
+
+        return response;
+    }
+
+
+    /**
+     * List the roles inheriting a role, directly or not.
+     *
+     * @param roles All the roles, with their parents
+     * @param roleName The inherited role
+     * @return The names of the roles inheriting it, without it
+     */
+    static Set<String> inheriting( List<Role> roles, String roleName )
+    {
+        Map<String, List<String>> children = new HashMap<>();
+
+        for ( Role role : roles )
+        {
+            if ( role.getParents() != null )
+            {
+                for ( String parent : role.getParents() )
+                {
+                    children.computeIfAbsent( EntityType.key( parent ), key -> new ArrayList<>() )
+                        .add( role.getName() );
+                }
+            }
+        }
+
+        Set<String> keys = new HashSet<>();
+        Set<String> inheriting = new LinkedHashSet<>();
+        Deque<String> pending = new ArrayDeque<>();
+        keys.add( EntityType.key( roleName ) );
+        pending.add( roleName );
+
+        // Breadth first, a hierarchy may have several paths to a role
+        while ( !pending.isEmpty() )
+        {
+            List<String> direct = children.get( EntityType.key( pending.poll() ) );
+
+            if ( direct != null )
+            {
+                for ( String child : direct )
+                {
+                    if ( keys.add( EntityType.key( child ) ) )
+                    {
+                        inheriting.add( child );
+                        pending.add( child );
+                    }
+                }
+            }
+        }
+
+        return inheriting;
+    }
+
+
+    private static Permission permission( String[] parts, boolean isAdmin )
+    {
+        Permission perm = new Permission( parts[0], parts[1], parts[2] );
+        perm.setAdmin( isAdmin );
+
+        return perm;
+    }
+
+
+    /* No qualifier */ Response policySnapshot( FortRequest request )
+    {
+        FortResponse response = createResponse();
+
+        try
+        {
+            ReviewMgr reviewMgr = DirectoryRouter.getInstance().reviewMgr( request.getContextId() );
+            reviewMgr.setAdmin( request.getSession() );
+            byte[] snapshot = PolicySnapshots.getInstance().export( request, reviewMgr );
+
+            return Response.ok( snapshot, MediaType.APPLICATION_OCTET_STREAM_TYPE ).build();
+        }
+        catch ( SecurityException se )
+        {
+            createError( response, LOG, se );
+        }
+
+        return Response.status( response.getHttpStatus() ).entity( response ).build();
+    }
+
+
+    /* No qualifier */ Response accessReview( FortRequest request )
+    {
+        FortResponse response = createResponse();
+
+        try
+        {
+            ReviewMgr reviewMgr = DirectoryRouter.getInstance().reviewMgr( request.getContextId() );
+            reviewMgr.setAdmin( request.getSession() );
+            AccessReview review = AccessReview.create( reviewMgr, request.getValue() );
+
+            return Response.ok( review, review.getMediaType() ).build();
+        }
+        catch ( SecurityException se )
+        {
+            createError( response, LOG, se );
+        }
+
+        return Response.status( response.getHttpStatus() ).entity( response ).build();
+    }
+
+
+    /* No qualifier */ FortResponse simulatePolicy( FortRequest request )
+    {
+        FortResponse response = createResponse();
+
+        try
+        {
+            response.setValues( PolicySimulation.getInstance().simulate( request ) );
+        }
+        catch ( SecurityException se )
+        {
+            createError( response, LOG, se );
+        }
+
+        return response;
+    }
+
+
+    /**
+     * ************************************************************************************************************************************
+     * BEGIN ETAGS
+     * The stamps of the reads are computed from {@link EntityVersions} without reading the directory.  They are not
+     * computed for requests carrying an administrative session, whose ARBAC checks must not be skipped.
+     * **************************************************************************************************************************************
+     */
+
+    /* No qualifier */ String readRoleStamp( FortRequest request )
+    {
+        if ( request.getSession() != null || !( request.getEntity() instanceof Role ) )
+        {
+            return null;
+        }
+
+        String name = EntityType.key( ( (Role) request.getEntity() ).getName() );
+
+        return EntityVersions.getInstance().stamp( request.getContextId(), EntityType.ROLE, name, null );
+    }
+
+
+    /* No qualifier */ String assignedUsersStamp( FortRequest request )
+    {
+        if ( request.getSession() != null || !( request.getEntity() instanceof Role ) )
+        {
+            return null;
+        }
+
+        String name = EntityType.key( ( (Role) request.getEntity() ).getName() );
+
+        return EntityVersions.getInstance().stamp( request.getContextId(), EntityType.ROLE, name,
+            String.valueOf( request.getLimit() ), EntityType.USER );
+    }
+
+
+    /* No qualifier */ String rolePermissionsStamp( FortRequest request )
+    {
+        if ( request.getSession() != null || !( request.getEntity() instanceof Role ) )
+        {
+            return null;
+        }
+
+        // Inherited permissions depend on the whole hierarchy, not only on this role
+        String name = EntityType.key( ( (Role) request.getEntity() ).getName() );
+
+        return EntityVersions.getInstance().stamp( request.getContextId(), null, name,
+            String.valueOf( request.getIsFlag() ), EntityType.ROLE, EntityType.PERMISSION );
+    }
+
+
+    /* No qualifier */ String ssdSetsStamp( FortRequest request )
+    {
+        if ( request.getSession() != null || !( request.getEntity() instanceof SDSet ) )
+        {
+            return null;
+        }
+
+        String name = EntityType.key( ( (SDSet) request.getEntity() ).getName() );
+
+        return EntityVersions.getInstance().stamp( request.getContextId(), null, name, null, EntityType.SSD );
+    }
+}
@@ -0,0 +1,605 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.fortress.rest;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.directory.fortress.core.ReviewMgr;
+import org.apache.directory.fortress.core.ReviewMgrFactory;
+import org.apache.directory.fortress.core.SecurityException;
+import org.apache.directory.fortress.core.model.FortRequest;
+import org.apache.directory.fortress.core.model.Role;
+import org.apache.directory.fortress.core.model.SDSet;
+import org.apache.directory.fortress.core.model.Session;
+import org.apache.directory.fortress.core.model.UserRole;
+import org.apache.directory.fortress.core.util.Config;
+import org.apache.log4j.Logger;
+
+/**
+ * Per tenant, in memory separation of duty matrix: for every role the SSD and DSD sets it belongs to, directly or
+ * through its ascendants, as bitsets over the sets of the tenant.
+ * <p>
+ * It serves the ssdRoleSets and dsdRoleSets reviews, and rejects the role activations that break a DSD set before
+ * the session is sent to the directory.  Only the direct memberships of the active roles are counted for that check,
+ * a violation found that way is always a violation for fortress-core, the activations that pass are still checked by
+ * fortress-core with the inherited roles.
+ * <p>
+ * A matrix is built in the background on its first use, the requests are sent to the directory until it is ready.
+ * It is dropped and rebuilt after the SSD, DSD and role writes done through this server, and after
+ * <code>rest.sd.index.max.age.seconds</code> to pick the writes done directly in the directory.
+ * <p>
+ * The index is disabled unless <code>rest.sd.index.enabled=true</code>.  Requests carrying an administrative session
+ * are always sent to the directory.
+ * <p>
+ * This class is thread safe.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+final class SdIndex implements PolicyChanges.Listener, RestMetrics.Source
+{
+    /** A logger for this class */
+    private static final Logger LOG = Logger.getLogger( SdIndex.class.getName() );
+
+    private static final String ENABLED = "rest.sd.index.enabled";
+    private static final String MAX_AGE = "rest.sd.index.max.age.seconds";
+
+    private static final SdIndex INSTANCE = new SdIndex();
+
+    private final boolean enabled;
+    private final long maxAgeNanos;
+
+    /** The matrices, by tenant */
+    private final ConcurrentMap<String, Holder> holders = new ConcurrentHashMap<>();
+
+    /** Builds the matrices, out of the thread of the requests */
+    private final ExecutorService loader = Executors.newSingleThreadExecutor( runnable ->
+    {
+        Thread thread = new Thread( runnable, "fortress-rest-sd-index" );
+        thread.setDaemon( true );
+
+        return thread;
+    } );
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong loads = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+    private final AtomicLong dsdRejections = new AtomicLong();
+
+
+    private SdIndex()
+    {
+        Config config = Config.getInstance();
+        enabled = config.getBoolean( ENABLED, false );
+        maxAgeNanos = TimeUnit.SECONDS.toNanos( config.getInt( MAX_AGE, 300 ) );
+        RestMetrics.register( "sdIndex", this );
+    }
+
+
+    static SdIndex getInstance()
+    {
+        return INSTANCE;
+    }
+
+
+    /**
+     * Return the SSD or DSD sets a role belongs to, directly or through its ascendants.
+     *
+     * @param request The request, gives the tenant and the administrative session
+     * @param type {@link EntityType#SSD} or {@link EntityType#DSD}
+     * @param roleName The name of the role
+     * @return The sets, or null if the review must be sent to the directory
+     */
+    List<SDSet> roleSets( FortRequest request, EntityType type, String roleName )
+    {
+        if ( request.getSession() != null )
+        {
+            return null;
+        }
+
+        Matrix matrix = matrix( request.getContextId() );
+
+        if ( matrix == null )
+        {
+            return null;
+        }
+
+        Integer roleId = matrix.roleIds.get( EntityType.key( roleName ) );
+
+        // Let the directory report the unknown roles
+        if ( roleId == null || !matrix.roles.get( roleId ) )
+        {
+            misses.incrementAndGet();
+
+            return null;
+        }
+
+        hits.incrementAndGet();
+        boolean ssd = type == EntityType.SSD;
+        BitSet bits = ssd ? matrix.ssdClosure[roleId] : matrix.dsdClosure[roleId];
+        List<SDSet> sets = ssd ? matrix.ssdSets : matrix.dsdSets;
+        List<SDSet> found = new ArrayList<>( bits.cardinality() );
+
+        for ( int set = bits.nextSetBit( 0 ); set >= 0; set = bits.nextSetBit( set + 1 ) )
+        {
+            found.add( sets.get( set ) );
+        }
+
+        return found;
+    }
+
+
+    /**
+     * Check whether activating a role in a session breaks a DSD set, counting the directly active roles only.
+     *
+     * @param contextId The tenant
+     * @param session The user session, gives the active roles
+     * @param roleName The role to activate
+     * @return The DSD set the activation breaks, or null if none or if the check must be left to fortress-core
+     */
+    SDSet dsdConflict( String contextId, Session session, String roleName )
+    {
+        if ( session == null || roleName == null )
+        {
+            return null;
+        }
+
+        Matrix matrix = matrix( contextId );
+
+        if ( matrix == null )
+        {
+            return null;
+        }
+
+        Integer roleId = matrix.roleIds.get( EntityType.key( roleName ) );
+
+        if ( roleId == null || matrix.dsdDirect[roleId].isEmpty() )
+        {
+            return null;
+        }
+
+        BitSet candidates = matrix.dsdDirect[roleId];
+        int[] counts = new int[matrix.dsdSets.size()];
+        count( candidates, candidates, counts );
+        List<UserRole> active = session.getRoles();
+
+        if ( active != null )
+        {
+            for ( UserRole userRole : active )
+            {
+                Integer activeId = matrix.roleIds.get( EntityType.key( userRole.getName() ) );
+
+                if ( activeId == null )
+                {
+                    continue;
+                }
+
+                // Already active, fortress-core reports it
+                if ( activeId.equals( roleId ) )
+                {
+                    return null;
+                }
+
+                count( matrix.dsdDirect[activeId], candidates, counts );
+            }
+        }
+
+        for ( int set = candidates.nextSetBit( 0 ); set >= 0; set = candidates.nextSetBit( set + 1 ) )
+        {
+            if ( counts[set] >= matrix.dsdCardinalities[set] )
+            {
+                dsdRejections.incrementAndGet();
+
+                return matrix.dsdSets.get( set );
+            }
+        }
+
+        return null;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void changed( String tenant, EntityType type, String key, String name, ChangeOp op )
+    {
+        // Role writes may change the hierarchy
+        if ( type != EntityType.SSD && type != EntityType.DSD && type != EntityType.ROLE )
+        {
+            return;
+        }
+
+        Holder holder = holders.get( tenant );
+
+        if ( holder == null )
+        {
+            return;
+        }
+
+        synchronized ( holder )
+        {
+            holder.changes++;
+
+            if ( holder.matrix != null )
+            {
+                holder.matrix = null;
+                invalidations.incrementAndGet();
+            }
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void collect( Map<String, Number> metrics )
+    {
+        long roles = 0;
+
+        for ( Holder holder : holders.values() )
+        {
+            Matrix matrix = holder.matrix;
+            roles += matrix == null ? 0 : matrix.roleIds.size();
+        }
+
+        metrics.put( "hits", hits.get() );
+        metrics.put( "misses", misses.get() );
+        metrics.put( "loads", loads.get() );
+        metrics.put( "invalidations", invalidations.get() );
+        metrics.put( "dsdRejections", dsdRejections.get() );
+        metrics.put( "roles", roles );
+    }
+
+
+    /**
+     * Build the matrix of a tenant.  Package private for the tests.
+     *
+     * @param roles All the roles of the tenant, with their parents
+     * @param ssdSets All the SSD sets of the tenant
+     * @param dsdSets All the DSD sets of the tenant
+     * @return The matrix
+     */
+    static Matrix build( List<Role> roles, List<SDSet> ssdSets, List<SDSet> dsdSets )
+    {
+        Map<String, Integer> roleIds = new HashMap<>();
+        Map<Integer, Set<String>> parents = new HashMap<>();
+        BitSet known = new BitSet();
+
+        for ( Role role : roles )
+        {
+            int roleId = id( roleIds, role.getName() );
+            known.set( roleId );
+
+            if ( role.getParents() != null && !role.getParents().isEmpty() )
+            {
+                parents.put( roleId, role.getParents() );
+
+                for ( String parent : role.getParents() )
+                {
+                    id( roleIds, parent );
+                }
+            }
+        }
+
+        // Sets may name roles that were deleted, they get an id so the counts stay right
+        for ( SDSet set : ssdSets )
+        {
+            ids( roleIds, set );
+        }
+
+        for ( SDSet set : dsdSets )
+        {
+            ids( roleIds, set );
+        }
+
+        Matrix matrix = new Matrix( roleIds, known, ssdSets, dsdSets );
+        members( matrix, ssdSets, matrix.ssdDirect );
+        members( matrix, dsdSets, matrix.dsdDirect );
+
+        for ( int roleId = 0; roleId < roleIds.size(); roleId++ )
+        {
+            closure( matrix, parents, roleId, new BitSet() );
+        }
+
+        for ( int set = 0; set < dsdSets.size(); set++ )
+        {
+            Integer cardinality = dsdSets.get( set ).getCardinality();
+            matrix.dsdCardinalities[set] = cardinality == null ? Integer.MAX_VALUE : cardinality;
+        }
+
+        return matrix;
+    }
+
+
+    private Matrix matrix( String contextId )
+    {
+        if ( !enabled )
+        {
+            return null;
+        }
+
+        Holder holder = holder( PolicyChanges.tenant( contextId ) );
+        Matrix matrix = holder.matrix;
+
+        if ( matrix == null || System.nanoTime() - holder.loaded > maxAgeNanos )
+        {
+            load( holder );
+        }
+
+        if ( matrix == null )
+        {
+            misses.incrementAndGet();
+        }
+
+        return matrix;
+    }
+
+
+    private void load( final Holder holder )
+    {
+        final long changes;
+
+        synchronized ( holder )
+        {
+            if ( holder.loading )
+            {
+                return;
+            }
+
+            holder.loading = true;
+            changes = holder.changes;
+        }
+
+        loader.execute( () -> load( holder, changes ) );
+    }
+
+
+    /**
+     * Read the roles and the SD sets of a tenant from the directory.  Runs on the loader thread.
+     */
+    private void load( Holder holder, long changes )
+    {
+        Matrix matrix;
+        long started = System.nanoTime();
+
+        try
+        {
+            ReviewMgr reviewMgr = ReviewMgrFactory.createInstance( holder.tenant );
+            SDSet allSets = new SDSet();
+            allSets.setName( "" );
+            matrix = build( reviewMgr.findRoles( "" ), reviewMgr.ssdSets( allSets ), reviewMgr.dsdSets( allSets ) );
+            loads.incrementAndGet();
+        }
+        catch ( SecurityException | RuntimeException e )
+        {
+            LOG.warn( "SdIndex could not load the separation of duty sets of " + holder.tenant, e );
+            matrix = null;
+        }
+
+        synchronized ( holder )
+        {
+            holder.loading = false;
+
+            // A write during the load may be missing from what was read, the next request loads again
+            if ( matrix != null && holder.changes == changes )
+            {
+                holder.matrix = matrix;
+                holder.loaded = started;
+            }
+        }
+    }
+
+
+    private Holder holder( String tenant )
+    {
+        Holder holder = holders.get( tenant );
+
+        if ( holder == null )
+        {
+            Holder newHolder = new Holder( tenant );
+            holder = holders.putIfAbsent( tenant, newHolder );
+
+            if ( holder == null )
+            {
+                holder = newHolder;
+            }
+        }
+
+        return holder;
+    }
+
+
+    private static int id( Map<String, Integer> roleIds, String roleName )
+    {
+        String key = EntityType.key( roleName );
+        Integer roleId = roleIds.get( key );
+
+        if ( roleId == null )
+        {
+            roleId = roleIds.size();
+            roleIds.put( key, roleId );
+        }
+
+        return roleId;
+    }
+
+
+    private static void ids( Map<String, Integer> roleIds, SDSet set )
+    {
+        if ( set.getMembers() != null )
+        {
+            for ( String member : set.getMembers() )
+            {
+                id( roleIds, member );
+            }
+        }
+    }
+
+
+    private static void members( Matrix matrix, List<SDSet> sets, BitSet[] direct )
+    {
+        for ( int set = 0; set < sets.size(); set++ )
+        {
+            Set<String> members = sets.get( set ).getMembers();
+
+            if ( members != null )
+            {
+                for ( String member : members )
+                {
+                    direct[matrix.roleIds.get( EntityType.key( member ) )].set( set );
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Compute the sets of a role and of its ascendants, the visiting bitset stops the cycles of a broken hierarchy.
+     */
+    private static void closure( Matrix matrix, Map<Integer, Set<String>> parents, int roleId, BitSet visiting )
+    {
+        if ( matrix.ssdClosure[roleId] != null || visiting.get( roleId ) )
+        {
+            return;
+        }
+
+        visiting.set( roleId );
+        BitSet ssd = ( BitSet ) matrix.ssdDirect[roleId].clone();
+        BitSet dsd = ( BitSet ) matrix.dsdDirect[roleId].clone();
+        Set<String> roleParents = parents.get( roleId );
+
+        if ( roleParents != null )
+        {
+            for ( String parent : roleParents )
+            {
+                int parentId = matrix.roleIds.get( EntityType.key( parent ) );
+                closure( matrix, parents, parentId, visiting );
+
+                // Null when the parent is part of a cycle still being visited
+                if ( matrix.ssdClosure[parentId] != null )
+                {
+                    ssd.or( matrix.ssdClosure[parentId] );
+                    dsd.or( matrix.dsdClosure[parentId] );
+                }
+            }
+        }
+
+        matrix.ssdClosure[roleId] = ssd;
+        matrix.dsdClosure[roleId] = dsd;
+    }
+
+
+    private static void count( BitSet memberships, BitSet candidates, int[] counts )
+    {
+        for ( int set = memberships.nextSetBit( 0 ); set >= 0; set = memberships.nextSetBit( set + 1 ) )
+        {
+            if ( candidates.get( set ) )
+            {
+                counts[set]++;
+            }
+        }
+    }
+
+
+    /**
+     * The separation of duty sets of a tenant, indexed by role.  Not modified once built.
+     */
+    static final class Matrix
+    {
+        /** The role ids, by normalized role name */
+        private final Map<String, Integer> roleIds;
+
+        /** The ids of the roles that exist, the others are only named by sets or as parents */
+        private final BitSet roles;
+
+        private final List<SDSet> ssdSets;
+        private final List<SDSet> dsdSets;
+        private final int[] dsdCardinalities;
+
+        /** The sets each role is a direct member of, by role id */
+        private final BitSet[] ssdDirect;
+        private final BitSet[] dsdDirect;
+
+        /** The sets each role or one of its ascendants is a member of, by role id */
+        private final BitSet[] ssdClosure;
+        private final BitSet[] dsdClosure;
+
+
+        private Matrix( Map<String, Integer> roleIds, BitSet roles, List<SDSet> ssdSets, List<SDSet> dsdSets )
+        {
+            this.roleIds = Collections.unmodifiableMap( roleIds );
+            this.roles = roles;
+            this.ssdSets = Collections.unmodifiableList( new ArrayList<>( ssdSets ) );
+            this.dsdSets = Collections.unmodifiableList( new ArrayList<>( dsdSets ) );
+            this.dsdCardinalities = new int[dsdSets.size()];
+            int size = roleIds.size();
+            ssdDirect = new BitSet[size];
+            dsdDirect = new BitSet[size];
+            ssdClosure = new BitSet[size];
+            dsdClosure = new BitSet[size];
+
+            for ( int roleId = 0; roleId < size; roleId++ )
+            {
+                ssdDirect[roleId] = new BitSet();
+                dsdDirect[roleId] = new BitSet();
+            }
+        }
+    }
+
+
+    /**
+     * The matrix of one tenant.  The fields are guarded by the holder monitor, the matrix is read without it.
+     */
+    private static final class Holder
+    {
+        private final String tenant;
+
+        /** Null until built, and after a write */
+        private volatile Matrix matrix;
+
+        /** When the matrix was read, in nanoseconds */
+        private volatile long loaded;
+
+        /** Number of writes received, detects the writes done while loading */
+        private long changes;
+
+        private boolean loading;
+
+
+        private Holder( String tenant )
+        {
+            this.tenant = tenant;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.fortress.rest;
+
+import org.apache.directory.api.ldap.model.exception.LdapAdminLimitExceededException;
+import org.apache.directory.api.ldap.model.exception.LdapSizeLimitExceededException;
+import org.apache.directory.api.ldap.model.exception.LdapTimeLimitExceededException;
+
+/**
+ * Tells whether an unbounded directory search, reading all the entities of a type, may have been cut short by the
+ * size or time limit of the directory.  The in memory copies must not be built from such a partial read.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+final class SearchLimits
+{
+    private SearchLimits()
+    {
+    }
+
+
+    /**
+     * @param e The failure of a search, as thrown by fortress core
+     * @return true if it, or one of its causes, is a size, time or administrative limit of the directory
+     */
+    static boolean exceeded( Throwable e )
+    {
+        for ( Throwable cause = e; cause != null; cause = cause.getCause() )
+        {
+            if ( cause instanceof LdapSizeLimitExceededException || cause instanceof LdapTimeLimitExceededException
+                || cause instanceof LdapAdminLimitExceededException )
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+
+    /**
+     * Some directories return the entries found up to their size limit without an error.
+     *
+     * @param count The number of entities read
+     * @param sizeLimit The size limit of the directory, 0 if unknown
+     * @return true if the read may be missing entities
+     */
+    static boolean reached( int count, int sizeLimit )
+    {
+        return sizeLimit > 0 && count >= sizeLimit;
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.fortress.rest;
+
+import java.io.InputStream;
+
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.core.Response;
+
+import org.apache.directory.fortress.core.SecurityException;
+import org.apache.directory.fortress.core.model.FortRequest;
+import org.apache.directory.fortress.core.model.FortResponse;
+import org.apache.log4j.Logger;
+
+/**
+ * Services about the Fortress Rest Server itself rather than the RBAC policy.  This class is thread safe.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+class ServerMgrImpl extends AbstractMgrImpl
+{
+    /** A logger for this class */
+    private static final Logger LOG = Logger.getLogger( ServerMgrImpl.class.getName() );
+
+    /** The media type of the tenant export */
+    private static final String GZIP = "application/gzip";
+
+    /** The media type of the policy diffs */
+    private static final String NDJSON = "application/x-ndjson";
+
+
+    /* No qualifier */ FortResponse readMetrics( FortRequest request )
+    {
+        FortResponse response = createResponse();
+        response.setValues( RestMetrics.snapshot() );
+
+        return response;
+    }
+
+
+    /* No qualifier */ void policyChanges( FortRequest request, AsyncResponse asyncResponse )
+    {
+        ChangeFeed.getInstance().subscribe( request, asyncResponse );
+    }
+
+
+    /* No qualifier */ Response exportTenant( FortRequest request )
+    {
+        FortResponse response = createResponse();
+
+        try
+        {
+            TenantExport export = TenantExport.create( request );
+
+            return Response.ok( export, GZIP )
+                .header( "Content-Disposition", "attachment; filename=\"fortress-export.jsonl.gz\"" ).build();
+        }
+        catch ( SecurityException se )
+        {
+            createError( response, LOG, se );
+        }
+
+        return Response.status( response.getHttpStatus() ).entity( response ).build();
+    }
+
+
+    /* No qualifier */ Response diffTenants( FortRequest request )
+    {
+        FortResponse response = createResponse();
+
+        try
+        {
+            return Response.ok( PolicyDiff.tenants( request ), NDJSON ).build();
+        }
+        catch ( SecurityException se )
+        {
+            createError( response, LOG, se );
+        }
+
+        return Response.status( response.getHttpStatus() ).entity( response ).build();
+    }
+
+
+    /* No qualifier */ Response diffExport( FortRequest request, InputStream export )
+    {
+        return Response.ok( PolicyDiff.export( request, export ), NDJSON ).build();
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.fortress.rest;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.directory.fortress.core.FinderException;
+import org.apache.directory.fortress.core.SecurityException;
+import org.apache.directory.fortress.core.model.Session;
+import org.apache.directory.fortress.core.util.Config;
+import org.apache.log4j.Logger;
+
+/**
+ * Keeps the sessions created through the AccessMgr on the servers of the cluster, so a client may send its sessionId
+ * alone instead of the whole session, to any server.
+ * <p>
+ * The created sessions, and the sessions whose active roles change, are stored in a {@link SessionStore} holding each
+ * one on <code>rest.session.replicas</code> servers.  A request whose session has a sessionId and no user is given the
+ * stored session, a request carrying a whole session is served as before.  The servers are listed in
+ * <code>rest.session.nodes</code> as host:port, <code>rest.session.node</code> is the entry of this server.  They
+ * authenticate each other with the secret <code>rest.session.secret</code>, the registry does not start without it.
+ * <p>
+ * The registry is disabled unless <code>rest.session.registry.enabled=true</code>.  This class is thread safe.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+final class SessionRegistry implements RestMetrics.Source
+{
+    /** A logger for this class */
+    private static final Logger LOG = Logger.getLogger( SessionRegistry.class.getName() );
+
+    private static final String ENABLED = "rest.session.registry.enabled";
+    private static final String NODE = "rest.session.node";
+    private static final String NODES = "rest.session.nodes";
+    private static final String REPLICAS = "rest.session.replicas";
+    private static final String TTL = "rest.session.ttl.minutes";
+    private static final String TIMEOUT = "rest.session.timeout.millis";
+    private static final String SECRET = "rest.session.secret";
+
+    private static final JacksonFieldOnlyMapper MAPPER = new JacksonFieldOnlyMapper();
+
+    private static final SessionRegistry INSTANCE = new SessionRegistry();
+
+    /** Null when disabled */
+    private final SessionStore store;
+
+    private final AtomicLong stored = new AtomicLong();
+    private final AtomicLong resolved = new AtomicLong();
+    private final AtomicLong notFound = new AtomicLong();
+    private final AtomicLong resolveNanos = new AtomicLong();
+
+
+    private SessionRegistry()
+    {
+        Config config = Config.getInstance();
+        store = config.getBoolean( ENABLED, false ) ? start( config ) : null;
+        RestMetrics.register( "sessionRegistry", this );
+    }
+
+
+    static SessionRegistry getInstance()
+    {
+        return INSTANCE;
+    }
+
+
+    /**
+     * Store a session created or modified by a request.  A session that could not be stored is logged, the client
+     * still gets it and may send it whole.
+     *
+     * @param contextId The tenant of the request
+     * @param session The session, ignored if null
+     */
+    void put( String contextId, Session session )
+    {
+        if ( store == null || session == null || session.getSessionId() == null )
+        {
+            return;
+        }
+
+        try
+        {
+            byte[] value = MAPPER.writeValueAsString( session ).getBytes( StandardCharsets.UTF_8 );
+
+            if ( store.put( key( contextId, session.getSessionId() ), value ) == 0 )
+            {
+                LOG.warn( "SessionRegistry could not store session " + session.getSessionId()
+                    + ", no server answered" );
+            }
+            else
+            {
+                stored.incrementAndGet();
+            }
+        }
+        catch ( IOException ioe )
+        {
+            LOG.warn( "SessionRegistry could not serialize session " + session.getSessionId(), ioe );
+        }
+    }
+
+
+    /**
+     * Return the session of a request: the stored session when the request gives only its sessionId, the given
+     * session otherwise.
+     *
+     * @param contextId The tenant of the request
+     * @param session The session of the request, may be null
+     * @return The session to use
+     * @throws SecurityException If the session is not stored, it expired or was never created
+     */
+    Session resolve( String contextId, Session session ) throws SecurityException
+    {
+        if ( store == null || session == null || session.getUser() != null
+            || StringUtils.isEmpty( session.getSessionId() ) )
+        {
+            return session;
+        }
+
+        long started = System.nanoTime();
+        byte[] value = store.get( key( contextId, session.getSessionId() ) );
+        Session found = null;
+
+        if ( value != null )
+        {
+            try
+            {
+                found = MAPPER.readValue( new String( value, StandardCharsets.UTF_8 ), Session.class );
+            }
+            catch ( IOException ioe )
+            {
+                LOG.warn( "SessionRegistry could not read session " + session.getSessionId(), ioe );
+            }
+        }
+
+        resolveNanos.addAndGet( System.nanoTime() - started );
+
+        if ( found == null )
+        {
+            notFound.incrementAndGet();
+
+            throw new FinderException( RestErrIds.SESSION_NOT_FOUND, "Session " + session.getSessionId()
+                + " not found, it expired or was created on another cluster" );
+        }
+
+        resolved.incrementAndGet();
+
+        return found;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void collect( Map<String, Number> metrics )
+    {
+        long lookups = resolved.get() + notFound.get();
+        metrics.put( "enabled", store == null ? 0 : 1 );
+        metrics.put( "stored", stored.get() );
+        metrics.put( "resolved", resolved.get() );
+        metrics.put( "notFound", notFound.get() );
+        metrics.put( "resolveMicrosAvg", lookups == 0 ? 0.0
+            : ( double ) TimeUnit.NANOSECONDS.toMicros( resolveNanos.get() ) / lookups );
+
+        if ( store != null )
+        {
+            store.collect( metrics );
+        }
+    }
+
+
+    private static SessionStore start( Config config )
+    {
+        String node = config.getProperty( NODE );
+        List<String> nodes = new ArrayList<>();
+
+        for ( String value : StringUtils.split( StringUtils.defaultString( config.getProperty( NODES ) ), ',' ) )
+        {
+            nodes.add( value.trim() );
+        }
+
+        try
+        {
+            SessionStore store = new SessionStore( node, nodes, config.getInt( REPLICAS, 2 ),
+                TimeUnit.MINUTES.toMillis( config.getInt( TTL, 60 ) ), config.getInt( TIMEOUT, 250 ),
+                config.getProperty( SECRET ) );
+            store.start();
+
+            return store;
+        }
+        catch ( IOException | RuntimeException e )
+        {
+            LOG.error( "SessionRegistry could not start on " + node + " with the nodes " + nodes
+                + ", the sessions must be sent whole", e );
+
+            return null;
+        }
+    }
+
+
+    private static String key( String contextId, String sessionId )
+    {
+        return PolicyChanges.tenant( contextId ) + ':' + sessionId;
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.fortress.rest;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Consistent hash ring deciding which servers hold a session.  Each server is placed at many points of the ring, a
+ * key belongs to the servers found walking the ring from the hash of the key, so removing a server only moves the
+ * keys it held.
+ * <p>
+ * This class is immutable and thread safe.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+final class SessionRing
+{
+    /** The points per server, spreads the keys evenly */
+    static final int POINTS = 128;
+
+    private final TreeMap<Long, String> ring = new TreeMap<>();
+    private final int nodes;
+
+
+    /**
+     * @param nodes The servers, identified by their host:port
+     */
+    SessionRing( Collection<String> nodes )
+    {
+        Set<String> distinct = new LinkedHashSet<>( nodes );
+        this.nodes = distinct.size();
+
+        for ( String node : distinct )
+        {
+            for ( int i = 0; i < POINTS; i++ )
+            {
+                ring.put( hash( node + '#' + i ), node );
+            }
+        }
+    }
+
+
+    /**
+     * Return all the servers in the order they hold a key: its owner first, then the backups.
+     *
+     * @param key The key
+     * @return The distinct servers, empty if the ring is
+     */
+    List<String> preference( String key )
+    {
+        List<String> found = new ArrayList<>( nodes );
+
+        if ( nodes == 0 )
+        {
+            return found;
+        }
+
+        long hash = hash( key );
+        walk( ring.tailMap( hash, true ), found );
+        walk( ring.headMap( hash, false ), found );
+
+        return found;
+    }
+
+
+    private void walk( Map<Long, String> points, List<String> found )
+    {
+        for ( String node : points.values() )
+        {
+            if ( found.size() == nodes )
+            {
+                return;
+            }
+
+            if ( !found.contains( node ) )
+            {
+                found.add( node );
+            }
+        }
+    }
+
+
+    /**
+     * The first 8 bytes of the MD5 of a string, spreads close names over the ring.
+     */
+    private static long hash( String value )
+    {
+        byte[] digest;
+
+        try
+        {
+            digest = MessageDigest.getInstance( "MD5" ).digest( value.getBytes( StandardCharsets.UTF_8 ) );
+        }
+        catch ( NoSuchAlgorithmException nsae )
+        {
+            // Every JRE provides MD5
+            throw new IllegalStateException( nsae );
+        }
+
+        long hash = 0;
+
+        for ( int i = 0; i < 8; i++ )
+        {
+            hash = ( hash << 8 ) | ( digest[i] & 0xFF );
+        }
+
+        return hash;
+    }
+}
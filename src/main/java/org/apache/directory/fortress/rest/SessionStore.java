@@ -0,0 +1,933 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.fortress.rest;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Replicated in memory store of the serialized sessions, shared by the servers of a cluster.
+ * <p>
+ * A {@link SessionRing} gives the servers holding each key: the value is written to the first <code>replicas</code>
+ * servers of the ring that are up, its owner and backups.  A server that does not answer is skipped for
+ * {@link #RETRY_MILLIS} and the next one is used: when an owner stops its backup serves the sessions.
+ * <p>
+ * Each value is written with a version, from a clock of the writing server in microseconds that also moves past the
+ * versions it sees, and a server never replaces a copy by an older one.  A read asks all the holders and returns the
+ * newest copy, the holders that missed it or had an older one are written back: an owner that could not be reached
+ * during a write, e.g. a role drop, does not serve its outdated session once it answers again.
+ * <p>
+ * An entry expires when it was neither written nor read for the given time on the server holding it, the servers
+ * reading an entry tell the other holders from time to time so the backups do not expire first.  The servers talk
+ * through a request and response protocol over TCP, the connections to each server are pooled.
+ * <p>
+ * A server listens on the address of its own node only, and closes the connections coming from a host that is not
+ * one of the nodes.  Each connection then starts with a {@link Handshake}: both sides prove they know the shared
+ * secret, the secret itself is never sent.  The requests that follow are not encrypted, the nodes must talk over a
+ * private network.
+ * <p>
+ * This class is thread safe.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+final class SessionStore implements RestMetrics.Source
+{
+    /** A logger for this class */
+    private static final Logger LOG = Logger.getLogger( SessionStore.class.getName() );
+
+    /** How long a server that did not answer is skipped */
+    static final long RETRY_MILLIS = 1000;
+
+    private static final byte PUT = 1;
+    private static final byte GET = 2;
+    private static final byte TOUCH = 3;
+
+    private static final byte FOUND = 0;
+    private static final byte MISSING = 1;
+    private static final byte DONE = 2;
+
+    /** Larger values are a corrupted stream */
+    private static final int MAX_VALUE = 1024 * 1024;
+    private static final int MAX_IDLE = 8;
+
+    private final String self;
+    private final List<String> nodes;
+    private final SessionRing ring;
+    private final int replicas;
+    private final long ttlNanos;
+    private final int timeoutMillis;
+    private final Handshake handshake;
+
+    /** The last version given or seen */
+    private final AtomicLong clock = new AtomicLong();
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    /** The other servers, by host:port */
+    private final Map<String, Peer> peers = new HashMap<>();
+
+    /** The accepted connections, closed with the store */
+    private final Set<Socket> accepted = ConcurrentHashMap.newKeySet();
+
+    private final ExecutorService threads = Executors.newCachedThreadPool( runnable ->
+    {
+        Thread thread = new Thread( runnable, "fortress-rest-session-store" );
+        thread.setDaemon( true );
+
+        return thread;
+    } );
+
+    private final ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor( runnable ->
+    {
+        Thread thread = new Thread( runnable, "fortress-rest-session-sweeper" );
+        thread.setDaemon( true );
+
+        return thread;
+    } );
+
+    private volatile boolean closed;
+    private ServerSocket server;
+
+    private final AtomicLong localHits = new AtomicLong();
+    private final AtomicLong remoteHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong failovers = new AtomicLong();
+    private final AtomicLong repairs = new AtomicLong();
+    private final AtomicLong replicationFailures = new AtomicLong();
+    private final AtomicLong expirations = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+
+    /**
+     * @param self The host:port of this server, one of the nodes, its port is listened on
+     * @param nodes The host:port of all the servers
+     * @param replicas The number of servers holding each value
+     * @param ttlMillis How long an unused value is kept
+     * @param timeoutMillis The max time to connect to or wait for another server
+     * @param secret The secret shared by all the nodes
+     */
+    SessionStore( String self, List<String> nodes, int replicas, long ttlMillis, int timeoutMillis, String secret )
+    {
+        if ( !nodes.contains( self ) )
+        {
+            throw new IllegalArgumentException( "This server " + self + " is not one of the nodes " + nodes );
+        }
+
+        this.self = self;
+        this.nodes = new ArrayList<>( nodes );
+        this.ring = new SessionRing( nodes );
+        this.replicas = Math.max( 1, replicas );
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos( ttlMillis );
+        this.timeoutMillis = timeoutMillis;
+        this.handshake = new Handshake( secret );
+
+        for ( String node : nodes )
+        {
+            if ( !node.equals( self ) )
+            {
+                peers.put( node, new Peer( node ) );
+            }
+        }
+    }
+
+
+    /**
+     * Listen to the other servers and start expiring the entries.
+     *
+     * @throws IOException If the port of this server could not be listened on
+     */
+    void start() throws IOException
+    {
+        server = new ServerSocket();
+        server.setReuseAddress( true );
+        server.bind( new InetSocketAddress( host( self ), port( self ) ) );
+        threads.execute( this::accept );
+        long period = Math.max( 1, TimeUnit.NANOSECONDS.toMillis( ttlNanos ) / 4 );
+        sweeper.scheduleWithFixedDelay( this::sweep, period, period, TimeUnit.MILLISECONDS );
+        LOG.info( "SessionStore " + self + " started, nodes " + ring.preference( "" ) + ", replicas " + replicas );
+    }
+
+
+    /**
+     * Stop serving the other servers and drop the local entries.
+     */
+    void close()
+    {
+        closed = true;
+        close( server );
+
+        for ( Socket socket : accepted )
+        {
+            close( socket );
+        }
+
+        for ( Peer peer : peers.values() )
+        {
+            peer.closeIdle();
+        }
+
+        threads.shutdownNow();
+        sweeper.shutdownNow();
+        entries.clear();
+
+        // The port is released once the accepting thread is out of accept()
+        try
+        {
+            threads.awaitTermination( timeoutMillis, TimeUnit.MILLISECONDS );
+        }
+        catch ( InterruptedException ie )
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    /**
+     * Write a value to its owner and backups.
+     *
+     * @param key The key
+     * @param value The value
+     * @return The number of servers written, less than the replicas when some did not answer
+     */
+    int put( String key, byte[] value )
+    {
+        Versioned versioned = new Versioned( value, nextVersion() );
+        int written = 0;
+
+        for ( String node : holders( key ) )
+        {
+            if ( write( node, PUT, key, versioned ) )
+            {
+                written++;
+            }
+        }
+
+        return written;
+    }
+
+
+    /**
+     * Read the newest copy of a value from its holders.
+     *
+     * @param key The key
+     * @return The value, null if no holder has it
+     */
+    byte[] get( String key )
+    {
+        List<String> read = new ArrayList<>( replicas );
+        List<Versioned> copies = new ArrayList<>( replicas );
+        Versioned newest = null;
+        String newestNode = null;
+
+        for ( String node : ring.preference( key ) )
+        {
+            if ( read.size() == replicas )
+            {
+                break;
+            }
+
+            Versioned value;
+
+            if ( node.equals( self ) )
+            {
+                value = local( key );
+            }
+            else
+            {
+                Peer peer = peers.get( node );
+
+                if ( peer.isDown() )
+                {
+                    continue;
+                }
+
+                try
+                {
+                    value = peer.call( GET, key, null );
+                }
+                catch ( IOException ioe )
+                {
+                    failovers.incrementAndGet();
+                    LOG.debug( "SessionStore read from " + node + " failed: " + ioe.getMessage() );
+
+                    continue;
+                }
+            }
+
+            read.add( node );
+            copies.add( value );
+
+            if ( value != null && ( newest == null || value.version > newest.version ) )
+            {
+                newest = value;
+                newestNode = node;
+            }
+        }
+
+        if ( newest == null )
+        {
+            misses.incrementAndGet();
+
+            return null;
+        }
+
+        ( newestNode.equals( self ) ? localHits : remoteHits ).incrementAndGet();
+        observe( newest.version );
+        repair( key, newest, read, copies );
+
+        return newest.value;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void collect( Map<String, Number> metrics )
+    {
+        int down = 0;
+
+        for ( Peer peer : peers.values() )
+        {
+            down += peer.isDown() ? 1 : 0;
+        }
+
+        metrics.put( "size", entries.size() );
+        metrics.put( "localHits", localHits.get() );
+        metrics.put( "remoteHits", remoteHits.get() );
+        metrics.put( "misses", misses.get() );
+        metrics.put( "failovers", failovers.get() );
+        metrics.put( "repairs", repairs.get() );
+        metrics.put( "replicationFailures", replicationFailures.get() );
+        metrics.put( "expirations", expirations.get() );
+        metrics.put( "rejected", rejected.get() );
+        metrics.put( "peersDown", down );
+    }
+
+
+    /**
+     * The first servers of the ring for a key that are up, the owner first.
+     */
+    private List<String> holders( String key )
+    {
+        List<String> holders = new ArrayList<>( replicas );
+
+        for ( String node : ring.preference( key ) )
+        {
+            if ( holders.size() == replicas )
+            {
+                break;
+            }
+
+            if ( node.equals( self ) || !peers.get( node ).isDown() )
+            {
+                holders.add( node );
+            }
+        }
+
+        return holders;
+    }
+
+
+    /**
+     * Send a write to a server, this one included.
+     *
+     * @return false if the server did not answer
+     */
+    private boolean write( String node, byte op, String key, Versioned value )
+    {
+        if ( node.equals( self ) )
+        {
+            apply( op, key, value );
+
+            return true;
+        }
+
+        try
+        {
+            peers.get( node ).call( op, key, value );
+
+            return true;
+        }
+        catch ( IOException ioe )
+        {
+            replicationFailures.incrementAndGet();
+            LOG.debug( "SessionStore write to " + node + " failed: " + ioe.getMessage() );
+
+            return false;
+        }
+    }
+
+
+    /**
+     * Write the newest copy of a value back to the holders read that missed it or had an older one.
+     */
+    private void repair( String key, Versioned newest, List<String> read, List<Versioned> copies )
+    {
+        for ( int i = 0; i < read.size(); i++ )
+        {
+            Versioned copy = copies.get( i );
+
+            if ( ( copy == null || copy.version < newest.version ) && write( read.get( i ), PUT, key, newest ) )
+            {
+                repairs.incrementAndGet();
+            }
+        }
+    }
+
+
+    /**
+     * @return A version greater than any given or seen by this server
+     */
+    private long nextVersion()
+    {
+        long now = TimeUnit.MILLISECONDS.toMicros( System.currentTimeMillis() );
+
+        return clock.updateAndGet( last -> Math.max( last + 1, now ) );
+    }
+
+
+    /**
+     * Move the clock past a version written by another server, so the next writes here replace it even if the clock
+     * of that server is ahead.
+     */
+    private void observe( long version )
+    {
+        clock.accumulateAndGet( version, Math::max );
+    }
+
+
+    /**
+     * Apply a write to the local entries.
+     *
+     * @return The value read by a GET, null otherwise
+     */
+    private Versioned apply( byte op, String key, final Versioned value )
+    {
+        switch ( op )
+        {
+            case PUT:
+                final long expires = System.nanoTime() + ttlNanos;
+                observe( value.version );
+
+                // A late write or repair never replaces a newer copy
+                entries.compute( key, ( k, entry ) -> entry != null && entry.version >= value.version
+                    && entry.expires - System.nanoTime() > 0 ? entry : new Entry( value, expires ) );
+
+                return null;
+
+            case GET:
+                return local( key );
+
+            case TOUCH:
+                Entry entry = entries.get( key );
+
+                if ( entry != null )
+                {
+                    entry.expires = System.nanoTime() + ttlNanos;
+                }
+
+                return null;
+
+            default:
+                throw new IllegalArgumentException( "Unknown operation " + op );
+        }
+    }
+
+
+    /**
+     * Read a local entry, extending its life and the life of its other copies.
+     */
+    private Versioned local( final String key )
+    {
+        Entry entry = entries.get( key );
+        long now = System.nanoTime();
+
+        if ( entry == null || entry.expires - now <= 0 )
+        {
+            return null;
+        }
+
+        entry.expires = now + ttlNanos;
+
+        // Only read here, the other holders would expire it
+        if ( now - entry.touched > ttlNanos / 4 )
+        {
+            entry.touched = now;
+
+            try
+            {
+                threads.execute( () ->
+                {
+                    for ( String node : holders( key ) )
+                    {
+                        if ( !node.equals( self ) )
+                        {
+                            write( node, TOUCH, key, null );
+                        }
+                    }
+                } );
+            }
+            catch ( RejectedExecutionException ree )
+            {
+                // Closed meanwhile
+            }
+        }
+
+        return entry;
+    }
+
+
+    private void sweep()
+    {
+        long now = System.nanoTime();
+        Iterator<Entry> iterator = entries.values().iterator();
+
+        while ( iterator.hasNext() )
+        {
+            if ( iterator.next().expires - now <= 0 )
+            {
+                iterator.remove();
+                expirations.incrementAndGet();
+            }
+        }
+    }
+
+
+    /**
+     * Accept the connections of the other servers.  Runs on its own thread.
+     */
+    private void accept()
+    {
+        while ( !closed )
+        {
+            try
+            {
+                final Socket socket = server.accept();
+                accepted.add( socket );
+
+                if ( !isNode( socket.getInetAddress() ) )
+                {
+                    rejected.incrementAndGet();
+                    LOG.warn( "SessionStore rejected a connection from " + socket.getRemoteSocketAddress()
+                        + ", not one of the nodes" );
+                    accepted.remove( socket );
+                    close( socket );
+
+                    continue;
+                }
+
+                socket.setTcpNoDelay( true );
+
+                try
+                {
+                    threads.execute( () -> serve( socket ) );
+                }
+                catch ( RejectedExecutionException ree )
+                {
+                    // Closed meanwhile
+                    accepted.remove( socket );
+                    close( socket );
+                }
+            }
+            catch ( IOException ioe )
+            {
+                if ( !closed )
+                {
+                    LOG.warn( "SessionStore accept failed: " + ioe.getMessage() );
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Answer the requests of another server until the connection is closed.  Runs on one thread per connection.
+     */
+    private void serve( Socket socket )
+    {
+        try ( DataInputStream in = new DataInputStream( new BufferedInputStream( socket.getInputStream() ) );
+            DataOutputStream out = new DataOutputStream( new BufferedOutputStream( socket.getOutputStream() ) ) )
+        {
+            if ( !handshake.accept( socket, in, out, timeoutMillis ) )
+            {
+                rejected.incrementAndGet();
+                LOG.warn( "SessionStore rejected a connection from " + socket.getRemoteSocketAddress()
+                    + ", it does not know the secret" );
+
+                return;
+            }
+
+            while ( !closed )
+            {
+                int op = in.read();
+
+                if ( op < 0 )
+                {
+                    break;
+                }
+
+                String key = in.readUTF();
+                Versioned value = op == PUT ? readVersioned( in ) : null;
+                Versioned found = apply( ( byte ) op, key, value );
+
+                if ( op != GET )
+                {
+                    out.writeByte( DONE );
+                }
+                else if ( found == null )
+                {
+                    out.writeByte( MISSING );
+                }
+                else
+                {
+                    out.writeByte( FOUND );
+                    writeVersioned( out, found );
+                }
+
+                out.flush();
+            }
+        }
+        catch ( IOException | IllegalArgumentException e )
+        {
+            if ( !closed )
+            {
+                LOG.warn( "SessionStore connection from " + socket.getRemoteSocketAddress() + " failed: "
+                    + e.getMessage() );
+            }
+        }
+        finally
+        {
+            accepted.remove( socket );
+            close( socket );
+        }
+    }
+
+
+    /**
+     * Tell whether a connection comes from one of the nodes.  The node names are resolved on each connection, the
+     * connections are pooled.
+     */
+    private boolean isNode( InetAddress remote )
+    {
+        for ( String node : nodes )
+        {
+            try
+            {
+                for ( InetAddress address : InetAddress.getAllByName( host( node ) ) )
+                {
+                    if ( address.equals( remote ) )
+                    {
+                        return true;
+                    }
+                }
+            }
+            catch ( UnknownHostException uhe )
+            {
+                // Not resolvable now, can't be the remote host
+            }
+        }
+
+        return false;
+    }
+
+
+    private static Versioned readVersioned( DataInputStream in ) throws IOException
+    {
+        long version = in.readLong();
+        int length = in.readInt();
+
+        if ( length < 0 || length > MAX_VALUE )
+        {
+            throw new IOException( "invalid value length " + length );
+        }
+
+        byte[] value = new byte[length];
+        in.readFully( value );
+
+        return new Versioned( value, version );
+    }
+
+
+    private static void writeVersioned( DataOutputStream out, Versioned value ) throws IOException
+    {
+        out.writeLong( value.version );
+        out.writeInt( value.value.length );
+        out.write( value.value );
+    }
+
+
+    private static String host( String node )
+    {
+        return node.substring( 0, node.lastIndexOf( ':' ) );
+    }
+
+
+    private static int port( String node )
+    {
+        return Integer.parseInt( node.substring( node.lastIndexOf( ':' ) + 1 ) );
+    }
+
+
+    private static void close( Closeable closeable )
+    {
+        if ( closeable != null )
+        {
+            try
+            {
+                closeable.close();
+            }
+            catch ( IOException ioe )
+            {
+                // Nothing left to do with it
+            }
+        }
+    }
+
+
+    /**
+     * A value and its version.
+     */
+    private static class Versioned
+    {
+        final byte[] value;
+        final long version;
+
+
+        private Versioned( byte[] value, long version )
+        {
+            this.value = value;
+            this.version = version;
+        }
+    }
+
+
+    /**
+     * A stored value.  The times are in nanoseconds.
+     */
+    private static final class Entry extends Versioned
+    {
+        private volatile long expires;
+
+        /** When the other holders were last told the entry is used */
+        private volatile long touched;
+
+
+        private Entry( Versioned value, long expires )
+        {
+            super( value.value, value.version );
+            this.expires = expires;
+            this.touched = System.nanoTime();
+        }
+    }
+
+
+    /**
+     * Another server and the idle connections to it.
+     */
+    private final class Peer
+    {
+        private final String host;
+        private final int port;
+        private final Queue<Connection> idle = new ConcurrentLinkedQueue<>();
+
+        /** Until when the server is skipped, in nanoseconds */
+        private volatile long downUntil;
+        private volatile boolean down;
+
+
+        private Peer( String node )
+        {
+            host = host( node );
+            port = port( node );
+        }
+
+
+        private boolean isDown()
+        {
+            return down && System.nanoTime() - downUntil < 0;
+        }
+
+
+        /**
+         * Send a request and wait for its response.
+         *
+         * @return The value read by a GET, null otherwise
+         * @throws IOException If the server did not answer, it is then skipped for a while
+         */
+        private Versioned call( byte op, String key, Versioned value ) throws IOException
+        {
+            Connection pooled = idle.poll();
+
+            if ( pooled != null )
+            {
+                try
+                {
+                    return release( pooled, pooled.call( op, key, value ) );
+                }
+                catch ( IOException ioe )
+                {
+                    // The server may have restarted since the connection was opened, the requests are idempotent
+                    close( pooled.socket );
+                }
+            }
+
+            Connection connection = null;
+
+            try
+            {
+                connection = new Connection( host, port );
+
+                return release( connection, connection.call( op, key, value ) );
+            }
+            catch ( IOException ioe )
+            {
+                if ( connection != null )
+                {
+                    close( connection.socket );
+                }
+
+                downUntil = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos( RETRY_MILLIS );
+                down = true;
+                closeIdle();
+
+                throw ioe;
+            }
+        }
+
+
+        private Versioned release( Connection connection, Versioned found )
+        {
+            down = false;
+
+            if ( idle.size() < MAX_IDLE )
+            {
+                idle.offer( connection );
+            }
+            else
+            {
+                close( connection.socket );
+            }
+
+            return found;
+        }
+
+
+        private void closeIdle()
+        {
+            Connection connection;
+
+            while ( ( connection = idle.poll() ) != null )
+            {
+                close( connection.socket );
+            }
+        }
+    }
+
+
+    /**
+     * A connection to another server, used by one request at a time.
+     */
+    private final class Connection
+    {
+        private final Socket socket;
+        private final DataInputStream in;
+        private final DataOutputStream out;
+
+
+        private Connection( String host, int port ) throws IOException
+        {
+            socket = new Socket();
+
+            try
+            {
+                socket.setTcpNoDelay( true );
+                socket.connect( new InetSocketAddress( host, port ), timeoutMillis );
+                socket.setSoTimeout( timeoutMillis );
+                in = new DataInputStream( new BufferedInputStream( socket.getInputStream() ) );
+                out = new DataOutputStream( new BufferedOutputStream( socket.getOutputStream() ) );
+                handshake.connect( in, out, host + ':' + port );
+            }
+            catch ( IOException ioe )
+            {
+                close( socket );
+
+                throw ioe;
+            }
+        }
+
+
+        private Versioned call( byte op, String key, Versioned value ) throws IOException
+        {
+            out.writeByte( op );
+            out.writeUTF( key );
+
+            if ( value != null )
+            {
+                writeVersioned( out, value );
+            }
+
+            out.flush();
+            int status = in.read();
+
+            switch ( status )
+            {
+                case FOUND:
+                    return readVersioned( in );
+
+                case MISSING:
+                case DONE:
+                    return null;
+
+                default:
+                    throw status < 0 ? new EOFException( "connection closed" )
+                        : new IOException( "invalid status " + status );
+            }
+        }
+    }
+}
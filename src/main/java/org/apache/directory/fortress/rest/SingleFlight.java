@@ -0,0 +1,249 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.fortress.rest;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.directory.fortress.core.SecurityException;
+import org.apache.directory.fortress.core.model.FortRequest;
+import org.apache.directory.fortress.core.util.Config;
+
+/**
+ * Coalesces the identical read requests executing at the same time: the first one reads the directory, the others
+ * wait for it and get the same result, or the same exception.  Requests are identical when they have the same
+ * operation, tenant and key.
+ * <p>
+ * A write done through this server detaches the reads in flight in its tenant, the requests arriving after the
+ * write start a new read.  Requests carrying an administrative session are never coalesced, their ARBAC checks
+ * depend on the administrator.  The coalescing is disabled by <code>rest.singleflight.enabled=false</code>.
+ * <p>
+ * A request waits at most <code>rest.singleflight.wait.millis</code> for the read in flight, then reads the directory
+ * itself.  It does too when the read in flight ended with an {@link Error}, which is not shared.
+ * <p>
+ * This class is thread safe.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+final class SingleFlight implements RestMetrics.Source, PolicyChanges.Listener
+{
+    private static final String ENABLED = "rest.singleflight.enabled";
+    private static final String WAIT = "rest.singleflight.wait.millis";
+
+    /** Separates the tenant, operation and key in the flight keys */
+    private static final char SEP = '\u0000';
+
+    private static final SingleFlight INSTANCE = new SingleFlight();
+
+    private final boolean enabled;
+    private final long waitMillis;
+
+    /** The reads in flight, by tenant, operation and key */
+    private final ConcurrentMap<String, Flight> flights = new ConcurrentHashMap<>();
+
+    private final AtomicLong executed = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong bypassed = new AtomicLong();
+    private final AtomicLong fallbacks = new AtomicLong();
+
+
+    private SingleFlight()
+    {
+        Config config = Config.getInstance();
+        enabled = config.getBoolean( ENABLED, true );
+        waitMillis = config.getInt( WAIT, 30000 );
+        RestMetrics.register( "singleFlight", this );
+    }
+
+
+    static SingleFlight getInstance()
+    {
+        return INSTANCE;
+    }
+
+
+    /**
+     * Execute a read, or wait for the identical read already in flight.
+     *
+     * @param request The request, gives the tenant and the administrative session
+     * @param operation The name of the read operation
+     * @param key The normalized key of the read, including every parameter changing its result
+     * @param loader Reads the directory
+     * @param <T> The result type
+     * @return The result of the read, possibly shared with other requests: it must not be modified
+     * @throws SecurityException The exception thrown by the read
+     */
+    <T> T execute( FortRequest request, String operation, String key, EntityCache.Loader<T> loader )
+        throws SecurityException
+    {
+        if ( !enabled || request.getSession() != null )
+        {
+            bypassed.incrementAndGet();
+
+            return loader.load();
+        }
+
+        String flightKey = PolicyChanges.tenant( request.getContextId() ) + SEP + operation + SEP + key;
+        Flight flight = new Flight();
+        Flight inFlight = flights.putIfAbsent( flightKey, flight );
+
+        if ( inFlight != null )
+        {
+            coalesced.incrementAndGet();
+
+            if ( inFlight.await( waitMillis ) )
+            {
+                return inFlight.result();
+            }
+
+            // The read in flight is too slow, or ended with an Error
+            fallbacks.incrementAndGet();
+
+            return loader.load();
+        }
+
+        executed.incrementAndGet();
+
+        try
+        {
+            T value = loader.load();
+            flight.complete( value, null );
+
+            return value;
+        }
+        catch ( SecurityException | RuntimeException e )
+        {
+            flight.complete( null, e );
+
+            throw e;
+        }
+        finally
+        {
+            flights.remove( flightKey, flight );
+
+            // Releases the waiters when an Error escaped the read, does nothing once completed
+            flight.abort();
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void changed( String tenant, EntityType type, String key, String name, ChangeOp op )
+    {
+        String prefix = tenant + SEP;
+        Iterator<String> keys = flights.keySet().iterator();
+
+        while ( keys.hasNext() )
+        {
+            if ( keys.next().startsWith( prefix ) )
+            {
+                keys.remove();
+            }
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void collect( Map<String, Number> metrics )
+    {
+        metrics.put( "executed", executed.get() );
+        metrics.put( "coalesced", coalesced.get() );
+        metrics.put( "bypassed", bypassed.get() );
+        metrics.put( "fallbacks", fallbacks.get() );
+        metrics.put( "coalescingRatio", RestMetrics.ratio( coalesced.get(), executed.get() + coalesced.get() ) );
+        metrics.put( "inFlight", flights.size() );
+    }
+
+
+    /**
+     * A read in flight and its outcome.  Completed, or aborted, only by the thread doing the read.
+     */
+    private static final class Flight
+    {
+        private final CountDownLatch done = new CountDownLatch( 1 );
+        private volatile Object value;
+        private volatile Exception failure;
+        private volatile boolean aborted;
+
+
+        private void complete( Object value, Exception failure )
+        {
+            this.value = value;
+            this.failure = failure;
+            done.countDown();
+        }
+
+
+        private void abort()
+        {
+            if ( done.getCount() > 0 )
+            {
+                aborted = true;
+                done.countDown();
+            }
+        }
+
+
+        /**
+         * @return true if the read completed within the timeout, false if it is still running or was aborted
+         */
+        private boolean await( long timeoutMillis )
+        {
+            try
+            {
+                return done.await( timeoutMillis, TimeUnit.MILLISECONDS ) && !aborted;
+            }
+            catch ( InterruptedException ie )
+            {
+                Thread.currentThread().interrupt();
+
+                throw new IllegalStateException( "Interrupted while waiting for a coalesced read", ie );
+            }
+        }
+
+
+        @SuppressWarnings("unchecked")
+        private <T> T result() throws SecurityException
+        {
+            if ( failure instanceof SecurityException )
+            {
+                throw ( SecurityException ) failure;
+            }
+
+            if ( failure != null )
+            {
+                throw ( RuntimeException ) failure;
+            }
+
+            return ( T ) value;
+        }
+    }
+}
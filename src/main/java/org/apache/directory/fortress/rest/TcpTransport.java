@@ -0,0 +1,553 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.fortress.rest;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.directory.fortress.core.util.Config;
+import org.apache.log4j.Logger;
+
+/**
+ * The default {@link InvalidationBus.Transport}: a TCP connection to each peer listed in <code>rest.bus.peers</code>,
+ * a comma separated list of host:port, and a server socket on <code>rest.bus.host</code> and
+ * <code>rest.bus.port</code> accepting theirs.  The connections coming from a host that is not one of the peers are
+ * closed right away.  Each connection then starts with a {@link Handshake} proving both sides know the secret
+ * <code>rest.bus.secret</code>, the bus can only be fed by the configured servers.  The batches are not encrypted,
+ * the servers must talk over a private network.
+ * <p>
+ * Each batch is written as its length followed by its bytes.  The batches for a peer are queued while it is not
+ * connected, at most <code>rest.bus.peer.max.pending</code> of them, the oldest are dropped first.  A batch is taken
+ * out of the queue once written, it is lost if the connection breaks before the peer reads it: the peer detects the
+ * missing sequence number.  A server may list itself in the peers, its own batches are ignored.
+ * <p>
+ * This class is thread safe.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+final class TcpTransport implements InvalidationBus.Transport, RestMetrics.Source
+{
+    /** A logger for this class */
+    private static final Logger LOG = Logger.getLogger( TcpTransport.class.getName() );
+
+    private static final String HOST = "rest.bus.host";
+    private static final String PORT = "rest.bus.port";
+    private static final String PEERS = "rest.bus.peers";
+    private static final String MAX_PENDING = "rest.bus.peer.max.pending";
+    private static final String SECRET = "rest.bus.secret";
+
+    /** Larger frames are a corrupted stream */
+    private static final int MAX_FRAME = 64 * 1024 * 1024;
+    private static final int CONNECT_TIMEOUT = 2000;
+    private static final long MIN_BACKOFF = 100;
+    private static final long MAX_BACKOFF = 5000;
+
+    private final String host;
+    private final int port;
+    private final int maxPending;
+    private final Handshake handshake;
+    private final List<Peer> peers = new ArrayList<>();
+
+    /** The accepted connections, closed with the transport */
+    private final Set<Socket> accepted = ConcurrentHashMap.newKeySet();
+
+    private final ExecutorService threads = Executors.newCachedThreadPool( runnable ->
+    {
+        Thread thread = new Thread( runnable, "fortress-rest-bus-tcp" );
+        thread.setDaemon( true );
+
+        return thread;
+    } );
+
+    private volatile boolean closed;
+    private ServerSocket server;
+
+    private final AtomicLong framesSent = new AtomicLong();
+    private final AtomicLong framesReceived = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong reconnects = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+
+    /**
+     * Create the transport from the configuration, used by the {@link InvalidationBus}.
+     */
+    TcpTransport()
+    {
+        this( Config.getInstance().getProperty( HOST, "localhost" ), Config.getInstance().getInt( PORT, 6161 ),
+            peers( Config.getInstance().getProperty( PEERS ) ), Config.getInstance().getInt( MAX_PENDING, 10000 ),
+            Config.getInstance().getProperty( SECRET ) );
+    }
+
+
+    /**
+     * @param host The address to listen on
+     * @param port The port to listen on, 0 for any free port
+     * @param peers The servers to send the batches to, the only ones whose connections are accepted
+     * @param maxPending The max number of batches queued for a peer
+     * @param secret The secret shared by all the peers
+     * @throws IllegalArgumentException If the secret is missing
+     */
+    TcpTransport( String host, int port, List<InetSocketAddress> peers, int maxPending, String secret )
+    {
+        this.host = host;
+        this.port = port;
+        this.maxPending = maxPending;
+        this.handshake = new Handshake( secret );
+
+        for ( InetSocketAddress address : peers )
+        {
+            this.peers.add( new Peer( address ) );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void start( final InvalidationBus.Receiver receiver ) throws IOException
+    {
+        server = new ServerSocket();
+        server.setReuseAddress( true );
+        server.bind( new InetSocketAddress( host, port ) );
+        threads.execute( () -> accept( receiver ) );
+
+        for ( Peer peer : peers )
+        {
+            threads.execute( peer::run );
+        }
+
+        LOG.info( "TcpTransport listening on " + server.getLocalSocketAddress() + ", peers " + peers );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void send( byte[] batch )
+    {
+        for ( Peer peer : peers )
+        {
+            peer.offer( batch );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close()
+    {
+        closed = true;
+        close( server );
+
+        for ( Socket socket : accepted )
+        {
+            close( socket );
+        }
+
+        for ( Peer peer : peers )
+        {
+            close( peer.socket );
+        }
+
+        threads.shutdownNow();
+    }
+
+
+    /**
+     * @return The port listened on, once started
+     */
+    int getLocalPort()
+    {
+        return server.getLocalPort();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void collect( Map<String, Number> metrics )
+    {
+        int connected = 0;
+        int pending = 0;
+
+        for ( Peer peer : peers )
+        {
+            connected += peer.socket == null ? 0 : 1;
+            pending += peer.pending.size();
+        }
+
+        metrics.put( "peers", peers.size() );
+        metrics.put( "connected", connected );
+        metrics.put( "accepted", accepted.size() );
+        metrics.put( "pending", pending );
+        metrics.put( "framesSent", framesSent.get() );
+        metrics.put( "framesReceived", framesReceived.get() );
+        metrics.put( "dropped", dropped.get() );
+        metrics.put( "reconnects", reconnects.get() );
+        metrics.put( "rejected", rejected.get() );
+    }
+
+
+    /**
+     * Parse a list of host:port.
+     *
+     * @param value The comma separated list, may be null
+     * @return The addresses, unresolved until connected
+     */
+    static List<InetSocketAddress> peers( String value )
+    {
+        if ( StringUtils.isBlank( value ) )
+        {
+            return Collections.emptyList();
+        }
+
+        List<InetSocketAddress> addresses = new ArrayList<>();
+
+        for ( String peer : value.split( "," ) )
+        {
+            String hostPort = peer.trim();
+            int colon = hostPort.lastIndexOf( ':' );
+
+            if ( colon <= 0 || colon == hostPort.length() - 1 )
+            {
+                throw new IllegalArgumentException( "Invalid " + PEERS + " entry, host:port expected: " + hostPort );
+            }
+
+            addresses.add( InetSocketAddress.createUnresolved( hostPort.substring( 0, colon ),
+                Integer.parseInt( hostPort.substring( colon + 1 ) ) ) );
+        }
+
+        return addresses;
+    }
+
+
+    /**
+     * Accept the connections of the peers.  Runs on its own thread.
+     */
+    private void accept( InvalidationBus.Receiver receiver )
+    {
+        while ( !closed )
+        {
+            try
+            {
+                final Socket socket = server.accept();
+
+                if ( !isPeer( socket.getInetAddress() ) )
+                {
+                    rejected.incrementAndGet();
+                    LOG.warn( "TcpTransport rejected a connection from " + socket.getRemoteSocketAddress()
+                        + ", not in " + PEERS );
+                    close( socket );
+
+                    continue;
+                }
+
+                socket.setTcpNoDelay( true );
+                accepted.add( socket );
+
+                try
+                {
+                    threads.execute( () -> read( socket, receiver ) );
+                }
+                catch ( RejectedExecutionException ree )
+                {
+                    // Closed meanwhile
+                    accepted.remove( socket );
+                    close( socket );
+                }
+            }
+            catch ( IOException ioe )
+            {
+                if ( !closed )
+                {
+                    LOG.warn( "TcpTransport accept failed: " + ioe.getMessage() );
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Tell whether a connection comes from one of the peers.  The peer names are resolved on each connection, the
+     * connections are long lived.
+     */
+    private boolean isPeer( InetAddress remote )
+    {
+        for ( Peer peer : peers )
+        {
+            try
+            {
+                for ( InetAddress address : InetAddress.getAllByName( peer.address.getHostString() ) )
+                {
+                    if ( address.equals( remote ) )
+                    {
+                        return true;
+                    }
+                }
+            }
+            catch ( UnknownHostException uhe )
+            {
+                // Not resolvable now, can't be the remote host
+            }
+        }
+
+        return false;
+    }
+
+
+    /**
+     * Check the peer knows the secret, then read its frames until the connection is closed.  Runs on one thread per
+     * connection.
+     */
+    private void read( Socket socket, InvalidationBus.Receiver receiver )
+    {
+        try ( DataInputStream in = new DataInputStream( new BufferedInputStream( socket.getInputStream() ) );
+            DataOutputStream out = new DataOutputStream( new BufferedOutputStream( socket.getOutputStream() ) ) )
+        {
+            if ( !handshake.accept( socket, in, out, CONNECT_TIMEOUT ) )
+            {
+                rejected.incrementAndGet();
+                LOG.warn( "TcpTransport rejected a connection from " + socket.getRemoteSocketAddress()
+                    + ", it does not know " + SECRET );
+
+                return;
+            }
+
+            while ( !closed )
+            {
+                int length = in.readInt();
+
+                if ( length < 0 || length > MAX_FRAME )
+                {
+                    throw new IOException( "invalid frame length " + length );
+                }
+
+                byte[] frame = new byte[length];
+                in.readFully( frame );
+                framesReceived.incrementAndGet();
+                receiver.receive( frame );
+            }
+        }
+        catch ( EOFException eofe )
+        {
+            // The peer closed the connection
+        }
+        catch ( IOException ioe )
+        {
+            if ( !closed )
+            {
+                LOG.warn( "TcpTransport read from " + socket.getRemoteSocketAddress() + " failed: "
+                    + ioe.getMessage() );
+            }
+        }
+        finally
+        {
+            accepted.remove( socket );
+            close( socket );
+        }
+    }
+
+
+    private static void close( Closeable closeable )
+    {
+        if ( closeable != null )
+        {
+            try
+            {
+                closeable.close();
+            }
+            catch ( IOException ioe )
+            {
+                // Nothing left to do with it
+            }
+        }
+    }
+
+
+    /**
+     * The connection to one peer and the batches queued for it.
+     */
+    private final class Peer
+    {
+        private final InetSocketAddress address;
+        private final BlockingDeque<byte[]> pending = new LinkedBlockingDeque<>();
+
+        /** Null while not connected */
+        private volatile Socket socket;
+
+
+        private Peer( InetSocketAddress address )
+        {
+            this.address = address;
+        }
+
+
+        /**
+         * Queue a batch, dropping the oldest ones when the peer is too far behind.
+         */
+        private void offer( byte[] batch )
+        {
+            pending.offerLast( batch );
+
+            while ( pending.size() > maxPending && pending.pollFirst() != null )
+            {
+                dropped.incrementAndGet();
+            }
+        }
+
+
+        /**
+         * Connect and write the queued batches, reconnecting after a failure.  Runs on one thread per peer.
+         */
+        private void run()
+        {
+            long backoff = MIN_BACKOFF;
+
+            while ( !closed )
+            {
+                try
+                {
+                    DataOutputStream out = connect();
+                    backoff = MIN_BACKOFF;
+
+                    while ( !closed )
+                    {
+                        byte[] batch = pending.takeFirst();
+
+                        try
+                        {
+                            out.writeInt( batch.length );
+                            out.write( batch );
+                            out.flush();
+                            framesSent.incrementAndGet();
+                        }
+                        catch ( IOException ioe )
+                        {
+                            // Sent again on the next connection
+                            pending.offerFirst( batch );
+
+                            throw ioe;
+                        }
+                    }
+                }
+                catch ( InterruptedException ie )
+                {
+                    Thread.currentThread().interrupt();
+
+                    return;
+                }
+                catch ( IOException ioe )
+                {
+                    if ( closed )
+                    {
+                        return;
+                    }
+
+                    LOG.debug( "TcpTransport connection to " + address + " failed: " + ioe.getMessage() );
+                }
+                finally
+                {
+                    close( socket );
+                    socket = null;
+                }
+
+                try
+                {
+                    TimeUnit.MILLISECONDS.sleep( backoff );
+                }
+                catch ( InterruptedException ie )
+                {
+                    Thread.currentThread().interrupt();
+
+                    return;
+                }
+
+                backoff = Math.min( backoff * 2, MAX_BACKOFF );
+                reconnects.incrementAndGet();
+            }
+        }
+
+
+        private DataOutputStream connect() throws IOException
+        {
+            Socket newSocket = new Socket();
+            DataOutputStream out;
+
+            try
+            {
+                newSocket.setTcpNoDelay( true );
+                newSocket.connect( new InetSocketAddress( address.getHostString(), address.getPort() ),
+                    CONNECT_TIMEOUT );
+                newSocket.setSoTimeout( CONNECT_TIMEOUT );
+                out = new DataOutputStream( new BufferedOutputStream( newSocket.getOutputStream() ) );
+                handshake.connect( new DataInputStream( new BufferedInputStream( newSocket.getInputStream() ) ), out,
+                    toString() );
+                newSocket.setSoTimeout( 0 );
+            }
+            catch ( IOException ioe )
+            {
+                close( newSocket );
+
+                throw ioe;
+            }
+
+            socket = newSocket;
+
+            return out;
+        }
+
+
+        @Override
+        public String toString()
+        {
+            return address.getHostString() + ':' + address.getPort();
+        }
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.fortress.rest;
+
+import java.util.Calendar;
+
+import org.apache.directory.fortress.core.model.Constraint;
+
+/**
+ * The date, lock date, time and day of week constraints of a user role, parsed once into integers so they can be
+ * checked on the access path without parsing or allocating.
+ * <p>
+ * Whenever a value can't be parsed the constraint is compiled as unrestricted: the Rest Server only uses these
+ * constraints to reject early what fortress-core would reject, fortress-core still makes every other decision.
+ * <p>
+ * Instances are immutable and thread safe.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+final class TemporalConstraint
+{
+    /** The value fortress uses for an unset date */
+    private static final String NONE = "none";
+
+    /** The day mask allowing every day */
+    private static final String ALL = "all";
+
+    /** All the days of the week, bit n is set for the {@link Calendar#DAY_OF_WEEK} n */
+    private static final int ALL_DAYS = 0xFE;
+
+    /** A constraint that is always active */
+    static final TemporalConstraint UNRESTRICTED = new TemporalConstraint( 0, Integer.MAX_VALUE, 1, 0, 0, 2359,
+        ALL_DAYS );
+
+    /** The dates, in yyyyMMdd, the role can be activated between, inclusive */
+    private final int beginDate;
+    private final int endDate;
+
+    /** The dates, in yyyyMMdd, the role is locked between, inclusive.  No lock when begin is after end */
+    private final int beginLockDate;
+    private final int endLockDate;
+
+    /** The times of day, in HHmm, the role can be activated between, inclusive */
+    private final int beginTime;
+    private final int endTime;
+
+    /** The days of the week the role can be activated, see {@link #ALL_DAYS} */
+    private final int dayMask;
+
+
+    private TemporalConstraint( int beginDate, int endDate, int beginLockDate, int endLockDate, int beginTime,
+        int endTime, int dayMask )
+    {
+        this.beginDate = beginDate;
+        this.endDate = endDate;
+        this.beginLockDate = beginLockDate;
+        this.endLockDate = endLockDate;
+        this.beginTime = beginTime;
+        this.endTime = endTime;
+        this.dayMask = dayMask;
+    }
+
+
+    /**
+     * Parse the temporal values of a constraint.
+     *
+     * @param constraint The user role, or user
+     * @return The compiled constraint
+     */
+    static TemporalConstraint compile( Constraint constraint )
+    {
+        int beginDate = parse( constraint.getBeginDate(), 0 );
+        int endDate = parse( constraint.getEndDate(), Integer.MAX_VALUE );
+        int beginLockDate = parse( constraint.getBeginLockDate(), -1 );
+        int endLockDate = parse( constraint.getEndLockDate(), Integer.MAX_VALUE );
+
+        // No lock unless it has a start
+        if ( beginLockDate < 0 )
+        {
+            beginLockDate = 1;
+            endLockDate = 0;
+        }
+
+        int beginTime = parse( constraint.getBeginTime(), 0 );
+        int endTime = parse( constraint.getEndTime(), 2359 );
+
+        // Identical or reversed times are left to fortress-core
+        if ( beginTime >= endTime )
+        {
+            beginTime = 0;
+            endTime = 2359;
+        }
+
+        return new TemporalConstraint( beginDate, endDate, beginLockDate, endLockDate, beginTime, endTime,
+            days( constraint.getDayMask() ) );
+    }
+
+
+    /**
+     * Tell whether the constraint allows an activation at a given moment.
+     *
+     * @param date The date, in yyyyMMdd, see {@link #date}
+     * @param time The time of day, in HHmm, see {@link #time}
+     * @param day The {@link Calendar#DAY_OF_WEEK}
+     * @return true if the role can be active
+     */
+    boolean isActive( int date, int time, int day )
+    {
+        return date >= beginDate && date <= endDate
+            && ( date < beginLockDate || date > endLockDate )
+            && time >= beginTime && time <= endTime
+            && ( dayMask & ( 1 << day ) ) != 0;
+    }
+
+
+    /**
+     * @param calendar The current moment
+     * @return The date, as the yyyyMMdd integer compared to the constraints
+     */
+    static int date( Calendar calendar )
+    {
+        return calendar.get( Calendar.YEAR ) * 10000 + ( calendar.get( Calendar.MONTH ) + 1 ) * 100
+            + calendar.get( Calendar.DAY_OF_MONTH );
+    }
+
+
+    /**
+     * @param calendar The current moment
+     * @return The time of day, as the HHmm integer compared to the constraints
+     */
+    static int time( Calendar calendar )
+    {
+        return calendar.get( Calendar.HOUR_OF_DAY ) * 100 + calendar.get( Calendar.MINUTE );
+    }
+
+
+    /**
+     * Parse a date or a time made of digits only.
+     *
+     * @param value The value, may be null or "none"
+     * @param unset The value returned when nothing or something invalid is given
+     * @return The parsed value
+     */
+    private static int parse( String value, int unset )
+    {
+        if ( value == null )
+        {
+            return unset;
+        }
+
+        String trimmed = value.trim();
+
+        if ( trimmed.isEmpty() || trimmed.length() > 8 || NONE.equalsIgnoreCase( trimmed ) )
+        {
+            return unset;
+        }
+
+        int parsed = 0;
+
+        for ( int i = 0; i < trimmed.length(); i++ )
+        {
+            char c = trimmed.charAt( i );
+
+            if ( c < '0' || c > '9' )
+            {
+                return unset;
+            }
+
+            parsed = parsed * 10 + ( c - '0' );
+        }
+
+        return parsed;
+    }
+
+
+    /**
+     * Parse a day mask, i.e. "1234567" where 1 is Sunday, or "all".
+     */
+    private static int days( String dayMask )
+    {
+        if ( dayMask == null || dayMask.trim().isEmpty() || ALL.equalsIgnoreCase( dayMask.trim() ) )
+        {
+            return ALL_DAYS;
+        }
+
+        int days = 0;
+
+        for ( int i = 0; i < dayMask.length(); i++ )
+        {
+            char c = dayMask.charAt( i );
+
+            if ( c >= '1' && c <= '7' )
+            {
+                days |= 1 << ( c - '0' );
+            }
+            else if ( !Character.isWhitespace( c ) )
+            {
+                return ALL_DAYS;
+            }
+        }
+
+        return days;
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.fortress.rest;
+
+import java.util.Calendar;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.directory.fortress.core.model.Constraint;
+import org.apache.directory.fortress.core.model.Session;
+import org.apache.directory.fortress.core.model.UserRole;
+import org.apache.directory.fortress.core.util.Config;
+import org.apache.log4j.Logger;
+
+/**
+ * Cache of the {@link TemporalConstraint}s compiled from the user roles carried by the sessions.  The roles of a
+ * session come back with every request, the cache makes sure each distinct set of constraint values is parsed once.
+ * The constraints are kept by role name, with a few variants per name for the users holding the role with different
+ * values: a lookup compares the values of the user role in place and allocates nothing.
+ * <p>
+ * The constraints let checkAccess answer false without going to the directory when none of the session roles can be
+ * active at the current time, see {@link #noActiveRole}.  This precheck is disabled unless
+ * <code>rest.temporal.precheck.enabled=true</code>.  The cache holds at most
+ * <code>rest.temporal.cache.max.entries</code> constraints.
+ * <p>
+ * This class is thread safe.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+final class TemporalConstraints implements RestMetrics.Source
+{
+    /** A logger for this class */
+    private static final Logger LOG = Logger.getLogger( TemporalConstraints.class.getName() );
+
+    private static final String ENABLED = "rest.temporal.precheck.enabled";
+    private static final String MAX_ENTRIES = "rest.temporal.cache.max.entries";
+
+    /** Max number of distinct constraint values kept for a role name, the oldest is dropped first */
+    private static final int MAX_VARIANTS = 8;
+
+    private static final TemporalConstraints INSTANCE = new TemporalConstraints();
+
+    /** One calendar per thread, reused to read the current date and time */
+    private static final ThreadLocal<Calendar> CALENDAR = ThreadLocal.withInitial( Calendar::getInstance );
+
+    private final boolean enabled;
+    private final int maxEntries;
+
+    /** The compiled constraints, by role name */
+    private final ConcurrentMap<String, Compiled[]> compiled = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong compilations = new AtomicLong();
+    private final AtomicLong rejections = new AtomicLong();
+
+
+    private TemporalConstraints()
+    {
+        Config config = Config.getInstance();
+        enabled = config.getBoolean( ENABLED, false );
+        maxEntries = config.getInt( MAX_ENTRIES, 10000 );
+        RestMetrics.register( "temporalConstraints", this );
+        LOG.info( "TemporalConstraints precheck enabled=" + enabled );
+    }
+
+
+    static TemporalConstraints getInstance()
+    {
+        return INSTANCE;
+    }
+
+
+    /**
+     * Return the compiled form of a constraint, compiling it on its first use.
+     *
+     * @param constraint The user role
+     * @return The compiled constraint
+     */
+    TemporalConstraint get( Constraint constraint )
+    {
+        String name = constraint.getName() == null ? "" : constraint.getName();
+        Compiled[] variants = compiled.get( name );
+
+        if ( variants != null )
+        {
+            for ( Compiled variant : variants )
+            {
+                if ( variant.matches( constraint ) )
+                {
+                    hits.incrementAndGet();
+
+                    return variant.temporal;
+                }
+            }
+        }
+
+        Compiled variant = new Compiled( constraint );
+        compilations.incrementAndGet();
+        Compiled[] newVariants;
+
+        if ( variants == null )
+        {
+            newVariants = new Compiled[] { variant };
+        }
+        else
+        {
+            int kept = Math.min( variants.length, MAX_VARIANTS - 1 );
+            newVariants = new Compiled[kept + 1];
+            System.arraycopy( variants, variants.length - kept, newVariants, 0, kept );
+            newVariants[kept] = variant;
+        }
+
+        if ( compiled.size() >= maxEntries )
+        {
+            compiled.clear();
+        }
+
+        // A concurrent compilation of the same name may be lost, it is compiled again on its next use
+        compiled.put( name, newVariants );
+
+        return variant.temporal;
+    }
+
+
+    /**
+     * Tell whether none of the roles of a user session can be active now.  The constraints of the user itself and
+     * the role timeouts are left to fortress-core.
+     *
+     * @param session The user session
+     * @return true when the precheck is enabled and no role of the session passes its temporal constraints
+     */
+    boolean noActiveRole( Session session )
+    {
+        if ( !enabled || session == null || session.getUser() == null )
+        {
+            return false;
+        }
+
+        List<UserRole> roles = session.getRoles();
+
+        if ( roles != null && !roles.isEmpty() )
+        {
+            Calendar calendar = CALENDAR.get();
+            calendar.setTimeInMillis( System.currentTimeMillis() );
+            int date = TemporalConstraint.date( calendar );
+            int time = TemporalConstraint.time( calendar );
+            int day = calendar.get( Calendar.DAY_OF_WEEK );
+
+            // Indexed, the session roles are an array list
+            for ( int i = 0; i < roles.size(); i++ )
+            {
+                if ( get( roles.get( i ) ).isActive( date, time, day ) )
+                {
+                    return false;
+                }
+            }
+        }
+
+        rejections.incrementAndGet();
+
+        return true;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void collect( Map<String, Number> metrics )
+    {
+        metrics.put( "hits", hits.get() );
+        metrics.put( "compilations", compilations.get() );
+        metrics.put( "hitRatio", RestMetrics.ratio( hits.get(), hits.get() + compilations.get() ) );
+        metrics.put( "noActiveRole", rejections.get() );
+        metrics.put( "size", compiled.size() );
+    }
+
+
+    /**
+     * A compiled constraint and the values it was compiled from.
+     */
+    private static final class Compiled
+    {
+        private final String beginDate;
+        private final String endDate;
+        private final String beginLockDate;
+        private final String endLockDate;
+        private final String beginTime;
+        private final String endTime;
+        private final String dayMask;
+        private final TemporalConstraint temporal;
+
+
+        private Compiled( Constraint constraint )
+        {
+            beginDate = constraint.getBeginDate();
+            endDate = constraint.getEndDate();
+            beginLockDate = constraint.getBeginLockDate();
+            endLockDate = constraint.getEndLockDate();
+            beginTime = constraint.getBeginTime();
+            endTime = constraint.getEndTime();
+            dayMask = constraint.getDayMask();
+            temporal = TemporalConstraint.compile( constraint );
+        }
+
+
+        private boolean matches( Constraint constraint )
+        {
+            return Objects.equals( beginDate, constraint.getBeginDate() )
+                && Objects.equals( endDate, constraint.getEndDate() )
+                && Objects.equals( beginLockDate, constraint.getBeginLockDate() )
+                && Objects.equals( endLockDate, constraint.getEndLockDate() )
+                && Objects.equals( beginTime, constraint.getBeginTime() )
+                && Objects.equals( endTime, constraint.getEndTime() )
+                && Objects.equals( dayMask, constraint.getDayMask() );
+        }
+    }
+}
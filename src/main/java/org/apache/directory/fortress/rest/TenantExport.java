@@ -0,0 +1,330 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.fortress.rest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.GZIPOutputStream;
+
+import javax.ws.rs.core.StreamingOutput;
+
+import org.apache.directory.fortress.core.DelReviewMgr;
+import org.apache.directory.fortress.core.DelReviewMgrFactory;
+import org.apache.directory.fortress.core.GroupMgr;
+import org.apache.directory.fortress.core.GroupMgrFactory;
+import org.apache.directory.fortress.core.PwPolicyMgr;
+import org.apache.directory.fortress.core.PwPolicyMgrFactory;
+import org.apache.directory.fortress.core.ReviewMgr;
+import org.apache.directory.fortress.core.ReviewMgrFactory;
+import org.apache.directory.fortress.core.SecurityException;
+import org.apache.directory.fortress.core.ValidationException;
+import org.apache.directory.fortress.core.model.FortEntity;
+import org.apache.directory.fortress.core.model.FortRequest;
+import org.apache.directory.fortress.core.model.Group;
+import org.apache.directory.fortress.core.model.OrgUnit;
+import org.apache.directory.fortress.core.model.PermObj;
+import org.apache.directory.fortress.core.model.Permission;
+import org.apache.directory.fortress.core.model.PwPolicy;
+import org.apache.directory.fortress.core.model.Role;
+import org.apache.directory.fortress.core.model.SDSet;
+import org.apache.directory.fortress.core.model.Session;
+import org.apache.directory.fortress.core.model.User;
+import org.apache.log4j.Logger;
+
+/**
+ * Streams the whole policy of a tenant as a gzipped file of JSON lines, one entity per line:
+ * <pre>
+ * {"section":"USER","checkpoint":"USER\tjoe","entity":{...}}
+ * </pre>
+ * The sections are written in a fixed order, the entities of a section sorted by key, and the last line is
+ * <code>{"section":"END"}</code>.  An export that was cut can be resumed by sending back the checkpoint of the last
+ * line received, the export restarts right after that entity.  A directory error ends the stream with an
+ * <code>{"section":"ERROR","message":...}</code> line.
+ * <p>
+ * Each section is read with a single directory search and written before the next one is read, so the memory held is
+ * bounded by the largest section.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+final class TenantExport implements StreamingOutput
+{
+    /** A logger for this class */
+    private static final Logger LOG = Logger.getLogger( TenantExport.class.getName() );
+
+    /** Separates the section from the key in a checkpoint */
+    private static final char CHECKPOINT_SEP = '\t';
+
+    /** Flush the stream every so many entities */
+    private static final int FLUSH_EVERY = 1000;
+
+    private static final JacksonFieldOnlyMapper MAPPER = new JacksonFieldOnlyMapper();
+
+    /**
+     * The parts of the export, in the order they are written.
+     */
+    enum Section
+    {
+        USER_OU,
+        PERM_OU,
+        PW_POLICY,
+        ROLE,
+        USER,
+        PERM_OBJ,
+        PERMISSION,
+        GROUP,
+        SSD,
+        DSD
+    }
+
+    private final String contextId;
+    private final Session session;
+
+    /** The checkpoint the export resumes after, null to export everything */
+    private final Section fromSection;
+    private final String fromKey;
+
+
+    private TenantExport( String contextId, Session session, Section fromSection, String fromKey )
+    {
+        this.contextId = contextId;
+        this.session = session;
+        this.fromSection = fromSection;
+        this.fromKey = fromKey;
+    }
+
+
+    /**
+     * Prepare the export of a tenant.
+     *
+     * @param request The request, gives the tenant, the administrative session and in value an optional checkpoint
+     * @return The export, written when the response is sent
+     * @throws ValidationException If the checkpoint is invalid
+     */
+    static TenantExport create( FortRequest request ) throws ValidationException
+    {
+        String checkpoint = request.getValue();
+
+        if ( checkpoint == null || checkpoint.isEmpty() )
+        {
+            return new TenantExport( request.getContextId(), request.getSession(), null, null );
+        }
+
+        int sep = checkpoint.indexOf( CHECKPOINT_SEP );
+
+        try
+        {
+            if ( sep < 0 )
+            {
+                throw new IllegalArgumentException( "no key" );
+            }
+
+            Section section = Section.valueOf( checkpoint.substring( 0, sep ) );
+
+            return new TenantExport( request.getContextId(), request.getSession(), section,
+                checkpoint.substring( sep + 1 ) );
+        }
+        catch ( IllegalArgumentException iae )
+        {
+            throw new ValidationException( RestErrIds.EXPORT_INVALID_CHECKPOINT, "Invalid export checkpoint "
+                + checkpoint );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write( OutputStream output ) throws IOException
+    {
+        GZIPOutputStream gzip = new GZIPOutputStream( output, 64 * 1024 );
+        Writer out = new OutputStreamWriter( gzip, StandardCharsets.UTF_8 );
+        int written = 0;
+
+        try
+        {
+            for ( Section section : Section.values() )
+            {
+                if ( fromSection != null && section.compareTo( fromSection ) < 0 )
+                {
+                    continue;
+                }
+
+                for ( Map.Entry<String, FortEntity> entity : scan( contextId, session, section ).entrySet() )
+                {
+                    if ( section == fromSection && entity.getKey().compareTo( fromKey ) <= 0 )
+                    {
+                        continue;
+                    }
+
+                    String checkpoint = section.name() + CHECKPOINT_SEP + entity.getKey();
+                    out.write( "{\"section\":\"" + section + "\",\"checkpoint\":" + MAPPER.writeValueAsString( checkpoint )
+                        + ",\"entity\":" + MAPPER.writeValueAsString( entity.getValue() ) + "}\n" );
+
+                    if ( ++written % FLUSH_EVERY == 0 )
+                    {
+                        out.flush();
+                    }
+                }
+            }
+
+            out.write( "{\"section\":\"END\"}\n" );
+        }
+        catch ( SecurityException se )
+        {
+            LOG.warn( "TenantExport of " + contextId + " stopped after " + written + " entities: " + se );
+            out.write( "{\"section\":\"ERROR\",\"message\":" + MAPPER.writeValueAsString( se.getMessage() ) + "}\n" );
+        }
+
+        out.flush();
+        gzip.finish();
+    }
+
+
+    /**
+     * Read all the entities of a section from the directory.
+     *
+     * @param contextId The tenant
+     * @param session The administrative session, may be null
+     * @param section The section
+     * @return The entities, sorted by key
+     * @throws SecurityException If the directory could not be read
+     */
+    static Map<String, FortEntity> scan( String contextId, Session session, Section section ) throws SecurityException
+    {
+        Map<String, FortEntity> entities = new TreeMap<>();
+
+        switch ( section )
+        {
+            case USER_OU:
+            case PERM_OU:
+                DelReviewMgr delReviewMgr = DelReviewMgrFactory.createInstance( contextId );
+                delReviewMgr.setAdmin( session );
+                OrgUnit.Type type = section == Section.USER_OU ? OrgUnit.Type.USER : OrgUnit.Type.PERM;
+
+                for ( OrgUnit orgUnit : delReviewMgr.search( type, "" ) )
+                {
+                    entities.put( EntityType.key( orgUnit.getName() ), orgUnit );
+                }
+
+                break;
+
+            case PW_POLICY:
+                PwPolicyMgr pwPolicyMgr = PwPolicyMgrFactory.createInstance( contextId );
+                pwPolicyMgr.setAdmin( session );
+
+                for ( PwPolicy policy : pwPolicyMgr.search( "" ) )
+                {
+                    entities.put( EntityType.key( policy.getName() ), policy );
+                }
+
+                break;
+
+            case GROUP:
+                GroupMgr groupMgr = GroupMgrFactory.createInstance( contextId );
+                groupMgr.setAdmin( session );
+
+                for ( Group group : groupMgr.find( new Group( "" ) ) )
+                {
+                    entities.put( EntityType.key( group.getName() ), group );
+                }
+
+                break;
+
+            default:
+                scan( contextId, session, section, entities );
+                break;
+        }
+
+        return entities;
+    }
+
+
+    /**
+     * Read the entities of a section managed by the ReviewMgr.
+     */
+    private static void scan( String contextId, Session session, Section section, Map<String, FortEntity> entities )
+        throws SecurityException
+    {
+        ReviewMgr reviewMgr = ReviewMgrFactory.createInstance( contextId );
+        reviewMgr.setAdmin( session );
+        SDSet allSets = new SDSet();
+        allSets.setName( "" );
+
+        switch ( section )
+        {
+            case ROLE:
+                for ( Role role : reviewMgr.findRoles( "" ) )
+                {
+                    entities.put( EntityType.key( role.getName() ), role );
+                }
+
+                break;
+
+            case USER:
+                for ( User user : reviewMgr.findUsers( new User( "" ) ) )
+                {
+                    entities.put( EntityType.key( user.getUserId() ), user );
+                }
+
+                break;
+
+            case PERM_OBJ:
+                for ( PermObj permObj : reviewMgr.findPermObjs( new PermObj( "" ) ) )
+                {
+                    entities.put( EntityType.key( permObj ), permObj );
+                }
+
+                break;
+
+            case PERMISSION:
+                for ( Permission perm : reviewMgr.findPermissions( new Permission( "", "" ) ) )
+                {
+                    entities.put( EntityType.key( perm ), perm );
+                }
+
+                break;
+
+            case SSD:
+                for ( SDSet set : reviewMgr.ssdSets( allSets ) )
+                {
+                    entities.put( EntityType.key( set.getName() ), set );
+                }
+
+                break;
+
+            case DSD:
+                for ( SDSet set : reviewMgr.dsdSets( allSets ) )
+                {
+                    entities.put( EntityType.key( set.getName() ), set );
+                }
+
+                break;
+
+            default:
+                break;
+        }
+    }
+}
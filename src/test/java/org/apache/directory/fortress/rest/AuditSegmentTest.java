@@ -0,0 +1,62 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.fortress.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class AuditSegmentTest {
+    @Test
+    public void testWriteRead() throws Exception {
+        List<String> lines = new ArrayList<>();
+        lines.add("1500000000000\tHOME\tAUTHN\tjoe\t\ttrue");
+        lines.add("1500000000500\tHOME\tAUTHZ\tjoe\tobj.read\tfalse");
+        lines.add("1499999999000\tHOME\tAUTHZ\tann\tobj.write.42\ttrue");
+        List<String[]> records = new ArrayList<>();
+        for (String line : lines) {
+            records.add(AuditSegment.fields(line));
+        }
+        Path path = Files.createTempFile("audit", ".col");
+        try {
+            AuditSegment.write(path, records);
+            AuditSegment header = AuditSegment.header(path);
+            assertEquals(3, header.getCount());
+            assertEquals(1499999999000L, header.getMinTime());
+            assertEquals(1500000000500L, header.getMaxTime());
+            assertTrue(header.mayContain("JOE"));
+            assertTrue(header.mayContain("ann"));
+            assertFalse(header.mayContain("nobody-at-all"));
+            assertEquals(lines, AuditSegment.read(path, "HOME"));
+        } finally {
+            Files.delete(path);
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.fortress.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.fail;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.directory.fortress.core.GlobalErrIds;
+import org.apache.directory.fortress.core.PasswordException;
+import org.apache.directory.fortress.core.SecurityException;
+import org.apache.directory.fortress.core.model.Session;
+import org.apache.directory.fortress.core.model.User;
+import org.apache.directory.fortress.core.model.UserRole;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class AuthCacheTest {
+    private static final String TENANT = "HOME";
+
+    private final AuthCache cache = new AuthCache(true, 30, 100, 1);
+    private final AtomicInteger binds = new AtomicInteger();
+
+    @Test
+    public void testWrongPasswordMisses() throws SecurityException {
+        authenticate(AuthCache.Kind.AUTHENTICATE, "jsmith", "password");
+        authenticate(AuthCache.Kind.AUTHENTICATE, "jsmith", "password");
+        assertEquals(1, binds.get());
+
+        // The directory is asked, and rejects it
+        try {
+            cache.authenticate(TENANT, AuthCache.Kind.AUTHENTICATE, new User("jsmith", "wrong"), () -> {
+                binds.incrementAndGet();
+                throw new PasswordException(GlobalErrIds.USER_PW_INVLD, "invalid password");
+            });
+            fail("wrong password served from the cache");
+        } catch (PasswordException pe) {
+            assertEquals(2, binds.get());
+        }
+
+        // The failure is not cached, the right password still hits
+        authenticate(AuthCache.Kind.AUTHENTICATE, "jsmith", "password");
+        assertEquals(2, binds.get());
+        assertEquals(1, metrics().get("passwordMismatches").longValue());
+    }
+
+    @Test
+    public void testInvalidation() throws SecurityException {
+        authenticate(AuthCache.Kind.AUTHENTICATE, "jsmith", "password");
+        authenticate(AuthCache.Kind.SESSION, "jsmith", "password", "teller");
+        assertEquals(2, binds.get());
+
+        // A password change drops both entries of the user
+        cache.changed(TENANT, EntityType.USER, EntityType.key("JSmith"), "JSmith", ChangeOp.UPDATE);
+        authenticate(AuthCache.Kind.AUTHENTICATE, "jsmith", "password");
+        authenticate(AuthCache.Kind.SESSION, "jsmith", "password", "teller");
+        assertEquals(4, binds.get());
+
+        // A role change drops the sessions only
+        cache.changed(TENANT, EntityType.ROLE, "teller", "teller", ChangeOp.UPDATE);
+        authenticate(AuthCache.Kind.AUTHENTICATE, "jsmith", "password");
+        assertEquals(4, binds.get());
+        authenticate(AuthCache.Kind.SESSION, "jsmith", "password", "teller");
+        assertEquals(5, binds.get());
+
+        // Another tenant is not touched
+        cache.changed("other", EntityType.USER, "jsmith", "jsmith", ChangeOp.UPDATE);
+        authenticate(AuthCache.Kind.SESSION, "jsmith", "password", "teller");
+        assertEquals(5, binds.get());
+    }
+
+    @Test
+    public void testReturnsCopies() throws SecurityException {
+        Session first = authenticate(AuthCache.Kind.SESSION, "jsmith", "password", "teller");
+        Session second = authenticate(AuthCache.Kind.SESSION, "jsmith", "password", "teller");
+        Session third = authenticate(AuthCache.Kind.SESSION, "jsmith", "password", "teller");
+        assertEquals(1, binds.get());
+
+        assertNotSame(first, second);
+        assertNotSame(second, third);
+        assertEquals("jsmith", second.getUserId());
+        assertEquals("teller", second.getRoles().get(0).getName());
+        assertNotNull(second.getSessionId());
+        assertNotEquals(first.getSessionId(), second.getSessionId());
+        assertNotEquals(second.getSessionId(), third.getSessionId());
+
+        // A caller changing its session does not change the cached one
+        first.getRoles().clear();
+        second.setUserId("changed");
+        Session fourth = authenticate(AuthCache.Kind.SESSION, "jsmith", "password", "teller");
+        assertEquals("jsmith", fourth.getUserId());
+        assertEquals(1, fourth.getRoles().size());
+    }
+
+    @Test
+    public void testDisabled() throws SecurityException {
+        AuthCache disabled = new AuthCache(false, 30, 100, 1);
+        for (int i = 0; i < 3; i++) {
+            disabled.authenticate(TENANT, AuthCache.Kind.AUTHENTICATE, new User("jsmith", "password"),
+                () -> session("jsmith"));
+        }
+        Map<String, Number> metrics = new HashMap<>();
+        disabled.collect(metrics);
+        assertEquals(3, metrics.get("bypassed").longValue());
+        assertEquals(0, metrics.get("size").intValue());
+    }
+
+    private Session authenticate(AuthCache.Kind kind, String userId, String password, String... roles)
+        throws SecurityException {
+        User user = new User(userId, password);
+        for (String role : roles) {
+            user.setRoleName(role);
+        }
+        return cache.authenticate(TENANT, kind, user, () -> {
+            binds.incrementAndGet();
+            Session session = session(userId);
+            for (String role : roles) {
+                session.setRole(new UserRole(userId, role));
+            }
+            return session;
+        });
+    }
+
+    private static Session session(String userId) {
+        Session session = new Session(new User(userId));
+        session.setAuthenticated(true);
+        return session;
+    }
+
+    private Map<String, Number> metrics() {
+        Map<String, Number> metrics = new HashMap<>();
+        cache.collect(metrics);
+        return metrics;
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.fortress.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.directory.fortress.core.model.Group;
+import org.apache.directory.fortress.core.model.Role;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class FieldProjectionTest {
+    @Test
+    public void testParse() {
+        assertNull(FieldProjection.parse(null));
+        assertNull(FieldProjection.parse("limit=10"));
+        assertNull(FieldProjection.parse("fields="));
+        Set<String> fields = FieldProjection.parse("limit=10&fields=userId%2C%20Name&fields=ou");
+        assertEquals(new HashSet<>(Arrays.asList("userid", "name", "ou")), fields);
+    }
+
+    @Test
+    public void testProject() throws Exception {
+        Role role = new Role("r1");
+        role.setParents(Collections.singleton("r0"));
+        Role copy = FieldProjection.project(role, FieldProjection.parse("fields=name,unknown"));
+        assertTrue(copy != role);
+        assertEquals(Collections.singleton("r0"), role.getParents());
+        // The entities are serialized from their fields, the getters would create empty collections
+        JsonNode json = new JacksonFieldOnlyMapper().valueToTree(copy);
+        assertEquals("r1", json.get("name").asText());
+        assertTrue(json.get("parents") == null || json.get("parents").isNull());
+        assertTrue(json.get("description") == null || json.get("description").isNull());
+    }
+
+    @Test
+    public void testProjectClearsDefaults() throws Exception {
+        // The Group constructor sets empty roles and props
+        Group copy = FieldProjection.project(new Group("g1"), FieldProjection.parse("fields=name"));
+        JsonNode json = new JacksonFieldOnlyMapper().valueToTree(copy);
+        assertEquals("g1", json.get("name").asText());
+        assertTrue(json.get("roles") == null || json.get("roles").isNull());
+        assertTrue(json.get("props") == null || json.get("props").isNull());
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.fortress.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.directory.fortress.core.GlobalErrIds;
+import org.apache.directory.fortress.core.model.FortResponse;
+import org.apache.directory.fortress.core.model.Role;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class FortressServiceImplTest {
+    @Test
+    public void testNotModified() {
+        String etag = "\"0123456789abcdef\"";
+
+        FortResponse response = FortressServiceImpl.notModified(etag, etag);
+        assertNotNull(response);
+        assertEquals(HttpServletResponse.SC_NOT_MODIFIED, response.getHttpStatus());
+        assertEquals(GlobalErrIds.NO_ERROR, response.getErrorCode());
+        assertNull(response.getEntity());
+
+        assertNotNull(FortressServiceImpl.notModified("W/" + etag, etag));
+        assertNotNull(FortressServiceImpl.notModified("\"other\", W/" + etag + " ,\"more\"", etag));
+        assertNull(FortressServiceImpl.notModified("\"other\"", etag));
+        assertNull(FortressServiceImpl.notModified("*", etag));
+        assertNull(FortressServiceImpl.notModified("", etag));
+    }
+
+    @Test
+    public void testETagFromContent() {
+        // Two servers reading the same role give the same ETag
+        String etag = FortressServiceImpl.etag(response(new Role("teller")));
+        assertNotNull(etag);
+        assertEquals(34, etag.length());
+        assertEquals(etag, FortressServiceImpl.etag(response(new Role("teller"))));
+        assertNotNull(FortressServiceImpl.notModified(etag, FortressServiceImpl.etag(response(new Role("teller")))));
+
+        Role changed = new Role("teller");
+        changed.setDescription("changed");
+        assertNotEquals(etag, FortressServiceImpl.etag(response(changed)));
+        assertNotEquals(etag, FortressServiceImpl.etag(response(new Role("cashier"))));
+    }
+
+    private static FortResponse response(Role role) {
+        FortResponse response = new FortResponse();
+        response.setErrorCode(GlobalErrIds.NO_ERROR);
+        response.setEntity(role);
+        return response;
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.fortress.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class InvalidationBatchTest {
+    @Test
+    public void testEncode() throws IOException {
+        InvalidationBatch batch = new InvalidationBatch("node1", 42, Arrays.asList(
+            new InvalidationBatch.Event("HOME", EntityType.USER, "jdoe", "jDoe", ChangeOp.ADD, 1000L),
+            new InvalidationBatch.Event("t1", EntityType.PERMISSION, null, null, ChangeOp.UPDATE, 2000L)));
+
+        InvalidationBatch decoded = InvalidationBatch.decode(batch.encode());
+        assertEquals("node1", decoded.getNode());
+        assertEquals(42, decoded.getSequence());
+        assertEquals(2, decoded.getEvents().size());
+
+        InvalidationBatch.Event user = decoded.getEvents().get(0);
+        assertEquals("HOME", user.getTenant());
+        assertEquals(EntityType.USER, user.getType());
+        assertEquals("jdoe", user.getKey());
+        assertEquals("jDoe", user.getName());
+        assertEquals(ChangeOp.ADD, user.getOp());
+        assertEquals(1000L, user.getTime());
+
+        InvalidationBatch.Event all = decoded.getEvents().get(1);
+        assertEquals(EntityType.PERMISSION, all.getType());
+        assertNull(all.getKey());
+        assertNull(all.getName());
+    }
+
+    @Test
+    public void testDecodeInvalid() {
+        byte[] bytes = new InvalidationBatch("node1", 1, Arrays.asList(
+            new InvalidationBatch.Event("HOME", EntityType.ROLE, "r1", "R1", ChangeOp.DELETE, 1L))).encode();
+
+        try {
+            InvalidationBatch.decode(Arrays.copyOf(bytes, bytes.length - 3));
+            fail("truncated batch decoded");
+        } catch (IOException expected) {
+        }
+
+        bytes[0] = 0;
+
+        try {
+            InvalidationBatch.decode(bytes);
+            fail("batch without magic decoded");
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void testCoalesce() {
+        List<InvalidationBatch.Event> events = Arrays.asList(
+            event("HOME", EntityType.USER, "u1", ChangeOp.ADD, 10),
+            event("HOME", EntityType.ROLE, "r1", ChangeOp.ADD, 11),
+            event("HOME", EntityType.USER, "u1", ChangeOp.DELETE, 12),
+            event("t1", EntityType.USER, "u1", ChangeOp.UPDATE, 13));
+
+        List<InvalidationBatch.Event> coalesced = InvalidationBatch.coalesce(events, 10);
+        assertEquals(3, coalesced.size());
+        // The last write wins, the first write time is kept
+        assertEquals(ChangeOp.DELETE, coalesced.get(0).getOp());
+        assertEquals(10, coalesced.get(0).getTime());
+        assertEquals(EntityType.ROLE, coalesced.get(1).getType());
+        assertEquals("t1", coalesced.get(2).getTenant());
+    }
+
+    @Test
+    public void testCoalesceTypeWide() {
+        List<InvalidationBatch.Event> events = new ArrayList<>();
+
+        for (int i = 0; i < 5; i++) {
+            events.add(event("HOME", EntityType.USER, "u" + i, ChangeOp.UPDATE, 100 + i));
+        }
+
+        events.add(event("HOME", EntityType.ROLE, "r1", ChangeOp.ADD, 1));
+        List<InvalidationBatch.Event> coalesced = InvalidationBatch.coalesce(events, 3);
+        assertEquals(2, coalesced.size());
+        assertNull(coalesced.get(0).getKey());
+        assertEquals(ChangeOp.UPDATE, coalesced.get(0).getOp());
+        assertEquals(100, coalesced.get(0).getTime());
+        assertEquals("r1", coalesced.get(1).getKey());
+
+        // A write to the whole type absorbs the writes to its entities
+        events = Arrays.asList(
+            event("HOME", EntityType.PERMISSION, "p1", ChangeOp.ADD, 5),
+            event("HOME", EntityType.PERMISSION, null, ChangeOp.UPDATE, 6),
+            event("HOME", EntityType.PERMISSION, "p2", ChangeOp.ADD, 7));
+        coalesced = InvalidationBatch.coalesce(events, 10);
+        assertEquals(1, coalesced.size());
+        assertNull(coalesced.get(0).getKey());
+        assertEquals(5, coalesced.get(0).getTime());
+    }
+
+    private static InvalidationBatch.Event event(String tenant, EntityType type, String key, ChangeOp op,
+        long time) {
+        return new InvalidationBatch.Event(tenant, type, key, key, op, time);
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.fortress.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LatencyHistogramTest {
+    @Test
+    public void testBuckets() {
+        for (long micros = 0; micros < 1000000; micros += 7) {
+            int index = LatencyHistogram.index(micros);
+            assertTrue(micros + " above its bucket", micros <= LatencyHistogram.upper(index));
+            assertTrue(micros + " below its bucket", index == 0 || micros > LatencyHistogram.upper(index - 1));
+        }
+    }
+
+    @Test
+    public void testPercentile() {
+        LatencyHistogram histogram = new LatencyHistogram(TimeUnit.MINUTES.toNanos(1));
+        assertEquals(0, histogram.percentile(95));
+
+        // 1ms to 100ms
+        for (int millis = 1; millis <= 100; millis++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(millis));
+        }
+
+        assertEquals(100, histogram.count());
+        assertNear(95, histogram.percentile(95));
+        assertNear(50, histogram.percentile(50));
+        assertNear(100, histogram.percentile(100));
+        assertNear(1, histogram.percentile(0));
+    }
+
+    @Test
+    public void testWindows() throws InterruptedException {
+        LatencyHistogram histogram = new LatencyHistogram(TimeUnit.MILLISECONDS.toNanos(20));
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(500));
+        Thread.sleep(30);
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(1));
+
+        // The previous window is kept
+        assertEquals(2, histogram.count());
+        assertNear(500, histogram.percentile(100));
+
+        Thread.sleep(30);
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(1));
+        assertEquals(2, histogram.count());
+        assertNear(1, histogram.percentile(100));
+    }
+
+    private static void assertNear(long millis, long nanos) {
+        double actual = nanos / 1e6;
+        assertTrue("expected about " + millis + "ms, got " + actual, actual >= millis && actual <= millis * 1.07);
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.fortress.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LoginCountersTest {
+    private static final long HALF_LIFE = TimeUnit.MINUTES.toNanos(1);
+
+    @Test
+    public void testDecay() {
+        LoginCounters counters = new LoginCounters(4, 1000, HALF_LIFE);
+        long now = 0;
+
+        for (int i = 0; i < 8; i++) {
+            counters.fail("HOME:user:10.0.0.1", now);
+        }
+
+        assertEquals(8, counters.failures("HOME:user:10.0.0.1", now), 0.001);
+        assertEquals(4, counters.failures("HOME:user:10.0.0.1", now + HALF_LIFE), 0.001);
+        assertEquals(0, counters.failures("HOME:other:10.0.0.1", now), 0);
+
+        assertTrue(counters.clear("HOME:user:10.0.0.1"));
+        assertFalse(counters.clear("HOME:user:10.0.0.1"));
+        assertEquals(0, counters.failures("HOME:user:10.0.0.1", now), 0);
+    }
+
+    @Test
+    public void testFloodKeepsThrottledKey() {
+        LoginCounters counters = new LoginCounters(2, 100, HALF_LIFE);
+        long now = 0;
+
+        for (int i = 0; i < 10; i++) {
+            counters.fail("HOME:target:10.0.0.1", now);
+        }
+
+        // Distinct userIds failing once each, many times what the shards hold
+        int evicted = 0;
+
+        for (int i = 0; i < 10000; i++) {
+            evicted += counters.fail("HOME:spray" + i + ":10.0.0.2", now);
+        }
+
+        assertTrue(evicted > 0);
+        assertTrue(counters.size() <= 100);
+        assertEquals(10, counters.failures("HOME:target:10.0.0.1", now), 0.001);
+    }
+}
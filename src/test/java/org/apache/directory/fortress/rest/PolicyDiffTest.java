@@ -0,0 +1,54 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.fortress.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class PolicyDiffTest {
+    @Test
+    public void testCanonical() {
+        Map<String, Object> staging = new HashMap<>();
+        staging.put("name", "auditor");
+        staging.put("id", "7d2c");
+        staging.put("dn", "cn=auditor,ou=Roles,dc=staging");
+        staging.put("parents", Arrays.asList("b", "a"));
+        staging.put("description", null);
+
+        Map<String, Object> production = new HashMap<>();
+        production.put("name", "auditor");
+        production.put("id", "91fe");
+        production.put("parents", Arrays.asList("a", "b"));
+
+        assertEquals(PolicyDiff.canonical(staging), PolicyDiff.canonical(production));
+
+        production.put("parents", Arrays.asList("a"));
+        assertFalse(PolicyDiff.canonical(staging).equals(PolicyDiff.canonical(production)));
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.fortress.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.directory.fortress.core.ValidationException;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class PolicyDocumentTest {
+    @Test
+    public void testServerPolicy() throws Exception {
+        try (InputStream input = getClass().getResourceAsStream("/FortressRestServerPolicy.xml")) {
+            PolicyDocument document = PolicyDocument.parse(input);
+            assertEquals(1, document.getItems(PolicyDocument.Phase.ORG_UNIT).size());
+            assertEquals(12, document.getItems(PolicyDocument.Phase.ROLE).size());
+            assertEquals(10, document.getItems(PolicyDocument.Phase.HIERARCHY).size());
+            assertEquals(1, document.getItems(PolicyDocument.Phase.USER).size());
+            assertEquals(1, document.getItems(PolicyDocument.Phase.GRANT).size());
+            assertEquals(25, document.size());
+            assertTrue(document.getUnsupported().isEmpty());
+
+            PolicyDocument.Item user = document.getItems(PolicyDocument.Phase.USER).get(0);
+            assertEquals(PolicyDocument.Kind.USER, user.getKind());
+            assertEquals("demoUser4", user.get("userid"));
+            assertEquals("demousrs1", user.get("ou"));
+        }
+    }
+
+    @Test
+    public void testOrder() throws Exception {
+        String xml = "<project><target><FortressAdmin>\n"
+            + "<addpermgrant><permgrant objName=\"o\" opName=\"op\" roleNm=\"r\"/></addpermgrant>\n"
+            + "<addrole><role name=\"r\"/></addrole>\n"
+            + "<deluser><user userId=\"u\"/></deluser>\n"
+            + "<addpermobj><permobj objName=\"o\" ou=\"p\"/></addpermobj>\n"
+            + "</FortressAdmin></target></project>";
+        PolicyDocument document = PolicyDocument.parse(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)));
+        List<PolicyDocument.Item> roles = document.getItems(PolicyDocument.Phase.ROLE);
+        assertEquals(2, roles.size());
+        assertEquals(PolicyDocument.Kind.ROLE, roles.get(0).getKind());
+        assertEquals(PolicyDocument.Kind.PERM_OBJ, roles.get(1).getKind());
+        assertEquals(5, roles.get(1).getLine());
+        assertEquals(PolicyDocument.Kind.PERM_GRANT, document.getItems(PolicyDocument.Phase.GRANT).get(0).getKind());
+        assertEquals("r", document.getItems(PolicyDocument.Phase.GRANT).get(0).get("rolenm"));
+        assertEquals(Collections.singletonList("line 4 deluser"), document.getUnsupported());
+    }
+
+    @Test
+    public void testInvalid() {
+        try {
+            PolicyDocument.parse(new ByteArrayInputStream("<FortressAdmin><adduser>".getBytes(StandardCharsets.UTF_8)));
+            fail();
+        } catch (ValidationException ve) {
+            // expected
+        }
+    }
+}
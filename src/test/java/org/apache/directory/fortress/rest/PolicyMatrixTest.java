@@ -0,0 +1,132 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.fortress.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashSet;
+
+import org.apache.directory.fortress.core.model.Permission;
+import org.apache.directory.fortress.core.model.Role;
+import org.apache.directory.fortress.core.model.User;
+import org.apache.directory.fortress.core.model.UserRole;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class PolicyMatrixTest {
+    @Test
+    public void testBuild() {
+        // r2 inherits r1, which inherits r0
+        Role r0 = new Role("r0");
+        Role r1 = new Role("r1");
+        r1.setParents(Collections.singleton("R0"));
+        Role r2 = new Role("r2");
+        r2.setParents(Collections.singleton("r1"));
+        Role cyclic = new Role("cyclic");
+        cyclic.setParents(new HashSet<>(Arrays.asList("cyclic", "missing")));
+
+        Permission p0 = permission("o", "read", "r0");
+        Permission p1 = permission("o", "write", "r1");
+        Permission p2 = permission("o", "delete", "r2");
+        Permission p3 = permission("o", "audit", "cyclic");
+        p3.setUsers(Collections.singleton("U1"));
+
+        User u0 = user("u0", "r1");
+        User u1 = user("u1", "r2");
+        User u2 = user("u2", "unknown");
+
+        PolicyMatrix matrix = PolicyMatrix.build(Arrays.asList(r0, r1, r2, cyclic),
+            Arrays.asList(p0, p1, p2, p3), Arrays.asList(u0, u1, u2));
+        assertEquals(3, matrix.users());
+        assertEquals(bits(0, 1), matrix.row(0));
+        assertEquals(bits(0, 1, 2, 3), matrix.row(1));
+        assertEquals(bits(), matrix.row(2));
+        assertEquals("delete", matrix.permission(2).getOpName());
+    }
+
+    @Test
+    public void testSimulate() {
+        Role r0 = new Role("r0");
+        Role r1 = new Role("r1");
+        r1.setParents(Collections.singleton("r0"));
+        Role r2 = new Role("r2");
+        Permission p0 = permission("o", "read", "r0");
+        Permission p1 = permission("o", "write", "r1");
+        Permission p2 = permission("o", "delete", "r2");
+        PolicyMatrix before = PolicyMatrix.build(Arrays.asList(r0, r1, r2), Arrays.asList(p0, p1, p2),
+            Arrays.asList(user("u0", "r1"), user("u1", "r2")));
+
+        PolicyMatrix after = before.copy();
+        assertTrue(after.inheritance("r0", "r1", false));
+        assertTrue(after.inheritance("r1", "r2", true));
+        assertTrue(after.grant(PolicyMatrix.permissionKey("O", "Delete", null), "r0", true));
+        assertFalse(after.grant(PolicyMatrix.permissionKey("o", "unknown", null), "r0", true));
+        assertFalse(after.assign("nobody", "r0", true));
+        after.close();
+
+        // The copy does not change the original
+        assertEquals(bits(0, 1), before.row(0));
+        assertEquals(bits(1), after.row(0));
+        assertEquals(bits(1, 2), after.row(1));
+
+        BitSet[] changes = before.diff(after, null);
+        assertEquals(bits(0), changes[0]);
+        assertEquals(bits(1), changes[1]);
+        changes = before.diff(after, Collections.singletonList(new int[] {1, 2}));
+        assertNull(changes[0]);
+        assertNull(changes[1]);
+
+        assertTrue(after.deleteRole("R1"));
+        assertFalse(after.deleteRole("r1"));
+        after.close();
+        assertEquals(bits(), after.row(0));
+        assertEquals(bits(2), after.row(1));
+        assertTrue(after.isGranted(1, 2));
+        assertFalse(after.isGranted(1, 1));
+    }
+
+    private static Permission permission(String objName, String opName, String roleName) {
+        Permission perm = new Permission(objName, opName);
+        perm.setRoles(Collections.singleton(roleName));
+        return perm;
+    }
+
+    private static User user(String userId, String roleName) {
+        User user = new User(userId);
+        user.setRoles(Collections.singletonList(new UserRole(userId, roleName)));
+        return user;
+    }
+
+    private static BitSet bits(int... indexes) {
+        BitSet bits = new BitSet();
+        for (int index : indexes) {
+            bits.set(index);
+        }
+        return bits;
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.fortress.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import org.apache.directory.fortress.core.ReviewMgr;
+import org.apache.directory.fortress.core.model.Permission;
+import org.apache.directory.fortress.core.model.Role;
+import org.apache.directory.fortress.core.model.SDSet;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class PolicySnapshotTest {
+    @Test
+    public void testFullSnapshot() throws Exception {
+        PolicySnapshot snapshot = PolicySnapshot.read(reviewMgr(roles("r1", "r2"), perm("obj", "op", "r1")));
+        snapshot.setVersion(7);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(snapshot.encode()));
+        assertEquals(0x46525053, in.readInt());
+        assertEquals(1, in.readByte());
+        assertEquals(0, in.readByte());
+        assertEquals(7, in.readLong());
+        assertEquals(0, in.readLong());
+        assertEquals(3, snapshot.size());
+    }
+
+    @Test
+    public void testDelta() throws Exception {
+        PolicySnapshot base = PolicySnapshot.read(reviewMgr(roles("r1", "r2"), perm("obj", "op", "r1")));
+        base.setVersion(1);
+        PolicySnapshot same = PolicySnapshot.read(reviewMgr(roles("r1", "r2"), perm("obj", "op", "r1")));
+        same.setVersion(2);
+        PolicySnapshot changed = PolicySnapshot.read(reviewMgr(roles("r1", "r3"), perm("obj", "op", "r3")));
+        changed.setVersion(3);
+
+        assertTrue(base.samePolicy(same));
+        assertFalse(base.samePolicy(changed));
+        // Header, empty string table and 4 empty sections:
+        assertEquals(22 + 1 + 4 * 2, same.encodeDelta(base).length);
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(changed.encodeDelta(base)));
+        in.skipBytes(5);
+        assertEquals(1, in.readByte());
+        assertEquals(3, in.readLong());
+        assertEquals(1, in.readLong());
+    }
+
+    private static List<Role> roles(String... names) {
+        List<Role> roles = new ArrayList<>();
+        for (String name : names) {
+            roles.add(new Role(name));
+        }
+        return roles;
+    }
+
+    private static Permission perm(String objName, String opName, String... roles) {
+        Permission perm = new Permission(objName, opName);
+        perm.setRoles(new HashSet<>(Arrays.asList(roles)));
+        return perm;
+    }
+
+    private static ReviewMgr reviewMgr(final List<Role> roles, final Permission perm) {
+        return (ReviewMgr) Proxy.newProxyInstance(ReviewMgr.class.getClassLoader(), new Class<?>[] { ReviewMgr.class },
+            (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "findRoles":
+                        return roles;
+                    case "findPermissions":
+                        return Collections.singletonList(perm);
+                    case "ssdSets":
+                    case "dsdSets":
+                        return Collections.<SDSet>emptyList();
+                    default:
+                        return null;
+                }
+            });
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.fortress.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import org.apache.directory.fortress.core.model.Role;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class ReviewMgrImplTest {
+    @Test
+    public void testInheriting() {
+        // teller <- cashier <- manager, and manager also directly
+        List<Role> roles = Arrays.asList(role("teller"), role("cashier", "Teller"), role("manager", "cashier", "teller"),
+            role("auditor"));
+
+        assertEquals(new HashSet<>(Arrays.asList("cashier", "manager")), ReviewMgrImpl.inheriting(roles, "teller"));
+        assertEquals(new HashSet<>(Arrays.asList("manager")), ReviewMgrImpl.inheriting(roles, "CASHIER"));
+        assertTrue(ReviewMgrImpl.inheriting(roles, "manager").isEmpty());
+        assertTrue(ReviewMgrImpl.inheriting(roles, "unknown").isEmpty());
+    }
+
+    private static Role role(String name, String... parents) {
+        Role role = new Role(name);
+        for (String parent : parents) {
+            role.setParent(parent);
+        }
+        return role;
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.fortress.rest;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapSizeLimitExceededException;
+import org.apache.directory.api.ldap.model.exception.LdapTimeLimitExceededException;
+import org.apache.directory.fortress.core.FinderException;
+import org.apache.directory.fortress.core.GlobalErrIds;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class SearchLimitsTest {
+    @Test
+    public void testExceeded() {
+        // As thrown by fortress core, the limit wrapped by the cursor
+        assertTrue(SearchLimits.exceeded(new FinderException(GlobalErrIds.USER_SEARCH_FAILED, "findUsers",
+            new CursorException(new LdapSizeLimitExceededException("size limit")))));
+        assertTrue(SearchLimits.exceeded(new FinderException(GlobalErrIds.ROLE_SEARCH_FAILED, "findRoles",
+            new LdapTimeLimitExceededException("time limit"))));
+
+        assertFalse(SearchLimits.exceeded(new FinderException(GlobalErrIds.USER_SEARCH_FAILED, "findUsers",
+            new LdapException("connection refused"))));
+        assertFalse(SearchLimits.exceeded(new IllegalStateException()));
+        assertFalse(SearchLimits.exceeded(null));
+    }
+
+    @Test
+    public void testReached() {
+        assertFalse(SearchLimits.reached(499, 500));
+        assertTrue(SearchLimits.reached(500, 500));
+        assertTrue(SearchLimits.reached(501, 500));
+        assertFalse(SearchLimits.reached(100000, 0));
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.fortress.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class SessionRingTest {
+    private static final int KEYS = 10000;
+
+    @Test
+    public void testPreference() {
+        SessionRing ring = new SessionRing(Arrays.asList("a:1", "b:1", "c:1", "b:1"));
+        List<String> preference = ring.preference("session1");
+        assertEquals(3, preference.size());
+        assertEquals(3, new HashSet<>(preference).size());
+        assertEquals(preference, ring.preference("session1"));
+        assertTrue(new SessionRing(Collections.<String>emptyList()).preference("session1").isEmpty());
+    }
+
+    @Test
+    public void testBalance() {
+        SessionRing ring = new SessionRing(Arrays.asList("a:1", "b:1", "c:1", "d:1"));
+        Map<String, Integer> owned = new HashMap<>();
+
+        for (int i = 0; i < KEYS; i++) {
+            owned.merge(ring.preference("session" + i).get(0), 1, Integer::sum);
+        }
+
+        for (int count : owned.values()) {
+            assertTrue("unbalanced " + owned, Math.abs(count - KEYS / 4) < KEYS / 10);
+        }
+    }
+
+    @Test
+    public void testRemoveNode() {
+        SessionRing before = new SessionRing(Arrays.asList("a:1", "b:1", "c:1", "d:1"));
+        SessionRing after = new SessionRing(Arrays.asList("a:1", "b:1", "d:1"));
+
+        for (int i = 0; i < KEYS; i++) {
+            List<String> preference = before.preference("session" + i);
+
+            // Only the keys owned by the removed node move, to their backup
+            if (preference.get(0).equals("c:1")) {
+                assertEquals(preference.get(1), after.preference("session" + i).get(0));
+            } else {
+                assertEquals(preference.get(0), after.preference("session" + i).get(0));
+            }
+        }
+    }
+}
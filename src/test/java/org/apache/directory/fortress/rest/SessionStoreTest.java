@@ -0,0 +1,193 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.fortress.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Runs a cluster of stores on the loopback interface, each as it would in its own server.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class SessionStoreTest {
+    private static final int NODES = 3;
+    private static final String SECRET = "secret";
+
+    private final List<String> nodes = new ArrayList<>();
+    private final List<SessionStore> stores = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        for (int i = 0; i < NODES; i++) {
+            try (ServerSocket socket = new ServerSocket(0)) {
+                nodes.add("127.0.0.1:" + socket.getLocalPort());
+            }
+        }
+
+        for (String node : nodes) {
+            SessionStore store = new SessionStore(node, nodes, 2, TimeUnit.MINUTES.toMillis(10), 500, SECRET);
+            store.start();
+            stores.add(store);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        for (SessionStore store : stores) {
+            store.close();
+        }
+    }
+
+    @Test
+    public void testReadAnywhere() {
+        assertEquals(2, stores.get(0).put("HOME:s1", bytes("session1")));
+
+        for (SessionStore store : stores) {
+            assertEquals("session1", string(store.get("HOME:s1")));
+        }
+
+        assertNull(stores.get(1).get("HOME:unknown"));
+        assertNull(stores.get(1).get("t1:s1"));
+    }
+
+    @Test
+    public void testFailover() throws IOException {
+        String key = "HOME:s2";
+        SessionRing ring = new SessionRing(nodes);
+        int owner = nodes.indexOf(ring.preference(key).get(0));
+        int backup = nodes.indexOf(ring.preference(key).get(1));
+        int other = nodes.indexOf(ring.preference(key).get(2));
+        stores.get(other).put(key, bytes("session2"));
+
+        // The owner stops, its backup serves the session
+        stores.get(owner).close();
+        assertEquals("session2", string(stores.get(other).get(key)));
+        assertEquals("session2", string(stores.get(backup).get(key)));
+
+        // Written while the owner is down, to the backup and the next server
+        stores.get(other).put(key, bytes("session2b"));
+        assertEquals("session2b", string(stores.get(backup).get(key)));
+        assertEquals("session2b", string(stores.get(other).get(key)));
+    }
+
+    @Test
+    public void testRepair() throws Exception {
+        String key = "HOME:s3";
+        SessionRing ring = new SessionRing(nodes);
+        int owner = nodes.indexOf(ring.preference(key).get(0));
+        int other = nodes.indexOf(ring.preference(key).get(2));
+        stores.get(other).put(key, bytes("session3"));
+
+        // The owner restarts empty, the first read copies the session back to it
+        stores.get(owner).close();
+        SessionStore restarted = new SessionStore(nodes.get(owner), nodes, 2, TimeUnit.MINUTES.toMillis(10), 500,
+            SECRET);
+        restarted.start();
+        stores.set(owner, restarted);
+        assertEquals("session3", string(stores.get(other).get(key)));
+        assertEquals("session3", string(restarted.get(key)));
+    }
+
+    @Test
+    public void testOwnerMissesWrite() throws Exception {
+        String key = "HOME:s5";
+        SessionRing ring = new SessionRing(nodes);
+        int owner = nodes.indexOf(ring.preference(key).get(0));
+        int backup = nodes.indexOf(ring.preference(key).get(1));
+        int other = nodes.indexOf(ring.preference(key).get(2));
+
+        // Not listening, the owner keeps its copy while the others can't reach it
+        stores.get(owner).close();
+        SessionStore unreachable = new SessionStore(nodes.get(owner), nodes, 2, TimeUnit.MINUTES.toMillis(10), 500,
+            SECRET);
+        stores.set(owner, unreachable);
+        assertEquals(2, unreachable.put(key, bytes("before")));
+        assertEquals(1, stores.get(other).put(key, bytes("after")));
+        assertEquals("after", string(stores.get(backup).get(key)));
+
+        // Back, its outdated copy loses to the newer one and is overwritten
+        unreachable.start();
+        Thread.sleep(SessionStore.RETRY_MILLIS + 100);
+        assertEquals("after", string(stores.get(other).get(key)));
+        assertEquals("after", string(unreachable.get(key)));
+        assertEquals("after", string(stores.get(backup).get(key)));
+    }
+
+    @Test
+    public void testManyLookups() {
+        int sessions = 200;
+
+        for (int i = 0; i < sessions; i++) {
+            stores.get(i % NODES).put("HOME:many" + i, bytes("session" + i));
+        }
+
+        // The pooled connections are reused by the following rounds
+        for (int round = 0; round < NODES; round++) {
+            for (int i = 0; i < sessions; i++) {
+                assertEquals("session" + i, string(stores.get(round).get("HOME:many" + i)));
+            }
+        }
+    }
+
+    @Test
+    public void testRejectsWrongSecret() throws InterruptedException {
+        String key = "HOME:s4";
+        SessionRing ring = new SessionRing(nodes);
+        int owner = nodes.indexOf(ring.preference(key).get(0));
+        int other = nodes.indexOf(ring.preference(key).get(2));
+        assertEquals(2, stores.get(owner).put(key, bytes("session4")));
+
+        // Not started, it only reads from the other nodes
+        SessionStore intruder = new SessionStore(nodes.get(other), nodes, 2, TimeUnit.MINUTES.toMillis(10), 500,
+            "guess");
+        assertNull(intruder.get(key));
+        Map<String, Number> metrics = new HashMap<>();
+        stores.get(owner).collect(metrics);
+        for (int i = 0; i < 100 && metrics.get("rejected").longValue() == 0; i++) {
+            Thread.sleep(100);
+            stores.get(owner).collect(metrics);
+        }
+        assertTrue(metrics.get("rejected").longValue() > 0);
+        intruder.close();
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String string(byte[] value) {
+        return value == null ? null : new String(value, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.fortress.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class TcpTransportTest {
+    private static final Logger log = Logger.getLogger(TcpTransportTest.class.getName());
+
+    private static final int FRAMES = 2000;
+    private static final String SECRET = "secret";
+
+    @Test
+    public void testLoopback() throws Exception {
+        final BlockingQueue<byte[]> received = new LinkedBlockingQueue<>();
+        // Accepts the connections of 127.0.0.1, nothing listens on the port it sends to
+        TcpTransport receiver = new TcpTransport("127.0.0.1", 0, peer("127.0.0.1", 1), 10, SECRET);
+        receiver.start(received::add);
+
+        TcpTransport sender = new TcpTransport("127.0.0.1", 0, peer("127.0.0.1", receiver.getLocalPort()), FRAMES,
+            SECRET);
+        sender.start(batch -> {
+        });
+
+        try {
+            // Wait for the connection, the lag measured excludes it
+            sender.send(new byte[0]);
+            assertEquals(0, received.poll(10, TimeUnit.SECONDS).length);
+            long maxLag = 0;
+            long totalLag = 0;
+
+            for (int i = 0; i < FRAMES; i++) {
+                sender.send(ByteBuffer.allocate(12).putInt(i).putLong(System.nanoTime()).array());
+
+                // A burst of frames is received in order
+                if (i % 100 == 99) {
+                    for (int j = i - 99; j <= i; j++) {
+                        byte[] frame = received.poll(10, TimeUnit.SECONDS);
+                        assertTrue("frame " + j + " not received", frame != null);
+                        ByteBuffer buffer = ByteBuffer.wrap(frame);
+                        assertEquals(j, buffer.getInt());
+                        long lag = System.nanoTime() - buffer.getLong();
+                        maxLag = Math.max(maxLag, lag);
+                        totalLag += lag;
+                    }
+                }
+            }
+
+            log.info("TcpTransport loopback lag: avg " + TimeUnit.NANOSECONDS.toMicros(totalLag / FRAMES)
+                + "us, max " + TimeUnit.NANOSECONDS.toMicros(maxLag) + "us");
+        } finally {
+            sender.close();
+            receiver.close();
+        }
+    }
+
+    @Test
+    public void testRejectsUnknownHosts() throws Exception {
+        final BlockingQueue<byte[]> received = new LinkedBlockingQueue<>();
+        TcpTransport receiver = new TcpTransport("127.0.0.1", 0, peer("127.0.0.2", 1), 10, SECRET);
+        receiver.start(received::add);
+        TcpTransport sender = new TcpTransport("127.0.0.1", 0, peer("127.0.0.1", receiver.getLocalPort()), 10,
+            SECRET);
+        sender.start(batch -> {
+        });
+
+        try {
+            sender.send(new byte[0]);
+            Map<String, Number> metrics = new HashMap<>();
+            receiver.collect(metrics);
+            for (int i = 0; i < 100 && metrics.get("rejected").longValue() == 0; i++) {
+                Thread.sleep(100);
+                receiver.collect(metrics);
+            }
+            assertTrue(metrics.get("rejected").longValue() > 0);
+            assertTrue(received.isEmpty());
+        } finally {
+            sender.close();
+            receiver.close();
+        }
+    }
+
+    @Test
+    public void testRejectsWrongSecret() throws Exception {
+        final BlockingQueue<byte[]> received = new LinkedBlockingQueue<>();
+        TcpTransport receiver = new TcpTransport("127.0.0.1", 0, peer("127.0.0.1", 1), 10, SECRET);
+        receiver.start(received::add);
+        TcpTransport sender = new TcpTransport("127.0.0.1", 0, peer("127.0.0.1", receiver.getLocalPort()), 10,
+            "other");
+        sender.start(batch -> {
+        });
+
+        try {
+            sender.send(new byte[0]);
+            Map<String, Number> metrics = new HashMap<>();
+            receiver.collect(metrics);
+            for (int i = 0; i < 100 && metrics.get("rejected").longValue() == 0; i++) {
+                Thread.sleep(100);
+                receiver.collect(metrics);
+            }
+            assertTrue(metrics.get("rejected").longValue() > 0);
+            assertTrue(received.isEmpty());
+
+            // The batch is kept until a connection succeeds
+            sender.collect(metrics);
+            assertEquals(0, metrics.get("framesSent").longValue());
+            assertEquals(1, metrics.get("pending").intValue());
+        } finally {
+            sender.close();
+            receiver.close();
+        }
+    }
+
+    @Test
+    public void testPeers() {
+        List<InetSocketAddress> peers = TcpTransport.peers(" rest1:6161, 10.0.0.2:7000 ");
+        assertEquals(2, peers.size());
+        assertEquals("rest1", peers.get(0).getHostString());
+        assertEquals(7000, peers.get(1).getPort());
+        assertTrue(TcpTransport.peers(null).isEmpty());
+    }
+
+    private static List<InetSocketAddress> peer(String host, int port) {
+        return Collections.singletonList(InetSocketAddress.createUnresolved(host, port));
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.fortress.rest;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.Calendar;
+
+import org.apache.directory.fortress.core.SecurityException;
+import org.apache.directory.fortress.core.model.UserRole;
+import org.apache.directory.fortress.core.util.VUtil;
+import org.apache.directory.fortress.core.util.time.ClockTime;
+import org.apache.directory.fortress.core.util.time.Date;
+import org.apache.directory.fortress.core.util.time.Day;
+import org.apache.directory.fortress.core.util.time.LockDate;
+import org.apache.directory.fortress.core.util.time.Time;
+import org.apache.directory.fortress.core.util.time.Validator;
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+/**
+ * Compares the fortress-core temporal validators, parsing the constraint strings on every check, with the compiled
+ * constraint.  Not part of the default test run, use <code>mvn test -Dtest=TemporalConstraintBenchmark</code>.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class TemporalConstraintBenchmark {
+    private static final Logger log = Logger.getLogger(TemporalConstraintBenchmark.class.getName());
+
+    private static final int ITERATIONS = 1000000;
+
+    @Test
+    public void testBenchmark() throws SecurityException {
+        UserRole role = TemporalConstraintTest.role("20120101", "none", "none", "20140101", "0100", "2359", "1234567");
+        Validator[] validators = {new Date(), new LockDate(), new ClockTime(), new Day()};
+        Time time = new Time();
+        time.date = "20130101";
+        time.currentTime = 1200;
+        time.day = String.valueOf(Calendar.MONDAY);
+        int active = 0;
+        long parsed = 0;
+        for (int run = 0; run < 2; run++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                active += validate(validators, role, time) ? 1 : 0;
+            }
+            parsed = System.nanoTime() - start;
+        }
+        TemporalConstraint constraint = TemporalConstraint.compile(role);
+        long compiled = 0;
+        for (int run = 0; run < 2; run++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                active += constraint.isActive(20130101, 1200, Calendar.MONDAY) ? 1 : 0;
+            }
+            compiled = System.nanoTime() - start;
+        }
+        assertTrue(active == 4 * ITERATIONS);
+        log.info("fortress-core " + parsed / ITERATIONS + " ns/check, compiled " + compiled / ITERATIONS + " ns/check");
+    }
+
+    private static boolean validate(Validator[] validators, UserRole role, Time time) throws SecurityException {
+        for (Validator validator : validators) {
+            if (validator.validate(null, role, time, VUtil.ConstraintType.ROLE) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.fortress.rest;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Calendar;
+
+import org.apache.directory.fortress.core.model.UserRole;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class TemporalConstraintTest {
+    @Test
+    public void testDates() {
+        TemporalConstraint constraint = TemporalConstraint.compile(role("20120101", "20121231", "none", "none", "0100", "2359", "1234567"));
+        assertFalse(constraint.isActive(20111231, 1200, Calendar.MONDAY));
+        assertTrue(constraint.isActive(20120101, 1200, Calendar.MONDAY));
+        assertTrue(constraint.isActive(20121231, 1200, Calendar.MONDAY));
+        assertFalse(constraint.isActive(20130101, 1200, Calendar.MONDAY));
+        assertFalse(constraint.isActive(20120601, 59, Calendar.MONDAY));
+    }
+
+    @Test
+    public void testLockDates() {
+        TemporalConstraint constraint = TemporalConstraint.compile(role("none", "none", "20130101", "20130131", null, null, "all"));
+        assertTrue(constraint.isActive(20121231, 0, Calendar.SUNDAY));
+        assertFalse(constraint.isActive(20130115, 0, Calendar.SUNDAY));
+        assertTrue(constraint.isActive(20130201, 0, Calendar.SUNDAY));
+        // The example session: no lock start, the end is ignored
+        constraint = TemporalConstraint.compile(role("20120101", "none", "none", "20140101", "0100", "2359", "1234567"));
+        assertTrue(constraint.isActive(20131231, 1200, Calendar.FRIDAY));
+    }
+
+    @Test
+    public void testDays() {
+        TemporalConstraint constraint = TemporalConstraint.compile(role(null, null, null, null, null, null, "26"));
+        assertTrue(constraint.isActive(20120101, 0, Calendar.MONDAY));
+        assertTrue(constraint.isActive(20120101, 0, Calendar.FRIDAY));
+        assertFalse(constraint.isActive(20120101, 0, Calendar.SUNDAY));
+    }
+
+    @Test
+    public void testInvalidValuesAreUnrestricted() {
+        TemporalConstraint constraint = TemporalConstraint.compile(role("2012-01-01", "x", "?", null, "0000", "0000", "Mon"));
+        assertTrue(constraint.isActive(19700101, 0, Calendar.SUNDAY));
+        assertTrue(constraint.isActive(29991231, 2359, Calendar.SATURDAY));
+    }
+
+    static UserRole role(String beginDate, String endDate, String beginLockDate, String endLockDate,
+        String beginTime, String endTime, String dayMask) {
+        UserRole role = new UserRole("user1", "role1");
+        role.setBeginDate(beginDate);
+        role.setEndDate(endDate);
+        role.setBeginLockDate(beginLockDate);
+        role.setEndLockDate(endLockDate);
+        role.setBeginTime(beginTime);
+        role.setEndTime(endTime);
+        role.setDayMask(dayMask);
+        return role;
+    }
+}